@@ -131,6 +131,9 @@ public final class HttpClient implements Closeable
             context.setPerHostConnectionsMax(httpClientDefaults.getPerHostConnectionsMax());
             context.setRequestTimeout(httpClientDefaults.getRequestTimeout().getMillis());
             context.setRetries(httpClientDefaults.getRetries());
+            context.setRetryPolicy(HttpClientDefaultRetryPolicy.forDefaults(httpClientDefaults));
+            context.setRetryBudget(httpClientDefaults.getRetryBudget());
+            context.setAsyncThreads(httpClientDefaults.getAsyncThreads());
             context.setTotalConnectionsMax(httpClientDefaults.getTotalConnectionsMax());
             context.setUserAgent(httpClientDefaults.getUserAgent());
         }
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * State of a single backend of a logical service.
+ */
+public class HttpClientBackendStats
+{
+    private final int outstanding;
+    private final double latencyMillis;
+    private final long requests;
+    private final long failures;
+    private final boolean ejected;
+
+    @ConstructorProperties({"outstanding", "latencyMillis", "requests", "failures", "ejected"})
+    public HttpClientBackendStats(final int outstanding,
+                                  final double latencyMillis,
+                                  final long requests,
+                                  final long failures,
+                                  final boolean ejected)
+    {
+        this.outstanding = outstanding;
+        this.latencyMillis = latencyMillis;
+        this.requests = requests;
+        this.failures = failures;
+        this.ejected = ejected;
+    }
+
+    /** @return requests that were sent to the backend and have no response yet. */
+    public int getOutstanding()
+    {
+        return outstanding;
+    }
+
+    /** @return moving average of the time until the response headers arrived, decayed towards 0 while the backend is not used. */
+    public double getLatencyMillis()
+    {
+        return latencyMillis;
+    }
+
+    /** @return requests sent to the backend since the client started. */
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    /** @return requests to the backend that got no response or a 5xx status. */
+    public long getFailures()
+    {
+        return failures;
+    }
+
+    /** @return true if the backend was taken out of rotation because it failed or was too slow. */
+    public boolean isEjected()
+    {
+        return ejected;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpClientBackendStats [outstanding=%d, latencyMillis=%.3f, requests=%d, failures=%d, ejected=%s]",
+                             outstanding, latencyMillis, requests, failures, ejected);
+    }
+}
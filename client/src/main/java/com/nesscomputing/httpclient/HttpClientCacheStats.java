@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Counters of the response cache of a client.
+ */
+public class HttpClientCacheStats
+{
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+    private final long bytes;
+    private final int diskEntries;
+    private final long diskBytes;
+    private final long revalidations;
+    private final long bytesSaved;
+
+    @ConstructorProperties({"hits", "misses", "evictions", "entries", "bytes", "diskEntries", "diskBytes", "revalidations", "bytesSaved"})
+    public HttpClientCacheStats(final long hits,
+                                final long misses,
+                                final long evictions,
+                                final int entries,
+                                final long bytes,
+                                final int diskEntries,
+                                final long diskBytes,
+                                final long revalidations,
+                                final long bytesSaved)
+    {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.diskEntries = diskEntries;
+        this.diskBytes = diskBytes;
+        this.revalidations = revalidations;
+        this.bytesSaved = bytesSaved;
+    }
+
+    /** @return requests that were answered from the cache. */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /** @return cacheable requests that had no fresh response in the cache. */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /** @return responses that were dropped to make room for others. */
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    /** @return responses in the cache. */
+    public int getEntries()
+    {
+        return entries;
+    }
+
+    /** @return approximate memory used by the responses in the cache. */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /** @return responses in the disk cache. */
+    public int getDiskEntries()
+    {
+        return diskEntries;
+    }
+
+    /** @return bytes used by the files of the disk cache. */
+    public long getDiskBytes()
+    {
+        return diskBytes;
+    }
+
+    /** @return requests that the server answered with 304 Not Modified, so that the cached response was used. */
+    public long getRevalidations()
+    {
+        return revalidations;
+    }
+
+    /** @return body bytes that were not downloaded again because the server answered with 304 Not Modified. */
+    public long getBytesSaved()
+    {
+        return bytesSaved;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpClientCacheStats [hits=%d, misses=%d, evictions=%d, entries=%d, bytes=%d, diskEntries=%d, diskBytes=%d, revalidations=%d, bytesSaved=%d]",
+                             hits, misses, evictions, entries, bytes, diskEntries, diskBytes, revalidations, bytesSaved);
+    }
+}
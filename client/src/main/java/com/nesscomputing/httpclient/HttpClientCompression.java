@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compression of request bodies.
+ *
+ * @see HttpClientRequest.Builder#setRequestCompression(HttpClientCompression)
+ */
+public enum HttpClientCompression
+{
+    /** Bodies are sent as they are. */
+    NONE(null),
+
+    /** Bodies are sent with Content-Encoding: gzip. */
+    GZIP("gzip"),
+
+    /** Bodies are sent with Content-Encoding: deflate, a zlib stream. */
+    DEFLATE("deflate");
+
+    private final String contentEncoding;
+
+    private HttpClientCompression(final String contentEncoding)
+    {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @return the value of the Content-Encoding header of a compressed body, null for {@link #NONE}.
+     */
+    @Nullable
+    public String getContentEncoding()
+    {
+        return contentEncoding;
+    }
+
+    /**
+     * @return the compression for a configuration value like "gzip", ignoring case. Null or an empty value is {@link #NONE}.
+     */
+    public static HttpClientCompression forName(@Nullable final String name)
+    {
+        if (name == null || name.trim().isEmpty()) {
+            return NONE;
+        }
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    }
+}
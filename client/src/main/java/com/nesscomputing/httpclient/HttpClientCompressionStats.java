@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Counters of the request body compression of a client. Every attempt of a request compresses and sends its
+ * body again, so retries and hedges count as bodies of their own.
+ */
+public class HttpClientCompressionStats
+{
+    private final long compressedBodies;
+    private final long skippedBodies;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long cpuNanos;
+
+    @ConstructorProperties({"compressedBodies", "skippedBodies", "uncompressedBytes", "compressedBytes", "cpuNanos"})
+    public HttpClientCompressionStats(final long compressedBodies,
+                                      final long skippedBodies,
+                                      final long uncompressedBytes,
+                                      final long compressedBytes,
+                                      final long cpuNanos)
+    {
+        this.compressedBodies = compressedBodies;
+        this.skippedBodies = skippedBodies;
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+        this.cpuNanos = cpuNanos;
+    }
+
+    /** @return request bodies that were compressed while they were sent, once for every attempt. */
+    public long getCompressedBodies()
+    {
+        return compressedBodies;
+    }
+
+    /** @return request bodies that should have been compressed, but were sent as they are because they were below the threshold, once for every attempt. */
+    public long getSkippedBodies()
+    {
+        return skippedBodies;
+    }
+
+    /** @return bytes of the compressed request bodies before compression. */
+    public long getUncompressedBytes()
+    {
+        return uncompressedBytes;
+    }
+
+    /** @return bytes of the compressed request bodies after compression. */
+    public long getCompressedBytes()
+    {
+        return compressedBytes;
+    }
+
+    /** @return compressed bytes per uncompressed byte, 1 if nothing was compressed. Smaller is better. */
+    public double getCompressionRatio()
+    {
+        return (uncompressedBytes == 0) ? 1.0 : (double) compressedBytes / uncompressedBytes;
+    }
+
+    /** @return CPU time in nanoseconds of the threads that compressed and sent the request bodies. */
+    public long getCpuNanos()
+    {
+        return cpuNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpClientCompressionStats [compressedBodies=%d, skippedBodies=%d, uncompressedBytes=%d, compressedBytes=%d, compressionRatio=%.3f, cpuMillis=%d]",
+                             compressedBodies, skippedBodies, uncompressedBytes, compressedBytes, getCompressionRatio(), cpuNanos / 1000000L);
+    }
+}
@@ -15,6 +15,10 @@
  */
 package com.nesscomputing.httpclient;
 
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
 /**
  * Holds various tuneable parameters for a http client.
  */
@@ -47,7 +51,8 @@ public interface HttpClientConnectionContext
 
     void setSocketTimeout(long socketTimeout);
     /**
-     * Timeout for a request sent until a response must arrive.
+     * Deadline for a whole request in milliseconds, from waiting for a connection until the response
+     * has been read. If 0, requests have no deadline.
      */
     void setRequestTimeout(long reqTimeout);
 
@@ -70,5 +75,30 @@ public interface HttpClientConnectionContext
      * Maximum number of retries for a request.
      */
     void setRetries(int retries);
-}
 
+    /**
+     * Decides which failed requests are retried and how long to wait before retrying.
+     */
+    void setRetryPolicy(HttpClientRetryPolicy retryPolicy);
+
+    /**
+     * Number of retries allowed per request across the whole client, e.g. 0.1 for at most 10% more load.
+     */
+    void setRetryBudget(double retryBudget);
+
+    /**
+     * Number of threads that execute asynchronous requests. Takes effect when the client is started.
+     */
+    void setAsyncThreads(int asyncThreads);
+
+    /**
+     * State of the connection pool summed over all routes. Null if the client does not report pool state.
+     */
+    @CheckForNull
+    HttpClientPoolStats getPoolStats();
+
+    /**
+     * State of the connection pool per route, keyed by scheme, host and port. Empty if the client does not report pool state.
+     */
+    Map<String, HttpClientPoolStats> getRoutePoolStats();
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.httpclient.io.SizeExceededException;
+
+/**
+ * Retries with exponential backoff and jitter.
+ *
+ * <ul>
+ * <li>Requests that could not connect are always retried, the server never saw them.</li>
+ * <li>Other I/O errors and the status codes 429, 502, 503 and 504 are only retried for idempotent methods.</li>
+ * <li>Timeouts, unknown hosts, SSL errors and bodies that exceed a size limit are never retried.</li>
+ * <li>A Retry-After header from the server replaces the backoff. If it asks for more than the maximum backoff,
+ * the request is not retried.</li>
+ * </ul>
+ */
+public class HttpClientDefaultRetryPolicy implements HttpClientRetryPolicy
+{
+    private static final Set<Integer> RETRY_STATUS_CODES = ImmutableSet.of(429, 502, 503, 504);
+
+    private final long backoff;
+    private final long maxBackoff;
+
+    public static final HttpClientRetryPolicy forDefaults(final HttpClientDefaults defaults)
+    {
+        return new HttpClientDefaultRetryPolicy(defaults.getRetryBackoff().getMillis(), defaults.getRetryMaxBackoff().getMillis());
+    }
+
+    /**
+     * @param backoff Base delay in milliseconds. Doubles with every retry.
+     * @param maxBackoff Maximum delay in milliseconds.
+     */
+    public HttpClientDefaultRetryPolicy(final long backoff, final long maxBackoff)
+    {
+        Preconditions.checkArgument(backoff >= 0, "backoff must not be negative!");
+        Preconditions.checkArgument(maxBackoff >= backoff, "maxBackoff must not be smaller than backoff!");
+
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    @Override
+    public long retryFailure(final HttpClientRequest<?> request, final int retries, final IOException failure)
+    {
+        if (failure instanceof InterruptedIOException
+            || failure instanceof UnknownHostException
+            || failure instanceof SSLException
+            || failure instanceof SizeExceededException) {
+            return NO_RETRY;
+        }
+
+        if (!(failure instanceof ConnectException) && !request.getHttpMethod().isIdempotent()) {
+            return NO_RETRY;
+        }
+
+        return backoff(retries);
+    }
+
+    @Override
+    public long retryResponse(final HttpClientRequest<?> request, final int retries, final HttpClientResponse response)
+    {
+        if (!RETRY_STATUS_CODES.contains(response.getStatusCode()) || !request.getHttpMethod().isIdempotent()) {
+            return NO_RETRY;
+        }
+
+        final long retryAfter = parseRetryAfter(response.getHeader("Retry-After"));
+        if (retryAfter < 0) {
+            return backoff(retries);
+        }
+        return (retryAfter <= maxBackoff) ? retryAfter : NO_RETRY;
+    }
+
+    /**
+     * "Full jitter": a random delay up to the exponential backoff.
+     */
+    private long backoff(final int retries)
+    {
+        final long limit = (retries >= 30) ? maxBackoff : Math.min(maxBackoff, backoff << retries);
+        return (limit > 0) ? ThreadLocalRandom.current().nextLong(limit + 1) : 0;
+    }
+
+    /**
+     * @return the delay requested by a Retry-After header in milliseconds or -1 if there is none.
+     */
+    static long parseRetryAfter(final String retryAfter)
+    {
+        if (StringUtils.isBlank(retryAfter)) {
+            return -1;
+        }
+
+        final String value = retryAfter.trim();
+        if (StringUtils.isNumeric(value)) {
+            try {
+                return Long.parseLong(value) * 1000L;
+            }
+            catch (NumberFormatException nfe) {
+                return -1;
+            }
+        }
+
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            final Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+        catch (ParseException pe) {
+            return -1;
+        }
+    }
+}
@@ -91,7 +91,7 @@ public class HttpClientDefaults
     /**
      * Default is 60000 (60 seconds).
      *
-     * @return Timeout for a request sent until a response must arrive.
+     * @return Deadline for a whole request, from waiting for a connection until the response has been read.
      */
     @Config({"ness.httpclient.${httpclient_name}.request-timeout", "ness.httpclient.request-timeout"})
     @Default("60s")
@@ -148,6 +148,709 @@ public class HttpClientDefaults
         return 3;
     }
 
+    /**
+     * Default is 100ms. The delay doubles with every retry, and a random part of it is used
+     * so that clients that failed at the same time do not retry at the same time.
+     *
+     * @return Base delay before retrying a request.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry-backoff", "ness.httpclient.retry-backoff"})
+    @Default("100ms")
+    public TimeSpan getRetryBackoff()
+    {
+        return new TimeSpan(100, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Default is 10s. A server that asks for a longer delay with a Retry-After header is not retried.
+     *
+     * @return Maximum delay before retrying a request.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry-max-backoff", "ness.httpclient.retry-max-backoff"})
+    @Default("10s")
+    public TimeSpan getRetryMaxBackoff()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 0.1, which allows at most 10% more requests because of retries.
+     *
+     * @return Number of retries allowed per request across the whole client.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry-budget", "ness.httpclient.retry-budget"})
+    @Default("0.1")
+    public double getRetryBudget()
+    {
+        return 0.1;
+    }
+
+    /**
+     * Default is false. When enabled, requests to a host that keeps failing or answering slowly
+     * fail right away until the host had some time to recover.
+     *
+     * @return True if every route gets a circuit breaker.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.enabled", "ness.httpclient.circuit-breaker.enabled"})
+    @Default("false")
+    public boolean isCircuitBreakerEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 100.
+     *
+     * @return Number of most recent calls to a route that decide whether its circuit opens.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.window-size", "ness.httpclient.circuit-breaker.window-size"})
+    @Default("100")
+    public int getCircuitBreakerWindowSize()
+    {
+        return 100;
+    }
+
+    /**
+     * Default is 20. A circuit does not open before this many calls were made to the route.
+     *
+     * @return Minimum number of calls in the window.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.minimum-calls", "ness.httpclient.circuit-breaker.minimum-calls"})
+    @Default("20")
+    public int getCircuitBreakerMinimumCalls()
+    {
+        return 20;
+    }
+
+    /**
+     * Default is 0.5. Calls that fail with an I/O error or a 5xx status count as failed.
+     *
+     * @return Share of failed calls in the window that opens the circuit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.failure-rate", "ness.httpclient.circuit-breaker.failure-rate"})
+    @Default("0.5")
+    public double getCircuitBreakerFailureRate()
+    {
+        return 0.5;
+    }
+
+    /**
+     * Default is 10s.
+     *
+     * @return Time until the response headers arrive after which a call counts as slow.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.slow-call-duration", "ness.httpclient.circuit-breaker.slow-call-duration"})
+    @Default("10s")
+    public TimeSpan getCircuitBreakerSlowCallDuration()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 0.8.
+     *
+     * @return Share of slow calls in the window that opens the circuit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.slow-call-rate", "ness.httpclient.circuit-breaker.slow-call-rate"})
+    @Default("0.8")
+    public double getCircuitBreakerSlowCallRate()
+    {
+        return 0.8;
+    }
+
+    /**
+     * Default is 30s.
+     *
+     * @return Time that an open circuit rejects all calls before it lets trial calls through.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.open-duration", "ness.httpclient.circuit-breaker.open-duration"})
+    @Default("30s")
+    public TimeSpan getCircuitBreakerOpenDuration()
+    {
+        return new TimeSpan(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 5. The circuit closes when all of them succeed and opens again on the first failure.
+     *
+     * @return Number of trial calls that a half-open circuit lets through.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.half-open-calls", "ness.httpclient.circuit-breaker.half-open-calls"})
+    @Default("5")
+    public int getCircuitBreakerHalfOpenCalls()
+    {
+        return 5;
+    }
+
+    /**
+     * Default is false. When enabled, the number of requests in flight to a host adapts to how fast
+     * the host answers, instead of being capped only by the number of connections per host.
+     *
+     * @return True if every route gets an adaptive concurrency limit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.enabled", "ness.httpclient.concurrency-limit.enabled"})
+    @Default("false")
+    public boolean isConcurrencyLimitEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is false, host names are resolved through the JVM.
+     *
+     * @return True if the 'httpclient4' engine caches resolved host names itself.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.dns-cache.enabled", "ness.httpclient.dns-cache.enabled"})
+    @Default("false")
+    public boolean isDnsCacheEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 60s.
+     *
+     * @return Time that a resolved host name is used before it is resolved again.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.dns-cache.ttl", "ness.httpclient.dns-cache.ttl"})
+    @Default("60s")
+    public TimeSpan getDnsCacheTtl()
+    {
+        return new TimeSpan(60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 10s. If 0, host names are only resolved again after they expired.
+     *
+     * @return Time before a host name expires in which using it resolves it again in the background.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.dns-cache.refresh-ahead", "ness.httpclient.dns-cache.refresh-ahead"})
+    @Default("10s")
+    public TimeSpan getDnsCacheRefreshAhead()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 1h. If 0, failures are never hidden.
+     *
+     * @return Time after a host name expired in which its last addresses are used if resolving it again fails.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.dns-cache.max-stale", "ness.httpclient.dns-cache.max-stale"})
+    @Default("1h")
+    public TimeSpan getDnsCacheMaxStale()
+    {
+        return new TimeSpan(1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Default is none. Semicolon separated list of services as name=backend,backend,... where a backend
+     * is [scheme://]host[:port] and the scheme defaults to 'http'. The 'httpclient4' engine sends a request
+     * to svc://name/path to one of the backends of the service.
+     *
+     * @return Logical services and their backends.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.services", "ness.httpclient.services"})
+    @DefaultNull
+    public String getServices()
+    {
+        return null;
+    }
+
+    /**
+     * Default is 10s.
+     *
+     * @return Time over which the latency of a service backend is averaged.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.load-balancer.decay", "ness.httpclient.load-balancer.decay"})
+    @Default("10s")
+    public TimeSpan getLoadBalancerDecay()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is false. Latency is only compared between the backends of a logical service. Consecutive failures
+     * also eject the routes of plain URLs, which is reported to the observers, but plain requests keep going to
+     * their route because there is no other backend to pick.
+     *
+     * @return True if backends that fail or are much slower than the other backends of their service are taken out of rotation for a while.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.outlier-detection.enabled", "ness.httpclient.outlier-detection.enabled"})
+    @Default("false")
+    public boolean isOutlierDetectionEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 5. If 0, failures do not eject backends. A request fails if it got no response or a 5xx status.
+     *
+     * @return Number of requests in a row that must fail before a backend is ejected.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.outlier-detection.consecutive-failures", "ness.httpclient.outlier-detection.consecutive-failures"})
+    @Default("5")
+    public int getOutlierDetectionConsecutiveFailures()
+    {
+        return 5;
+    }
+
+    /**
+     * Default is 3.0. If 0, latency does not eject backends.
+     *
+     * @return How many times the median latency of the backends of a service a backend may take before it is ejected.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.outlier-detection.latency-factor", "ness.httpclient.outlier-detection.latency-factor"})
+    @Default("3.0")
+    public double getOutlierDetectionLatencyFactor()
+    {
+        return 3.0;
+    }
+
+    /**
+     * Default is 10.
+     *
+     * @return Number of requests a backend must have served before its latency is compared to the other backends.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.outlier-detection.min-requests", "ness.httpclient.outlier-detection.min-requests"})
+    @Default("10")
+    public int getOutlierDetectionMinRequests()
+    {
+        return 10;
+    }
+
+    /**
+     * Default is 30s. Doubles for every probe request that fails.
+     *
+     * @return Time that an ejected backend gets no requests before it gets a probe request.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.outlier-detection.base-ejection-time", "ness.httpclient.outlier-detection.base-ejection-time"})
+    @Default("30s")
+    public TimeSpan getOutlierDetectionBaseEjectionTime()
+    {
+        return new TimeSpan(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 5m.
+     *
+     * @return Longest time that an ejected backend gets no requests.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.outlier-detection.max-ejection-time", "ness.httpclient.outlier-detection.max-ejection-time"})
+    @Default("5m")
+    public TimeSpan getOutlierDetectionMaxEjectionTime()
+    {
+        return new TimeSpan(5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Default is 20, the same as the default number of connections per host.
+     *
+     * @return Number of requests allowed in flight to a route before its limit adapted.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.initial", "ness.httpclient.concurrency-limit.initial"})
+    @Default("20")
+    public int getConcurrencyLimitInitial()
+    {
+        return 20;
+    }
+
+    /**
+     * Default is 1.
+     *
+     * @return Lowest number of requests allowed in flight to a route.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.min", "ness.httpclient.concurrency-limit.min"})
+    @Default("1")
+    public int getConcurrencyLimitMin()
+    {
+        return 1;
+    }
+
+    /**
+     * Default is 200, the same as the default number of connections. Requests beyond the number
+     * of connections per host still wait for a connection.
+     *
+     * @return Highest number of requests allowed in flight to a route.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.max", "ness.httpclient.concurrency-limit.max"})
+    @Default("200")
+    public int getConcurrencyLimitMax()
+    {
+        return 200;
+    }
+
+    /**
+     * Default is 0.9.
+     *
+     * @return Factor applied to the limit of a route when a request failed or was slow.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.backoff-ratio", "ness.httpclient.concurrency-limit.backoff-ratio"})
+    @Default("0.9")
+    public double getConcurrencyLimitBackoffRatio()
+    {
+        return 0.9;
+    }
+
+    /**
+     * Default is 2.0.
+     *
+     * @return How many times longer than the fastest recent request a request may take before it counts as slow.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.latency-tolerance", "ness.httpclient.concurrency-limit.latency-tolerance"})
+    @Default("2.0")
+    public double getConcurrencyLimitLatencyTolerance()
+    {
+        return 2.0;
+    }
+
+    /**
+     * Default is 50ms. If 0, requests over the limit are rejected right away.
+     *
+     * @return Time that a request over the limit waits for another request to finish before it is rejected.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.queue-timeout", "ness.httpclient.concurrency-limit.queue-timeout"})
+    @Default("50ms")
+    public TimeSpan getConcurrencyLimitQueueTimeout()
+    {
+        return new TimeSpan(50, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Default is 0.1, which allows at most 10% more requests because of hedging.
+     *
+     * @return Number of hedges allowed per hedged request across the whole client.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.hedging.budget", "ness.httpclient.hedging.budget"})
+    @Default("0.1")
+    public double getHedgingBudget()
+    {
+        return 0.1;
+    }
+
+    /**
+     * Default is 0.95.
+     *
+     * @return Percentile of the recent response times of a route that hedged requests wait for before they send a copy, if they do not set a delay.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.hedging.percentile", "ness.httpclient.hedging.percentile"})
+    @Default("0.95")
+    public double getHedgingPercentile()
+    {
+        return 0.95;
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return True if identical GET and HEAD requests that run at the same time share one call to the server.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.coalescing.enabled", "ness.httpclient.coalescing.enabled"})
+    @Default("false")
+    public boolean isCoalescingEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 1 MB. Larger responses are only handed to the request that made the call, the others make their own.
+     *
+     * @return Maximum number of bytes of a response that is buffered to share it between coalesced requests.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.coalescing.max-buffer-size", "ness.httpclient.coalescing.max-buffer-size"})
+    @Default("1048576")
+    public int getCoalescingMaxBufferSize()
+    {
+        return 1048576;
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return True if fresh GET responses are kept in memory and used instead of calling the server again.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.enabled", "ness.httpclient.cache.enabled"})
+    @Default("false")
+    public boolean isCacheEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 16 MB.
+     *
+     * @return Maximum number of bytes of memory used by the cached responses.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.max-size", "ness.httpclient.cache.max-size"})
+    @Default("16777216")
+    public long getCacheMaxSize()
+    {
+        return 16777216L;
+    }
+
+    /**
+     * Default is 1 MB.
+     *
+     * @return Maximum number of bytes of a response body that is cached in memory. Larger responses are only cached on disk.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.max-entry-size", "ness.httpclient.cache.max-entry-size"})
+    @Default("1048576")
+    public int getCacheMaxEntrySize()
+    {
+        return 1048576;
+    }
+
+    /**
+     * Default is null, which does not cache on disk.
+     *
+     * @return Directory that keeps the responses that are too large to be cached in memory. Can be used by one client only.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.directory", "ness.httpclient.cache.disk.directory"})
+    @DefaultNull
+    public String getCacheDiskDirectory()
+    {
+        return null;
+    }
+
+    /**
+     * Default is 1 GB.
+     *
+     * @return Maximum number of bytes of the files in the cache directory.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.max-size", "ness.httpclient.cache.disk.max-size"})
+    @Default("1073741824")
+    public long getCacheDiskMaxSize()
+    {
+        return 1073741824L;
+    }
+
+    /**
+     * Default is 64 MB.
+     *
+     * @return Size after which a new file is started in the cache directory. Files are evicted as a whole, oldest first.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.segment-size", "ness.httpclient.cache.disk.segment-size"})
+    @Default("67108864")
+    public long getCacheDiskSegmentSize()
+    {
+        return 67108864L;
+    }
+
+    /**
+     * Default is 256 MB.
+     *
+     * @return Maximum number of bytes of a response body that is cached on disk.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.max-entry-size", "ness.httpclient.cache.disk.max-entry-size"})
+    @Default("268435456")
+    public long getCacheDiskMaxEntrySize()
+    {
+        return 268435456L;
+    }
+
+    /**
+     * Default is true.
+     *
+     * @return True if cached responses with an ETag or Last-Modified header are revalidated with a conditional GET
+     *         once they are stale, and used again if the server answers with 304 Not Modified.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.revalidation.enabled", "ness.httpclient.cache.revalidation.enabled"})
+    @Default("true")
+    public boolean isCacheRevalidationEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * Default is 0, which never uses expired responses.
+     *
+     * @return Time after a cached response expired in which it is still used while it is refreshed in the background.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.stale-while-revalidate", "ness.httpclient.cache.stale-while-revalidate"})
+    @Default("0s")
+    public TimeSpan getCacheStaleWhileRevalidate()
+    {
+        return new TimeSpan(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 0, which never uses expired responses.
+     *
+     * @return Time after a cached response expired in which it is still used if the server can not be reached
+     *         or answers with a server error.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.stale-if-error", "ness.httpclient.cache.stale-if-error"})
+    @Default("0s")
+    public TimeSpan getCacheStaleIfError()
+    {
+        return new TimeSpan(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return True if 404 Not Found responses to GET requests are kept for a short time and used instead of calling the server again.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.negative-cache.enabled", "ness.httpclient.negative-cache.enabled"})
+    @Default("false")
+    public boolean isNegativeCacheEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 10s.
+     *
+     * @return Time that a 404 response is kept in the negative cache, regardless of its headers.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.negative-cache.ttl", "ness.httpclient.negative-cache.ttl"})
+    @Default("10s")
+    public TimeSpan getNegativeCacheTtl()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 10000.
+     *
+     * @return Maximum number of responses in the negative cache. The least recently used ones are dropped first.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.negative-cache.max-entries", "ness.httpclient.negative-cache.max-entries"})
+    @Default("10000")
+    public int getNegativeCacheMaxEntries()
+    {
+        return 10000;
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return True if 410 Gone responses are kept in the negative cache as well.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.negative-cache.gone.enabled", "ness.httpclient.negative-cache.gone.enabled"})
+    @Default("false")
+    public boolean isNegativeCacheGoneEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 'none'. Set to 'gzip' or 'deflate' to compress request bodies while they are sent.
+     *
+     * @return The compression of request bodies, unless a request asks for another one.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.request-compression", "ness.httpclient.request-compression"})
+    @Default("none")
+    public String getRequestCompression()
+    {
+        return "none";
+    }
+
+    /**
+     * Default is 8 KB.
+     *
+     * @return Minimum number of bytes of a request body that is compressed. Bodies of unknown length are always compressed.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.request-compression.threshold", "ness.httpclient.request-compression.threshold"})
+    @Default("8192")
+    public long getRequestCompressionThreshold()
+    {
+        return 8192L;
+    }
+
+    /**
+     * Default is 20, the same as the default number of connections per host.
+     *
+     * @return Number of threads that execute asynchronous requests.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.async-threads", "ness.httpclient.async-threads"})
+    @Default("20")
+    public int getAsyncThreads()
+    {
+        return 20;
+    }
+
+    /**
+     * Default is 'httpclient4', the blocking Apache HttpClient based engine. Set to 'nio'
+     * to use the non-blocking engine, which shares a few selector threads between all connections.
+     * Set to 'http2' to use the non-blocking engine with HTTP/2 for plain HTTP servers, which must
+     * support HTTP/2 with prior knowledge.
+     *
+     * @return The engine that executes requests.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.engine", "ness.httpclient.engine"})
+    @Default("httpclient4")
+    public String getEngine()
+    {
+        return "httpclient4";
+    }
+
+    /**
+     * Default is 2. Only used by the 'nio' and 'http2' engines.
+     *
+     * @return Number of selector threads that do all network I/O.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.nio-threads", "ness.httpclient.nio-threads"})
+    @Default("2")
+    public int getNioThreads()
+    {
+        return 2;
+    }
+
+    /**
+     * Default is 64 MB. Only used by the 'nio' and 'http2' engines, which keep the whole response body in memory
+     * before it is handed to the response handler. -1 means 'unlimited'.
+     *
+     * @return Maximum number of bytes of a response body. Larger responses fail the request with a {@link com.nesscomputing.httpclient.io.SizeExceededException}.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.nio-max-response-body-size", "ness.httpclient.nio-max-response-body-size"})
+    @Default("67108864")
+    public long getNioMaxResponseBodySize()
+    {
+        return 67108864L;
+    }
+
+    /**
+     * Default is 'threadsafe', the pool of the Apache HttpClient, which takes a single lock for
+     * every lease and release. Set to 'striped' for a pool that keeps routes apart and only locks
+     * when a request has to wait for a connection, which scales better with many request threads.
+     * Only used by the 'httpclient4' engine.
+     *
+     * @return The connection pool of the 'httpclient4' engine.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.connection-pool", "ness.httpclient.connection-pool"})
+    @Default("threadsafe")
+    public String getConnectionPool()
+    {
+        return "threadsafe";
+    }
+
+    /**
+     * Default is none. Comma separated list of routes as [scheme://]host[:port], the scheme defaults to 'http'.
+     * The 'httpclient4' engine opens connections to these routes when it starts and, if connections time out
+     * when idle, opens new ones to replace them.
+     *
+     * @return Routes to keep connections open to.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.warm-routes", "ness.httpclient.warm-routes"})
+    @DefaultNull
+    public String getWarmRoutes()
+    {
+        return null;
+    }
+
+    /**
+     * Default is 1. Limited by the number of connections per host.
+     *
+     * @return Number of idle connections that are kept open to each of the warm routes.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.min-idle-per-route", "ness.httpclient.min-idle-per-route"})
+    @Default("1")
+    public int getMinIdlePerRoute()
+    {
+        return 1;
+    }
+
     /**
      * This would be used to verify server certs that aren't signed by a standard CA.
      *
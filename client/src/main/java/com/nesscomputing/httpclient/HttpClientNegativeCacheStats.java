@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Counters of the negative cache of a client, which keeps 404 responses.
+ */
+public class HttpClientNegativeCacheStats
+{
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+
+    @ConstructorProperties({"hits", "misses", "evictions", "entries"})
+    public HttpClientNegativeCacheStats(final long hits,
+                                        final long misses,
+                                        final long evictions,
+                                        final int entries)
+    {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+    }
+
+    /** @return requests that were answered from the negative cache. */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /** @return cacheable requests that had no response in the negative cache. */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /** @return share of the cacheable requests that were answered from the negative cache, 0 if there were none. */
+    public double getHitRate()
+    {
+        final long requests = hits + misses;
+        return (requests == 0) ? 0.0 : (double) hits / requests;
+    }
+
+    /** @return responses that were dropped to make room for others. */
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    /** @return responses in the negative cache. */
+    public int getEntries()
+    {
+        return entries;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpClientNegativeCacheStats [hits=%d, misses=%d, hitRate=%.3f, evictions=%d, entries=%d]",
+                             hits, misses, getHitRate(), evictions, entries);
+    }
+}
@@ -17,6 +17,8 @@ package com.nesscomputing.httpclient;
 
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 
 /**
  * Allows inspection of HttpClient requests and responses.
@@ -44,4 +46,127 @@ public abstract class HttpClientObserver {
     {
         return response;
     }
+
+    /**
+     * Called before a request is sent again.
+     *
+     * @param request the request that is retried.
+     * @param retries number of retries including this one.
+     * @param response the response that caused the retry. Null if the request failed.
+     * @param failure the failure that caused the retry. Null if the request got a response.
+     */
+    public void onRetry(final HttpClientRequest<?> request,
+                        final int retries,
+                        @Nullable final HttpClientResponse response,
+                        @Nullable final IOException failure)
+    {
+    }
+
+    /**
+     * Called when the response handler of a request returned. Requests that were answered without a call of
+     * their own, e.g. from the cache or by sharing the response of an identical request, report no bytes.
+     *
+     * @param request the request.
+     * @param statusCode the status code of the response.
+     * @param elapsedNanos time from sending the request until the response handler returned, including all retries.
+     * @param bytesSent bytes of request bodies sent, including all retries.
+     * @param bytesReceived bytes of response bodies received, including all retries.
+     */
+    public void onRequestCompleted(final HttpClientRequest<?> request,
+                                   final int statusCode,
+                                   final long elapsedNanos,
+                                   final long bytesSent,
+                                   final long bytesReceived)
+    {
+    }
+
+    /**
+     * Called when a request failed, either before a response arrived or in the response handler.
+     *
+     * @param request the request.
+     * @param statusCode the status code of the last response or 0 if no response arrived.
+     * @param elapsedNanos time from sending the request until it failed, including all retries.
+     * @param bytesSent bytes of request bodies sent, including all retries.
+     * @param bytesReceived bytes of response bodies received, including all retries.
+     * @param failure the reason why the request failed.
+     */
+    public void onRequestFailed(final HttpClientRequest<?> request,
+                                final int statusCode,
+                                final long elapsedNanos,
+                                final long bytesSent,
+                                final long bytesReceived,
+                                final Throwable failure)
+    {
+    }
+
+    /**
+     * Called once for every attempt of a request when it completed or failed. Retries are separate attempts.
+     * Not called for requests that were answered without a call of their own.
+     *
+     * @param request the request.
+     * @param timings where the attempt spent its time.
+     */
+    public void onRequestTimed(final HttpClientRequest<?> request,
+                               final HttpClientTimings timings)
+    {
+    }
+
+    /**
+     * Called when the circuit breaker of a route changes its state.
+     *
+     * @param route scheme, host and port of the route, e.g. "http://localhost:8080".
+     * @param oldState the state before the change.
+     * @param newState the state after the change.
+     */
+    public void onCircuitBreakerStateChange(final String route,
+                                            final CircuitBreakerState oldState,
+                                            final CircuitBreakerState newState)
+    {
+    }
+
+    /**
+     * Called when a connection to a warm route could not be opened ahead of time.
+     *
+     * @param route scheme, host and port of the route, e.g. "http://localhost:8080".
+     * @param failure the reason why the connection could not be opened.
+     */
+    public void onConnectionWarmupFailed(final String route,
+                                         final IOException failure)
+    {
+    }
+
+    /**
+     * Called when outlier detection takes a backend of a logical service out of rotation.
+     *
+     * @param backend scheme, host and port of the backend, e.g. "http://localhost:8080".
+     * @param ejectionMillis time until the backend gets a probe request.
+     * @param reason why the backend was ejected.
+     */
+    public void onBackendEjected(final String backend,
+                                 final long ejectionMillis,
+                                 final String reason)
+    {
+    }
+
+    /**
+     * Called when a probe request to an ejected backend succeeded and the backend is back in rotation.
+     *
+     * @param backend scheme, host and port of the backend, e.g. "http://localhost:8080".
+     */
+    public void onBackendReadmitted(final String backend)
+    {
+    }
+
+    /**
+     * Called when the response cache answered a request with an expired response.
+     *
+     * @param request the request.
+     * @param stalenessMillis time since the response expired.
+     * @param reason why the expired response was used.
+     */
+    public void onStaleResponseServed(final HttpClientRequest<?> request,
+                                      final long stalenessMillis,
+                                      final String reason)
+    {
+    }
 }
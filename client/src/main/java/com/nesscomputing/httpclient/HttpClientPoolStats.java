@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+
+/**
+ * State of a connection pool, either for a single route or summed over all routes.
+ *
+ * @see HttpClientConnectionContext#getPoolStats()
+ */
+public class HttpClientPoolStats
+{
+    /**
+     * Upper bounds of the lease wait histogram buckets in milliseconds. The last bucket of the histogram
+     * counts everything above the last bound.
+     */
+    private static final long[] LEASE_WAIT_BOUNDS_MILLIS = new long[] { 1L, 5L, 10L, 50L, 100L, 500L, 1000L, 5000L };
+
+    /** Number of buckets in a lease wait histogram. */
+    public static final int LEASE_WAIT_BUCKETS = LEASE_WAIT_BOUNDS_MILLIS.length + 1;
+
+    private final int leased;
+    private final int idle;
+    private final int pending;
+    private final int max;
+    private final long connectionsCreated;
+    private final long connectionsClosed;
+    private final long[] leaseWaitHistogram;
+
+    @ConstructorProperties({"leased", "idle", "pending", "max", "connectionsCreated", "connectionsClosed", "leaseWaitHistogram"})
+    public HttpClientPoolStats(final int leased,
+                               final int idle,
+                               final int pending,
+                               final int max,
+                               final long connectionsCreated,
+                               final long connectionsClosed,
+                               final long[] leaseWaitHistogram)
+    {
+        this.leased = leased;
+        this.idle = idle;
+        this.pending = pending;
+        this.max = max;
+        this.connectionsCreated = connectionsCreated;
+        this.connectionsClosed = connectionsClosed;
+        this.leaseWaitHistogram = Arrays.copyOf(leaseWaitHistogram, leaseWaitHistogram.length);
+    }
+
+    /**
+     * @return the upper bounds of the lease wait histogram buckets in milliseconds.
+     */
+    public static long[] leaseWaitBoundsMillis()
+    {
+        return Arrays.copyOf(LEASE_WAIT_BOUNDS_MILLIS, LEASE_WAIT_BOUNDS_MILLIS.length);
+    }
+
+    /**
+     * @return the histogram bucket for a lease that waited this long.
+     */
+    public static int leaseWaitBucket(final long waitNanos)
+    {
+        final long waitMillis = waitNanos / 1000000L;
+        for (int i = 0; i < LEASE_WAIT_BOUNDS_MILLIS.length; i++) {
+            if (waitMillis < LEASE_WAIT_BOUNDS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return LEASE_WAIT_BOUNDS_MILLIS.length;
+    }
+
+    /** @return connections that are currently used by a request. */
+    public int getLeased()
+    {
+        return leased;
+    }
+
+    /** @return open connections that wait for the next request. */
+    public int getIdle()
+    {
+        return idle;
+    }
+
+    /** @return requests that wait for a connection. */
+    public int getPending()
+    {
+        return pending;
+    }
+
+    /** @return the maximum number of connections. */
+    public int getMax()
+    {
+        return max;
+    }
+
+    /** @return connections opened since the client started. */
+    public long getConnectionsCreated()
+    {
+        return connectionsCreated;
+    }
+
+    /** @return connections closed since the client started. */
+    public long getConnectionsClosed()
+    {
+        return connectionsClosed;
+    }
+
+    /**
+     * @return number of leases by how long they waited for a connection.
+     * @see #leaseWaitBoundsMillis()
+     */
+    public long[] getLeaseWaitHistogram()
+    {
+        return Arrays.copyOf(leaseWaitHistogram, leaseWaitHistogram.length);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpClientPoolStats [leased=%d, idle=%d, pending=%d, max=%d, connectionsCreated=%d, connectionsClosed=%d, leaseWaitHistogram=%s]",
+                             leased, idle, pending, max, connectionsCreated, connectionsClosed, Arrays.toString(leaseWaitHistogram));
+    }
+}
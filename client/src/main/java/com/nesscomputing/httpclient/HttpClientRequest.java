@@ -35,6 +35,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.nesscomputing.httpclient.internal.HttpClientBodySource;
 import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.httpclient.internal.HttpClientHeader;
@@ -61,6 +62,15 @@ public class HttpClientRequest<T>
     private String contentType = null;
     private String contentEncoding = null;
     private Boolean followRedirects = null;
+    private Long requestTimeout = null;
+    private Long connectTimeout = null;
+    private Long socketTimeout = null;
+    private Long leaseTimeout = null;
+    private Long hedgeDelay = null;
+    private int maxHedges = 0;
+    private Long staleWhileRevalidate = null;
+    private Long staleIfError = null;
+    private HttpClientCompression requestCompression = null;
     private List<HttpClientAuthProvider> authProviders = null;
 
     private HttpClientRequest(final HttpClientFactory httpClientFactory,
@@ -76,7 +86,16 @@ public class HttpClientRequest<T>
                               final Object content,
                               final String contentType,
                               final String contentEncoding,
-                              final Boolean followRedirects)
+                              final Boolean followRedirects,
+                              final Long requestTimeout,
+                              final Long connectTimeout,
+                              final Long socketTimeout,
+                              final Long leaseTimeout,
+                              final Long hedgeDelay,
+                              final int maxHedges,
+                              final Long staleWhileRevalidate,
+                              final Long staleIfError,
+                              final HttpClientCompression requestCompression)
     {
         Preconditions.checkArgument(headers != null, "headers must not be null!");
         Preconditions.checkArgument(cookies != null, "cookies must not be null!");
@@ -102,6 +121,15 @@ public class HttpClientRequest<T>
         this.contentEncoding = contentEncoding;
 
         this.followRedirects = followRedirects;
+        this.requestTimeout = requestTimeout;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.leaseTimeout = leaseTimeout;
+        this.hedgeDelay = hedgeDelay;
+        this.maxHedges = maxHedges;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+        this.requestCompression = requestCompression;
 
         if (content != null) {
             httpBodySource = httpClientFactory.getHttpBodySourceFor(content);
@@ -214,6 +242,81 @@ public class HttpClientRequest<T>
         return followRedirects;
     }
 
+    /**
+     * @return the deadline for the whole request in milliseconds or null to use the client default.
+     */
+    public Long getRequestTimeout()
+    {
+        return requestTimeout;
+    }
+
+    /**
+     * @return the timeout for connecting to the remote host in milliseconds or null to use the client default.
+     */
+    public Long getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * @return the timeout for receiving data in milliseconds or null to use the client default.
+     */
+    public Long getSocketTimeout()
+    {
+        return socketTimeout;
+    }
+
+    /**
+     * @return the timeout for getting a connection from the pool in milliseconds or null to wait forever.
+     */
+    public Long getLeaseTimeout()
+    {
+        return leaseTimeout;
+    }
+
+    /**
+     * @return the time in milliseconds after which a copy of the request is sent if no response arrived,
+     * 0 to follow the response times of the route or null if the request is not hedged.
+     */
+    public Long getHedgeDelay()
+    {
+        return hedgeDelay;
+    }
+
+    /**
+     * @return the maximum number of copies of the request that are sent in addition to the request itself.
+     */
+    public int getMaxHedges()
+    {
+        return maxHedges;
+    }
+
+    /**
+     * @return the time in milliseconds after a cached response expired in which it is used while it is refreshed
+     * in the background, or null to use the setting of the client.
+     */
+    public Long getStaleWhileRevalidate()
+    {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @return the time in milliseconds after a cached response expired in which it is used if the server can not
+     * be reached or answers with a server error, or null to use the setting of the client.
+     */
+    public Long getStaleIfError()
+    {
+        return staleIfError;
+    }
+
+    /**
+     * @return the compression of the request body, or null to use the setting of the client.
+     */
+    public HttpClientCompression getRequestCompression()
+    {
+        return requestCompression;
+    }
+
     /**
      * Execute the HTTP request and return the result.
      */
@@ -223,6 +326,16 @@ public class HttpClientRequest<T>
         return httpClientFactory.performRequest(this);
     }
 
+    /**
+     * Execute the HTTP request without blocking the calling thread.
+     *
+     * @return a future that will hold the result of the response handler.
+     */
+    public ListenableFuture<T> performAsync()
+    {
+        return httpClientFactory.performRequestAsync(this);
+    }
+
     //
     // =========================================================
     //
@@ -266,12 +379,29 @@ public class HttpClientRequest<T>
         private String contentEncoding;
 
         private Boolean followRedirects;
+        private Long requestTimeout;
+        private Long connectTimeout;
+        private Long socketTimeout;
+        private Long leaseTimeout;
+        private Long hedgeDelay;
+        private int maxHedges;
+        private Long staleWhileRevalidate;
+        private Long staleIfError;
+        private HttpClientCompression requestCompression;
 
         private final List<HttpClientAuthProvider> authProviders = Lists.newArrayList();
 
         public static <T> Builder<T> fromRequest(final HttpClientRequest<T> request)
         {
-            return new Builder<T>(request);
+            return new Builder<T>(request, request.getHttpHandler());
+        }
+
+        /**
+         * Copy a request, but hand its response to another handler.
+         */
+        public static <T> Builder<T> fromRequest(final HttpClientRequest<?> request, final HttpClientResponseHandler<T> httpHandler)
+        {
+            return new Builder<T>(request, httpHandler);
         }
 
         <T> Builder(final HttpClientFactory httpClientFactory, final HttpClientMethod httpMethod, final URI url, final HttpClientResponseHandler<Type> httpHandler)
@@ -282,9 +412,9 @@ public class HttpClientRequest<T>
             this.httpHandler = httpHandler;
         }
 
-        <T> Builder(final HttpClientRequest<Type> request)
+        <T> Builder(final HttpClientRequest<?> request, final HttpClientResponseHandler<Type> httpHandler)
         {
-            this (request.getHttpClientFactory(), request.getHttpMethod(), request.getUri(), request.getHttpHandler());
+            this (request.getHttpClientFactory(), request.getHttpMethod(), request.getUri(), httpHandler);
 
             this.headers.addAll(request.getHeaders());
             this.cookies.addAll(request.getCookies());
@@ -297,6 +427,15 @@ public class HttpClientRequest<T>
             this.contentType = request.getContentType();
             this.contentEncoding = request.getContentEncoding();
             this.followRedirects = request.followRedirects();
+            this.requestTimeout = request.getRequestTimeout();
+            this.connectTimeout = request.getConnectTimeout();
+            this.socketTimeout = request.getSocketTimeout();
+            this.leaseTimeout = request.getLeaseTimeout();
+            this.hedgeDelay = request.getHedgeDelay();
+            this.maxHedges = request.getMaxHedges();
+            this.staleWhileRevalidate = request.getStaleWhileRevalidate();
+            this.staleIfError = request.getStaleIfError();
+            this.requestCompression = request.getRequestCompression();
         }
 
         public Builder<Type> setUrl(final URI url)
@@ -498,6 +637,123 @@ public class HttpClientRequest<T>
             return this;
         }
 
+        /**
+         * Set a deadline for the whole request, from waiting for a connection until the response
+         * has been handled. A request that misses its deadline fails with a {@link RequestTimeoutException}.
+         *
+         * @param requestTimeout deadline in milliseconds. 0 disables the deadline.
+         */
+        public Builder<Type> setRequestTimeout(final long requestTimeout)
+        {
+            Preconditions.checkArgument(requestTimeout >= 0, "requestTimeout must not be negative!");
+
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * Set the timeout for connecting to the remote host for this request.
+         *
+         * @param connectTimeout timeout in milliseconds. 0 waits forever.
+         */
+        public Builder<Type> setConnectTimeout(final long connectTimeout)
+        {
+            Preconditions.checkArgument(connectTimeout >= 0, "connectTimeout must not be negative!");
+
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Set the timeout for receiving data on the connection for this request.
+         *
+         * @param socketTimeout timeout in milliseconds. 0 waits forever.
+         */
+        public Builder<Type> setSocketTimeout(final long socketTimeout)
+        {
+            Preconditions.checkArgument(socketTimeout >= 0, "socketTimeout must not be negative!");
+
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * Set the timeout for getting a connection from the connection pool for this request.
+         *
+         * @param leaseTimeout timeout in milliseconds. 0 waits forever.
+         */
+        public Builder<Type> setLeaseTimeout(final long leaseTimeout)
+        {
+            Preconditions.checkArgument(leaseTimeout >= 0, "leaseTimeout must not be negative!");
+
+            this.leaseTimeout = leaseTimeout;
+            return this;
+        }
+
+        /**
+         * Hedge a GET or HEAD request: if no response arrived after the hedge delay, send a copy of the request
+         * and use whichever response arrives first. The other requests are aborted. Hedges are limited by the
+         * hedging budget of the client, so they can not double the load on a slow server. Only the 'httpclient4'
+         * engine hedges requests.
+         *
+         * @param hedgeDelay delay in milliseconds before each copy is sent. 0 waits as long as the hedging percentile
+         *                   of recent response times of the route and does not hedge until the route has enough of them.
+         * @param maxHedges maximum number of copies to send.
+         */
+        public Builder<Type> setHedgeAfter(final long hedgeDelay, final int maxHedges)
+        {
+            Preconditions.checkArgument(hedgeDelay >= 0, "hedgeDelay must not be negative!");
+            Preconditions.checkArgument(maxHedges > 0, "maxHedges must be positive!");
+            Preconditions.checkState(httpMethod == HttpClientMethod.GET || httpMethod == HttpClientMethod.HEAD, "Only GET and HEAD requests can be hedged!");
+
+            this.hedgeDelay = hedgeDelay;
+            this.maxHedges = maxHedges;
+            return this;
+        }
+
+        /**
+         * Answer the request with an expired cached response while the response is refreshed in the background.
+         * Only one refresh runs for a response at a time. Only applies if the client caches responses.
+         *
+         * @param staleWhileRevalidate time in milliseconds after the response expired in which it is still used. 0 never uses expired responses.
+         */
+        public Builder<Type> setStaleWhileRevalidate(final long staleWhileRevalidate)
+        {
+            Preconditions.checkArgument(staleWhileRevalidate >= 0, "staleWhileRevalidate must not be negative!");
+
+            this.staleWhileRevalidate = staleWhileRevalidate;
+            return this;
+        }
+
+        /**
+         * Answer the request with an expired cached response if the server can not be reached or answers with a
+         * server error (5xx). Only applies if the client caches responses.
+         *
+         * @param staleIfError time in milliseconds after the response expired in which it is still used. 0 never uses expired responses.
+         */
+        public Builder<Type> setStaleIfError(final long staleIfError)
+        {
+            Preconditions.checkArgument(staleIfError >= 0, "staleIfError must not be negative!");
+
+            this.staleIfError = staleIfError;
+            return this;
+        }
+
+        /**
+         * Compress the request body while it is sent and set the Content-Encoding header. Only bodies above the
+         * compression threshold of the client and bodies of unknown length are compressed. Bodies that already
+         * have a content encoding are sent as they are.
+         *
+         * @param requestCompression the compression to use, {@link HttpClientCompression#NONE} to send the body as it is.
+         */
+        public Builder<Type> setRequestCompression(@Nonnull final HttpClientCompression requestCompression)
+        {
+            Preconditions.checkArgument(requestCompression != null, "requestCompression must not be null!");
+
+            this.requestCompression = requestCompression;
+            return this;
+        }
+
         /**
          * Create a HttpClientRequest from the builder. The object is disconnected from the builder and the builder can be reused.
          */
@@ -517,7 +773,16 @@ public class HttpClientRequest<T>
                             content,
                             contentType,
                             contentEncoding,
-                            followRedirects);
+                            followRedirects,
+                            requestTimeout,
+                            connectTimeout,
+                            socketTimeout,
+                            leaseTimeout,
+                            hedgeDelay,
+                            maxHedges,
+                            staleWhileRevalidate,
+                            staleIfError,
+                            requestCompression);
 
             return httpClientRequest;
         }
@@ -531,6 +796,15 @@ public class HttpClientRequest<T>
         {
             return request().perform();
         }
+
+        /**
+         * Builds a HttpClientRequest from the builder and executes it without blocking the calling thread.
+         * @return a future that will hold the return value of the request.
+         */
+        public ListenableFuture<Type> performAsync()
+        {
+            return request().performAsync();
+        }
     }
 
     @Override
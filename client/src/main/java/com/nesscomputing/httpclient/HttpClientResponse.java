@@ -85,4 +85,10 @@ public interface HttpClientResponse {
 
 	/** @return true if the response redirects to another object. */
 	boolean isRedirected();
+
+	/**
+	 * @return Where the request spent its time. Null if the client does not record timings.
+	 */
+	@CheckForNull
+	HttpClientTimings getTimings();
 }
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.io.IOException;
+
+/**
+ * Decides whether a request is sent again. The client limits the number of retries per request
+ * and across all requests, so a policy only decides whether a retry makes sense and when.
+ */
+public interface HttpClientRetryPolicy
+{
+    /** Returned to give up instead of retrying. */
+    long NO_RETRY = -1L;
+
+    /**
+     * @param request the failed request.
+     * @param retries number of retries so far.
+     * @param failure the reason why the request failed.
+     * @return milliseconds to wait before retrying the request or {@link #NO_RETRY}.
+     */
+    long retryFailure(HttpClientRequest<?> request, int retries, IOException failure);
+
+    /**
+     * Called before the response is handed to observers and the response handler.
+     *
+     * @param request the request.
+     * @param retries number of retries so far.
+     * @param response the response from the server. Its body must not be consumed.
+     * @return milliseconds to wait before retrying the request or {@link #NO_RETRY} to use the response.
+     */
+    long retryResponse(HttpClientRequest<?> request, int retries, HttpClientResponse response);
+}
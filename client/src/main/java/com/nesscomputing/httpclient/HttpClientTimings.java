@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+/**
+ * Where a single attempt of a request spent its time. All durations are in nanoseconds and -1 if
+ * the phase did not happen, e.g. no connect for a reused connection. Phases that repeat for
+ * redirects and authentication challenges are added up.
+ *
+ * @see HttpClientResponse#getTimings()
+ * @see HttpClientObserver#onRequestTimed(HttpClientRequest, HttpClientTimings)
+ */
+public interface HttpClientTimings
+{
+    /** @return time waiting for a connection from the pool. */
+    long getLeaseWaitNanos();
+
+    /** @return time resolving the host name for a new connection. */
+    long getDnsNanos();
+
+    /** @return time establishing the TCP connection. */
+    long getConnectNanos();
+
+    /** @return time of the TLS handshake. */
+    long getTlsHandshakeNanos();
+
+    /** @return time writing the request headers and body. */
+    long getRequestWriteNanos();
+
+    /** @return time from writing the request until the response headers arrived. */
+    long getTimeToFirstByteNanos();
+
+    /**
+     * @return time from the arrival of the response headers until the response body was consumed, including
+     * the time the response handler took. -1 while the response handler runs.
+     */
+    long getBodyReadNanos();
+
+    /** @return true if the request went over a connection that was already open. */
+    boolean isConnectionReused();
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown when a request did not complete before its deadline. The deadline covers
+ * the whole request, from waiting for a connection until the response handler returns.
+ *
+ * @see HttpClientRequest.Builder#setRequestTimeout(long)
+ */
+public class RequestTimeoutException extends SocketTimeoutException
+{
+    private static final long serialVersionUID = 1L;
+
+    public RequestTimeoutException(final String message,
+                                   final Object... args)
+    {
+        super(String.format(message, args));
+    }
+
+    public RequestTimeoutException(final Throwable cause,
+                                   final String message,
+                                   final Object... args)
+    {
+        super(String.format(message, args));
+        initCause(cause);
+    }
+}
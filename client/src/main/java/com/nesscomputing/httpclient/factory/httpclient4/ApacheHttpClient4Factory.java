@@ -18,28 +18,50 @@ package com.nesscomputing.httpclient.factory.httpclient4;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.CheckForNull;
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 import javax.servlet.http.Cookie;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.CookieStore;
@@ -52,6 +74,9 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -63,29 +88,51 @@ import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 import org.apache.http.util.EntityUtils;
 
+import com.nesscomputing.httpclient.CircuitBreakerOpenException;
+import com.nesscomputing.httpclient.CircuitBreakerState;
+import com.nesscomputing.httpclient.ConcurrencyLimitExceededException;
 import com.nesscomputing.httpclient.HttpClientAuthProvider;
+import com.nesscomputing.httpclient.HttpClientBackendStats;
+import com.nesscomputing.httpclient.HttpClientCacheStats;
+import com.nesscomputing.httpclient.HttpClientCompression;
+import com.nesscomputing.httpclient.HttpClientCompressionStats;
 import com.nesscomputing.httpclient.HttpClientConnectionContext;
+import com.nesscomputing.httpclient.HttpClientDefaultRetryPolicy;
 import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.httpclient.HttpClientNegativeCacheStats;
 import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponse;
 import com.nesscomputing.httpclient.HttpClientResponseHandler;
-import com.nesscomputing.httpclient.internal.AlwaysTrustServerTrustManager;
+import com.nesscomputing.httpclient.HttpClientRetryPolicy;
+import com.nesscomputing.httpclient.HttpClientSystemDnsResolver;
+import com.nesscomputing.httpclient.HttpClientTimings;
+import com.nesscomputing.httpclient.RequestTimeoutException;
 import com.nesscomputing.httpclient.internal.HttpClientBodySource;
+import com.nesscomputing.httpclient.internal.HttpClientCachingDnsResolver;
+import com.nesscomputing.httpclient.internal.HttpClientCircuitBreaker;
+import com.nesscomputing.httpclient.internal.HttpClientConcurrencyLimiter;
 import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientLatencyTracker;
+import com.nesscomputing.httpclient.internal.HttpClientLoadBalancer;
+import com.nesscomputing.httpclient.internal.HttpClientNegativeCache;
+import com.nesscomputing.httpclient.internal.HttpClientResponseCache;
+import com.nesscomputing.httpclient.internal.HttpClientRetryBudget;
 import com.nesscomputing.httpclient.internal.HttpClientTrustManagerFactory;
-import com.nesscomputing.httpclient.internal.MultiTrustManager;
 import com.nesscomputing.logging.Log;
 
 /** Apache HttpClient4 based implementation of {@link HttpClientFactory}. */
@@ -94,14 +141,19 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
     private static final int HTTP_PORT = 80;
     private static final int HTTPS_PORT = 443;
 
-    private static final Scheme HTTP_SCHEME =
-        new Scheme("http", HTTP_PORT, PlainSocketFactory.getSocketFactory());
+    private static final int DEFAULT_ASYNC_THREADS = 20;
+
+    private static final String CONNECTION_POOL_THREADSAFE = "threadsafe";
+    private static final String CONNECTION_POOL_STRIPED = "striped";
+
+    private static final int LATENCY_WINDOW_SIZE = 200;
+    private static final int LATENCY_MIN_SAMPLES = 20;
 
     private static final Log LOG = Log.findLog();
 
     private final SchemeRegistry registry = new SchemeRegistry();
 
-    private final ThreadSafeClientConnManager connectionManager;
+    private final MeteredConnectionManager connectionManager;
     private final InternalConnectionContext connectionContext = new InternalConnectionContext();
 
     private boolean started = false;
@@ -109,98 +161,165 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
     // HttpClient state
     private final HttpParams params = new BasicHttpParams();
-    private volatile int retries = 3;
+    private final DefaultHttpClient httpClient;
 
     private volatile long idleTimeout = 0;
     private volatile IdleTimeoutThread idleTimeoutThread = null;
 
+    private volatile int asyncThreads = DEFAULT_ASYNC_THREADS;
+    private volatile ListeningExecutorService asyncExecutor = null;
+    private volatile ExecutorService hedgeExecutor = null;
+
+    private volatile long requestTimeout = 0;
+    private volatile ScheduledThreadPoolExecutor deadlineTimer = null;
+    private final AtomicLong deadlinesExceeded = new AtomicLong();
+
+    private volatile int maxRetries;
+    private volatile HttpClientRetryPolicy retryPolicy;
+    private final HttpClientRetryBudget retryBudget;
+
+    private final HttpClientRetryBudget hedgeBudget;
+    private final ConcurrentMap<HttpHost, HttpClientLatencyTracker> latencyTrackers = Maps.newConcurrentMap();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    private final InternalRequestCoalescer requestCoalescer;
+    private final HttpClientResponseCache responseCache;
+    private final InternalCachingExecutor cachingExecutor;
+    private final HttpClientNegativeCache negativeCache;
+    private final InternalNegativeCachingExecutor negativeCachingExecutor;
+
+    private final HttpClientCompression requestCompression;
+    private final long requestCompressionThreshold;
+    private final InternalCompressingEntity.Metrics compressionMetrics = new InternalCompressingEntity.Metrics();
+
+    private final HttpClientDefaults clientDefaults;
+    private final ConcurrentMap<HttpHost, HttpClientCircuitBreaker> circuitBreakers = Maps.newConcurrentMap();
+    private final HttpClientCircuitBreaker.Listener circuitBreakerListener = new CircuitBreakerListener();
+
+    private final ConcurrentMap<HttpHost, HttpClientConcurrencyLimiter> concurrencyLimiters = Maps.newConcurrentMap();
+    private final AtomicLong concurrencyLimitRejections = new AtomicLong();
+
+    private final InternalConnectionWarmer connectionWarmer;
+    private final AtomicBoolean warming = new AtomicBoolean();
+    private final HttpClientCachingDnsResolver dnsCache;
+    private final HttpClientLoadBalancer loadBalancer;
+
     private final Set<? extends HttpClientObserver> httpClientObservers;
+    private final boolean observeCompletion;
+    private final InternalLocalResponder localResponder = new InternalLocalResponder(new LocalCompletionListener());
 
     public ApacheHttpClient4Factory(final HttpClientDefaults clientDefaults,
                                     @Nullable final Set<? extends HttpClientObserver> httpClientObservers)
+    {
+        this(clientDefaults, httpClientObservers, null);
+    }
+
+    /**
+     * @param dnsResolver resolves host names for new connections. If null, host names are resolved through the JVM.
+     */
+    public ApacheHttpClient4Factory(final HttpClientDefaults clientDefaults,
+                                    @Nullable final Set<? extends HttpClientObserver> httpClientObservers,
+                                    @Nullable final HttpClientDnsResolver dnsResolver)
     {
         Preconditions.checkArgument(clientDefaults != null, "clientDefaults can not be null!");
 
         this.httpClientObservers = httpClientObservers;
+        this.clientDefaults = clientDefaults;
+        this.observeCompletion = observesCompletion(httpClientObservers);
+
+        this.maxRetries = clientDefaults.getRetries();
+        this.retryPolicy = HttpClientDefaultRetryPolicy.forDefaults(clientDefaults);
+        this.retryBudget = new HttpClientRetryBudget(clientDefaults.getRetryBudget());
+        this.hedgeBudget = new HttpClientRetryBudget(clientDefaults.getHedgingBudget());
+        if (clientDefaults.isCoalescingEnabled()) {
+            this.requestCoalescer = new InternalRequestCoalescer(clientDefaults.getCoalescingMaxBufferSize(), new CoalescedRequestExecutor(), localResponder);
+        }
+        else {
+            this.requestCoalescer = null;
+        }
+        if (clientDefaults.isCacheEnabled()) {
+            this.responseCache = HttpClientResponseCache.forDefaults(clientDefaults);
+            this.cachingExecutor = new InternalCachingExecutor(responseCache,
+                                                               clientDefaults.getCacheMaxEntrySize(),
+                                                               clientDefaults.getCacheStaleWhileRevalidate().getMillis(),
+                                                               clientDefaults.getCacheStaleIfError().getMillis(),
+                                                               new UncachedRequestExecutor(),
+                                                               new BackgroundExecutor(),
+                                                               new StaleResponseListener(),
+                                                               localResponder);
+        }
+        else {
+            this.responseCache = null;
+            this.cachingExecutor = null;
+        }
+        if (clientDefaults.isNegativeCacheEnabled()) {
+            this.negativeCache = HttpClientNegativeCache.forDefaults(clientDefaults);
+            this.negativeCachingExecutor = new InternalNegativeCachingExecutor(negativeCache,
+                                                                               (cachingExecutor != null) ? cachingExecutor : new UncachedRequestExecutor(),
+                                                                               localResponder);
+        }
+        else {
+            this.negativeCache = null;
+            this.negativeCachingExecutor = null;
+        }
+        this.requestCompression = HttpClientCompression.forName(clientDefaults.getRequestCompression());
+        this.requestCompressionThreshold = clientDefaults.getRequestCompressionThreshold();
 
         initParams();
 
-        registry.register(HTTP_SCHEME);
+        registry.register(new Scheme("http", HTTP_PORT, new InternalSocketFactory(PlainSocketFactory.getSocketFactory())));
 
         try {
-            final TrustManager[] trustManagers = new TrustManager [] { getTrustManager(clientDefaults) };
-            final KeyManager[] keyManagers = getKeyManagers(clientDefaults);
-
-            final SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(keyManagers, trustManagers, null);
+            final SSLContext sslContext = HttpClientTrustManagerFactory.getSSLContext(clientDefaults);
             final SSLSocketFactory sslSocketFactory = new SSLSocketFactory(sslContext);
 
-            registry.register(new Scheme("https", HTTPS_PORT, sslSocketFactory));
+            registry.register(new Scheme("https", HTTPS_PORT, new InternalSSLSocketFactory(sslSocketFactory)));
         } catch (GeneralSecurityException ce) {
             throw new IllegalStateException(ce);
         } catch (IOException ioe) {
             throw new IllegalStateException(ioe);
         }
 
-        connectionManager = new ThreadSafeClientConnManager(registry);
-    }
+        final HttpClientDnsResolver resolver = (dnsResolver == null) ? HttpClientSystemDnsResolver.INSTANCE : dnsResolver;
+        if (clientDefaults.isDnsCacheEnabled()) {
+            dnsCache = HttpClientCachingDnsResolver.forDefaults(resolver, clientDefaults, new BackgroundExecutor());
+        }
+        else {
+            dnsCache = null;
+        }
 
-    /**
-     * @param clientDefaults defaults to read from
-     * @return a trust manager
-     * @throws GeneralSecurityException if the crypto goes wrong
-     * @throws IOException            if trust keystore can't be loaded
-     */
-    @Nonnull
-    private static TrustManager getTrustManager(HttpClientDefaults clientDefaults)
-        throws GeneralSecurityException, IOException
-    {
-        X509TrustManager trustManager;
+        loadBalancer = HttpClientLoadBalancer.forDefaults(clientDefaults, new LoadBalancerListener());
 
-        if (clientDefaults.getSSLTruststore() == null || clientDefaults.getSSLTruststorePassword() == null) {
-            LOG.trace("Not using custom truststore");
-            trustManager = HttpClientTrustManagerFactory.getDefaultTrustManager();
-        } else {
-            LOG.trace("Using custom truststore at %s", clientDefaults.getSSLTruststore());
-            final MultiTrustManager multiTrustManager = new MultiTrustManager();
+        connectionManager = createConnectionManager(clientDefaults.getConnectionPool(), registry, (dnsCache == null) ? resolver : dnsCache);
+        connectionWarmer = new InternalConnectionWarmer(connectionManager, params,
+            InternalConnectionWarmer.parseRoutes(clientDefaults.getWarmRoutes(), registry),
+            clientDefaults.getMinIdlePerRoute(), new WarmupListener());
 
-            if (clientDefaults.useSSLTruststoreFallback()) {
-                LOG.trace("Adding fallback to default trust manager");
-                multiTrustManager.addTrustManager(HttpClientTrustManagerFactory.getDefaultTrustManager());
+        // One client for the lifetime of the factory. Everything that is specific to a
+        // single request goes into the request parameters or the per-request HttpContext.
+        httpClient = new DefaultHttpClient(connectionManager, params) {
+            @Override
+            protected HttpRequestExecutor createRequestExecutor() {
+                return new InternalRequestExecutor();
             }
-            multiTrustManager.addTrustManager(HttpClientTrustManagerFactory.getTrustManagerForHttpClientDefaults(clientDefaults));
-
-            trustManager = multiTrustManager;
-        }
-
-        if (!clientDefaults.useSSLServerCertVerification()) {
-            LOG.trace("Server cert checking disabled");
-            trustManager = new AlwaysTrustServerTrustManager(trustManager);
-        }
-        return trustManager;
+        };
+        httpClient.getCookieSpecs().register(NessCookieSpecFactory.NESS_COOKIE_POLICY, new NessCookieSpecFactory());
+        // Retries are done by the factory, which also retries on status codes and backs off.
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
     }
 
-    /**
-     * @param clientDefaults defaults to read from
-     * @return key manager array to use in SSLContext, or null if no custom trust manager is needed. If
-     *         non-null, it will contain one X509KeyManager.
-     * @throws GeneralSecurityException if the crypto goes wrong
-     * @throws IOException            if client keystore can't be loaded
-     */
-    @CheckForNull
-    private static KeyManager[] getKeyManagers(HttpClientDefaults clientDefaults)
-        throws IOException, GeneralSecurityException {
-        if (clientDefaults.getSSLKeystore() == null ||
-            clientDefaults.getSSLKeystoreType() == null ||
-            clientDefaults.getSSLKeystorePassword() == null) {
-            return null;
+    private static MeteredConnectionManager createConnectionManager(final String connectionPool,
+                                                                    final SchemeRegistry registry,
+                                                                    final HttpClientDnsResolver dnsResolver)
+    {
+        if (CONNECTION_POOL_STRIPED.equalsIgnoreCase(connectionPool)) {
+            return new StripedConnectionManager(registry, dnsResolver);
         }
-
-        final KeyManager manager = HttpClientTrustManagerFactory.getKeyManager(clientDefaults.getSSLKeystore(),
-                                                                               clientDefaults.getSSLKeystoreType(),
-                                                                               clientDefaults.getSSLKeystorePassword());
-        return new KeyManager[] { manager };
-
+        else if (CONNECTION_POOL_THREADSAFE.equalsIgnoreCase(connectionPool)) {
+            return new InternalConnectionManager(registry, dnsResolver);
+        }
+        throw new IllegalArgumentException(String.format("Unknown connection pool '%s'!", connectionPool));
     }
 
     @Override
@@ -211,6 +330,22 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
                 startIdleTimeoutThread();
             }
 
+            asyncExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(asyncThreads,
+                new ThreadFactoryBuilder().setNameFormat("ApacheHttpClient4Factory Async-%d").setDaemon(true).build()));
+
+            // Copies of hedged requests must not queue up behind async requests. Their number is limited by
+            // the hedging budget.
+            hedgeExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("ApacheHttpClient4Factory Hedge-%d").setDaemon(true).build());
+
+            // Most requests finish well before their deadline, so cancelled timeouts must not pile up in the queue.
+            deadlineTimer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("ApacheHttpClient4Factory Deadline").setDaemon(true).build());
+            deadlineTimer.setRemoveOnCancelPolicy(true);
+
+            // Warming up must not hold up the start, failures are reported to the observers.
+            warmConnections();
+
             started = true;
             LOG.debug("Apache HTTPClient4 based factory running.");
         }
@@ -223,7 +358,13 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
             stopped = true;
 
             stopIdleTimeoutThread();
+            asyncExecutor.shutdownNow();
+            hedgeExecutor.shutdownNow();
+            deadlineTimer.shutdownNow();
             connectionManager.shutdown();
+            if (responseCache != null) {
+                responseCache.close();
+            }
 
             LOG.debug("Factory stopped.");
         }
@@ -247,6 +388,135 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
         return connectionContext;
     }
 
+    /**
+     * @return the number of requests that were aborted because they missed their deadline.
+     */
+    public long getDeadlinesExceeded()
+    {
+        return deadlinesExceeded.get();
+    }
+
+    /**
+     * @return the number of copies of hedged requests that were sent.
+     */
+    public long getHedgesSent()
+    {
+        return hedgesSent.get();
+    }
+
+    /**
+     * @return the number of hedged requests that were answered by a copy instead of the request itself.
+     */
+    public long getHedgesWon()
+    {
+        return hedgesWon.get();
+    }
+
+    /**
+     * @return the number of requests that were answered with the response of an identical request that ran at the same time.
+     */
+    public long getRequestsCoalesced()
+    {
+        return (requestCoalescer == null) ? 0L : requestCoalescer.getCoalesced();
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the response cache or null if the client does not cache responses.
+     */
+    @CheckForNull
+    public HttpClientCacheStats getCacheStats()
+    {
+        return (responseCache == null) ? null : responseCache.getStats();
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the negative cache or null if the client does not cache 404 responses.
+     */
+    @CheckForNull
+    public HttpClientNegativeCacheStats getNegativeCacheStats()
+    {
+        return (negativeCache == null) ? null : negativeCache.getStats();
+    }
+
+    /**
+     * @return the number of compressed request bodies, their compression ratio and the CPU time spent sending them.
+     *         Counted for every attempt, including retries and hedges.
+     */
+    public HttpClientCompressionStats getCompressionStats()
+    {
+        return compressionMetrics.getStats();
+    }
+
+    /**
+     * @return the current concurrency limit of every route that was used so far, keyed by scheme, host and port.
+     */
+    public Map<String, Integer> getConcurrencyLimits()
+    {
+        final ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (HttpClientConcurrencyLimiter concurrencyLimiter : concurrencyLimiters.values()) {
+            builder.put(concurrencyLimiter.getRoute(), concurrencyLimiter.getLimit());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of requests that were rejected because their route had too many requests in flight.
+     */
+    public long getConcurrencyLimitRejections()
+    {
+        return concurrencyLimitRejections.get();
+    }
+
+    /**
+     * @return the number of host name lookups that were answered from the DNS cache. Always 0 if the cache is disabled.
+     */
+    public long getDnsCacheHits()
+    {
+        return (dnsCache == null) ? 0L : dnsCache.getHits();
+    }
+
+    /**
+     * @return the number of host name lookups that missed the DNS cache. Always 0 if the cache is disabled.
+     */
+    public long getDnsCacheMisses()
+    {
+        return (dnsCache == null) ? 0L : dnsCache.getMisses();
+    }
+
+    /**
+     * Replaces the backends of a logical service, which requests reach as svc://name/path. Backends are given as
+     * scheme, host and port and keep their latency statistics if they were backends of the service before.
+     * An empty list removes the service.
+     */
+    public void setServiceBackends(final String service, final Collection<URI> backends)
+    {
+        loadBalancer.setBackends(service, backends);
+    }
+
+    /**
+     * @return the state of the backends of all logical services, keyed by service and backend.
+     */
+    public Map<String, Map<String, HttpClientBackendStats>> getBackendStats()
+    {
+        return loadBalancer.getBackendStats();
+    }
+
+    /**
+     * @return the state of the connection pool summed over all routes.
+     */
+    public HttpClientPoolStats getPoolStats()
+    {
+        return connectionManager.getPoolStats();
+    }
+
+    /**
+     * @return the state of the connection pool for every route that was used so far, keyed by scheme, host and port.
+     */
+    public Map<String, HttpClientPoolStats> getRoutePoolStats()
+    {
+        return connectionManager.getRoutePoolStats();
+    }
+
     @Override
     public HttpClientBodySource getHttpBodySourceFor(final Object content) {
         checkRunning();
@@ -289,179 +559,743 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
         LOG.trace("Got a '%s' request", request.getHttpMethod());
 
+        if (negativeCachingExecutor != null) {
+            return negativeCachingExecutor.execute(request);
+        }
+        if (cachingExecutor != null) {
+            return cachingExecutor.execute(request);
+        }
+        return coalesceOrExecute(request);
+    }
+
+    @Override
+    public <T> ListenableFuture<T> performRequestAsync(final HttpClientRequest<T> request) {
+        checkRunning();
+
+        return asyncExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+                return performRequest(request);
+            }
+        });
+    }
+
+    private void initParams() {
+        params.setBooleanParameter(CookieSpecPNames.SINGLE_COOKIE_HEADER, true);
+        params.setParameter(ClientPNames.COOKIE_POLICY, CookiePolicy.BROWSER_COMPATIBILITY);
+        params.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, true);
+    }
+
+    private void checkRunning() {
+        if (!started || stopped) {
+            throw new IllegalStateException("Factory was not started!");
+        }
+    }
+
+    private void stopIdleTimeoutThread() {
+        if (idleTimeoutThread != null) {
+            LOG.debug("Stopping Idle Timeout Thead");
+
+            idleTimeoutThread.shutdown();
+            idleTimeoutThread = null;
+        }
+    }
+
+    private void startIdleTimeoutThread() {
+        stopIdleTimeoutThread();
+
+        idleTimeoutThread = new IdleTimeoutThread();
+        idleTimeoutThread.start();
+
+        LOG.debug("Started Idle Timeout Thread with '%d' idle timeout", this.idleTimeout);
+    }
+
+    private <T> HttpRequestBase createRequest(final HttpClientRequest<T> request, final URI uri) {
         switch (request.getHttpMethod()) {
         case DELETE:
-            return executeRequest(new HttpDelete(request.getUri()), request);
+            return new HttpDelete(uri);
 
         case HEAD:
-            return executeRequest(new HttpHead(request.getUri()), request);
+            return new HttpHead(uri);
 
         case OPTIONS:
-            return executeRequest(new HttpOptions(request.getUri()), request);
+            return new HttpOptions(uri);
 
         case POST:
-            final HttpPost httpPost = new HttpPost(request.getUri());
+            final HttpPost httpPost = new HttpPost(uri);
             final HttpClientBodySource postSource = request.getHttpBodySource();
 
             if (postSource instanceof InternalHttpBodySource) {
-                httpPost.setEntity(((InternalHttpBodySource) postSource).getHttpEntity());
+                httpPost.setEntity(compressRequestBody(request, ((InternalHttpBodySource) postSource).getHttpEntity()));
             }
-            return executeRequest(httpPost, request);
+            return httpPost;
 
         case PUT:
-            final HttpPut httpPut = new HttpPut(request.getUri());
+            final HttpPut httpPut = new HttpPut(uri);
             final HttpClientBodySource putSource = request.getHttpBodySource();
 
             if (putSource instanceof InternalHttpBodySource) {
-                httpPut.setEntity(((InternalHttpBodySource) putSource).getHttpEntity());
+                httpPut.setEntity(compressRequestBody(request, ((InternalHttpBodySource) putSource).getHttpEntity()));
             }
-            return executeRequest(httpPut, request);
+            return httpPut;
 
         case GET:
-            return executeRequest(new HttpGet(request.getUri()), request);
+            return new HttpGet(uri);
 
         default:
             LOG.warn("Got an unknown request type: '%s', falling back to GET",
                 request.getHttpMethod());
-            return executeRequest(new HttpGet(request.getUri()), request);
+            return new HttpGet(uri);
         }
     }
 
-    private void initParams() {
-        params.setBooleanParameter(CookieSpecPNames.SINGLE_COOKIE_HEADER, true);
-        params.setParameter(ClientPNames.COOKIE_POLICY, CookiePolicy.BROWSER_COMPATIBILITY);
-        params.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, true);
+    /**
+     * Wrap the request body to compress it while it is sent, if the request or the client asks for it. Bodies below
+     * the threshold and bodies that already have a content encoding are sent as they are. Called for every attempt,
+     * which compresses the body again.
+     */
+    private HttpEntity compressRequestBody(final HttpClientRequest<?> request, final HttpEntity entity) {
+        final HttpClientCompression compression = (request.getRequestCompression() != null) ? request.getRequestCompression() : requestCompression;
+        if (compression == HttpClientCompression.NONE || entity.getContentEncoding() != null) {
+            return entity;
+        }
+        for (HttpClientHeader header : request.getHeaders()) {
+            if (HTTP.CONTENT_ENCODING.equalsIgnoreCase(header.getName())) {
+                return entity;
+            }
+        }
+
+        final long length = entity.getContentLength();
+        if (length >= 0 && length < requestCompressionThreshold) {
+            compressionMetrics.skipped();
+            return entity;
+        }
+        return new InternalCompressingEntity(entity, compression, compressionMetrics);
     }
 
-    private void checkRunning() {
-        if (!started || stopped) {
-            throw new IllegalStateException("Factory was not started!");
+    /**
+     * Join an identical request that is already running, if the request can be coalesced, or send it.
+     */
+    private <T> T coalesceOrExecute(final HttpClientRequest<T> request) throws IOException {
+        if (requestCoalescer != null && InternalRequestCoalescer.canCoalesce(request)) {
+            final Long timeout = request.getRequestTimeout();
+            return requestCoalescer.perform(request, (timeout != null) ? timeout : requestTimeout);
         }
+        return execute(request);
     }
 
-    private void stopIdleTimeoutThread() {
-        if (idleTimeoutThread != null) {
-            LOG.debug("Stopping Idle Timeout Thead");
+    /**
+     * Send a request, hedged if it asks for it.
+     */
+    private <T> T execute(final HttpClientRequest<T> request) throws IOException {
+        if (request.getHedgeDelay() != null) {
+            return executeHedged(request);
+        }
+        return executeRequest(request, null);
+    }
 
-            idleTimeoutThread.shutdown();
-            idleTimeoutThread = null;
+    /**
+     * Send a hedged request. If it should follow the response times of its route and the route has too few
+     * of them so far, the request is sent without hedges.
+     */
+    private <T> T executeHedged(final HttpClientRequest<T> httpClientRequest) throws IOException {
+        long hedgeDelay = httpClientRequest.getHedgeDelay();
+        if (hedgeDelay == 0) {
+            final HttpClientLatencyTracker latencyTracker = getLatencyTracker(URIUtils.extractHost(httpClientRequest.getUri()));
+            final long percentile = (latencyTracker != null) ? latencyTracker.getPercentile() : HttpClientLatencyTracker.UNKNOWN;
+            if (percentile == HttpClientLatencyTracker.UNKNOWN) {
+                return executeRequest(httpClientRequest, null);
+            }
+            hedgeDelay = Math.max(TimeUnit.NANOSECONDS.toMillis(percentile), 1L);
         }
+
+        hedgeBudget.deposit();
+        return new HedgedRequest<T>(httpClientRequest, hedgeDelay).execute();
     }
 
-    private void startIdleTimeoutThread() {
-        stopIdleTimeoutThread();
+    /**
+     * @param hedge the attempt of a hedged request that this call executes or null if the request is not hedged.
+     */
+    private <T> T executeRequest(final HttpClientRequest<T> httpClientRequest, @Nullable final Hedge hedge) throws IOException {
+        final String service = HttpClientLoadBalancer.getService(httpClientRequest.getUri());
+        final HttpHost requestRoute = URIUtils.extractHost(httpClientRequest.getUri());
+        final HttpClientLatencyTracker latencyTracker = (requestRoute != null) ? latencyTrackers.get(requestRoute) : null;
+        final Completion completion = observeCompletion ? new Completion() : null;
+        Throwable failure = null;
+
+        if (hedge != null) {
+            hedge.completion = completion;
+        }
 
-        idleTimeoutThread = new IdleTimeoutThread();
-        idleTimeoutThread.start();
+        final Deadline deadline = scheduleDeadline(httpClientRequest, hedge);
+        if (hedge == null || !hedge.isCopy()) {
+            retryBudget.deposit();
+        }
 
-        LOG.debug("Started Idle Timeout Thread with '%d' idle timeout", this.idleTimeout);
-    }
+        try {
+            long retryDelay = 0;
 
-    private <T> T executeRequest(final HttpRequestBase httpRequest,
-        final HttpClientRequest<T> httpClientRequest) throws IOException {
-        final DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, setFollowRedirects(params, httpClientRequest));
-        httpClient.getCookieSpecs().register(NessCookieSpecFactory.NESS_COOKIE_POLICY, new NessCookieSpecFactory());
-        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(retries, false));
+            for (int retries = 0; ; retries++) {
+                if (retryDelay > 0) {
+                    sleep(retryDelay);
+                }
 
-        contributeCookies(httpClient, httpClientRequest);
+                // Every attempt picks a backend again, so a retry usually goes to another one.
+                final HttpClientLoadBalancer.Backend chosen = chooseBackend(service, httpClientRequest.getUri());
+                final URI uri = (chosen != null) ? chosen.rewrite(httpClientRequest.getUri()) : httpClientRequest.getUri();
+                final HttpHost route = URIUtils.extractHost(uri);
+                // Plain requests count towards the outlier detection of their route as well.
+                final HttpClientLoadBalancer.Backend backend = (chosen != null || route == null) ? chosen : loadBalancer.getRouteBackend(route.toURI());
+                final HttpClientCircuitBreaker circuitBreaker = getCircuitBreaker(route);
+                final HttpClientConcurrencyLimiter concurrencyLimiter = getConcurrencyLimiter(route);
 
-        contributeParameters(httpClient, httpRequest, httpClientRequest);
+                acquireSlot(concurrencyLimiter, uri, deadline);
+                try {
+                    final long permit = acquirePermit(circuitBreaker, uri);
 
-        contributeHeaders(httpRequest, httpClientRequest);
+                    // An aborted request can not be executed again, so every attempt gets a new one.
+                    final HttpRequestBase httpRequest = createRequest(httpClientRequest, uri);
+                    final HttpContext httpContext = new BasicHttpContext();
 
-        contributeVirtualHost(httpRequest, httpClientRequest);
+                    contributeCookies(httpContext, httpClientRequest);
 
-        contributeAuthentication(httpClient, httpClientRequest);
+                    contributeParameters(httpRequest, httpClientRequest);
 
-        try {
-            final HttpContext httpContext = new BasicHttpContext();
-            final HttpResponse httpResponse = httpClient.execute(httpRequest, httpContext);
+                    contributeFollowRedirects(httpRequest, httpClientRequest);
 
-            final HttpClientResponseHandler<T> responseHandler = httpClientRequest.getHttpHandler();
+                    contributeTimeouts(httpRequest, httpClientRequest);
 
-            try {
-                final HttpClientResponse internalResponse = new InternalResponse(httpRequest, httpResponse);
-                HttpClientResponse response = internalResponse;
+                    contributeHeaders(httpRequest, httpClientRequest);
+
+                    contributeVirtualHost(httpRequest, httpClientRequest);
 
-                if (CollectionUtils.isNotEmpty(httpClientObservers)) {
-                    LOG.trace("Executing Observers");
-                    for (HttpClientObserver observer : httpClientObservers) {
-                        response = observer.onResponseReceived(response);
+                    contributeAuthentication(httpContext, httpClientRequest);
+
+                    if (deadline != null) {
+                        deadline.setRequest(httpRequest);
+                    }
+                    if (hedge != null) {
+                        hedge.setRequest(httpRequest);
                     }
 
-                    if (response != internalResponse) {
-                        LOG.trace("Response was modified by Observers!");
+                    final InternalTimings timings = new InternalTimings();
+                    httpRequest.getParams().setParameter(InternalTimings.TIMINGS, timings);
+                    httpContext.setAttribute(InternalTimings.TIMINGS, timings);
+
+                    final InternalCountingEntity requestBody = (completion != null) ? countRequestBody(httpRequest) : null;
+
+                    final HttpResponse httpResponse;
+                    final long startNanos = System.nanoTime();
+                    final long backendStart = (backend != null) ? backend.start() : 0L;
+                    try {
+                        httpResponse = httpClient.execute(httpRequest, httpContext);
+                    } catch (IOException ioe) {
+                        if (hedge != null && hedge.isLost()) {
+                            // Aborted because another attempt won, which says nothing about the route.
+                            if (backend != null) {
+                                backend.cancel();
+                            }
+                            if (circuitBreaker != null) {
+                                circuitBreaker.release(permit);
+                            }
+                            notifyTimed(httpClientRequest, timings);
+                            abortRequest(httpRequest, deadline, ioe);
+                            throw ioe;
+                        }
+
+                        final long rttNanos = System.nanoTime() - startNanos;
+                        completeBackend(backend, backendStart, true);
+                        recordCall(circuitBreaker, permit, true, rttNanos);
+                        recordSample(concurrencyLimiter, true, rttNanos);
+                        notifyTimed(httpClientRequest, timings);
+                        if (completion != null) {
+                            completion.addBytes(requestBody, null);
+                        }
+                        abortRequest(httpRequest, deadline, ioe);
+
+                        retryDelay = checkRetry(httpClientRequest, httpRequest, retries, retryPolicy.retryFailure(httpClientRequest, retries, ioe), deadline, hedge);
+                        if (retryDelay < 0) {
+                            throw ioe;
+                        }
+                        LOG.debug(ioe, "Retrying '%s' in %d ms", uri, retryDelay);
+                        notifyRetry(httpClientRequest, retries + 1, null, ioe);
+                        continue;
+                    } catch (RuntimeException re) {
+                        completeBackend(backend, backendStart, true);
+                        if (circuitBreaker != null) {
+                            circuitBreaker.release(permit);
+                        }
+                        abortRequest(httpRequest, deadline, re);
+                        throw re;
                     }
-                }
 
-                if (responseHandler != null) {
-                    LOG.trace("Executing Response Handler");
-                    return responseHandler.handle(response);
-                } else {
-                    LOG.debug("No response handler found, discarding response.");
-                    return null;
+                    final long rttNanos = System.nanoTime() - startNanos;
+                    final int statusCode = httpResponse.getStatusLine().getStatusCode();
+                    completeBackend(backend, backendStart, statusCode >= 500);
+                    recordCall(circuitBreaker, permit, statusCode >= 500, rttNanos);
+                    recordSample(concurrencyLimiter, statusCode == 429 || statusCode == 503, rttNanos);
+                    if (latencyTracker != null && statusCode < 500) {
+                        latencyTracker.record(rttNanos);
+                    }
+
+                    final InternalCountingEntity responseBody;
+                    if (completion != null) {
+                        completion.statusCode = statusCode;
+                        responseBody = countResponseBody(httpResponse);
+                    } else {
+                        responseBody = null;
+                    }
+
+                    final T result;
+                    try {
+                        try {
+                            final HttpClientResponse internalResponse = new InternalResponse(httpRequest, httpResponse, timings);
+
+                            retryDelay = checkRetry(httpClientRequest, httpRequest, retries, retryPolicy.retryResponse(httpClientRequest, retries, internalResponse), deadline, hedge);
+                            if (retryDelay >= 0) {
+                                LOG.debug("Retrying '%s' after status %d in %d ms", uri, internalResponse.getStatusCode(), retryDelay);
+                                notifyRetry(httpClientRequest, retries + 1, internalResponse, null);
+                                continue;
+                            }
+
+                            if (hedge != null && !hedge.win(statusCode < 500)) {
+                                // The response is not used, so do not read it. Aborting closes the connection.
+                                httpRequest.abort();
+                                throw new InterruptedIOException(String.format("Dropped response from '%s', another attempt of the hedged request won or is still running", uri));
+                            }
+
+                            result = handleResponse(httpClientRequest, internalResponse);
+                        } finally {
+                            try {
+                                // Make sure that the content has definitely been consumed. Otherwise,
+                                // keep-alive does not work.
+                                EntityUtils.consume(httpResponse.getEntity());
+                            } finally {
+                                timings.responseConsumed(System.nanoTime());
+                                notifyTimed(httpClientRequest, timings);
+                                if (completion != null) {
+                                    completion.addBytes(requestBody, responseBody);
+                                }
+                            }
+                        }
+                    } catch (IOException ioe) {
+                        abortRequest(httpRequest, deadline, ioe);
+                        throw ioe;
+                    } catch (RuntimeException re) {
+                        abortRequest(httpRequest, deadline, re);
+                        throw re;
+                    }
+
+                    if (completion != null) {
+                        completion.completed = true;
+                    }
+                    return result;
+                } finally {
+                    if (concurrencyLimiter != null) {
+                        concurrencyLimiter.release();
+                    }
                 }
-            } finally {
-                // Make sure that the content has definitely been consumed. Otherwise,
-                // keep-alive does not work.
-                EntityUtils.consume(httpResponse.getEntity());
             }
         } catch (IOException ioe) {
-            LOG.debug(ioe, "Aborting Request!");
-            httpRequest.abort();
+            failure = ioe;
             throw ioe;
         } catch (RuntimeException re) {
-            LOG.debug(re, "Aborting Request!");
-            httpRequest.abort();
+            failure = re;
             throw re;
+        } catch (Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            // The completion of a hedged request is reported once for all of its attempts.
+            if (completion != null && hedge == null) {
+                notifyCompletion(httpClientRequest, completion, failure);
+            }
         }
     }
 
-    private <T> void contributeCookies(final DefaultHttpClient httpClient,
-        final HttpClientRequest<T> httpClientRequest) {
-        final List<Cookie> cookies = httpClientRequest.getCookies();
-
-        if (CollectionUtils.isNotEmpty(cookies)) {
-            final CookieStore cookieStore = new BasicCookieStore();
-            for (final Cookie cookie : cookies) {
-                final BasicClientCookie httpCookie =
-                    new BasicClientCookie(cookie.getName(), cookie.getValue());
-
-                final int maxAge = cookie.getMaxAge();
-
-                if (maxAge > 0) {
-                    final Date expire = new Date(System.currentTimeMillis() + maxAge * 1000L);
-                    httpCookie.setExpiryDate(expire);
-                    httpCookie.setAttribute(ClientCookie.MAX_AGE_ATTR, Integer.toString(maxAge));
-                }
+    private <T> T handleResponse(final HttpClientRequest<T> httpClientRequest,
+        final HttpClientResponse internalResponse) throws IOException {
+        HttpClientResponse response = internalResponse;
 
-                httpCookie.setVersion(1);
-                httpCookie.setPath(cookie.getPath());
-                httpCookie.setDomain(cookie.getDomain());
-                httpCookie.setSecure(cookie.getSecure());
+        if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+            LOG.trace("Executing Observers");
+            for (HttpClientObserver observer : httpClientObservers) {
+                response = observer.onResponseReceived(response);
+            }
 
-                LOG.debug("Adding cookie to the request: '%s'", httpCookie);
-                cookieStore.addCookie(httpCookie);
+            if (response != internalResponse) {
+                LOG.trace("Response was modified by Observers!");
             }
-            httpClient.setCookieStore(cookieStore);
+        }
+
+        final HttpClientResponseHandler<T> responseHandler = httpClientRequest.getHttpHandler();
+        if (responseHandler != null) {
+            LOG.trace("Executing Response Handler");
+            return responseHandler.handle(response);
         } else {
-            LOG.debug("No cookies found.");
-            httpClient.setCookieStore(null);
+            LOG.debug("No response handler found, discarding response.");
+            return null;
         }
     }
 
-    private <T> void contributeParameters(final DefaultHttpClient httpClient,
-                                          final HttpRequestBase httpRequest,
+    /**
+     * Abort a failed request. If it failed because it missed its deadline, report a timeout instead.
+     */
+    private static void abortRequest(final HttpRequestBase httpRequest, @Nullable final Deadline deadline,
+        final Exception cause) throws RequestTimeoutException {
+        LOG.debug(cause, "Aborting Request!");
+        httpRequest.abort();
+
+        if (deadline != null && deadline.isExpired() && !(cause instanceof RequestTimeoutException)) {
+            throw new RequestTimeoutException(cause, "Request to '%s' did not complete within %d ms", deadline.getUri(), deadline.getTimeout());
+        }
+    }
+
+    /**
+     * The retry policy decides whether a retry makes sense. A retry must also be possible and
+     * fit into the retry limit, the deadline and the retry budget of the client. Requests that
+     * can fall back to an expired cached response use it instead of retrying.
+     *
+     * @return the delay before retrying or {@link HttpClientRetryPolicy#NO_RETRY}.
+     */
+    private long checkRetry(final HttpClientRequest<?> httpClientRequest, final HttpRequestBase httpRequest, final int retries,
+        final long retryDelay, @Nullable final Deadline deadline, @Nullable final Hedge hedge) {
+        if (retryDelay < 0 || retries >= maxRetries) {
+            return HttpClientRetryPolicy.NO_RETRY;
+        }
+
+        if (InternalCachingExecutor.hasFallback(httpClientRequest)) {
+            return HttpClientRetryPolicy.NO_RETRY;
+        }
+
+        if (hedge != null && hedge.isLost()) {
+            return HttpClientRetryPolicy.NO_RETRY;
+        }
+
+        if (httpRequest instanceof HttpEntityEnclosingRequest) {
+            final HttpEntity entity = ((HttpEntityEnclosingRequest) httpRequest).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return HttpClientRetryPolicy.NO_RETRY;
+            }
+        }
+
+        if (deadline != null && retryDelay >= deadline.getRemainingMillis()) {
+            return HttpClientRetryPolicy.NO_RETRY;
+        }
+
+        if (!retryBudget.withdraw()) {
+            LOG.debug("Retry budget exhausted, not retrying '%s'", httpRequest.getURI());
+            return HttpClientRetryPolicy.NO_RETRY;
+        }
+
+        return retryDelay;
+    }
+
+    /**
+     * @return the backend for the next attempt of a request to a logical service or null if the request is not to a service.
+     */
+    @Nullable
+    private HttpClientLoadBalancer.Backend chooseBackend(@Nullable final String service, final URI uri)
+        throws UnknownHostException {
+        if (service == null) {
+            return null;
+        }
+
+        final HttpClientLoadBalancer.Backend backend = loadBalancer.choose(service);
+        if (backend == null) {
+            throw new UnknownHostException(String.format("Service '%s' has no backends, not sending request to '%s'", service, uri));
+        }
+        return backend;
+    }
+
+    private static void completeBackend(@Nullable final HttpClientLoadBalancer.Backend backend, final long start,
+        final boolean failed) {
+        if (backend != null) {
+            backend.complete(start, failed);
+        }
+    }
+
+    /**
+     * @return the latency tracker for the route, which records response times from now on, or null if the request has no route.
+     */
+    @Nullable
+    private HttpClientLatencyTracker getLatencyTracker(@Nullable final HttpHost route) {
+        if (route == null) {
+            return null;
+        }
+
+        HttpClientLatencyTracker latencyTracker = latencyTrackers.get(route);
+        if (latencyTracker == null) {
+            final HttpClientLatencyTracker newLatencyTracker = new HttpClientLatencyTracker(clientDefaults.getHedgingPercentile(), LATENCY_WINDOW_SIZE, LATENCY_MIN_SAMPLES);
+            latencyTracker = latencyTrackers.putIfAbsent(route, newLatencyTracker);
+            if (latencyTracker == null) {
+                latencyTracker = newLatencyTracker;
+            }
+        }
+        return latencyTracker;
+    }
+
+    /**
+     * @return the circuit breaker for the route of the request or null if there is none.
+     */
+    @Nullable
+    private HttpClientCircuitBreaker getCircuitBreaker(@Nullable final HttpHost route) {
+        if (route == null || !clientDefaults.isCircuitBreakerEnabled()) {
+            return null;
+        }
+
+        HttpClientCircuitBreaker circuitBreaker = circuitBreakers.get(route);
+        if (circuitBreaker == null) {
+            final HttpClientCircuitBreaker newCircuitBreaker = HttpClientCircuitBreaker.forDefaults(route.toURI(), clientDefaults, circuitBreakerListener);
+            circuitBreaker = circuitBreakers.putIfAbsent(route, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    private static long acquirePermit(@Nullable final HttpClientCircuitBreaker circuitBreaker, final URI uri)
+        throws CircuitBreakerOpenException {
+        if (circuitBreaker == null) {
+            return 0L;
+        }
+
+        final long permit = circuitBreaker.acquire();
+        if (permit == HttpClientCircuitBreaker.REJECTED) {
+            throw new CircuitBreakerOpenException("Circuit breaker for '%s' is open, not sending request to '%s'", circuitBreaker.getRoute(), uri);
+        }
+        return permit;
+    }
+
+    /**
+     * A call counts as failed if it got no response or a 5xx status and as slow if the
+     * response headers took too long to arrive.
+     */
+    private static void recordCall(@Nullable final HttpClientCircuitBreaker circuitBreaker, final long permit,
+        final boolean failed, final long rttNanos) {
+        if (circuitBreaker != null) {
+            circuitBreaker.record(permit, failed, circuitBreaker.isSlow(rttNanos));
+        }
+    }
+
+    /**
+     * @return the concurrency limiter for the route of the request or null if there is none.
+     */
+    @Nullable
+    private HttpClientConcurrencyLimiter getConcurrencyLimiter(@Nullable final HttpHost route) {
+        if (route == null || !clientDefaults.isConcurrencyLimitEnabled()) {
+            return null;
+        }
+
+        HttpClientConcurrencyLimiter concurrencyLimiter = concurrencyLimiters.get(route);
+        if (concurrencyLimiter == null) {
+            final HttpClientConcurrencyLimiter newConcurrencyLimiter = HttpClientConcurrencyLimiter.forDefaults(route.toURI(), clientDefaults);
+            concurrencyLimiter = concurrencyLimiters.putIfAbsent(route, newConcurrencyLimiter);
+            if (concurrencyLimiter == null) {
+                concurrencyLimiter = newConcurrencyLimiter;
+            }
+        }
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Wait for the route to have room for another request, but no longer than the queue timeout
+     * and the deadline of the request allow.
+     */
+    private void acquireSlot(@Nullable final HttpClientConcurrencyLimiter concurrencyLimiter, final URI uri,
+        @Nullable final Deadline deadline) throws IOException {
+        if (concurrencyLimiter == null) {
+            return;
+        }
+
+        long timeout = clientDefaults.getConcurrencyLimitQueueTimeout().getMillis();
+        if (deadline != null) {
+            timeout = Math.min(timeout, deadline.getRemainingMillis());
+        }
+
+        try {
+            if (!concurrencyLimiter.acquire(timeout)) {
+                concurrencyLimitRejections.incrementAndGet();
+                throw new ConcurrencyLimitExceededException("Limit of %d requests in flight to '%s' reached, not sending request to '%s'",
+                    concurrencyLimiter.getLimit(), concurrencyLimiter.getRoute(), uri);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request to '" + concurrencyLimiter.getRoute() + "' to finish");
+        }
+    }
+
+    /**
+     * A sample counts as dropped if the request got no response or the server reported that it is overloaded.
+     */
+    private static void recordSample(@Nullable final HttpClientConcurrencyLimiter concurrencyLimiter,
+        final boolean dropped, final long rttNanos) {
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.onSample(rttNanos, dropped);
+        }
+    }
+
+    private void notifyRetry(final HttpClientRequest<?> httpClientRequest, final int retries,
+        @Nullable final HttpClientResponse response, @Nullable final IOException failure) {
+        if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+            for (HttpClientObserver observer : httpClientObservers) {
+                observer.onRetry(httpClientRequest, retries, response, failure);
+            }
+        }
+    }
+
+    private void notifyCompletion(final HttpClientRequest<?> httpClientRequest, final Completion completion,
+        @Nullable final Throwable failure) {
+        final long elapsedNanos = System.nanoTime() - completion.startNanos;
+
+        for (HttpClientObserver observer : httpClientObservers) {
+            if (completion.completed) {
+                observer.onRequestCompleted(httpClientRequest, completion.statusCode, elapsedNanos, completion.bytesSent, completion.bytesReceived);
+            } else {
+                observer.onRequestFailed(httpClientRequest, completion.statusCode, elapsedNanos, completion.bytesSent, completion.bytesReceived, failure);
+            }
+        }
+    }
+
+    /**
+     * Wrap the request body, if there is one, to count the bytes sent.
+     */
+    @Nullable
+    private static InternalCountingEntity countRequestBody(final HttpRequestBase httpRequest) {
+        if (httpRequest instanceof HttpEntityEnclosingRequest) {
+            final HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) httpRequest;
+            if (entityRequest.getEntity() != null) {
+                final InternalCountingEntity requestBody = new InternalCountingEntity(entityRequest.getEntity());
+                entityRequest.setEntity(requestBody);
+                return requestBody;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wrap the response body, if there is one, to count the bytes received.
+     */
+    @Nullable
+    private static InternalCountingEntity countResponseBody(final HttpResponse httpResponse) {
+        if (httpResponse.getEntity() != null) {
+            final InternalCountingEntity responseBody = new InternalCountingEntity(httpResponse.getEntity());
+            httpResponse.setEntity(responseBody);
+            return responseBody;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if any observer wants to know when a request completed or failed. Otherwise,
+     * the bytes of requests and responses are not counted.
+     */
+    private static boolean observesCompletion(@Nullable final Set<? extends HttpClientObserver> httpClientObservers) {
+        if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+            for (HttpClientObserver observer : httpClientObservers) {
+                try {
+                    final Class<?> observerClass = observer.getClass();
+                    if (observerClass.getMethod("onRequestCompleted", HttpClientRequest.class, int.class, long.class, long.class, long.class).getDeclaringClass() != HttpClientObserver.class
+                        || observerClass.getMethod("onRequestFailed", HttpClientRequest.class, int.class, long.class, long.class, long.class, Throwable.class).getDeclaringClass() != HttpClientObserver.class) {
+                        return true;
+                    }
+                } catch (NoSuchMethodException nsme) {
+                    throw new IllegalStateException(nsme);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void notifyTimed(final HttpClientRequest<?> httpClientRequest, final HttpClientTimings timings) {
+        if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+            for (HttpClientObserver observer : httpClientObservers) {
+                observer.onRequestTimed(httpClientRequest, timings);
+            }
+        }
+    }
+
+    private static void sleep(final long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Abort the request when it is not done by its deadline. The deadline covers waiting for a connection,
+     * connecting, sending the request and reading the response until the response handler returns,
+     * including all retries.
+     *
+     * @param hedge the attempt of a hedged request that this call executes or null if the request is not hedged.
+     * @return the deadline or null if the request has none.
+     */
+    private <T> Deadline scheduleDeadline(final HttpClientRequest<T> httpClientRequest, @Nullable final Hedge hedge) {
+        final Long timeout = httpClientRequest.getRequestTimeout();
+        final long deadlineMillis = (timeout != null) ? timeout : requestTimeout;
+        if (deadlineMillis <= 0) {
+            return null;
+        }
+
+        final Deadline deadline = new Deadline(httpClientRequest.getUri(), deadlineMillis, hedge);
+        deadline.schedule();
+        return deadline;
+    }
+
+    private <T> void contributeCookies(final HttpContext httpContext,
+        final HttpClientRequest<T> httpClientRequest) {
+        final List<Cookie> cookies = httpClientRequest.getCookies();
+
+        // Every request gets its own cookie store. Otherwise the default store of the shared
+        // client would collect cookies from responses and hand them to unrelated requests.
+        final CookieStore cookieStore = new BasicCookieStore();
+
+        if (CollectionUtils.isNotEmpty(cookies)) {
+            for (final Cookie cookie : cookies) {
+                final BasicClientCookie httpCookie =
+                    new BasicClientCookie(cookie.getName(), cookie.getValue());
+
+                final int maxAge = cookie.getMaxAge();
+
+                if (maxAge > 0) {
+                    final Date expire = new Date(System.currentTimeMillis() + maxAge * 1000L);
+                    httpCookie.setExpiryDate(expire);
+                    httpCookie.setAttribute(ClientCookie.MAX_AGE_ATTR, Integer.toString(maxAge));
+                }
+
+                httpCookie.setVersion(1);
+                httpCookie.setPath(cookie.getPath());
+                httpCookie.setDomain(cookie.getDomain());
+                httpCookie.setSecure(cookie.getSecure());
+
+                LOG.debug("Adding cookie to the request: '%s'", httpCookie);
+                cookieStore.addCookie(httpCookie);
+            }
+        } else {
+            LOG.debug("No cookies found.");
+        }
+        httpContext.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
+    }
+
+    /**
+     * Request parameters take precedence over the client parameters, so the shared client
+     * parameters never need to be touched for a single request.
+     */
+    private <T> void contributeParameters(final HttpRequestBase httpRequest,
                                           final HttpClientRequest<T> httpClientRequest)
     {
         final Map<String, Object> parameters = httpClientRequest.getParameters();
 
         if (parameters != null && parameters.size() > 0) {
-            HttpParams clientParams = httpClient.getParams();
-            HttpParams requestParams = httpRequest.getParams();
+            final HttpParams requestParams = httpRequest.getParams();
 
             for (Map.Entry<String, Object> entry: parameters.entrySet()) {
-                clientParams.setParameter(entry.getKey(), entry.getValue());
                 requestParams.setParameter(entry.getKey(), entry.getValue());
             }
         }
@@ -500,21 +1334,46 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
         }
     }
 
-    private <T> void contributeAuthentication(final DefaultHttpClient httpClient,
+    private <T> void contributeAuthentication(final HttpContext httpContext,
         final HttpClientRequest<T> httpClientRequest) {
         final List<HttpClientAuthProvider> authProviders = httpClientRequest.getAuthProviders();
         if (CollectionUtils.isNotEmpty(authProviders)) {
-            httpClient.setCredentialsProvider(new InternalCredentialsProvider(authProviders));
+            httpContext.setAttribute(ClientContext.CREDS_PROVIDER, new InternalCredentialsProvider(authProviders));
         }
     }
 
-    private <T> HttpParams setFollowRedirects(final HttpParams params,
+    private <T> void contributeFollowRedirects(final HttpRequestBase httpRequest,
         final HttpClientRequest<T> httpClientRequest) {
-        Boolean followRedirects = httpClientRequest.followRedirects();
+        final Boolean followRedirects = httpClientRequest.followRedirects();
         if (followRedirects != null) {
-            return params.copy().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, followRedirects);
+            httpRequest.getParams().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, followRedirects);
+        }
+    }
+
+    /**
+     * Timeouts of a single request go into the request parameters, which are layered on top
+     * of the client parameters.
+     */
+    @SuppressWarnings("deprecation")
+    private <T> void contributeTimeouts(final HttpRequestBase httpRequest,
+        final HttpClientRequest<T> httpClientRequest) {
+        final HttpParams requestParams = httpRequest.getParams();
+
+        final Long connectTimeout = httpClientRequest.getConnectTimeout();
+        if (connectTimeout != null) {
+            requestParams.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, (int) connectTimeout.longValue());
+        }
+
+        final Long socketTimeout = httpClientRequest.getSocketTimeout();
+        if (socketTimeout != null) {
+            requestParams.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, (int) socketTimeout.longValue());
+        }
+
+        final Long leaseTimeout = httpClientRequest.getLeaseTimeout();
+        if (leaseTimeout != null) {
+            // Deprecated, but 4.1 has no other key for it and DefaultRequestDirector still reads it.
+            requestParams.setLongParameter(org.apache.http.conn.params.ConnManagerPNames.TIMEOUT, leaseTimeout);
         }
-        return params;
     }
 
     private class InternalConnectionContext implements HttpClientConnectionContext {
@@ -553,7 +1412,7 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
         @Override
         public void setRequestTimeout(final long reqTimeout) {
-            params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, (int) reqTimeout);
+            ApacheHttpClient4Factory.this.requestTimeout = reqTimeout;
         }
 
         @Override
@@ -568,7 +1427,591 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
         @Override
         public void setRetries(final int retries) {
-            ApacheHttpClient4Factory.this.retries = retries;
+            ApacheHttpClient4Factory.this.maxRetries = retries;
+        }
+
+        @Override
+        public void setRetryPolicy(final HttpClientRetryPolicy retryPolicy) {
+            Preconditions.checkArgument(retryPolicy != null, "retryPolicy can not be null!");
+            ApacheHttpClient4Factory.this.retryPolicy = retryPolicy;
+        }
+
+        @Override
+        public void setRetryBudget(final double retryBudget) {
+            ApacheHttpClient4Factory.this.retryBudget.setRatio(retryBudget);
+        }
+
+        @Override
+        public void setAsyncThreads(final int asyncThreads) {
+            ApacheHttpClient4Factory.this.asyncThreads = asyncThreads;
+        }
+
+        @Override
+        public HttpClientPoolStats getPoolStats() {
+            return ApacheHttpClient4Factory.this.getPoolStats();
+        }
+
+        @Override
+        public Map<String, HttpClientPoolStats> getRoutePoolStats() {
+            return ApacheHttpClient4Factory.this.getRoutePoolStats();
+        }
+    }
+
+    /** What observers learn about a request when it completed or failed. */
+    private static class Completion {
+        private final long startNanos = System.nanoTime();
+        private boolean completed = false;
+        private int statusCode = 0;
+        private long bytesSent = 0;
+        private long bytesReceived = 0;
+
+        private void addBytes(@Nullable final InternalCountingEntity requestBody, @Nullable final InternalCountingEntity responseBody) {
+            if (requestBody != null) {
+                bytesSent += requestBody.getBytesWritten();
+            }
+            if (responseBody != null) {
+                bytesReceived += responseBody.getBytesRead();
+            }
+        }
+
+        private void copyFrom(final Completion attempt) {
+            completed = attempt.completed;
+            statusCode = attempt.statusCode;
+            bytesSent = attempt.bytesSent;
+            bytesReceived = attempt.bytesReceived;
+        }
+    }
+
+    /**
+     * Sends a request and, as long as no response arrived, a copy of it after every hedge delay. The request
+     * runs on the calling thread, the copies run on the hedge executor. The first attempt that gets a response
+     * wins and the others are aborted, which closes their connections. An attempt that got a 5xx response holds
+     * on to it until the other running attempts are done, and wins if none of them got a better response. It
+     * holds on to it for one hedge delay at most and never past the deadline of the request.
+     */
+    private class HedgedRequest<T> {
+        private final HttpClientRequest<T> httpClientRequest;
+        private final long hedgeDelay;
+        private final long deadlineMillis;
+        private final long startNanos = System.nanoTime();
+        private final Completion completion = observeCompletion ? new Completion() : null;
+        private final SettableFuture<T> outcome = SettableFuture.create();
+
+        private final List<Hedge> attempts = Lists.newArrayList();
+        /** Attempts that started executing and did not finish yet. */
+        private int running = 0;
+        /** Running attempts that hold a 5xx response and wait for the others. */
+        private int pending = 0;
+        private boolean done = false;
+        private Hedge winner = null;
+        private Hedge last = null;
+        private ScheduledFuture<?> nextHedge = null;
+
+        private HedgedRequest(final HttpClientRequest<T> httpClientRequest, final long hedgeDelay) {
+            this.httpClientRequest = httpClientRequest;
+            this.hedgeDelay = hedgeDelay;
+
+            final Long timeout = httpClientRequest.getRequestTimeout();
+            this.deadlineMillis = (timeout != null) ? timeout : requestTimeout;
+        }
+
+        private T execute() throws IOException {
+            final Hedge first;
+            synchronized (this) {
+                first = newAttempt(false);
+                running++;
+                scheduleHedge();
+            }
+
+            Throwable failure = null;
+            try {
+                run(first, httpClientRequest);
+                return outcome.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                abortAll();
+                final InterruptedIOException iioe = new InterruptedIOException("Interrupted while waiting for a hedged request to '" + httpClientRequest.getUri() + "'");
+                failure = iioe;
+                throw iioe;
+            } catch (ExecutionException ee) {
+                failure = ee.getCause();
+                Throwables.propagateIfPossible(failure, IOException.class);
+                throw Throwables.propagate(failure);
+            } finally {
+                if (completion != null) {
+                    final Hedge attempt = getLast();
+                    if (attempt != null && attempt.completion != null) {
+                        completion.copyFrom(attempt.completion);
+                    }
+                    notifyCompletion(httpClientRequest, completion, failure);
+                }
+            }
+        }
+
+        private void run(final Hedge attempt, final HttpClientRequest<T> request) {
+            T result = null;
+            Throwable failure = null;
+            try {
+                result = executeRequest(request, attempt);
+            } catch (Throwable t) {
+                // Handed to the caller through the outcome.
+                failure = t;
+            }
+            finish(attempt, result, failure);
+        }
+
+        private Hedge newAttempt(final boolean copy) {
+            final Hedge attempt = new Hedge(this, copy);
+            attempts.add(attempt);
+            return attempt;
+        }
+
+        /**
+         * A copy only counts as running once it executes, so nobody waits for a copy that is still queued.
+         *
+         * @return false if the copy is not needed anymore.
+         */
+        private synchronized boolean start(final Hedge attempt) {
+            if (done || attempt.lost) {
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        private void scheduleHedge() {
+            if (!done && attempts.size() <= httpClientRequest.getMaxHedges()) {
+                nextHedge = deadlineTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendHedge();
+                    }
+                }, hedgeDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Runs on the deadline timer. A copy gets what is left of the deadline of the request.
+         */
+        private void sendHedge() {
+            final HttpClientRequest<T> hedgeRequest;
+            if (deadlineMillis > 0) {
+                final long remainingMillis = deadlineMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                if (remainingMillis <= 0) {
+                    return;
+                }
+                hedgeRequest = HttpClientRequest.Builder.fromRequest(httpClientRequest).setRequestTimeout(remainingMillis).request();
+            } else {
+                hedgeRequest = httpClientRequest;
+            }
+
+            final Hedge attempt;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (!hedgeBudget.withdraw()) {
+                    LOG.debug("Hedging budget exhausted, not hedging '%s'", httpClientRequest.getUri());
+                    return;
+                }
+                attempt = newAttempt(true);
+                scheduleHedge();
+            }
+
+            hedgesSent.incrementAndGet();
+            try {
+                hedgeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (start(attempt)) {
+                            HedgedRequest.this.run(attempt, hedgeRequest);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                // The copy never ran, the other attempts carry on.
+                LOG.debug(ree, "Could not send a copy of '%s'", httpClientRequest.getUri());
+            }
+        }
+
+        /**
+         * @return true if the attempt got the response that is used.
+         */
+        private boolean win(final Hedge attempt, final boolean successful) {
+            final List<Hedge> losers = Lists.newArrayList();
+            synchronized (this) {
+                if (!successful) {
+                    // Another attempt may still get a better response. Wait until every other running attempt either
+                    // won, failed or holds a 5xx as well, or until the wait runs out.
+                    pending++;
+                    try {
+                        final long waitUntil = System.nanoTime() + getMaxWaitNanos();
+                        while (winner == null && !attempt.lost && !attempt.expired && running - pending > 0) {
+                            final long remainingNanos = waitUntil - System.nanoTime();
+                            if (remainingNanos <= 0) {
+                                break;
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        attempt.lost = true;
+                    } finally {
+                        pending--;
+                    }
+                }
+                if (attempt.expired) {
+                    return false;
+                }
+                if (winner != null || attempt.lost) {
+                    attempt.lost = true;
+                    return false;
+                }
+                winner = attempt;
+                stopHedging();
+                notifyAll();
+                for (Hedge other : attempts) {
+                    if (other != attempt) {
+                        losers.add(other);
+                    }
+                }
+            }
+
+            if (attempt.isCopy()) {
+                hedgesWon.incrementAndGet();
+            }
+            for (Hedge loser : losers) {
+                loser.abort();
+            }
+            return true;
+        }
+
+        /**
+         * The outcome is the result of the winner or, if no attempt won, the failure of the attempt that finished last.
+         */
+        private void finish(final Hedge attempt, @Nullable final T result, @Nullable final Throwable failure) {
+            synchronized (this) {
+                running--;
+                notifyAll();
+                if (winner != null ? winner != attempt : running > 0) {
+                    return;
+                }
+                stopHedging();
+                last = attempt;
+            }
+
+            if (failure == null) {
+                outcome.set(result);
+            } else {
+                outcome.setException(failure);
+            }
+        }
+
+        /**
+         * @return how long an attempt with a 5xx response waits for the others, at most.
+         */
+        private long getMaxWaitNanos() {
+            final long hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelay);
+            if (deadlineMillis > 0) {
+                return Math.min(hedgeDelayNanos, TimeUnit.MILLISECONDS.toNanos(deadlineMillis) - (System.nanoTime() - startNanos));
+            }
+            return hedgeDelayNanos;
+        }
+
+        /**
+         * Called by the deadline of an attempt. The attempt stops waiting for the others.
+         */
+        private synchronized void expire(final Hedge attempt) {
+            attempt.expired = true;
+            notifyAll();
+        }
+
+        private void stopHedging() {
+            done = true;
+            if (nextHedge != null) {
+                nextHedge.cancel(false);
+            }
+        }
+
+        private void abortAll() {
+            final List<Hedge> all;
+            synchronized (this) {
+                stopHedging();
+                all = Lists.newArrayList(attempts);
+                for (Hedge attempt : all) {
+                    attempt.lost = true;
+                }
+                notifyAll();
+            }
+            for (Hedge attempt : all) {
+                attempt.abort();
+            }
+        }
+
+        private synchronized Hedge getLast() {
+            return last;
+        }
+    }
+
+    /**
+     * A single attempt of a hedged request.
+     */
+    private static class Hedge {
+        private final HedgedRequest<?> hedgedRequest;
+        private final boolean copy;
+
+        private volatile HttpRequestBase httpRequest = null;
+        private volatile boolean lost = false;
+        /** The deadline of the attempt passed. Guarded by the hedged request. */
+        private boolean expired = false;
+        private Completion completion = null;
+
+        private Hedge(final HedgedRequest<?> hedgedRequest, final boolean copy) {
+            this.hedgedRequest = hedgedRequest;
+            this.copy = copy;
+        }
+
+        private boolean isCopy() {
+            return copy;
+        }
+
+        private boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * Set the request that is currently executed. Aborts it right away if another attempt already won.
+         */
+        private void setRequest(final HttpRequestBase httpRequest) {
+            this.httpRequest = httpRequest;
+            if (lost) {
+                httpRequest.abort();
+            }
+        }
+
+        private boolean win(final boolean successful) {
+            return hedgedRequest.win(this, successful);
+        }
+
+        private void expire() {
+            hedgedRequest.expire(this);
+        }
+
+        private void abort() {
+            lost = true;
+            final HttpRequestBase current = httpRequest;
+            if (current != null) {
+                current.abort();
+            }
+        }
+    }
+
+    /** Handles requests that were not answered from the cache. */
+    private class UncachedRequestExecutor implements InternalRequestCoalescer.RequestExecutor {
+        @Override
+        public <T> T execute(final HttpClientRequest<T> request) throws IOException {
+            return coalesceOrExecute(request);
+        }
+    }
+
+    /** Makes the calls of coalesced requests. The observers have already seen the request. */
+    private class CoalescedRequestExecutor implements InternalRequestCoalescer.RequestExecutor {
+        @Override
+        public <T> T execute(final HttpClientRequest<T> request) throws IOException {
+            return ApacheHttpClient4Factory.this.execute(request);
+        }
+    }
+
+    /** Reports the completion of requests that were answered without a call of their own to the observers. */
+    private class LocalCompletionListener implements InternalLocalResponder.Listener {
+        @Override
+        public void onLocalCompletion(final HttpClientRequest<?> request, final int statusCode, final long elapsedNanos, @Nullable final Throwable failure) {
+            if (!observeCompletion) {
+                return;
+            }
+            for (HttpClientObserver observer : httpClientObservers) {
+                if (failure == null) {
+                    observer.onRequestCompleted(request, statusCode, elapsedNanos, 0L, 0L);
+                } else {
+                    observer.onRequestFailed(request, statusCode, elapsedNanos, 0L, 0L, failure);
+                }
+            }
+        }
+    }
+
+    /** Reports ejections of service backends to the observers. */
+    private class LoadBalancerListener implements HttpClientLoadBalancer.Listener {
+        @Override
+        public void onEjected(final HttpClientLoadBalancer.Backend backend, final long ejectionMillis, final String reason) {
+            LOG.warn("Ejecting backend '%s' for %d ms: %s", backend.getName(), ejectionMillis, reason);
+
+            if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+                for (HttpClientObserver observer : httpClientObservers) {
+                    observer.onBackendEjected(backend.getName(), ejectionMillis, reason);
+                }
+            }
+        }
+
+        @Override
+        public void onReadmitted(final HttpClientLoadBalancer.Backend backend) {
+            LOG.info("Backend '%s' is back in rotation", backend.getName());
+
+            if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+                for (HttpClientObserver observer : httpClientObservers) {
+                    observer.onBackendReadmitted(backend.getName());
+                }
+            }
+        }
+    }
+
+    /** Reports state changes of the circuit breakers to the observers. */
+    private class CircuitBreakerListener implements HttpClientCircuitBreaker.Listener {
+        @Override
+        public void onStateChange(final HttpClientCircuitBreaker circuitBreaker,
+            final CircuitBreakerState oldState, final CircuitBreakerState newState) {
+            LOG.info("Circuit breaker for '%s' changed from %s to %s", circuitBreaker.getRoute(), oldState, newState);
+
+            if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+                for (HttpClientObserver observer : httpClientObservers) {
+                    observer.onCircuitBreakerStateChange(circuitBreaker.getRoute(), oldState, newState);
+                }
+            }
+        }
+    }
+
+    /** Reports requests that were answered with expired cached responses to the observers. */
+    private class StaleResponseListener implements InternalCachingExecutor.Listener {
+        @Override
+        public void onStaleResponseServed(final HttpClientRequest<?> request, final long stalenessMillis, final String reason) {
+            if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+                for (HttpClientObserver observer : httpClientObservers) {
+                    observer.onStaleResponseServed(request, stalenessMillis, reason);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open connections to the warm routes on the async executor. Only one warm-up runs at a time.
+     */
+    private void warmConnections() {
+        final ListeningExecutorService executor = asyncExecutor;
+        if (executor == null || !connectionWarmer.hasRoutes() || !warming.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connectionWarmer.warm();
+                    } catch (RuntimeException re) {
+                        LOG.warn(re, "Could not warm up connections");
+                    } finally {
+                        warming.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // Stopped in the meantime.
+            warming.set(false);
+        }
+    }
+
+    /** Refreshes host names and cached responses on the async executor, but only while the factory is running. */
+    private class BackgroundExecutor implements Executor {
+        @Override
+        public void execute(final Runnable command) {
+            final ListeningExecutorService executor = asyncExecutor;
+            if (executor == null || !started || stopped) {
+                throw new RejectedExecutionException("Factory is not running!");
+            }
+            executor.execute(command);
+        }
+    }
+
+    /** Reports connections to warm routes that could not be opened to the observers. */
+    private class WarmupListener implements InternalConnectionWarmer.Listener {
+        @Override
+        public void onWarmupFailed(final HttpRoute route, final IOException failure) {
+            final String routeName = route.getTargetHost().toURI();
+            LOG.warn(failure, "Could not open a connection to warm route '%s'", routeName);
+
+            if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+                for (HttpClientObserver observer : httpClientObservers) {
+                    observer.onConnectionWarmupFailed(routeName, failure);
+                }
+            }
+        }
+    }
+
+    /** Aborts a request when it runs past its deadline. */
+    private class Deadline implements Runnable {
+        private final URI uri;
+        private final long timeout;
+        private final long deadlineNanos;
+        private final Hedge hedge;
+
+        private volatile HttpRequestBase httpRequest = null;
+        private volatile boolean expired = false;
+        private volatile ScheduledFuture<?> future = null;
+
+        private Deadline(final URI uri, final long timeout, @Nullable final Hedge hedge) {
+            this.uri = uri;
+            this.timeout = timeout;
+            this.hedge = hedge;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        }
+
+        private void schedule() {
+            future = deadlineTimer.schedule(this, timeout, TimeUnit.MILLISECONDS);
+        }
+
+        private void cancel() {
+            future.cancel(false);
+        }
+
+        /**
+         * Set the request that is currently executed. Aborts it right away if the deadline already passed.
+         */
+        private void setRequest(final HttpRequestBase httpRequest) {
+            this.httpRequest = httpRequest;
+            if (expired) {
+                httpRequest.abort();
+            }
+        }
+
+        private boolean isExpired() {
+            return expired;
+        }
+
+        private URI getUri() {
+            return uri;
+        }
+
+        private long getTimeout() {
+            return timeout;
+        }
+
+        private long getRemainingMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        }
+
+        @Override
+        public void run() {
+            expired = true;
+            deadlinesExceeded.incrementAndGet();
+
+            LOG.debug("Request to '%s' missed its deadline of %d ms, aborting!", uri, timeout);
+            final HttpRequestBase current = httpRequest;
+            if (current != null) {
+                current.abort();
+            }
+            // An attempt of a hedged request may be waiting for the others while it holds a response.
+            if (hedge != null) {
+                hedge.expire();
+            }
         }
     }
 
@@ -596,6 +2039,11 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
                         // Expire idle connections
                         connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
                     }
+
+                    // Replace expired connections to the warm routes. Connecting may block, which must not hold up the eviction.
+                    if (!shutdown) {
+                        warmConnections();
+                    }
                 }
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
+
+/**
+ * A response whose body was read into memory, so that it can be handed to more than one response handler.
+ * If the body was too large to be kept completely, the rest of it can be read once from the original stream.
+ */
+final class InternalBufferedResponse implements HttpClientResponse
+{
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final HttpClientResponse response;
+    private final byte [] body;
+    private final InputStream remainder;
+
+    InternalBufferedResponse(final HttpClientResponse response, final byte [] body, @Nullable final InputStream remainder)
+    {
+        this.response = response;
+        this.body = body;
+        this.remainder = remainder;
+    }
+
+    /**
+     * Reads the body of a response into memory, but not more than maxBytes of it.
+     */
+    static InternalBufferedResponse read(final HttpClientResponse response, final int maxBytes) throws IOException
+    {
+        final InputStream stream = response.getResponseBodyAsStream();
+        final Long contentLength = response.getContentLength();
+        if (contentLength != null && contentLength > maxBytes) {
+            return new InternalBufferedResponse(response, new byte [0], stream);
+        }
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte [] buffer = new byte [READ_BUFFER_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+            if (body.size() > maxBytes) {
+                return new InternalBufferedResponse(response, body.toByteArray(), stream);
+            }
+        }
+        stream.close();
+        return new InternalBufferedResponse(response, body.toByteArray(), null);
+    }
+
+    /**
+     * @return the part of the body that is in memory.
+     */
+    byte [] getBody()
+    {
+        return body;
+    }
+
+    /**
+     * @return true if the whole body is in memory.
+     */
+    boolean isComplete()
+    {
+        return remainder == null;
+    }
+
+    @Override
+    public InputStream getResponseBodyAsStream() throws IOException
+    {
+        final InputStream buffered = new ByteArrayInputStream(body);
+        return (remainder == null) ? buffered : new SequenceInputStream(buffered, remainder);
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return response.getStatusCode();
+    }
+
+    @Override
+    public String getStatusText()
+    {
+        return response.getStatusText();
+    }
+
+    @Override
+    public URI getUri()
+    {
+        return response.getUri();
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return response.getContentType();
+    }
+
+    @Override
+    public Long getContentLength()
+    {
+        return response.getContentLength();
+    }
+
+    @Override
+    public String getCharset()
+    {
+        return response.getCharset();
+    }
+
+    @Override
+    public String getHeader(final String name)
+    {
+        return response.getHeader(name);
+    }
+
+    @Override
+    public List<String> getHeaders(final String name)
+    {
+        return response.getHeaders(name);
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, List<String>> getAllHeaders()
+    {
+        return response.getAllHeaders();
+    }
+
+    @Override
+    public boolean isRedirected()
+    {
+        return response.isRedirected();
+    }
+
+    @Override
+    public HttpClientTimings getTimings()
+    {
+        return response.getTimings();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("InternalBufferedResponse [bytes=%d, complete=%s, response=%s]", body.length, isComplete(), response);
+    }
+}
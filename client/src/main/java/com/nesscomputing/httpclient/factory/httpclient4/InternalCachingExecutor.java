@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpStatus;
+
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.internal.HttpClientCacheEntry;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+import com.nesscomputing.httpclient.internal.HttpClientResponseCache;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Answers GET requests from the response cache if it has a fresh response and stores the cacheable
+ * responses of the other requests. Cached responses go to the response handler of the request like
+ * responses from the server.
+ *
+ * <p>If the cache has a stale response with validators, the request is sent with If-None-Match and
+ * If-Modified-Since headers. A 304 Not Modified answer is replaced by the cached response, so the
+ * response handler sees the cached status and body.</p>
+ *
+ * <p>Expired responses are used within the stale-while-revalidate time of the request or the client
+ * while they are refreshed in the background, and within the stale-if-error time if the request fails
+ * before a response arrived or the server answers with a server error. A request that has such a response
+ * to fall back to is not retried.</p>
+ *
+ * <p>Requests that are answered without a call to the server report their completion without any bytes.</p>
+ */
+class InternalCachingExecutor implements InternalRequestCoalescer.RequestExecutor
+{
+    private static final Log LOG = Log.findLog();
+
+    /**
+     * Learns when a request is answered with an expired response.
+     */
+    interface Listener
+    {
+        void onStaleResponseServed(HttpClientRequest<?> request, long stalenessMillis, String reason);
+    }
+
+    private final HttpClientResponseCache responseCache;
+    private final int maxEntrySize;
+    private final long staleWhileRevalidate;
+    private final long staleIfError;
+    private final InternalRequestCoalescer.RequestExecutor requestExecutor;
+    private final Executor refreshExecutor;
+    private final Listener listener;
+    private final InternalLocalResponder localResponder;
+
+    InternalCachingExecutor(final HttpClientResponseCache responseCache,
+                            final int maxEntrySize,
+                            final long staleWhileRevalidate,
+                            final long staleIfError,
+                            final InternalRequestCoalescer.RequestExecutor requestExecutor,
+                            final Executor refreshExecutor,
+                            final Listener listener,
+                            final InternalLocalResponder localResponder)
+    {
+        this.responseCache = responseCache;
+        this.maxEntrySize = maxEntrySize;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+        this.requestExecutor = requestExecutor;
+        this.refreshExecutor = refreshExecutor;
+        this.listener = listener;
+        this.localResponder = localResponder;
+    }
+
+    @Override
+    public <T> T execute(final HttpClientRequest<T> request) throws IOException
+    {
+        if (!HttpClientResponseCache.isCacheable(request)) {
+            final HttpClientMethod method = request.getHttpMethod();
+            if (method != HttpClientMethod.HEAD && method != HttpClientMethod.OPTIONS) {
+                responseCache.invalidate(request);
+            }
+            return requestExecutor.execute(request);
+        }
+
+        final long startNanos = System.nanoTime();
+        final HttpClientCacheEntry entry = responseCache.get(request);
+        if (entry != null) {
+            LOG.trace("Answering '%s' from the cache", request.getUri());
+            return localResponder.respond(request, entry, startNanos);
+        }
+
+        final HttpClientCacheEntry stale = responseCache.getStale(request, getStaleWhileRevalidate(request));
+        if (stale != null) {
+            refresh(request);
+            reportStale(request, stale, "stale-while-revalidate");
+            return localResponder.respond(request, stale, startNanos);
+        }
+
+        return fetch(request, true);
+    }
+
+    /**
+     * Sends the request to the server and stores its response.
+     *
+     * @param staleIfError true if an expired response may be used if the request fails.
+     */
+    private <T> T fetch(final HttpClientRequest<T> request, final boolean staleIfError) throws IOException
+    {
+        final HttpClientCacheEntry stale = hasConditionalHeaders(request) ? null : responseCache.getForRevalidation(request);
+        final boolean fallback = staleIfError && responseCache.getStale(request, getStaleIfError(request)) != null;
+        final StoringHandler<T> storingHandler = new StoringHandler<T>(request, stale, staleIfError, fallback);
+        final HttpClientRequest.Builder<T> builder = HttpClientRequest.Builder.fromRequest(request, storingHandler);
+        if (stale != null) {
+            final String etag = stale.getHeader("ETag");
+            if (etag != null) {
+                builder.addHeader("If-None-Match", etag);
+            }
+            final String lastModified = stale.getHeader("Last-Modified");
+            if (lastModified != null) {
+                builder.addHeader("If-Modified-Since", lastModified);
+            }
+        }
+
+        try {
+            return requestExecutor.execute(builder.request());
+        }
+        catch (IOException ioe) {
+            // Failures of the response handler are not hidden.
+            if (staleIfError && !storingHandler.isHandled()) {
+                final HttpClientCacheEntry staleEntry = responseCache.getStale(request, getStaleIfError(request));
+                if (staleEntry != null) {
+                    return handleStale(request, staleEntry, "stale-if-error: " + ioe);
+                }
+            }
+            throw ioe;
+        }
+    }
+
+    /**
+     * Refreshes the response to the request in the background, unless it is already refreshed.
+     */
+    private void refresh(final HttpClientRequest<?> request)
+    {
+        if (!responseCache.startRefresh(request)) {
+            return;
+        }
+
+        final HttpClientRequest<Void> refreshRequest = HttpClientRequest.Builder.fromRequest(request, (HttpClientResponseHandler<Void>) null).request();
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(refreshRequest, false);
+                    }
+                    catch (IOException ioe) {
+                        LOG.debug(ioe, "Could not refresh '%s'", request.getUri());
+                    }
+                    finally {
+                        responseCache.finishRefresh(request);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ree) {
+            responseCache.finishRefresh(request);
+        }
+    }
+
+    /**
+     * Answers a request with an expired response after its call failed. The completion of the call was already reported.
+     */
+    private <T> T handleStale(final HttpClientRequest<T> request, final HttpClientCacheEntry stale, final String reason) throws IOException
+    {
+        reportStale(request, stale, reason);
+
+        final HttpClientResponseHandler<T> responseHandler = request.getHttpHandler();
+        return (responseHandler == null) ? null : responseHandler.handle(stale);
+    }
+
+    /**
+     * @return true if the request has an expired response to fall back to if it fails, so retrying it only delays the answer.
+     */
+    static boolean hasFallback(final HttpClientRequest<?> request)
+    {
+        final HttpClientResponseHandler<?> responseHandler = request.getHttpHandler();
+        return responseHandler instanceof StoringHandler && ((StoringHandler<?>) responseHandler).fallback;
+    }
+
+    private void reportStale(final HttpClientRequest<?> request, final HttpClientCacheEntry stale, final String reason)
+    {
+        final long stalenessMillis = responseCache.getStalenessMillis(stale);
+        LOG.debug("Answering '%s' with a response that expired %d ms ago (%s)", request.getUri(), stalenessMillis, reason);
+        listener.onStaleResponseServed(request, stalenessMillis, reason);
+    }
+
+    private long getStaleWhileRevalidate(final HttpClientRequest<?> request)
+    {
+        return (request.getStaleWhileRevalidate() == null) ? staleWhileRevalidate : request.getStaleWhileRevalidate();
+    }
+
+    private long getStaleIfError(final HttpClientRequest<?> request)
+    {
+        return (request.getStaleIfError() == null) ? staleIfError : request.getStaleIfError();
+    }
+
+    /**
+     * A request that is already conditional expects to see the 304 response itself.
+     */
+    private static boolean hasConditionalHeaders(final HttpClientRequest<?> request)
+    {
+        for (final HttpClientHeader header : request.getHeaders()) {
+            if ("If-None-Match".equalsIgnoreCase(header.getName()) || "If-Modified-Since".equalsIgnoreCase(header.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads cacheable responses into memory and stores them before it runs the handler of the request.
+     * Responses that are too large for memory are stored on disk if the cache has a disk tier.
+     */
+    private class StoringHandler<T> implements HttpClientResponseHandler<T>
+    {
+        private final HttpClientRequest<T> request;
+        private final HttpClientResponseHandler<T> responseHandler;
+        private final HttpClientCacheEntry stale;
+        private final boolean staleIfError;
+        private final boolean fallback;
+        private volatile boolean handled = false;
+
+        private StoringHandler(final HttpClientRequest<T> request, @Nullable final HttpClientCacheEntry stale, final boolean staleIfError, final boolean fallback)
+        {
+            this.request = request;
+            this.responseHandler = request.getHttpHandler();
+            this.stale = stale;
+            this.staleIfError = staleIfError;
+            this.fallback = fallback;
+        }
+
+        /**
+         * @return true if the response handler of the request was called.
+         */
+        private boolean isHandled()
+        {
+            return handled;
+        }
+
+        @Override
+        public T handle(final HttpClientResponse response) throws IOException
+        {
+            if (staleIfError && response.getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                final HttpClientCacheEntry staleEntry = responseCache.getStale(request, getStaleIfError(request));
+                if (staleEntry != null) {
+                    handled = true;
+                    return handleStale(request, staleEntry, "stale-if-error: " + response.getStatusCode());
+                }
+            }
+
+            HttpClientResponse handledResponse = response;
+            if (stale != null && response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                LOG.trace("'%s' was not modified, using the cached response", request.getUri());
+                handledResponse = responseCache.revalidated(request, stale, response);
+            }
+            else if (responseCache.isStorable(request, response)) {
+                final InternalBufferedResponse bufferedResponse = InternalBufferedResponse.read(response, maxEntrySize);
+                if (bufferedResponse.isComplete()) {
+                    responseCache.put(request, bufferedResponse, bufferedResponse.getBody());
+                    handledResponse = bufferedResponse;
+                }
+                else if (responseCache.isDiskEnabled() && !isLargerThan(response, responseCache.getDiskMaxEntrySize())) {
+                    // The handler reads the body from disk, so it is not kept in memory.
+                    handledResponse = new InternalBufferedResponse(response, new byte [0],
+                                                                   responseCache.storeOnDisk(request, response, bufferedResponse.getResponseBodyAsStream()));
+                }
+                else {
+                    LOG.debug("Response to '%s' is larger than %d bytes, not caching it", request.getUri(), maxEntrySize);
+                    handledResponse = bufferedResponse;
+                }
+            }
+            handled = true;
+            return (responseHandler == null) ? null : responseHandler.handle(handledResponse);
+        }
+
+        private boolean isLargerThan(final HttpClientResponse response, final long maxBytes)
+        {
+            final Long contentLength = response.getContentLength();
+            return contentLength != null && contentLength > maxBytes;
+        }
+    }
+}
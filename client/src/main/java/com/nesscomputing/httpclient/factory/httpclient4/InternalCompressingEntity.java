@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+import com.google.common.base.Preconditions;
+import com.nesscomputing.httpclient.HttpClientCompression;
+import com.nesscomputing.httpclient.HttpClientCompressionStats;
+
+/**
+ * Compresses a request body while it is written to the server. The compressed body is never kept as a whole,
+ * so it is sent chunked.
+ */
+final class InternalCompressingEntity extends HttpEntityWrapper
+{
+    private final HttpClientCompression compression;
+    private final Metrics metrics;
+
+    InternalCompressingEntity(final HttpEntity entity, final HttpClientCompression compression, final Metrics metrics)
+    {
+        super(entity);
+
+        Preconditions.checkArgument(compression != HttpClientCompression.NONE, "compression must not be NONE!");
+        this.compression = compression;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Header getContentEncoding()
+    {
+        return new BasicHeader(HTTP.CONTENT_ENCODING, compression.getContentEncoding());
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked()
+    {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        throw new UnsupportedOperationException("The compressed body can only be written!");
+    }
+
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException
+    {
+        final long startCpu = metrics.cpuTime();
+        final CountingOutputStream compressedStream = new CountingOutputStream(new CloseShieldOutputStream(outstream));
+        final DeflaterOutputStream deflaterStream = (compression == HttpClientCompression.GZIP)
+            ? new GZIPOutputStream(compressedStream)
+            : new DeflaterOutputStream(compressedStream);
+        final CountingOutputStream uncompressedStream = new CountingOutputStream(deflaterStream);
+
+        try {
+            wrappedEntity.writeTo(uncompressedStream);
+            // Closing finishes the compressed stream and frees the deflater, but leaves the connection open.
+            deflaterStream.close();
+        } finally {
+            metrics.compressed(uncompressedStream.getByteCount(), compressedStream.getByteCount(), metrics.cpuTime() - startCpu);
+        }
+    }
+
+    /**
+     * Counts the compressed and skipped bodies of a client.
+     */
+    static final class Metrics
+    {
+        private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        private final boolean cpuTimeSupported = threadBean.isCurrentThreadCpuTimeSupported();
+
+        private final AtomicLong compressedBodies = new AtomicLong();
+        private final AtomicLong skippedBodies = new AtomicLong();
+        private final AtomicLong uncompressedBytes = new AtomicLong();
+        private final AtomicLong compressedBytes = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+
+        void skipped()
+        {
+            skippedBodies.incrementAndGet();
+        }
+
+        void compressed(final long uncompressed, final long compressed, final long cpu)
+        {
+            compressedBodies.incrementAndGet();
+            uncompressedBytes.addAndGet(uncompressed);
+            compressedBytes.addAndGet(compressed);
+            cpuNanos.addAndGet(cpu);
+        }
+
+        /**
+         * @return CPU time of the current thread, or the wall clock if the JVM does not measure it.
+         */
+        long cpuTime()
+        {
+            return cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+
+        HttpClientCompressionStats getStats()
+        {
+            return new HttpClientCompressionStats(compressedBodies.get(),
+                                                  skippedBodies.get(),
+                                                  uncompressedBytes.get(),
+                                                  compressedBytes.get(),
+                                                  cpuNanos.get());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+import com.nesscomputing.httpclient.HttpClientSystemDnsResolver;
+
+/**
+ * Connection manager that keeps track of the state of its pool. The pool of the {@link ThreadSafeClientConnManager}
+ * only reports how many connections it holds, so leases, lease waits and connection lifecycles are counted
+ * as they pass through the manager.
+ */
+class InternalConnectionManager extends ThreadSafeClientConnManager implements MeteredConnectionManager
+{
+    private final InternalPoolMetrics metrics = new InternalPoolMetrics(this);
+    private final HttpClientDnsResolver dnsResolver;
+
+    InternalConnectionManager(final SchemeRegistry registry)
+    {
+        this(registry, HttpClientSystemDnsResolver.INSTANCE);
+    }
+
+    InternalConnectionManager(final SchemeRegistry registry, final HttpClientDnsResolver dnsResolver)
+    {
+        super(registry);
+        this.dnsResolver = dnsResolver;
+    }
+
+    @Override
+    protected ClientConnectionOperator createConnectionOperator(final SchemeRegistry schemeRegistry)
+    {
+        // Called from the super constructor, before the metrics and the resolver exist. Connections are
+        // only opened and closed once the manager is in use.
+        final HttpClientDnsResolver lateResolver = new HttpClientDnsResolver() {
+            @Override
+            public InetAddress[] resolve(final String host) throws UnknownHostException
+            {
+                return dnsResolver.resolve(host);
+            }
+        };
+
+        return new InternalConnectionOperator(schemeRegistry, lateResolver, new InternalConnectionOperator.Listener() {
+            @Override
+            public void connectionOpened(final HttpHost targetHost)
+            {
+                metrics.connectionOpened(targetHost);
+            }
+
+            @Override
+            public void connectionClosed(final HttpHost targetHost)
+            {
+                metrics.connectionClosed(targetHost);
+            }
+        });
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state)
+    {
+        return metrics.leasing(route, super.requestConnection(route, state));
+    }
+
+    @Override
+    public void releaseConnection(final ManagedClientConnection connection, final long validDuration, final TimeUnit timeUnit)
+    {
+        metrics.released(connection);
+        super.releaseConnection(connection, validDuration, timeUnit);
+    }
+
+    @Override
+    public HttpClientPoolStats getPoolStats()
+    {
+        return metrics.getPoolStats();
+    }
+
+    @Override
+    public Map<String, HttpClientPoolStats> getRoutePoolStats()
+    {
+        return metrics.getRoutePoolStats();
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnection;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+
+/**
+ * Connection operator that resolves host names with a {@link HttpClientDnsResolver} and tells a
+ * {@link Listener} when its connections are opened and closed. The time to resolve a host name goes
+ * into the timings of the request that opens the connection.
+ */
+class InternalConnectionOperator extends DefaultClientConnectionOperator
+{
+    interface Listener
+    {
+        void connectionOpened(HttpHost targetHost);
+
+        void connectionClosed(HttpHost targetHost);
+    }
+
+    private final HttpClientDnsResolver dnsResolver;
+    private final Listener listener;
+
+    /** Timings of the request that opens a connection on the current thread. resolveHostname does not get the params. */
+    private final ThreadLocal<InternalTimings> openingTimings = new ThreadLocal<InternalTimings>();
+
+    InternalConnectionOperator(final SchemeRegistry schemeRegistry, final HttpClientDnsResolver dnsResolver, final Listener listener)
+    {
+        super(schemeRegistry);
+        this.dnsResolver = dnsResolver;
+        this.listener = listener;
+    }
+
+    @Override
+    public void openConnection(final OperatedClientConnection conn,
+                               final HttpHost target,
+                               final InetAddress local,
+                               final HttpContext context,
+                               final HttpParams params) throws IOException
+    {
+        final InternalTimings timings = (params == null) ? null : (InternalTimings) params.getParameter(InternalTimings.TIMINGS);
+        if (timings == null) {
+            super.openConnection(conn, target, local, context, params);
+            return;
+        }
+
+        openingTimings.set(timings);
+        try {
+            super.openConnection(conn, target, local, context, params);
+        }
+        finally {
+            openingTimings.remove();
+        }
+    }
+
+    @Override
+    protected InetAddress[] resolveHostname(final String host) throws UnknownHostException
+    {
+        final InternalTimings timings = openingTimings.get();
+        if (timings == null) {
+            return dnsResolver.resolve(host);
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return dnsResolver.resolve(host);
+        }
+        finally {
+            timings.addDns(start, System.nanoTime());
+        }
+    }
+
+    @Override
+    public OperatedClientConnection createConnection()
+    {
+        return new InternalClientConnection();
+    }
+
+    /** Reports a connection once it is open and the first time it is closed or shut down. */
+    private class InternalClientConnection extends DefaultClientConnection
+    {
+        private final AtomicBoolean opened = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public void openCompleted(final boolean secure, final HttpParams params) throws IOException
+        {
+            super.openCompleted(secure, params);
+            if (opened.compareAndSet(false, true)) {
+                listener.connectionOpened(getTargetHost());
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                super.close();
+            } finally {
+                countClosed();
+            }
+        }
+
+        @Override
+        public void shutdown() throws IOException
+        {
+            try {
+                super.shutdown();
+            } finally {
+                countClosed();
+            }
+        }
+
+        private void countClosed()
+        {
+            if (opened.get() && closed.compareAndSet(false, true)) {
+                listener.connectionClosed(getTargetHost());
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Keeps a minimum number of idle connections open to a list of routes, so that the first requests
+ * to these routes do not have to wait for TCP and TLS setup.
+ */
+class InternalConnectionWarmer
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Only open connections if the pool has room for them right away. */
+    private static final long LEASE_TIMEOUT_MILLIS = 100L;
+
+    interface Listener
+    {
+        void onWarmupFailed(HttpRoute route, IOException failure);
+    }
+
+    private final MeteredConnectionManager connectionManager;
+    private final HttpParams params;
+    private final List<HttpRoute> routes;
+    private final int minIdle;
+    private final Listener listener;
+
+    InternalConnectionWarmer(final MeteredConnectionManager connectionManager,
+                             final HttpParams params,
+                             final List<HttpRoute> routes,
+                             final int minIdle,
+                             final Listener listener)
+    {
+        this.connectionManager = connectionManager;
+        this.params = params;
+        this.routes = ImmutableList.copyOf(routes);
+        this.minIdle = minIdle;
+        this.listener = listener;
+    }
+
+    /**
+     * Parses a comma separated list of [scheme://]host[:port] entries. Routes without a port use the
+     * default port of their scheme, like request URIs without a port do.
+     */
+    static List<HttpRoute> parseRoutes(final String warmRoutes, final SchemeRegistry registry)
+    {
+        if (StringUtils.isBlank(warmRoutes)) {
+            return ImmutableList.of();
+        }
+
+        final List<HttpRoute> routes = Lists.newArrayList();
+        for (String warmRoute : Splitter.on(',').trimResults().omitEmptyStrings().split(warmRoutes)) {
+            final URI uri = URI.create(warmRoute.contains("://") ? warmRoute : "http://" + warmRoute);
+            final HttpHost host = URIUtils.extractHost(uri);
+            Preconditions.checkArgument(host != null, "Warm route '%s' has no host!", warmRoute);
+
+            final boolean secure = registry.getScheme(host.getSchemeName()).isLayered();
+            routes.add(new HttpRoute(host, null, secure));
+        }
+        return routes;
+    }
+
+    boolean hasRoutes()
+    {
+        return !routes.isEmpty() && minIdle > 0;
+    }
+
+    /**
+     * Opens connections until every route has at least the minimum number of idle connections or
+     * the pool has no room for more.
+     */
+    void warm()
+    {
+        if (!hasRoutes()) {
+            return;
+        }
+
+        for (HttpRoute route : routes) {
+            if (getIdle(route) >= minIdle) {
+                continue;
+            }
+
+            // Hold all connections at once, otherwise the pool hands out the same idle connection again.
+            final List<ManagedClientConnection> connections = Lists.newArrayListWithCapacity(minIdle);
+            try {
+                for (int i = 0; i < minIdle; i++) {
+                    final ManagedClientConnection connection = connectionManager.requestConnection(route, null).getConnection(LEASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    connections.add(connection);
+
+                    if (!connection.isOpen()) {
+                        connection.open(route, new BasicHttpContext(), params);
+                    }
+                    connection.markReusable();
+                }
+            }
+            catch (ConnectionPoolTimeoutException cpte) {
+                LOG.debug("No room in the pool to warm up %s", route);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (IOException ioe) {
+                listener.onWarmupFailed(route, ioe);
+            }
+            finally {
+                release(connections);
+            }
+        }
+    }
+
+    private int getIdle(final HttpRoute route)
+    {
+        final HttpClientPoolStats poolStats = connectionManager.getRoutePoolStats().get(route.getTargetHost().toURI());
+        return (poolStats == null) ? 0 : poolStats.getIdle();
+    }
+
+    private void release(final List<ManagedClientConnection> connections)
+    {
+        for (ManagedClientConnection connection : connections) {
+            if (!connection.isOpen()) {
+                connection.unmarkReusable();
+            }
+            connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Counts the bytes of a request body written to the server or of a response body read from it.
+ */
+final class InternalCountingEntity extends HttpEntityWrapper
+{
+    private static final Log LOG = Log.findLog();
+
+    private CountingInputStream content = null;
+    private long bytesWritten = 0;
+
+    InternalCountingEntity(final HttpEntity entity)
+    {
+        super(entity);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        if (content == null) {
+            final InputStream wrappedContent = wrappedEntity.getContent();
+            if (wrappedContent == null) {
+                return null;
+            }
+            content = new CountingInputStream(wrappedContent) {
+                @Override
+                public void close() throws IOException
+                {
+                    // Closing reads the rest of the body to keep the connection alive. Count these bytes, too.
+                    try {
+                        IOUtils.copy(this, NullOutputStream.NULL_OUTPUT_STREAM);
+                    } catch (IOException ioe) {
+                        LOG.debug(ioe, "Could not read the rest of the body");
+                    } finally {
+                        super.close();
+                    }
+                }
+            };
+        }
+        return content;
+    }
+
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException
+    {
+        final CountingOutputStream countingStream = new CountingOutputStream(outstream);
+        try {
+            wrappedEntity.writeTo(countingStream);
+        } finally {
+            bytesWritten += countingStream.getByteCount();
+        }
+    }
+
+    long getBytesRead()
+    {
+        return (content == null) ? 0 : content.getByteCount();
+    }
+
+    long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+
+/**
+ * Hands a response that was not sent by the server for this request, e.g. the shared response of a coalesced
+ * request or a cached response, to the response handler of the request. Reports the completion of the request
+ * like a call to the server does, with no bytes sent or received.
+ */
+class InternalLocalResponder
+{
+    /**
+     * Learns when a request was answered without a call of its own.
+     */
+    interface Listener
+    {
+        /**
+         * @param statusCode the status code of the response or 0 if there was none.
+         * @param failure null if the response handler returned.
+         */
+        void onLocalCompletion(HttpClientRequest<?> request, int statusCode, long elapsedNanos, @Nullable Throwable failure);
+    }
+
+    private final Listener listener;
+
+    InternalLocalResponder(final Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @param startNanos value of {@link System#nanoTime()} when the request started.
+     */
+    <T> T respond(final HttpClientRequest<T> request, final HttpClientResponse response, final long startNanos) throws IOException
+    {
+        Throwable failure = null;
+        try {
+            final HttpClientResponseHandler<T> responseHandler = request.getHttpHandler();
+            return (responseHandler == null) ? null : responseHandler.handle(response);
+        }
+        catch (IOException ioe) {
+            failure = ioe;
+            throw ioe;
+        }
+        catch (RuntimeException re) {
+            failure = re;
+            throw re;
+        }
+        catch (Error e) {
+            failure = e;
+            throw e;
+        }
+        finally {
+            listener.onLocalCompletion(request, response.getStatusCode(), System.nanoTime() - startNanos, failure);
+        }
+    }
+
+    /**
+     * Reports a request that failed without a call of its own, e.g. because the call it shared failed.
+     */
+    void failed(final HttpClientRequest<?> request, final long startNanos, final Throwable failure)
+    {
+        listener.onLocalCompletion(request, 0, System.nanoTime() - startNanos, failure);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.internal.HttpClientCacheEntry;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+import com.nesscomputing.httpclient.internal.HttpClientNegativeCache;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Answers GET requests from the negative cache if it has a 404 response for them and stores the 404
+ * responses of the other requests. Requests that may create a resource remove its response. Requests
+ * that are answered from the cache report their completion without any bytes.
+ */
+class InternalNegativeCachingExecutor implements InternalRequestCoalescer.RequestExecutor
+{
+    private static final Log LOG = Log.findLog();
+
+    /** 404 responses with larger bodies are not kept. */
+    private static final int MAX_BODY_SIZE = 4096;
+
+    private final HttpClientNegativeCache negativeCache;
+    private final InternalRequestCoalescer.RequestExecutor requestExecutor;
+    private final InternalLocalResponder localResponder;
+
+    InternalNegativeCachingExecutor(final HttpClientNegativeCache negativeCache,
+                                    final InternalRequestCoalescer.RequestExecutor requestExecutor,
+                                    final InternalLocalResponder localResponder)
+    {
+        this.negativeCache = negativeCache;
+        this.requestExecutor = requestExecutor;
+        this.localResponder = localResponder;
+    }
+
+    @Override
+    public <T> T execute(final HttpClientRequest<T> request) throws IOException
+    {
+        if (!HttpClientNegativeCache.isCacheable(request)) {
+            final HttpClientMethod method = request.getHttpMethod();
+            if (method != HttpClientMethod.GET && method != HttpClientMethod.HEAD && method != HttpClientMethod.OPTIONS) {
+                negativeCache.invalidate(request);
+            }
+            return requestExecutor.execute(request);
+        }
+
+        final long startNanos = System.nanoTime();
+        final HttpClientCacheEntry entry = negativeCache.get(request);
+        if (entry != null) {
+            LOG.trace("Answering '%s' from the negative cache", request.getUri());
+            return localResponder.respond(request, entry, startNanos);
+        }
+
+        return requestExecutor.execute(HttpClientRequest.Builder.fromRequest(request, new StoringHandler<T>(request)).request());
+    }
+
+    /**
+     * Reads 404 responses into memory and stores them before it runs the handler of the request.
+     */
+    private class StoringHandler<T> implements HttpClientResponseHandler<T>
+    {
+        private final HttpClientRequest<T> request;
+        private final HttpClientResponseHandler<T> responseHandler;
+
+        private StoringHandler(final HttpClientRequest<T> request)
+        {
+            this.request = request;
+            this.responseHandler = request.getHttpHandler();
+        }
+
+        @Override
+        public T handle(final HttpClientResponse response) throws IOException
+        {
+            HttpClientResponse handledResponse = response;
+            if (negativeCache.isStorable(request, response)) {
+                final InternalBufferedResponse bufferedResponse = InternalBufferedResponse.read(response, MAX_BODY_SIZE);
+                if (bufferedResponse.isComplete()) {
+                    negativeCache.put(request, bufferedResponse, bufferedResponse.getBody());
+                }
+                handledResponse = bufferedResponse;
+            }
+            return (responseHandler == null) ? null : responseHandler.handle(handledResponse);
+        }
+    }
+}
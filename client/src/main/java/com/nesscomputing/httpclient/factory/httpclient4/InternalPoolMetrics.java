@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+
+/**
+ * Counts leases, lease waits and connection lifecycles of a {@link MeteredConnectionManager}, as they
+ * pass through the manager.
+ */
+class InternalPoolMetrics implements InternalConnectionOperator.Listener
+{
+    private final MeteredConnectionManager connectionManager;
+
+    private final ConcurrentMap<HttpHost, RouteMetrics> routeMetrics = Maps.newConcurrentMap();
+    private final ConcurrentMap<ManagedClientConnection, RouteMetrics> leasedConnections = Maps.newConcurrentMap();
+
+    InternalPoolMetrics(final MeteredConnectionManager connectionManager)
+    {
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * @return a request that counts the lease of the connection it returns.
+     */
+    ClientConnectionRequest leasing(final HttpRoute route, final ClientConnectionRequest request)
+    {
+        final RouteMetrics metrics = getRouteMetrics(route.getTargetHost());
+        metrics.route = route;
+
+        return new ClientConnectionRequest() {
+            @Override
+            public ManagedClientConnection getConnection(final long timeout, final TimeUnit tunit)
+                throws InterruptedException, ConnectionPoolTimeoutException
+            {
+                final long start = System.nanoTime();
+                metrics.pending.incrementAndGet();
+                try {
+                    final ManagedClientConnection connection = request.getConnection(timeout, tunit);
+                    metrics.leaseWaits.incrementAndGet(HttpClientPoolStats.leaseWaitBucket(System.nanoTime() - start));
+                    if (leasedConnections.put(connection, metrics) == null) {
+                        metrics.leased.incrementAndGet();
+                    }
+                    return connection;
+                } finally {
+                    metrics.pending.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void abortRequest()
+            {
+                request.abortRequest();
+            }
+        };
+    }
+
+    /**
+     * Counts the release of a connection. A connection may be released more than once, only the first release counts.
+     */
+    void released(final ManagedClientConnection connection)
+    {
+        final RouteMetrics metrics = leasedConnections.remove(connection);
+        if (metrics != null) {
+            metrics.leased.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectionOpened(final HttpHost targetHost)
+    {
+        getRouteMetrics(targetHost).created.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(final HttpHost targetHost)
+    {
+        getRouteMetrics(targetHost).closed.incrementAndGet();
+    }
+
+    HttpClientPoolStats getPoolStats()
+    {
+        int leased = 0;
+        int pending = 0;
+        long created = 0;
+        long closed = 0;
+        final long[] leaseWaits = new long[HttpClientPoolStats.LEASE_WAIT_BUCKETS];
+
+        for (RouteMetrics metrics : routeMetrics.values()) {
+            leased += metrics.leased.get();
+            pending += metrics.pending.get();
+            created += metrics.created.get();
+            closed += metrics.closed.get();
+            for (int i = 0; i < leaseWaits.length; i++) {
+                leaseWaits[i] += metrics.leaseWaits.get(i);
+            }
+        }
+
+        final int idle = Math.max(0, connectionManager.getConnectionsInPool() - leased);
+        return new HttpClientPoolStats(leased, idle, pending, connectionManager.getMaxTotal(), created, closed, leaseWaits);
+    }
+
+    Map<String, HttpClientPoolStats> getRoutePoolStats()
+    {
+        final ImmutableMap.Builder<String, HttpClientPoolStats> builder = ImmutableMap.builder();
+        for (Map.Entry<HttpHost, RouteMetrics> entry : routeMetrics.entrySet()) {
+            builder.put(entry.getKey().toURI(), entry.getValue().getPoolStats());
+        }
+        return builder.build();
+    }
+
+    private RouteMetrics getRouteMetrics(final HttpHost host)
+    {
+        RouteMetrics metrics = routeMetrics.get(host);
+        if (metrics == null) {
+            final RouteMetrics newMetrics = new RouteMetrics();
+            metrics = routeMetrics.putIfAbsent(host, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    private class RouteMetrics
+    {
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong closed = new AtomicLong();
+        private final AtomicLongArray leaseWaits = new AtomicLongArray(HttpClientPoolStats.LEASE_WAIT_BUCKETS);
+
+        private volatile HttpRoute route = null;
+
+        private HttpClientPoolStats getPoolStats()
+        {
+            final long[] histogram = new long[leaseWaits.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = leaseWaits.get(i);
+            }
+
+            final int leasedCount = leased.get();
+            final HttpRoute lastRoute = route;
+            final int idle = (lastRoute == null) ? 0 : Math.max(0, connectionManager.getConnectionsInPool(lastRoute) - leasedCount);
+            final int max = (lastRoute == null) ? connectionManager.getDefaultMaxPerRoute() : connectionManager.getMaxForRoute(lastRoute);
+
+            return new HttpClientPoolStats(leasedCount, idle, pending.get(), max, created.get(), closed.get(), histogram);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.Cookie;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.RequestTimeoutException;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Lets identical GET and HEAD requests that run at the same time share one call to the server. The first
+ * request makes the call and buffers the response, the others wait for it and hand the buffered response
+ * to their own response handlers. Responses that are larger than the buffer are not shared; the waiting
+ * requests then make their own calls. The completion of the waiting requests is reported without any bytes,
+ * the call is counted for the request that made it.
+ */
+class InternalRequestCoalescer
+{
+    private static final Log LOG = Log.findLog();
+
+    interface RequestExecutor
+    {
+        <T> T execute(HttpClientRequest<T> request) throws IOException;
+    }
+
+    private final ConcurrentMap<List<Object>, SettableFuture<HttpClientResponse>> flights = Maps.newConcurrentMap();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final int maxBufferSize;
+    private final RequestExecutor requestExecutor;
+    private final InternalLocalResponder localResponder;
+
+    InternalRequestCoalescer(final int maxBufferSize, final RequestExecutor requestExecutor, final InternalLocalResponder localResponder)
+    {
+        Preconditions.checkArgument(maxBufferSize >= 0, "maxBufferSize must not be negative!");
+
+        this.maxBufferSize = maxBufferSize;
+        this.requestExecutor = requestExecutor;
+        this.localResponder = localResponder;
+    }
+
+    /**
+     * @return the number of requests that were answered with the response of another request.
+     */
+    long getCoalesced()
+    {
+        return coalesced.get();
+    }
+
+    static boolean canCoalesce(final HttpClientRequest<?> request)
+    {
+        final HttpClientMethod method = request.getHttpMethod();
+        return (method == HttpClientMethod.GET || method == HttpClientMethod.HEAD) && request.getHttpBodySource() == null;
+    }
+
+    /**
+     * @param timeout how long a waiting request waits for the shared call in milliseconds. 0 waits forever.
+     */
+    <T> T perform(final HttpClientRequest<T> request, final long timeout) throws IOException
+    {
+        final List<Object> key = keyFor(request);
+        final SettableFuture<HttpClientResponse> flight = SettableFuture.create();
+        final SettableFuture<HttpClientResponse> current = flights.putIfAbsent(key, flight);
+
+        if (current != null) {
+            final long startNanos = System.nanoTime();
+            final HttpClientResponse response;
+            try {
+                response = await(request, current, timeout);
+            }
+            catch (IOException ioe) {
+                localResponder.failed(request, startNanos, ioe);
+                throw ioe;
+            }
+            catch (RuntimeException re) {
+                localResponder.failed(request, startNanos, re);
+                throw re;
+            }
+            catch (Error e) {
+                localResponder.failed(request, startNanos, e);
+                throw e;
+            }
+
+            if (response == null) {
+                LOG.trace("Response to '%s' was not shared, making a call", request.getUri());
+                return requestExecutor.execute(request);
+            }
+
+            coalesced.incrementAndGet();
+            return localResponder.respond(request, response, startNanos);
+        }
+
+        try {
+            final T result = requestExecutor.execute(HttpClientRequest.Builder.fromRequest(request, new BufferingHandler<T>(request.getHttpHandler(), flight)).request());
+            flight.set(null);
+            return result;
+        } catch (Throwable t) {
+            flight.setException(t);
+            Throwables.propagateIfPossible(t, IOException.class);
+            throw Throwables.propagate(t);
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private static HttpClientResponse await(final HttpClientRequest<?> request, final SettableFuture<HttpClientResponse> flight, final long timeout)
+        throws IOException
+    {
+        try {
+            return (timeout > 0) ? flight.get(timeout, TimeUnit.MILLISECONDS) : flight.get();
+        } catch (TimeoutException te) {
+            throw new RequestTimeoutException(te, "Coalesced request to '%s' did not complete within %d ms", request.getUri(), timeout);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a coalesced request to '" + request.getUri() + "'");
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw Throwables.propagate(cause);
+        }
+    }
+
+    /**
+     * Requests are only identical if everything that goes on the wire or changes how the response is read is the same.
+     */
+    private static List<Object> keyFor(final HttpClientRequest<?> request)
+    {
+        final ImmutableList.Builder<Object> key = ImmutableList.builder();
+        key.add(request.getHttpMethod(), String.valueOf(request.getUri()), String.valueOf(request.getVirtualHost()), request.getVirtualPort(), String.valueOf(request.followRedirects()));
+        for (final HttpClientHeader header : request.getHeaders()) {
+            key.add(header.getName() + ": " + header.getValue());
+        }
+        for (final Cookie cookie : request.getCookies()) {
+            key.add(cookie.getName() + "=" + cookie.getValue() + "; Domain=" + cookie.getDomain() + "; Path=" + cookie.getPath());
+        }
+        key.add(request.getParameters());
+        // Providers are compared by identity.
+        key.add(request.getAuthProviders());
+        return key.build();
+    }
+
+    /**
+     * Reads the response into memory and shares it with the waiting requests before it runs the handler of
+     * the request that made the call.
+     */
+    private class BufferingHandler<T> implements HttpClientResponseHandler<T>
+    {
+        private final HttpClientResponseHandler<T> responseHandler;
+        private final SettableFuture<HttpClientResponse> flight;
+
+        private BufferingHandler(@Nullable final HttpClientResponseHandler<T> responseHandler, final SettableFuture<HttpClientResponse> flight)
+        {
+            this.responseHandler = responseHandler;
+            this.flight = flight;
+        }
+
+        @Override
+        public T handle(final HttpClientResponse response) throws IOException
+        {
+            final InternalBufferedResponse bufferedResponse = InternalBufferedResponse.read(response, maxBufferSize);
+            if (!bufferedResponse.isComplete()) {
+                LOG.debug("Response to '%s' is larger than %d bytes, not sharing it", response.getUri(), maxBufferSize);
+                flight.set(null);
+            }
+            else {
+                flight.set(bufferedResponse);
+            }
+            return (responseHandler == null) ? null : responseHandler.handle(bufferedResponse);
+        }
+    }
+}
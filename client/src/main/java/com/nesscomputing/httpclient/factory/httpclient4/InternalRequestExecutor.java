@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Records how long writing the request and waiting for the response headers takes.
+ */
+final class InternalRequestExecutor extends HttpRequestExecutor
+{
+    @Override
+    protected HttpResponse doSendRequest(final HttpRequest request, final HttpClientConnection conn, final HttpContext context)
+        throws IOException, HttpException
+    {
+        final InternalTimings timings = (InternalTimings) context.getAttribute(InternalTimings.TIMINGS);
+        if (timings == null) {
+            return super.doSendRequest(request, conn, context);
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return super.doSendRequest(request, conn, context);
+        } finally {
+            timings.addRequestWrite(start, System.nanoTime());
+        }
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(final HttpRequest request, final HttpClientConnection conn, final HttpContext context)
+        throws IOException, HttpException
+    {
+        final InternalTimings timings = (InternalTimings) context.getAttribute(InternalTimings.TIMINGS);
+        if (timings == null) {
+            return super.doReceiveResponse(request, conn, context);
+        }
+
+        final long start = System.nanoTime();
+        final HttpResponse response = super.doReceiveResponse(request, conn, context);
+        timings.addTimeToFirstByte(start, System.nanoTime());
+        return response;
+    }
+}
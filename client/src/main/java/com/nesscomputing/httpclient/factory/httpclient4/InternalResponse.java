@@ -16,6 +16,7 @@
 package com.nesscomputing.httpclient.factory.httpclient4;
 
 import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
 import com.nesscomputing.logging.Log;
 
 import java.io.IOException;
@@ -27,6 +28,7 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.commons.io.input.NullInputStream;
 import org.apache.commons.lang3.StringUtils;
@@ -49,11 +51,18 @@ final class InternalResponse implements HttpClientResponse
 
     private final HttpRequestBase httpRequest;
     private final HttpResponse httpResponse;
+    private final HttpClientTimings timings;
 
     InternalResponse(final HttpRequestBase httpRequest, final HttpResponse httpResponse)
+    {
+        this(httpRequest, httpResponse, null);
+    }
+
+    InternalResponse(final HttpRequestBase httpRequest, final HttpResponse httpResponse, @Nullable final HttpClientTimings timings)
     {
         this.httpRequest = httpRequest;
         this.httpResponse = httpResponse;
+        this.timings = timings;
     }
 
     @Override
@@ -193,6 +202,12 @@ final class InternalResponse implements HttpClientResponse
         return (statusCode >= 300) && (statusCode <= 399);
     }
 
+    @Override
+    public HttpClientTimings getTimings()
+    {
+        return timings;
+    }
+
     @Override
     public String toString() {
         return String.format("InternalResponse [getContentType()=%s, getContentLength()=%s," +
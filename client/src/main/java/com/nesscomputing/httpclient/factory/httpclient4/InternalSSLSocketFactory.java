@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.LayeredSchemeSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Connects a plain socket and layers TLS on top of it in a separate step, so that connecting and the
+ * TLS handshake are recorded separately in the {@link InternalTimings} of the request. The handshake
+ * happens when the hostname verifier of the TLS socket factory looks at the server certificate.
+ */
+final class InternalSSLSocketFactory extends InternalSocketFactory implements LayeredSchemeSocketFactory
+{
+    private final LayeredSchemeSocketFactory sslSocketFactory;
+
+    InternalSSLSocketFactory(final LayeredSchemeSocketFactory sslSocketFactory)
+    {
+        super(PlainSocketFactory.getSocketFactory());
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    @Override
+    public Socket connectSocket(final Socket sock, final InetSocketAddress remoteAddress, final InetSocketAddress localAddress, final HttpParams params)
+        throws IOException, ConnectTimeoutException
+    {
+        final Socket plainSocket = super.connectSocket(sock, remoteAddress, localAddress, params);
+
+        final long start = System.nanoTime();
+        try {
+            return sslSocketFactory.createLayeredSocket(plainSocket, remoteAddress.getHostName(), remoteAddress.getPort(), true);
+        } catch (IOException ioe) {
+            plainSocket.close();
+            throw ioe;
+        } finally {
+            final InternalTimings timings = getTimings(params);
+            if (timings != null) {
+                timings.addTlsHandshake(start, System.nanoTime());
+            }
+        }
+    }
+
+    @Override
+    public Socket createLayeredSocket(final Socket socket, final String target, final int port, final boolean autoClose)
+        throws IOException
+    {
+        return sslSocketFactory.createLayeredSocket(socket, target, port, autoClose);
+    }
+
+    @Override
+    public boolean isSecure(final Socket sock)
+    {
+        return sslSocketFactory.isSecure(sock);
+    }
+}
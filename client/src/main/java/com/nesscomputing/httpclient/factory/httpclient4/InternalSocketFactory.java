@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.SchemeSocketFactory;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Records how long connecting takes in the {@link InternalTimings} of the request.
+ */
+class InternalSocketFactory implements SchemeSocketFactory
+{
+    private final SchemeSocketFactory delegate;
+
+    InternalSocketFactory(final SchemeSocketFactory delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Socket createSocket(final HttpParams params) throws IOException
+    {
+        return delegate.createSocket(params);
+    }
+
+    @Override
+    public Socket connectSocket(final Socket sock, final InetSocketAddress remoteAddress, final InetSocketAddress localAddress, final HttpParams params)
+        throws IOException, ConnectTimeoutException
+    {
+        final InternalTimings timings = getTimings(params);
+        if (timings == null) {
+            return delegate.connectSocket(sock, remoteAddress, localAddress, params);
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return delegate.connectSocket(sock, remoteAddress, localAddress, params);
+        } finally {
+            timings.addConnect(start, System.nanoTime());
+        }
+    }
+
+    @Override
+    public boolean isSecure(final Socket sock)
+    {
+        return delegate.isSecure(sock);
+    }
+
+    static InternalTimings getTimings(final HttpParams params)
+    {
+        return (params == null) ? null : (InternalTimings) params.getParameter(InternalTimings.TIMINGS);
+    }
+}
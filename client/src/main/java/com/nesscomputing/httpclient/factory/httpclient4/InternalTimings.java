@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import com.nesscomputing.httpclient.HttpClientTimings;
+
+/**
+ * Apache HttpClient4 implementation of {@link HttpClientTimings}. The socket factories find it in the
+ * request parameters, the request executor in the context. Only the thread that executes the request
+ * touches it, so it needs no synchronization.
+ */
+final class InternalTimings implements HttpClientTimings
+{
+    /** Name of the request parameter and the context attribute that hold the timings. */
+    static final String TIMINGS = "ness.httpclient.timings";
+
+    private final long startNanos = System.nanoTime();
+
+    private long leaseWaitNanos = -1L;
+    private long dnsNanos = -1L;
+    private long connectNanos = -1L;
+    private long tlsHandshakeNanos = -1L;
+    private long requestWriteNanos = -1L;
+    private long timeToFirstByteNanos = -1L;
+    private long bodyReadNanos = -1L;
+
+    private long responseNanos = -1L;
+
+    void addDns(final long start, final long end)
+    {
+        leased(start);
+        dnsNanos = add(dnsNanos, end - start);
+    }
+
+    void addConnect(final long start, final long end)
+    {
+        leased(start);
+        connectNanos = add(connectNanos, end - start);
+    }
+
+    void addTlsHandshake(final long start, final long end)
+    {
+        leased(start);
+        tlsHandshakeNanos = add(tlsHandshakeNanos, end - start);
+    }
+
+    void addRequestWrite(final long start, final long end)
+    {
+        leased(start);
+        requestWriteNanos = add(requestWriteNanos, end - start);
+    }
+
+    void addTimeToFirstByte(final long start, final long end)
+    {
+        timeToFirstByteNanos = add(timeToFirstByteNanos, end - start);
+        responseNanos = end;
+    }
+
+    void responseConsumed(final long end)
+    {
+        if (responseNanos >= 0) {
+            bodyReadNanos = end - responseNanos;
+        }
+    }
+
+    /**
+     * Resolving the host name, connecting or writing the request starts right after the connection was leased.
+     */
+    private void leased(final long nanos)
+    {
+        if (leaseWaitNanos < 0) {
+            leaseWaitNanos = nanos - startNanos;
+        }
+    }
+
+    private static long add(final long total, final long nanos)
+    {
+        return (total < 0) ? nanos : total + nanos;
+    }
+
+    @Override
+    public long getLeaseWaitNanos()
+    {
+        return leaseWaitNanos;
+    }
+
+    @Override
+    public long getDnsNanos()
+    {
+        return dnsNanos;
+    }
+
+    @Override
+    public long getConnectNanos()
+    {
+        return connectNanos;
+    }
+
+    @Override
+    public long getTlsHandshakeNanos()
+    {
+        return tlsHandshakeNanos;
+    }
+
+    @Override
+    public long getRequestWriteNanos()
+    {
+        return requestWriteNanos;
+    }
+
+    @Override
+    public long getTimeToFirstByteNanos()
+    {
+        return timeToFirstByteNanos;
+    }
+
+    @Override
+    public long getBodyReadNanos()
+    {
+        return bodyReadNanos;
+    }
+
+    @Override
+    public boolean isConnectionReused()
+    {
+        return connectNanos < 0 && requestWriteNanos >= 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("InternalTimings [leaseWait=%d, dns=%d, connect=%d, tlsHandshake=%d, requestWrite=%d," +
+                             " timeToFirstByte=%d, bodyRead=%d, connectionReused=%s]",
+                             leaseWaitNanos, dnsNanos, connectNanos, tlsHandshakeNanos, requestWriteNanos,
+                             timeToFirstByteNanos, bodyReadNanos, isConnectionReused());
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.Map;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+
+/**
+ * Connection manager with a sizeable pool that reports its state.
+ */
+interface MeteredConnectionManager extends ClientConnectionManager
+{
+    int getMaxTotal();
+
+    void setMaxTotal(int maxTotal);
+
+    int getDefaultMaxPerRoute();
+
+    void setDefaultMaxPerRoute(int maxPerRoute);
+
+    int getMaxForRoute(HttpRoute route);
+
+    /**
+     * @return the number of open connections, leased or idle.
+     */
+    int getConnectionsInPool();
+
+    /**
+     * @return the number of open connections to a route, leased or idle.
+     */
+    int getConnectionsInPool(HttpRoute route);
+
+    /**
+     * @return the state of the whole pool.
+     */
+    HttpClientPoolStats getPoolStats();
+
+    /**
+     * @return the state of the pool for every route that was used so far, keyed by scheme, host and port.
+     */
+    Map<String, HttpClientPoolStats> getRoutePoolStats();
+}
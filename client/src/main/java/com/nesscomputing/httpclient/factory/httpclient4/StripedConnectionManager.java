@@ -0,0 +1,562 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.AbstractPoolEntry;
+import org.apache.http.impl.conn.AbstractPooledConnAdapter;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+import com.nesscomputing.httpclient.HttpClientSystemDnsResolver;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Connection manager for many threads. The {@link org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager}
+ * guards its whole pool with a single lock, which every lease and every release has to take. This
+ * manager keeps the state of each route apart, holds idle connections in lock-free stacks and enforces
+ * the limits with atomic counters. Only threads that have to wait for a connection synchronize.
+ *
+ * Idle connections are reused most recently released first, so that rarely needed connections
+ * time out. Connections that were set up for another user (e.g. with a different client certificate)
+ * are closed instead of reused.
+ */
+class StripedConnectionManager implements MeteredConnectionManager
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 2;
+
+    private final SchemeRegistry schemeRegistry;
+    private final ClientConnectionOperator connectionOperator;
+    private final InternalPoolMetrics metrics = new InternalPoolMetrics(this);
+
+    private final ConcurrentMap<HttpRoute, RoutePool> routePools = Maps.newConcurrentMap();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    /** Threads that wait for a connection wait on this monitor. */
+    private final Object available = new Object();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private volatile int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+    private volatile int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private volatile boolean shutdown = false;
+
+    StripedConnectionManager(final SchemeRegistry schemeRegistry)
+    {
+        this(schemeRegistry, HttpClientSystemDnsResolver.INSTANCE);
+    }
+
+    StripedConnectionManager(final SchemeRegistry schemeRegistry, final HttpClientDnsResolver dnsResolver)
+    {
+        Preconditions.checkArgument(schemeRegistry != null, "schemeRegistry can not be null!");
+        Preconditions.checkArgument(dnsResolver != null, "dnsResolver can not be null!");
+
+        this.schemeRegistry = schemeRegistry;
+        this.connectionOperator = new InternalConnectionOperator(schemeRegistry, dnsResolver, metrics);
+    }
+
+    @Override
+    public SchemeRegistry getSchemeRegistry()
+    {
+        return schemeRegistry;
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state)
+    {
+        Preconditions.checkArgument(route != null, "route can not be null!");
+
+        return metrics.leasing(route, new PoolRequest(getRoutePool(route), state));
+    }
+
+    @Override
+    public void releaseConnection(final ManagedClientConnection connection, final long validDuration, final TimeUnit timeUnit)
+    {
+        Preconditions.checkArgument(connection instanceof PooledConnection, "Connection was not obtained from this manager!");
+
+        final PooledConnection pooledConnection = (PooledConnection) connection;
+        synchronized (pooledConnection) {
+            final PoolEntry entry = pooledConnection.getEntry();
+            if (entry == null) {
+                // Already released.
+                return;
+            }
+            Preconditions.checkArgument(pooledConnection.getConnectionManager() == this, "Connection was not obtained from this manager!");
+
+            metrics.released(connection);
+
+            boolean reusable = false;
+            try {
+                if (pooledConnection.isOpen() && !pooledConnection.isMarkedReusable()) {
+                    pooledConnection.shutdown();
+                }
+                reusable = pooledConnection.isMarkedReusable();
+            }
+            catch (IOException ioe) {
+                LOG.debug(ioe, "While releasing a connection to %s", entry.getPool().route);
+            }
+            finally {
+                pooledConnection.detachEntry();
+                free(entry, reusable, validDuration, timeUnit);
+            }
+        }
+    }
+
+    @Override
+    public void closeIdleConnections(final long idleTime, final TimeUnit timeUnit)
+    {
+        final long cutoff = System.currentTimeMillis() - timeUnit.toMillis(Math.max(0L, idleTime));
+        for (RoutePool pool : routePools.values()) {
+            for (PoolEntry entry : pool.idle) {
+                if (entry.getUpdated() <= cutoff && pool.idle.removeFirstOccurrence(entry)) {
+                    destroy(entry);
+                }
+            }
+        }
+        signal();
+    }
+
+    @Override
+    public void closeExpiredConnections()
+    {
+        final long now = System.currentTimeMillis();
+        for (RoutePool pool : routePools.values()) {
+            for (PoolEntry entry : pool.idle) {
+                if (entry.isExpired(now) && pool.idle.removeFirstOccurrence(entry)) {
+                    destroy(entry);
+                }
+            }
+        }
+        signal();
+    }
+
+    @Override
+    public void shutdown()
+    {
+        shutdown = true;
+
+        for (RoutePool pool : routePools.values()) {
+            PoolEntry entry;
+            while ((entry = pool.idle.pollFirst()) != null) {
+                destroy(entry);
+            }
+            for (PoolEntry leasedEntry : pool.leased) {
+                leasedEntry.shutdownConnection();
+            }
+        }
+
+        synchronized (available) {
+            available.notifyAll();
+        }
+    }
+
+    @Override
+    public int getMaxTotal()
+    {
+        return maxTotalConnections;
+    }
+
+    @Override
+    public void setMaxTotal(final int maxTotal)
+    {
+        Preconditions.checkArgument(maxTotal > 0, "maxTotal must be greater than 0!");
+        this.maxTotalConnections = maxTotal;
+        signal();
+    }
+
+    @Override
+    public int getDefaultMaxPerRoute()
+    {
+        return maxConnectionsPerRoute;
+    }
+
+    @Override
+    public void setDefaultMaxPerRoute(final int maxPerRoute)
+    {
+        Preconditions.checkArgument(maxPerRoute > 0, "maxPerRoute must be greater than 0!");
+        this.maxConnectionsPerRoute = maxPerRoute;
+        signal();
+    }
+
+    @Override
+    public int getMaxForRoute(final HttpRoute route)
+    {
+        return maxConnectionsPerRoute;
+    }
+
+    @Override
+    public int getConnectionsInPool()
+    {
+        return totalConnections.get();
+    }
+
+    @Override
+    public int getConnectionsInPool(final HttpRoute route)
+    {
+        final RoutePool pool = routePools.get(route);
+        return (pool == null) ? 0 : pool.connections.get();
+    }
+
+    @Override
+    public HttpClientPoolStats getPoolStats()
+    {
+        return metrics.getPoolStats();
+    }
+
+    @Override
+    public Map<String, HttpClientPoolStats> getRoutePoolStats()
+    {
+        return metrics.getRoutePoolStats();
+    }
+
+    private PoolEntry lease(final RoutePool pool, final Object state, final long timeout, final TimeUnit tunit, final PoolRequest request)
+        throws InterruptedException, ConnectionPoolTimeoutException
+    {
+        Preconditions.checkState(!shutdown, "Connection manager has been shut down!");
+
+        PoolEntry entry = tryLease(pool, state);
+        if (entry != null) {
+            return entry;
+        }
+
+        final long deadline = (timeout > 0) ? System.nanoTime() + tunit.toNanos(timeout) : 0L;
+
+        // Whoever frees a connection or a slot checks the waiters after it did so. Counting this thread
+        // as a waiter before looking again means that it either sees the change or gets woken up.
+        synchronized (available) {
+            waiters.incrementAndGet();
+            try {
+                while (true) {
+                    Preconditions.checkState(!shutdown, "Connection manager has been shut down!");
+                    if (request.aborted) {
+                        throw new InterruptedException("Operation aborted");
+                    }
+
+                    entry = tryLease(pool, state);
+                    if (entry != null) {
+                        return entry;
+                    }
+
+                    if (evictIdleConnection(pool)) {
+                        continue;
+                    }
+
+                    if (deadline == 0L) {
+                        available.wait();
+                    }
+                    else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0L) {
+                            throw new ConnectionPoolTimeoutException("Timeout waiting for connection");
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(available, remaining);
+                    }
+                }
+            }
+            finally {
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return an idle connection of the route, a new connection if the limits allow it or null.
+     */
+    private PoolEntry tryLease(final RoutePool pool, final Object state)
+    {
+        final long now = System.currentTimeMillis();
+
+        PoolEntry entry;
+        while ((entry = pool.idle.pollFirst()) != null) {
+            if (entry.isExpired(now)) {
+                destroy(entry);
+            }
+            else if (entry.getState() == null || Objects.equal(state, entry.getState())) {
+                pool.leased.add(entry);
+                return entry;
+            }
+            else {
+                // Set up for another user, make room for a new connection.
+                destroy(entry);
+                break;
+            }
+        }
+
+        if (reserve(pool)) {
+            entry = new PoolEntry(connectionOperator, pool);
+            pool.leased.add(entry);
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Takes a slot for a new connection from the route and from the total.
+     */
+    private boolean reserve(final RoutePool pool)
+    {
+        while (true) {
+            final int connections = pool.connections.get();
+            if (connections >= maxConnectionsPerRoute) {
+                return false;
+            }
+            if (pool.connections.compareAndSet(connections, connections + 1)) {
+                break;
+            }
+        }
+
+        while (true) {
+            final int connections = totalConnections.get();
+            if (connections >= maxTotalConnections) {
+                pool.connections.decrementAndGet();
+                signal();
+                return false;
+            }
+            if (totalConnections.compareAndSet(connections, connections + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * If the route could open another connection but the total limit is reached, close the least recently used
+     * idle connection of another route.
+     *
+     * @return true if a connection was closed.
+     */
+    private boolean evictIdleConnection(final RoutePool pool)
+    {
+        if (pool.connections.get() >= maxConnectionsPerRoute || totalConnections.get() < maxTotalConnections) {
+            return false;
+        }
+
+        RoutePool victim = null;
+        long oldest = Long.MAX_VALUE;
+        for (RoutePool candidate : routePools.values()) {
+            final PoolEntry entry = candidate.idle.peekLast();
+            if (candidate != pool && entry != null && entry.getUpdated() < oldest) {
+                victim = candidate;
+                oldest = entry.getUpdated();
+            }
+        }
+
+        if (victim != null) {
+            final PoolEntry entry = victim.idle.pollLast();
+            if (entry != null) {
+                destroy(entry);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void free(final PoolEntry entry, final boolean reusable, final long validDuration, final TimeUnit timeUnit)
+    {
+        final RoutePool pool = entry.getPool();
+        pool.leased.remove(entry);
+
+        if (reusable && !shutdown) {
+            entry.updateExpiry(validDuration, timeUnit);
+            pool.idle.offerFirst(entry);
+
+            // Lost a race with shutdown.
+            if (shutdown && pool.idle.removeFirstOccurrence(entry)) {
+                destroy(entry);
+            }
+        }
+        else {
+            destroy(entry);
+        }
+        signal();
+    }
+
+    /**
+     * Closes the connection of an entry that is not in the pool anymore and gives up its slot.
+     */
+    private void destroy(final PoolEntry entry)
+    {
+        entry.closeConnection();
+        entry.getPool().connections.decrementAndGet();
+        totalConnections.decrementAndGet();
+    }
+
+    private void signal()
+    {
+        if (waiters.get() > 0) {
+            synchronized (available) {
+                available.notifyAll();
+            }
+        }
+    }
+
+    private RoutePool getRoutePool(final HttpRoute route)
+    {
+        RoutePool pool = routePools.get(route);
+        if (pool == null) {
+            final RoutePool newPool = new RoutePool(route);
+            pool = routePools.putIfAbsent(route, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    private final class PoolRequest implements ClientConnectionRequest
+    {
+        private final RoutePool pool;
+        private final Object state;
+
+        private volatile boolean aborted = false;
+
+        private PoolRequest(final RoutePool pool, final Object state)
+        {
+            this.pool = pool;
+            this.state = state;
+        }
+
+        @Override
+        public ManagedClientConnection getConnection(final long timeout, final TimeUnit tunit)
+            throws InterruptedException, ConnectionPoolTimeoutException
+        {
+            return new PooledConnection(lease(pool, state, timeout, tunit, this));
+        }
+
+        @Override
+        public void abortRequest()
+        {
+            aborted = true;
+            signal();
+        }
+    }
+
+    private static final class RoutePool
+    {
+        private final HttpRoute route;
+
+        /** Most recently released first. */
+        private final ConcurrentLinkedDeque<PoolEntry> idle = new ConcurrentLinkedDeque<PoolEntry>();
+        private final Set<PoolEntry> leased = Sets.newSetFromMap(Maps.<PoolEntry, Boolean>newConcurrentMap());
+
+        /** Leased and idle connections, plus slots that were just reserved. */
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private RoutePool(final HttpRoute route)
+        {
+            this.route = route;
+        }
+    }
+
+    private static final class PoolEntry extends AbstractPoolEntry
+    {
+        private final RoutePool pool;
+
+        private volatile long updated = System.currentTimeMillis();
+        private volatile long expiry = Long.MAX_VALUE;
+
+        private PoolEntry(final ClientConnectionOperator connectionOperator, final RoutePool pool)
+        {
+            super(connectionOperator, pool.route);
+            this.pool = pool;
+        }
+
+        private RoutePool getPool()
+        {
+            return pool;
+        }
+
+        private long getUpdated()
+        {
+            return updated;
+        }
+
+        private boolean isExpired(final long now)
+        {
+            return now >= expiry;
+        }
+
+        private void updateExpiry(final long validDuration, final TimeUnit timeUnit)
+        {
+            updated = System.currentTimeMillis();
+            expiry = (validDuration > 0) ? updated + timeUnit.toMillis(validDuration) : Long.MAX_VALUE;
+        }
+
+        private void closeConnection()
+        {
+            shutdownEntry();
+            try {
+                connection.close();
+            }
+            catch (IOException ioe) {
+                LOG.debug(ioe, "While closing a connection to %s", pool.route);
+            }
+        }
+
+        private void shutdownConnection()
+        {
+            try {
+                connection.shutdown();
+            }
+            catch (IOException ioe) {
+                LOG.debug(ioe, "While shutting down a connection to %s", pool.route);
+            }
+        }
+    }
+
+    private final class PooledConnection extends AbstractPooledConnAdapter
+    {
+        private PooledConnection(final PoolEntry entry)
+        {
+            super(StripedConnectionManager.this, entry);
+            markReusable();
+        }
+
+        private PoolEntry getEntry()
+        {
+            return (PoolEntry) poolEntry;
+        }
+
+        private Object getConnectionManager()
+        {
+            return getManager();
+        }
+
+        private void detachEntry()
+        {
+            detach();
+        }
+    }
+}
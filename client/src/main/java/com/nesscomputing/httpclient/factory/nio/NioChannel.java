@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+
+/**
+ * A connection driven by an event loop. The event loop attaches it to its selection key.
+ *
+ * All methods except the accessors must be called on the event loop thread that owns the connection.
+ */
+interface NioChannel
+{
+    NioEventLoop getLoop();
+
+    NioRoute getRoute();
+
+    /**
+     * Open the connection and run the exchange on it.
+     */
+    void connect(NioExchange exchange);
+
+    /**
+     * Run an exchange on an open connection. Gives the exchange back to the pool if the
+     * connection was closed in the meantime.
+     */
+    void send(NioExchange exchange);
+
+    void onReady(int readyOps);
+
+    void checkTimeouts(long now);
+
+    /**
+     * Close the connection and either retry or fail its exchanges.
+     */
+    void fail(IOException e);
+
+    void close();
+}
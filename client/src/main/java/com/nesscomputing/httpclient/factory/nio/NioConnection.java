@@ -0,0 +1,464 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import com.nesscomputing.httpclient.RequestTimeoutException;
+import com.nesscomputing.logging.Log;
+
+/**
+ * A single HTTP/1.1 connection, optionally TLS encrypted. Runs one exchange at a time and
+ * returns itself to the pool when the response allows keep-alive.
+ *
+ */
+final class NioConnection implements NioChannel
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final int BUFFER_SIZE = 16384;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final NioConnectionPool pool;
+    private final NioEventLoop loop;
+    private final NioRoute route;
+    private final SSLContext sslContext;
+
+    private SocketChannel channel = null;
+    private SelectionKey key = null;
+    private SSLEngine sslEngine = null;
+
+    /** Request bytes still to be sent, in read mode. */
+    private ByteBuffer outApp = EMPTY;
+    /** Encrypted bytes still to be sent, in read mode. */
+    private ByteBuffer outNet = null;
+    /** Encrypted bytes received, in write mode. */
+    private ByteBuffer inNet = null;
+    /** Response bytes received, in write mode. */
+    private ByteBuffer inApp = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private NioExchange exchange = null;
+    private NioResponseParser parser = null;
+
+    private boolean connected = false;
+    private boolean closed = false;
+    private boolean requestSent = false;
+
+    /** Connect or socket inactivity deadline in nanos, 0 if none. */
+    private long deadline = 0;
+    /** Deadline for the complete exchange in nanos, 0 if none. */
+    private long requestDeadline = 0;
+    private long idleSince = 0;
+
+    NioConnection(final NioConnectionPool pool, final NioEventLoop loop, final NioRoute route, final SSLContext sslContext)
+    {
+        this.pool = pool;
+        this.loop = loop;
+        this.route = route;
+        this.sslContext = sslContext;
+    }
+
+    @Override
+    public NioEventLoop getLoop()
+    {
+        return loop;
+    }
+
+    @Override
+    public NioRoute getRoute()
+    {
+        return route;
+    }
+
+    @Override
+    public void connect(final NioExchange exchange)
+    {
+        startExchange(exchange);
+
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            key = channel.register(loop.getSelector(), 0, this);
+
+            if (channel.connect(exchange.getAddress())) {
+                connected();
+            }
+            else {
+                deadline = deadlineFrom(exchange.getConnectTimeoutNanos());
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        }
+        catch (IOException ioe) {
+            fail(ioe);
+        }
+    }
+
+    @Override
+    public void send(final NioExchange exchange)
+    {
+        if (closed) {
+            // Lost the race against the server closing the idle connection.
+            pool.submit(exchange);
+            return;
+        }
+
+        startExchange(exchange);
+
+        try {
+            startWriting();
+        }
+        catch (IOException ioe) {
+            fail(ioe);
+        }
+    }
+
+    @Override
+    public void onReady(final int readyOps)
+    {
+        try {
+            if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                connected();
+            }
+            if (!closed && (readyOps & SelectionKey.OP_READ) != 0) {
+                read();
+            }
+            if (!closed && (readyOps & SelectionKey.OP_WRITE) != 0) {
+                flush();
+            }
+            updateInterest();
+        }
+        catch (IOException ioe) {
+            fail(ioe);
+        }
+        catch (RuntimeException re) {
+            fail(new IOException(re));
+        }
+    }
+
+    @Override
+    public void checkTimeouts(final long now)
+    {
+        if (closed) {
+            return;
+        }
+
+        if (exchange != null) {
+            if (requestDeadline != 0 && now - requestDeadline >= 0) {
+                fail(new RequestTimeoutException("Request to '%s' timed out", exchange.getUri()));
+            }
+            else if (deadline != 0 && now - deadline >= 0) {
+                fail(new SocketTimeoutException(connected ? "Read timed out" : "Connect timed out"));
+            }
+        }
+        else {
+            final long idleTimeoutNanos = pool.getIdleTimeoutNanos();
+            if (idleTimeoutNanos > 0 && now - idleSince >= idleTimeoutNanos && pool.removeIdle(this)) {
+                LOG.trace("Closing idle connection to %s", route);
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void fail(final IOException e)
+    {
+        final NioExchange failed = exchange;
+        final boolean receivedData = parser != null && parser.hasReceivedData();
+        final boolean sent = requestSent;
+
+        exchange = null;
+        parser = null;
+        close();
+
+        if (failed != null) {
+            if (!receivedData && failed.retry(e, sent)) {
+                LOG.debug(e, "Retrying %s %s", failed.getMethod(), failed.getUri());
+                pool.submit(failed);
+            }
+            else {
+                failed.fail(e);
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException ioe) {
+                LOG.trace(ioe, "While closing connection to %s", route);
+            }
+        }
+        pool.closed(this);
+    }
+
+    private void startExchange(final NioExchange exchange)
+    {
+        this.exchange = exchange;
+        this.parser = new NioResponseParser(exchange.isHead(), exchange.getMaxResponseBodySize());
+        this.requestSent = false;
+        this.requestDeadline = exchange.getRequestDeadline();
+    }
+
+    private void connected() throws IOException
+    {
+        connected = true;
+
+        if (route.isSecure()) {
+            sslEngine = sslContext.createSSLEngine(route.getHost(), route.getPort());
+            sslEngine.setUseClientMode(true);
+
+            final SSLSession session = sslEngine.getSession();
+            outNet = ByteBuffer.allocate(session.getPacketBufferSize());
+            outNet.flip();
+            inNet = ByteBuffer.allocate(session.getPacketBufferSize());
+            inApp = ByteBuffer.allocate(Math.max(BUFFER_SIZE, session.getApplicationBufferSize()));
+
+            sslEngine.beginHandshake();
+        }
+
+        startWriting();
+    }
+
+    private void startWriting() throws IOException
+    {
+        outApp = ByteBuffer.wrap(NioRequestEncoder.encode(exchange));
+        deadline = deadlineFrom(exchange.getSocketTimeoutNanos());
+        flush();
+        updateInterest();
+    }
+
+    private void read() throws IOException
+    {
+        final int count = (sslEngine == null) ? channel.read(inApp) : readEncrypted();
+
+        if (exchange == null) {
+            // Idle connection. The server either closed it or sent something unexpected.
+            if (count < 0 || inApp.position() > 0) {
+                close();
+            }
+            return;
+        }
+
+        if (count > 0) {
+            deadline = deadlineFrom(exchange.getSocketTimeoutNanos());
+        }
+
+        inApp.flip();
+        final boolean done = parser.parse(inApp);
+        final boolean leftover = inApp.hasRemaining();
+        inApp.compact();
+
+        if (done) {
+            completeExchange(!leftover && count >= 0 && parser.isKeepAlive());
+        }
+        else if (count < 0) {
+            parser.endOfStream();
+            completeExchange(false);
+        }
+    }
+
+    private int readEncrypted() throws IOException
+    {
+        final int count = channel.read(inNet);
+
+        inNet.flip();
+        try {
+            while (inNet.hasRemaining()) {
+                final SSLEngineResult result = sslEngine.unwrap(inNet, inApp);
+                runDelegatedTasks();
+
+                if (sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                    // Answer handshake messages before unwrapping the records that follow them.
+                    flush();
+                    if (sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                        break;
+                    }
+                    continue;
+                }
+
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    inApp = enlarge(inApp, sslEngine.getSession().getApplicationBufferSize());
+                }
+                else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break;
+                }
+                else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    return -1;
+                }
+                else if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+            }
+        }
+        finally {
+            inNet.compact();
+        }
+
+        if (!inNet.hasRemaining()) {
+            inNet = enlarge(inNet, sslEngine.getSession().getPacketBufferSize());
+        }
+
+        // Handshake messages may need an answer, and a finished handshake releases the request.
+        flush();
+        return count;
+    }
+
+    private void flush() throws IOException
+    {
+        if (sslEngine == null) {
+            if (outApp.hasRemaining() && channel.write(outApp) > 0) {
+                requestWritten();
+            }
+            return;
+        }
+
+        while (true) {
+            if (outNet.hasRemaining()) {
+                channel.write(outNet);
+                if (outNet.hasRemaining()) {
+                    return;
+                }
+            }
+
+            final HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+            if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+                continue;
+            }
+
+            final boolean handshaking = handshakeStatus != HandshakeStatus.NOT_HANDSHAKING && handshakeStatus != HandshakeStatus.FINISHED;
+            if (handshaking ? handshakeStatus != HandshakeStatus.NEED_WRAP : !outApp.hasRemaining()) {
+                return;
+            }
+
+            outNet.clear();
+            final SSLEngineResult result = sslEngine.wrap(outApp, outNet);
+            outNet.flip();
+
+            switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                outNet = ByteBuffer.allocate(outNet.capacity() + sslEngine.getSession().getPacketBufferSize());
+                outNet.flip();
+                break;
+            case CLOSED:
+                throw new SSLException("TLS connection to " + route + " was closed");
+            default:
+                if (result.bytesConsumed() > 0) {
+                    requestWritten();
+                }
+                break;
+            }
+        }
+    }
+
+    private void requestWritten()
+    {
+        requestSent = true;
+        if (exchange != null) {
+            deadline = deadlineFrom(exchange.getSocketTimeoutNanos());
+        }
+    }
+
+    private void updateInterest()
+    {
+        if (closed || key == null || !key.isValid()) {
+            return;
+        }
+
+        int ops = SelectionKey.OP_CONNECT;
+        if (connected) {
+            ops = SelectionKey.OP_READ;
+            final ByteBuffer pending = (sslEngine == null) ? outApp : outNet;
+            if (pending.hasRemaining()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+        }
+        key.interestOps(ops);
+    }
+
+    private void completeExchange(final boolean reusable)
+    {
+        final NioExchange completed = exchange;
+        final NioResponse response = parser.buildResponse(completed.getUri());
+
+        exchange = null;
+        parser = null;
+        outApp = EMPTY;
+        deadline = 0;
+        requestDeadline = 0;
+        idleSince = System.nanoTime();
+
+        if (reusable) {
+            pool.release(this);
+        }
+        else {
+            close();
+        }
+
+        completed.complete(response);
+    }
+
+    private void runDelegatedTasks()
+    {
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static long deadlineFrom(final long timeoutNanos)
+    {
+        return (timeoutNanos > 0) ? System.nanoTime() + timeoutNanos : 0;
+    }
+
+    /**
+     * Grow a buffer in write mode, keeping its content.
+     */
+    private static ByteBuffer enlarge(final ByteBuffer buffer, final int extra)
+    {
+        final ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() + extra);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
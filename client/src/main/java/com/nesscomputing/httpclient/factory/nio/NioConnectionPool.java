@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Keeps idle keep-alive connections per route and limits the number of open connections
+ * in the same way the Apache connection manager does. Exchanges that can not get a connection
+ * wait in a per-route queue.
+ *
+ * With HTTP/2 enabled, all exchanges to a plain HTTP route share a single connection.
+ */
+final class NioConnectionPool
+{
+    private static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 200;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    private final NioEventLoop [] loops;
+    private final SSLContext sslContext;
+    private final NioSettings settings;
+    private final boolean http2;
+
+    private final Map<NioRoute, RouteState> routes = Maps.newHashMap();
+
+    /** Idle connections that were taken off the counts to make room, but are not closed yet. */
+    private final Set<NioChannel> evicted = Sets.newHashSet();
+
+    private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int totalConnections = 0;
+    private int nextLoop = 0;
+    private boolean shutdown = false;
+
+    /**
+     * @param http2 if true, plain HTTP routes use HTTP/2 with prior knowledge.
+     */
+    NioConnectionPool(final NioEventLoop [] loops, final SSLContext sslContext, final NioSettings settings, final boolean http2)
+    {
+        this.loops = loops;
+        this.sslContext = sslContext;
+        this.settings = settings;
+        this.http2 = http2;
+    }
+
+    synchronized void setMaxTotalConnections(final int maxTotalConnections)
+    {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    synchronized void setMaxConnectionsPerRoute(final int maxConnectionsPerRoute)
+    {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    long getIdleTimeoutNanos()
+    {
+        return settings.getIdleTimeoutNanos();
+    }
+
+    /**
+     * Run an exchange on an idle or shared connection, a new connection or queue it until a connection
+     * becomes available.
+     */
+    void submit(final NioExchange exchange)
+    {
+        NioChannel connection = null;
+        NioConnection victim = null;
+        boolean fresh = false;
+        boolean rejected = true;
+
+        synchronized (this) {
+            if (!shutdown) {
+                rejected = false;
+                final NioRoute route = exchange.getRoute();
+                final RouteState state = getState(route);
+                connection = isHttp2(route) ? state.http2 : state.idle.pollFirst();
+                if (connection == null) {
+                    if (!hasCapacity(state) && totalConnections >= maxTotalConnections) {
+                        // Make room by dropping an idle connection to another route.
+                        victim = removeAnyIdle();
+                    }
+                    if (hasCapacity(state)) {
+                        connection = newConnection(state, route);
+                        fresh = true;
+                    }
+                    else {
+                        state.pending.add(exchange);
+                    }
+                }
+            }
+        }
+
+        if (victim != null) {
+            closeOnLoop(victim);
+        }
+
+        if (connection != null) {
+            dispatch(connection, exchange, fresh);
+        }
+        else if (rejected) {
+            exchange.fail(new IOException("HTTP client was shut down"));
+        }
+    }
+
+    /**
+     * A connection finished its exchange and can be reused. Called on the event loop of the connection.
+     */
+    void release(final NioConnection connection)
+    {
+        final NioExchange next;
+        synchronized (this) {
+            final RouteState state = getState(connection.getRoute());
+            next = shutdown ? null : state.pending.poll();
+            if (next == null) {
+                state.idle.addFirst(connection);
+                return;
+            }
+        }
+        connection.send(next);
+    }
+
+    /**
+     * Remove a connection from the idle list before it gets closed for being idle too long.
+     *
+     * @return false if the connection was handed out in the meantime.
+     */
+    synchronized boolean removeIdle(final NioChannel connection)
+    {
+        final RouteState state = routes.get(connection.getRoute());
+        if (state == null) {
+            return false;
+        }
+        if (state.http2 == connection) {
+            state.http2 = null;
+            return true;
+        }
+        return state.idle.remove(connection);
+    }
+
+    /**
+     * Stop handing out a HTTP/2 connection that can not take new streams. It stays counted until it is closed.
+     */
+    synchronized void retire(final NioHttp2Connection connection)
+    {
+        final RouteState state = routes.get(connection.getRoute());
+        if (state != null && state.http2 == connection) {
+            state.http2 = null;
+        }
+    }
+
+    /**
+     * A connection was closed. Its slot goes to waiting exchanges, first for the same route.
+     */
+    void closed(final NioChannel connection)
+    {
+        final List<NioChannel> connections = Lists.newArrayList();
+        final List<NioExchange> exchanges = Lists.newArrayList();
+
+        synchronized (this) {
+            final NioRoute route = connection.getRoute();
+            final RouteState state = getState(route);
+            state.idle.remove(connection);
+            if (state.http2 == connection) {
+                state.http2 = null;
+            }
+            if (!evicted.remove(connection)) {
+                state.connections--;
+                totalConnections--;
+            }
+
+            if (!shutdown) {
+                assignPending(route, state, connections, exchanges);
+                for (Map.Entry<NioRoute, RouteState> entry : routes.entrySet()) {
+                    assignPending(entry.getKey(), entry.getValue(), connections, exchanges);
+                }
+            }
+
+            if (state.connections == 0 && state.pending.isEmpty()) {
+                routes.remove(route);
+            }
+        }
+
+        for (int i = 0; i < connections.size(); i++) {
+            dispatch(connections.get(i), exchanges.get(i), true);
+        }
+    }
+
+    /**
+     * Fail all waiting exchanges. Open connections are failed by their event loops.
+     */
+    void shutdown()
+    {
+        final List<NioExchange> pending = Lists.newArrayList();
+        synchronized (this) {
+            shutdown = true;
+            for (RouteState state : routes.values()) {
+                pending.addAll(state.pending);
+                state.pending.clear();
+            }
+        }
+
+        for (NioExchange exchange : pending) {
+            exchange.fail(new IOException("HTTP client was shut down"));
+        }
+    }
+
+    private void assignPending(final NioRoute route, final RouteState state, final List<NioChannel> connections, final List<NioExchange> exchanges)
+    {
+        while (!state.pending.isEmpty()) {
+            // All waiting exchanges of a HTTP/2 route go to the same new connection.
+            NioChannel connection = isHttp2(route) ? state.http2 : null;
+            if (connection == null) {
+                if (!hasCapacity(state)) {
+                    break;
+                }
+                connection = newConnection(state, route);
+            }
+            connections.add(connection);
+            exchanges.add(state.pending.poll());
+        }
+    }
+
+    private RouteState getState(final NioRoute route)
+    {
+        RouteState state = routes.get(route);
+        if (state == null) {
+            state = new RouteState();
+            routes.put(route, state);
+        }
+        return state;
+    }
+
+    private boolean hasCapacity(final RouteState state)
+    {
+        return totalConnections < maxTotalConnections && state.connections < maxConnectionsPerRoute;
+    }
+
+    private boolean isHttp2(final NioRoute route)
+    {
+        // Without ALPN there is no way to negotiate HTTP/2 over TLS.
+        return http2 && !route.isSecure();
+    }
+
+    private NioChannel newConnection(final RouteState state, final NioRoute route)
+    {
+        state.connections++;
+        totalConnections++;
+
+        final NioEventLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+
+        if (isHttp2(route)) {
+            state.http2 = new NioHttp2Connection(this, loop, route);
+            return state.http2;
+        }
+        return new NioConnection(this, loop, route, sslContext);
+    }
+
+    private NioConnection removeAnyIdle()
+    {
+        for (RouteState state : routes.values()) {
+            final NioConnection connection = state.idle.pollLast();
+            if (connection != null) {
+                // Hand the slot to the caller right away, closed() must not count it again.
+                state.connections--;
+                totalConnections--;
+                evicted.add(connection);
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private static void dispatch(final NioChannel connection, final NioExchange exchange, final boolean fresh)
+    {
+        connection.getLoop().execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (fresh) {
+                    connection.connect(exchange);
+                }
+                else {
+                    connection.send(exchange);
+                }
+            }
+        });
+    }
+
+    private static void closeOnLoop(final NioConnection connection)
+    {
+        connection.getLoop().execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                connection.close();
+            }
+        });
+    }
+
+    private static final class RouteState
+    {
+        /** Most recently used first, so that rarely used connections time out. */
+        private final Deque<NioConnection> idle = new ArrayDeque<NioConnection>();
+        private final Queue<NioExchange> pending = new LinkedList<NioExchange>();
+        /** The connection that takes all exchanges of a HTTP/2 route. */
+        private NioHttp2Connection http2 = null;
+        private int connections = 0;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.nesscomputing.logging.Log;
+
+/**
+ * A selector thread. Owns the sockets of all connections that were assigned to it; every
+ * operation on such a connection runs on this thread, other threads hand work over through
+ * {@link #execute(Runnable)}.
+ */
+final class NioEventLoop implements Runnable
+{
+    private static final Log LOG = Log.findLog();
+
+    /** How often timeouts are checked. This is also the resolution of all timeouts. */
+    private static final long TICK_MILLIS = 100L;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private volatile boolean running = true;
+
+    NioEventLoop(final String name) throws IOException
+    {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start()
+    {
+        thread.start();
+    }
+
+    void shutdown()
+    {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    Selector getSelector()
+    {
+        return selector;
+    }
+
+    boolean inEventLoop()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the event loop thread.
+     */
+    void execute(final Runnable task)
+    {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        long lastCheck = System.nanoTime();
+
+        try {
+            while (running) {
+                selector.select(TICK_MILLIS);
+
+                runTasks();
+
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+
+                    if (key.isValid()) {
+                        ((NioChannel) key.attachment()).onReady(key.readyOps());
+                    }
+                }
+
+                final long now = System.nanoTime();
+                if (now - lastCheck >= TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS)) {
+                    lastCheck = now;
+                    for (NioChannel channel : channels()) {
+                        channel.checkTimeouts(now);
+                    }
+                }
+            }
+        }
+        catch (IOException ioe) {
+            LOG.error(ioe, "Selector failed, event loop terminates!");
+        }
+        catch (ClosedSelectorException cse) {
+            LOG.error(cse, "Selector was closed, event loop terminates!");
+        }
+        finally {
+            runTasks();
+            if (selector.isOpen()) {
+                for (NioChannel channel : channels()) {
+                    channel.fail(new IOException("HTTP client was shut down"));
+                }
+            }
+            try {
+                selector.close();
+            }
+            catch (IOException ioe) {
+                LOG.warnDebug(ioe, "While closing selector");
+            }
+        }
+    }
+
+    private List<NioChannel> channels()
+    {
+        final List<NioChannel> channels = Lists.newArrayList();
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                channels.add((NioChannel) key.attachment());
+            }
+        }
+        return channels;
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            }
+            catch (RuntimeException re) {
+                LOG.error(re, "Task failed on event loop");
+            }
+        }
+    }
+}
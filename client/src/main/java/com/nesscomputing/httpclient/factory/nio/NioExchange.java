@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLHandshakeException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+
+/**
+ * A single request/response exchange with a remote server. Moves between the caller,
+ * the connection pool and the event loop that owns the connection it runs on.
+ */
+final class NioExchange
+{
+    private final NioRoute route;
+    private final InetSocketAddress address;
+    private final HttpClientMethod method;
+    private final URI uri;
+    /** All request headers, including Host and Content-Length. */
+    private final List<HttpClientHeader> headers;
+    private final byte [] body;
+
+    private final long connectTimeoutNanos;
+    private final long socketTimeoutNanos;
+    /** Value of {@link System#nanoTime()} when the whole request must be done, 0 if there is no deadline. */
+    private final long requestDeadline;
+    /** Maximum number of bytes of the response body, -1 if unlimited. */
+    private final long maxResponseBodySize;
+
+    private final SettableFuture<NioResponse> future = SettableFuture.create();
+
+    private volatile int retriesLeft;
+
+    NioExchange(final NioRoute route,
+                final InetSocketAddress address,
+                final HttpClientMethod method,
+                final URI uri,
+                final List<HttpClientHeader> headers,
+                @Nullable final byte [] body,
+                final HttpClientRequest<?> request,
+                final NioSettings settings,
+                final long requestDeadline)
+    {
+        this.route = route;
+        this.address = address;
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers;
+        this.body = body;
+
+        this.connectTimeoutNanos = timeoutNanos(request.getConnectTimeout(), settings.getConnectTimeoutNanos());
+        this.socketTimeoutNanos = timeoutNanos(request.getSocketTimeout(), settings.getSocketTimeoutNanos());
+        this.requestDeadline = requestDeadline;
+        this.maxResponseBodySize = settings.getMaxResponseBodySize();
+        this.retriesLeft = settings.getRetries();
+    }
+
+    NioRoute getRoute()
+    {
+        return route;
+    }
+
+    InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    HttpClientMethod getMethod()
+    {
+        return method;
+    }
+
+    URI getUri()
+    {
+        return uri;
+    }
+
+    List<HttpClientHeader> getHeaders()
+    {
+        return headers;
+    }
+
+    @Nullable
+    byte [] getBody()
+    {
+        return body;
+    }
+
+    boolean isHead()
+    {
+        return method == HttpClientMethod.HEAD;
+    }
+
+    long getConnectTimeoutNanos()
+    {
+        return connectTimeoutNanos;
+    }
+
+    long getSocketTimeoutNanos()
+    {
+        return socketTimeoutNanos;
+    }
+
+    long getRequestDeadline()
+    {
+        return requestDeadline;
+    }
+
+    long getMaxResponseBodySize()
+    {
+        return maxResponseBodySize;
+    }
+
+    ListenableFuture<NioResponse> getFuture()
+    {
+        return future;
+    }
+
+    void complete(final NioResponse response)
+    {
+        future.set(response);
+    }
+
+    void fail(final IOException e)
+    {
+        future.setException(e);
+    }
+
+    /**
+     * Decide whether a failed exchange may be sent again right away. This is only done for
+     * exchanges that never reached the server, e.g. because a HTTP/2 server went away before
+     * it saw them. Everything else is up to the retry policy of the client.
+     *
+     * @param e the failure.
+     * @param requestSent true if the request may have been seen by the server.
+     */
+    boolean retry(final IOException e, final boolean requestSent)
+    {
+        if (requestSent
+            || e instanceof InterruptedIOException
+            || e instanceof UnknownHostException
+            || e instanceof ConnectException
+            || e instanceof SSLHandshakeException) {
+            return false;
+        }
+
+        if (retriesLeft <= 0) {
+            return false;
+        }
+        retriesLeft--;
+        return true;
+    }
+
+    /**
+     * @return the timeout set on the request or the client default.
+     */
+    private static long timeoutNanos(@Nullable final Long requestTimeoutMillis, final long defaultNanos)
+    {
+        return (requestTimeoutMillis != null) ? TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis) : defaultNanos;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+
+/**
+ * Decodes HPACK header blocks. Keeps the dynamic table of one connection, so every header block
+ * received on the connection must go through the same decoder in the order it arrived.
+ */
+final class NioHpackDecoder
+{
+    /** Newest entry first, the first element has index 62. */
+    private final LinkedList<HttpClientHeader> dynamicTable = Lists.newLinkedList();
+
+    private int maxSize = NioHpack.DEFAULT_TABLE_SIZE;
+    private int size = 0;
+
+    List<HttpClientHeader> decode(final ByteBuffer block) throws IOException
+    {
+        final List<HttpClientHeader> headers = Lists.newArrayList();
+
+        while (block.hasRemaining()) {
+            final int b = block.get() & 0xff;
+
+            if ((b & 0x80) != 0) {
+                // Indexed header field.
+                headers.add(get(NioHpack.decodeInteger(block, b, 7)));
+            }
+            else if ((b & 0x40) != 0) {
+                // Literal with incremental indexing.
+                final HttpClientHeader header = readLiteral(block, b, 6);
+                add(header);
+                headers.add(header);
+            }
+            else if ((b & 0x20) != 0) {
+                // Dynamic table size update, only allowed before the first header.
+                if (!headers.isEmpty()) {
+                    throw new IOException("HPACK table size update after header field");
+                }
+                resize(NioHpack.decodeInteger(block, b, 5));
+            }
+            else {
+                // Literal without indexing or never indexed.
+                headers.add(readLiteral(block, b, 4));
+            }
+        }
+        return headers;
+    }
+
+    private HttpClientHeader readLiteral(final ByteBuffer block, final int first, final int prefixBits) throws IOException
+    {
+        final int index = NioHpack.decodeInteger(block, first, prefixBits);
+        final String name = (index == 0) ? readString(block) : get(index).getName();
+        return new HttpClientHeader(name, readString(block));
+    }
+
+    private String readString(final ByteBuffer block) throws IOException
+    {
+        if (!block.hasRemaining()) {
+            throw new IOException("Truncated HPACK string");
+        }
+
+        final int first = block.get() & 0xff;
+        final int length = NioHpack.decodeInteger(block, first, 7);
+        if (length > block.remaining()) {
+            throw new IOException("Truncated HPACK string");
+        }
+
+        if ((first & 0x80) != 0) {
+            return NioHpack.huffmanDecode(block, length);
+        }
+
+        final byte [] bytes = new byte [length];
+        block.get(bytes);
+        return new String(bytes, Charsets.ISO_8859_1);
+    }
+
+    private HttpClientHeader get(final int index) throws IOException
+    {
+        if (index >= 1 && index <= NioHpack.STATIC_TABLE.size()) {
+            return NioHpack.STATIC_TABLE.get(index - 1);
+        }
+
+        final int dynamicIndex = index - NioHpack.STATIC_TABLE.size() - 1;
+        if (dynamicIndex >= 0 && dynamicIndex < dynamicTable.size()) {
+            return dynamicTable.get(dynamicIndex);
+        }
+        throw new IOException("Invalid HPACK index " + index);
+    }
+
+    private void add(final HttpClientHeader header)
+    {
+        final int entrySize = entrySize(header);
+        if (entrySize > maxSize) {
+            // Section 4.4, an entry larger than the table empties it.
+            dynamicTable.clear();
+            size = 0;
+            return;
+        }
+
+        evict(maxSize - entrySize);
+        dynamicTable.addFirst(header);
+        size += entrySize;
+    }
+
+    private void resize(final int newSize) throws IOException
+    {
+        if (newSize > NioHpack.DEFAULT_TABLE_SIZE) {
+            throw new IOException("HPACK table size " + newSize + " exceeds the advertised maximum");
+        }
+        maxSize = newSize;
+        evict(maxSize);
+    }
+
+    private void evict(final int targetSize)
+    {
+        while (size > targetSize) {
+            size -= entrySize(dynamicTable.removeLast());
+        }
+    }
+
+    private static int entrySize(final HttpClientHeader header)
+    {
+        return header.getName().length() + header.getValue().length() + NioHpack.ENTRY_OVERHEAD;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+
+/**
+ * Encodes HPACK header blocks. Only uses the static table and never adds to the dynamic table, so
+ * the encoder keeps no state and the peer's table size settings do not matter. Strings are sent
+ * without Huffman coding.
+ */
+final class NioHpackEncoder
+{
+    /** Credentials should not end up in any intermediary's table (section 7.1.3). */
+    private static final Set<String> SENSITIVE = ImmutableSet.of("authorization", "cookie", "proxy-authorization");
+
+    private static final Map<String, Integer> STATIC_NAMES = Maps.newHashMap();
+    private static final Map<String, Integer> STATIC_FIELDS = Maps.newHashMap();
+
+    static {
+        for (int i = NioHpack.STATIC_TABLE.size(); i > 0; i--) {
+            final HttpClientHeader header = NioHpack.STATIC_TABLE.get(i - 1);
+            // Iterating backwards leaves the lowest index for names that occur more than once.
+            STATIC_NAMES.put(header.getName(), i);
+            if (header.getValue().length() > 0) {
+                STATIC_FIELDS.put(header.getName() + ": " + header.getValue(), i);
+            }
+        }
+    }
+
+    private NioHpackEncoder()
+    {
+    }
+
+    /**
+     * @param headers headers with lower case names, pseudo headers first.
+     */
+    static byte [] encode(final List<HttpClientHeader> headers)
+    {
+        int capacity = 0;
+        for (final HttpClientHeader header : headers) {
+            capacity += header.getName().length() + header.getValue().length() + 16;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+
+        for (final HttpClientHeader header : headers) {
+            final String name = header.getName();
+
+            final Integer fieldIndex = STATIC_FIELDS.get(name + ": " + header.getValue());
+            if (fieldIndex != null) {
+                NioHpack.encodeInteger(buffer, 0x80, 7, fieldIndex);
+                continue;
+            }
+
+            // Literal without indexing (0000) or never indexed (0001).
+            final int flags = SENSITIVE.contains(name) ? 0x10 : 0x00;
+            final Integer nameIndex = STATIC_NAMES.get(name);
+            if (nameIndex != null) {
+                NioHpack.encodeInteger(buffer, flags, 4, nameIndex);
+            }
+            else {
+                buffer.put((byte) flags);
+                writeString(buffer, name);
+            }
+            writeString(buffer, header.getValue());
+        }
+
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static void writeString(final ByteBuffer buffer, final String value)
+    {
+        final byte [] bytes = value.getBytes(Charsets.ISO_8859_1);
+        NioHpack.encodeInteger(buffer, 0x00, 7, bytes.length);
+        buffer.put(bytes);
+    }
+}
@@ -0,0 +1,922 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.nesscomputing.httpclient.RequestTimeoutException;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.io.SizeExceededException;
+import com.nesscomputing.logging.Log;
+
+/**
+ * A HTTP/2 connection over plain TCP, using prior knowledge (RFC 7540, section 3.4). Runs each
+ * exchange on its own stream, so all requests to a server share one socket. Exchanges beyond the
+ * number of concurrent streams the server allows wait on the connection.
+ */
+final class NioHttp2Connection implements NioChannel
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final byte [] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Charsets.US_ASCII);
+    private static final byte [] EMPTY = new byte [0];
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int ERROR_NO_ERROR = 0x0;
+    private static final int ERROR_REFUSED_STREAM = 0x7;
+    private static final int ERROR_CANCEL = 0x8;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+
+    /** Receive window of the connection and of each stream. Responses are buffered completely anyway. */
+    private static final int RECEIVE_WINDOW_SIZE = 1 << 20;
+
+    /** Assumed until the server announces its limit. */
+    private static final int INITIAL_MAX_CONCURRENT_STREAMS = 100;
+
+    /** No new DATA frames are produced while this many bytes wait for the socket. */
+    private static final int OUTPUT_HIGH_WATER = 65536;
+
+    /** Connection specific headers that must not be sent (section 8.1.2.2). Host becomes :authority. */
+    private static final Set<String> EXCLUDED_HEADERS = ImmutableSet.of("host", "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "te");
+
+    private final NioConnectionPool pool;
+    private final NioEventLoop loop;
+    private final NioRoute route;
+
+    private final NioHpackDecoder decoder = new NioHpackDecoder();
+
+    private SocketChannel channel = null;
+    private SelectionKey key = null;
+
+    /** Frames to be sent, in write mode. */
+    private ByteBuffer out = ByteBuffer.allocate(OUTPUT_HIGH_WATER);
+    /** Frames received, in write mode. Large enough for two frames of the size this side allows. */
+    private final ByteBuffer in = ByteBuffer.allocate(2 * (FRAME_HEADER_LENGTH + DEFAULT_MAX_FRAME_SIZE));
+
+    private final Map<Integer, Stream> streams = Maps.newLinkedHashMap();
+    private final Queue<NioExchange> waiting = new LinkedList<NioExchange>();
+
+    /** Header block being assembled from HEADERS and CONTINUATION frames. */
+    private ByteArrayOutputStream headerBlock = null;
+    private int headerBlockStreamId = 0;
+    private boolean headerBlockEndStream = false;
+
+    private int nextStreamId = 1;
+    private int maxConcurrentStreams = INITIAL_MAX_CONCURRENT_STREAMS;
+    private int initialSendWindow = DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int sendWindow = DEFAULT_WINDOW_SIZE;
+    private int receivedUnacknowledged = 0;
+
+    private boolean connected = false;
+    private boolean closed = false;
+    private boolean goingAway = false;
+
+    private long connectDeadline = 0;
+    private long idleSince = System.nanoTime();
+
+    NioHttp2Connection(final NioConnectionPool pool, final NioEventLoop loop, final NioRoute route)
+    {
+        this.pool = pool;
+        this.loop = loop;
+        this.route = route;
+    }
+
+    @Override
+    public NioEventLoop getLoop()
+    {
+        return loop;
+    }
+
+    @Override
+    public NioRoute getRoute()
+    {
+        return route;
+    }
+
+    /**
+     * Streams are opened on demand, so connecting is the same as sending.
+     */
+    @Override
+    public void connect(final NioExchange exchange)
+    {
+        send(exchange);
+    }
+
+    @Override
+    public void send(final NioExchange exchange)
+    {
+        if (closed || goingAway) {
+            // The pool no longer hands out this connection.
+            pool.submit(exchange);
+            return;
+        }
+
+        waiting.add(exchange);
+
+        try {
+            if (channel == null) {
+                open(exchange);
+            }
+            else if (connected) {
+                startStreams();
+                flush();
+                updateInterest();
+            }
+        }
+        catch (IOException ioe) {
+            fail(ioe);
+        }
+    }
+
+    @Override
+    public void onReady(final int readyOps)
+    {
+        try {
+            if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                connected();
+            }
+            if (!closed && (readyOps & SelectionKey.OP_READ) != 0) {
+                read();
+            }
+            if (!closed) {
+                flush();
+            }
+            updateInterest();
+        }
+        catch (IOException ioe) {
+            fail(ioe);
+        }
+        catch (RuntimeException re) {
+            fail(new IOException(re));
+        }
+    }
+
+    @Override
+    public void checkTimeouts(final long now)
+    {
+        if (closed) {
+            return;
+        }
+
+        if (!connected) {
+            if (connectDeadline != 0 && now - connectDeadline >= 0) {
+                fail(new SocketTimeoutException("Connect timed out"));
+            }
+            return;
+        }
+
+        for (final Stream stream : Lists.newArrayList(streams.values())) {
+            if (stream.requestDeadline != 0 && now - stream.requestDeadline >= 0) {
+                reset(stream, ERROR_CANCEL, new RequestTimeoutException("Request to '%s' timed out", stream.exchange.getUri()));
+            }
+            else if (stream.deadline != 0 && now - stream.deadline >= 0) {
+                reset(stream, ERROR_CANCEL, new SocketTimeoutException("Read timed out"));
+            }
+        }
+
+        if (!closed && streams.isEmpty() && waiting.isEmpty()) {
+            final long idleTimeoutNanos = pool.getIdleTimeoutNanos();
+            if (goingAway || (idleTimeoutNanos > 0 && now - idleSince >= idleTimeoutNanos && pool.removeIdle(this))) {
+                LOG.trace("Closing idle HTTP/2 connection to %s", route);
+                close();
+                return;
+            }
+        }
+
+        try {
+            flush();
+            updateInterest();
+        }
+        catch (IOException ioe) {
+            fail(ioe);
+        }
+    }
+
+    @Override
+    public void fail(final IOException e)
+    {
+        final List<Stream> failedStreams = Lists.newArrayList(streams.values());
+        final List<NioExchange> unsent = Lists.newArrayList(waiting);
+        streams.clear();
+        waiting.clear();
+
+        close();
+
+        for (final Stream stream : failedStreams) {
+            retryOrFail(stream.exchange, e, !stream.responseStarted, true);
+        }
+        for (final NioExchange exchange : unsent) {
+            retryOrFail(exchange, e, true, false);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException ioe) {
+                LOG.trace(ioe, "While closing connection to %s", route);
+            }
+        }
+        pool.closed(this);
+    }
+
+    private void retryOrFail(final NioExchange exchange, final IOException e, final boolean retryable, final boolean requestSent)
+    {
+        if (retryable && exchange.retry(e, requestSent)) {
+            LOG.debug(e, "Retrying %s %s", exchange.getMethod(), exchange.getUri());
+            pool.submit(exchange);
+        }
+        else {
+            exchange.fail(e);
+        }
+    }
+
+    private void open(final NioExchange exchange) throws IOException
+    {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        key = channel.register(loop.getSelector(), 0, this);
+
+        if (channel.connect(exchange.getAddress())) {
+            connected();
+        }
+        else {
+            connectDeadline = deadlineFrom(exchange.getConnectTimeoutNanos());
+            key.interestOps(SelectionKey.OP_CONNECT);
+        }
+    }
+
+    private void connected() throws IOException
+    {
+        connected = true;
+        connectDeadline = 0;
+
+        ensureOut(PREFACE.length);
+        out.put(PREFACE);
+
+        final ByteBuffer settings = ByteBuffer.allocate(12);
+        settings.putShort((short) SETTINGS_ENABLE_PUSH).putInt(0);
+        settings.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(RECEIVE_WINDOW_SIZE);
+        writeFrame(TYPE_SETTINGS, 0, 0, settings.array(), 0, settings.capacity());
+        writeWindowUpdate(0, RECEIVE_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+
+        // No need to wait for the server settings, requests may follow the preface right away.
+        startStreams();
+        flush();
+        updateInterest();
+    }
+
+    /**
+     * Open streams for waiting exchanges as far as the server allows.
+     */
+    private void startStreams()
+    {
+        while (!waiting.isEmpty() && !goingAway && streams.size() < maxConcurrentStreams) {
+            if (nextStreamId < 0) {
+                // Stream ids are used up, continue on a new connection.
+                retire();
+                resubmitWaiting();
+                return;
+            }
+
+            final Stream stream = new Stream(nextStreamId, waiting.poll());
+            nextStreamId += 2;
+            streams.put(stream.id, stream);
+            writeHeaders(stream);
+        }
+    }
+
+    private void writeHeaders(final Stream stream)
+    {
+        final byte [] body = stream.exchange.getBody();
+        final boolean hasBody = body != null && body.length > 0;
+        final byte [] block = NioHpackEncoder.encode(requestHeaders(stream.exchange));
+
+        int offset = 0;
+        boolean first = true;
+        do {
+            final int length = Math.min(maxFrameSize, block.length - offset);
+            int flags = (offset + length == block.length) ? FLAG_END_HEADERS : 0;
+            if (first && !hasBody) {
+                flags |= FLAG_END_STREAM;
+            }
+            writeFrame(first ? TYPE_HEADERS : TYPE_CONTINUATION, flags, stream.id, block, offset, length);
+            offset += length;
+            first = false;
+        } while (offset < block.length);
+
+        if (hasBody) {
+            stream.body = ByteBuffer.wrap(body);
+        }
+        stream.touch();
+    }
+
+    private List<HttpClientHeader> requestHeaders(final NioExchange exchange)
+    {
+        String authority = route.getHost() + ":" + route.getPort();
+        for (final HttpClientHeader header : exchange.getHeaders()) {
+            if ("Host".equalsIgnoreCase(header.getName())) {
+                authority = header.getValue();
+            }
+        }
+
+        final List<HttpClientHeader> headers = Lists.newArrayList();
+        headers.add(new HttpClientHeader(":method", exchange.getMethod().name()));
+        headers.add(new HttpClientHeader(":scheme", route.isSecure() ? "https" : "http"));
+        headers.add(new HttpClientHeader(":authority", authority));
+        headers.add(new HttpClientHeader(":path", NioRequestEncoder.requestTarget(exchange.getUri())));
+
+        for (final HttpClientHeader header : exchange.getHeaders()) {
+            final String name = header.getName().toLowerCase(Locale.ENGLISH);
+            if (!EXCLUDED_HEADERS.contains(name)) {
+                headers.add(new HttpClientHeader(name, header.getValue()));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Send request bodies as far as flow control and the output buffer allow.
+     */
+    private void writeData()
+    {
+        for (final Stream stream : streams.values()) {
+            while (stream.body != null && out.position() < OUTPUT_HIGH_WATER) {
+                final int length = Math.min(Math.min(stream.body.remaining(), maxFrameSize), Math.min(stream.sendWindow, sendWindow));
+                if (length <= 0) {
+                    break;
+                }
+
+                final boolean last = length == stream.body.remaining();
+                writeFrame(TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.id, stream.body.array(), stream.body.position(), length);
+                stream.body.position(stream.body.position() + length);
+                stream.sendWindow -= length;
+                sendWindow -= length;
+
+                if (last) {
+                    stream.body = null;
+                }
+                stream.touch();
+            }
+        }
+    }
+
+    private void read() throws IOException
+    {
+        final int count = channel.read(in);
+
+        in.flip();
+        try {
+            while (!closed && in.remaining() >= FRAME_HEADER_LENGTH) {
+                final int start = in.position();
+                final int length = ((in.get(start) & 0xff) << 16) | ((in.get(start + 1) & 0xff) << 8) | (in.get(start + 2) & 0xff);
+                if (length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new IOException(String.format("HTTP/2 frame of %d bytes exceeds the maximum frame size", length));
+                }
+                if (in.remaining() < FRAME_HEADER_LENGTH + length) {
+                    break;
+                }
+
+                final int type = in.get(start + 3) & 0xff;
+                final int flags = in.get(start + 4) & 0xff;
+                final int streamId = in.getInt(start + 5) & 0x7fffffff;
+
+                final ByteBuffer payload = in.duplicate();
+                payload.position(start + FRAME_HEADER_LENGTH);
+                payload.limit(start + FRAME_HEADER_LENGTH + length);
+                in.position(start + FRAME_HEADER_LENGTH + length);
+
+                processFrame(type, flags, streamId, payload);
+            }
+        }
+        finally {
+            in.compact();
+        }
+
+        if (count < 0 && !closed) {
+            if (streams.isEmpty() && waiting.isEmpty()) {
+                close();
+            }
+            else {
+                fail(new IOException("Connection to " + route + " was closed by the server"));
+            }
+        }
+    }
+
+    private void processFrame(final int type, final int flags, final int streamId, final ByteBuffer payload) throws IOException
+    {
+        if (headerBlock != null && (type != TYPE_CONTINUATION || streamId != headerBlockStreamId)) {
+            throw new IOException("HTTP/2 protocol error: expected CONTINUATION frame for stream " + headerBlockStreamId);
+        }
+
+        switch (type) {
+        case TYPE_DATA:
+            onData(flags, streamId, payload);
+            break;
+        case TYPE_HEADERS:
+            onHeaders(flags, streamId, payload);
+            break;
+        case TYPE_CONTINUATION:
+            onContinuation(flags, streamId, payload);
+            break;
+        case TYPE_RST_STREAM:
+            onRstStream(streamId, payload);
+            break;
+        case TYPE_SETTINGS:
+            onSettings(flags, payload);
+            break;
+        case TYPE_PUSH_PROMISE:
+            throw new IOException("HTTP/2 protocol error: server push was disabled");
+        case TYPE_PING:
+            if ((flags & FLAG_ACK) == 0) {
+                writeFrame(TYPE_PING, FLAG_ACK, 0, payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            }
+            break;
+        case TYPE_GOAWAY:
+            onGoAway(payload);
+            break;
+        case TYPE_WINDOW_UPDATE:
+            onWindowUpdate(streamId, payload);
+            break;
+        default:
+            // PRIORITY and unknown frame types are ignored.
+            break;
+        }
+    }
+
+    private void onData(final int flags, final int streamId, final ByteBuffer payload) throws IOException
+    {
+        final int length = payload.remaining();
+        unpad(flags, payload);
+
+        // Flow control covers the whole frame, even for streams that are gone.
+        receivedUnacknowledged += length;
+        if (receivedUnacknowledged >= RECEIVE_WINDOW_SIZE / 2) {
+            writeWindowUpdate(0, receivedUnacknowledged);
+            receivedUnacknowledged = 0;
+        }
+
+        final Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        if (stream.status == 0) {
+            throw new IOException("HTTP/2 protocol error: DATA before HEADERS on stream " + streamId);
+        }
+
+        stream.touch();
+        final long maxBodySize = stream.exchange.getMaxResponseBodySize();
+        if (maxBodySize >= 0 && stream.content.size() + (long) payload.remaining() > maxBodySize) {
+            // Only the stream fails, the connection stays usable for the others.
+            reset(stream, ERROR_CANCEL, new SizeExceededException("Response body exceeds maximum body size %d", maxBodySize));
+            return;
+        }
+        stream.content.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+
+        if ((flags & FLAG_END_STREAM) != 0) {
+            completeStream(stream);
+        }
+        else {
+            stream.receivedUnacknowledged += length;
+            if (stream.receivedUnacknowledged >= RECEIVE_WINDOW_SIZE / 2) {
+                writeWindowUpdate(streamId, stream.receivedUnacknowledged);
+                stream.receivedUnacknowledged = 0;
+            }
+        }
+    }
+
+    private void onHeaders(final int flags, final int streamId, final ByteBuffer payload) throws IOException
+    {
+        unpad(flags, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            if (payload.remaining() < 5) {
+                throw new IOException("HTTP/2 protocol error: truncated HEADERS frame");
+            }
+            payload.position(payload.position() + 5);
+        }
+
+        headerBlock = new ByteArrayOutputStream();
+        headerBlockStreamId = streamId;
+        headerBlockEndStream = (flags & FLAG_END_STREAM) != 0;
+        onContinuation(flags, streamId, payload);
+    }
+
+    private void onContinuation(final int flags, final int streamId, final ByteBuffer payload) throws IOException
+    {
+        if (headerBlock == null) {
+            throw new IOException("HTTP/2 protocol error: unexpected CONTINUATION frame on stream " + streamId);
+        }
+
+        headerBlock.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        if ((flags & FLAG_END_HEADERS) == 0) {
+            return;
+        }
+
+        // Every header block must be decoded to keep the dynamic table in sync, even for streams that are gone.
+        final List<HttpClientHeader> fields = decoder.decode(ByteBuffer.wrap(headerBlock.toByteArray()));
+        final boolean endStream = headerBlockEndStream;
+        headerBlock = null;
+
+        final Stream stream = streams.get(headerBlockStreamId);
+        if (stream == null) {
+            return;
+        }
+
+        stream.touch();
+        stream.responseStarted = true;
+
+        String status = null;
+        final List<HttpClientHeader> headers = Lists.newArrayList();
+        for (final HttpClientHeader field : fields) {
+            if (":status".equals(field.getName())) {
+                status = field.getValue();
+            }
+            else if (!field.getName().startsWith(":")) {
+                headers.add(field);
+            }
+        }
+
+        if (status != null) {
+            final int statusCode;
+            try {
+                statusCode = Integer.parseInt(status);
+            }
+            catch (NumberFormatException nfe) {
+                reset(stream, ERROR_CANCEL, new IOException("Invalid status '" + status + "' on stream " + stream.id));
+                return;
+            }
+
+            // Interim responses are skipped, the final one follows on the same stream.
+            if (statusCode >= 200) {
+                stream.status = statusCode;
+                stream.headers = headers;
+            }
+        }
+        // Without a status this is a trailer block, which is not passed on.
+
+        if (endStream) {
+            if (stream.status == 0) {
+                reset(stream, ERROR_CANCEL, new IOException("Stream " + stream.id + " ended without a response"));
+            }
+            else {
+                completeStream(stream);
+            }
+        }
+    }
+
+    private void onRstStream(final int streamId, final ByteBuffer payload) throws IOException
+    {
+        if (payload.remaining() != 4) {
+            throw new IOException("HTTP/2 protocol error: RST_STREAM frame with wrong size");
+        }
+
+        final int errorCode = payload.getInt();
+        final Stream stream = streams.remove(streamId);
+        if (stream == null) {
+            return;
+        }
+        streamClosed();
+
+        final IOException e = new IOException(String.format("Stream %d was reset by %s, error code %d", streamId, route, errorCode));
+        // A refused stream was never processed by the server and may be sent again.
+        retryOrFail(stream.exchange, e, errorCode == ERROR_REFUSED_STREAM && !stream.responseStarted, false);
+    }
+
+    private void onSettings(final int flags, final ByteBuffer payload) throws IOException
+    {
+        if ((flags & FLAG_ACK) != 0) {
+            return;
+        }
+        if (payload.remaining() % 6 != 0) {
+            throw new IOException("HTTP/2 protocol error: SETTINGS frame with wrong size");
+        }
+
+        while (payload.hasRemaining()) {
+            final int id = payload.getShort() & 0xffff;
+            final int value = payload.getInt();
+
+            switch (id) {
+            case SETTINGS_MAX_CONCURRENT_STREAMS:
+                // Unsigned 32 bit value.
+                maxConcurrentStreams = (value < 0) ? Integer.MAX_VALUE : value;
+                break;
+            case SETTINGS_INITIAL_WINDOW_SIZE:
+                if (value < 0) {
+                    throw new IOException("HTTP/2 flow control error: initial window size " + (value & 0xffffffffL));
+                }
+                for (final Stream stream : streams.values()) {
+                    stream.sendWindow += value - initialSendWindow;
+                }
+                initialSendWindow = value;
+                break;
+            case SETTINGS_MAX_FRAME_SIZE:
+                if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                    throw new IOException("HTTP/2 protocol error: max frame size " + value);
+                }
+                maxFrameSize = value;
+                break;
+            default:
+                // The encoder never indexes, so the header table size does not matter. Unknown settings are ignored.
+                break;
+            }
+        }
+
+        writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, EMPTY, 0, 0);
+        startStreams();
+    }
+
+    private void onGoAway(final ByteBuffer payload) throws IOException
+    {
+        if (payload.remaining() < 8) {
+            throw new IOException("HTTP/2 protocol error: GOAWAY frame with wrong size");
+        }
+
+        final int lastStreamId = payload.getInt() & 0x7fffffff;
+        final int errorCode = payload.getInt();
+        LOG.debug("%s is going away, last stream %d, error code %d", route, lastStreamId, errorCode);
+
+        retire();
+
+        // Streams above the last one were not processed and may be sent again.
+        for (final Iterator<Stream> it = streams.values().iterator(); it.hasNext(); ) {
+            final Stream stream = it.next();
+            if (stream.id > lastStreamId) {
+                it.remove();
+                waiting.add(stream.exchange);
+            }
+        }
+        resubmitWaiting();
+
+        if (streams.isEmpty()) {
+            close();
+        }
+    }
+
+    private void onWindowUpdate(final int streamId, final ByteBuffer payload) throws IOException
+    {
+        if (payload.remaining() != 4) {
+            throw new IOException("HTTP/2 protocol error: WINDOW_UPDATE frame with wrong size");
+        }
+
+        final int increment = payload.getInt() & 0x7fffffff;
+        if (streamId == 0) {
+            if ((long) sendWindow + increment > Integer.MAX_VALUE) {
+                throw new IOException("HTTP/2 flow control error: connection window overflow");
+            }
+            sendWindow += increment;
+        }
+        else {
+            final Stream stream = streams.get(streamId);
+            if (stream != null) {
+                stream.sendWindow = (int) Math.min((long) stream.sendWindow + increment, Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    private void completeStream(final Stream stream)
+    {
+        streams.remove(stream.id);
+        if (stream.body != null) {
+            // The server answered before reading the whole request, stop sending it.
+            writeRstStream(stream.id, ERROR_NO_ERROR);
+        }
+        streamClosed();
+
+        final String statusText = EnglishReasonPhraseCatalog.INSTANCE.getReason(stream.status, Locale.ENGLISH);
+        stream.exchange.complete(new NioResponse(stream.exchange.getUri(), stream.status, StringUtils.defaultString(statusText),
+                                                 stream.headers, stream.content.toByteArray()));
+    }
+
+    private void reset(final Stream stream, final int errorCode, final IOException e)
+    {
+        streams.remove(stream.id);
+        writeRstStream(stream.id, errorCode);
+        streamClosed();
+        stream.exchange.fail(e);
+    }
+
+    private void streamClosed()
+    {
+        if (streams.isEmpty()) {
+            idleSince = System.nanoTime();
+        }
+        startStreams();
+    }
+
+    /**
+     * Take the connection out of the pool. Running streams finish, new exchanges go elsewhere.
+     */
+    private void retire()
+    {
+        if (!goingAway) {
+            goingAway = true;
+            pool.retire(this);
+        }
+    }
+
+    private void resubmitWaiting()
+    {
+        final List<NioExchange> exchanges = Lists.newArrayList(waiting);
+        waiting.clear();
+        for (final NioExchange exchange : exchanges) {
+            pool.submit(exchange);
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        if (!connected) {
+            return;
+        }
+
+        while (true) {
+            writeData();
+            if (out.position() == 0) {
+                return;
+            }
+
+            out.flip();
+            channel.write(out);
+            final boolean written = !out.hasRemaining();
+            out.compact();
+
+            if (!written) {
+                return;
+            }
+        }
+    }
+
+    private void updateInterest()
+    {
+        if (closed || key == null || !key.isValid()) {
+            return;
+        }
+
+        int ops = SelectionKey.OP_CONNECT;
+        if (connected) {
+            ops = SelectionKey.OP_READ;
+            if (out.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+        }
+        key.interestOps(ops);
+    }
+
+    private void writeRstStream(final int streamId, final int errorCode)
+    {
+        writeFrame(TYPE_RST_STREAM, 0, streamId, ByteBuffer.allocate(4).putInt(errorCode).array(), 0, 4);
+    }
+
+    private void writeWindowUpdate(final int streamId, final int increment)
+    {
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, ByteBuffer.allocate(4).putInt(increment).array(), 0, 4);
+    }
+
+    private void writeFrame(final int type, final int flags, final int streamId, final byte [] payload, final int offset, final int length)
+    {
+        ensureOut(FRAME_HEADER_LENGTH + length);
+        out.put((byte) (length >>> 16));
+        out.put((byte) (length >>> 8));
+        out.put((byte) length);
+        out.put((byte) type);
+        out.put((byte) flags);
+        out.putInt(streamId);
+        out.put(payload, offset, length);
+    }
+
+    private void ensureOut(final int length)
+    {
+        if (out.remaining() < length) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + length));
+            out.flip();
+            bigger.put(out);
+            out = bigger;
+        }
+    }
+
+    private static void unpad(final int flags, final ByteBuffer payload) throws IOException
+    {
+        if ((flags & FLAG_PADDED) != 0) {
+            if (!payload.hasRemaining()) {
+                throw new IOException("HTTP/2 protocol error: missing pad length");
+            }
+            final int padLength = payload.get() & 0xff;
+            if (padLength > payload.remaining()) {
+                throw new IOException("HTTP/2 protocol error: padding exceeds frame");
+            }
+            payload.limit(payload.limit() - padLength);
+        }
+    }
+
+    private static long deadlineFrom(final long timeoutNanos)
+    {
+        return (timeoutNanos > 0) ? System.nanoTime() + timeoutNanos : 0;
+    }
+
+    private final class Stream
+    {
+        private final int id;
+        private final NioExchange exchange;
+        private final long requestDeadline;
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private List<HttpClientHeader> headers = Collections.emptyList();
+        private int status = 0;
+        private boolean responseStarted = false;
+
+        /** Request body still to be sent, null once it is complete. */
+        private ByteBuffer body = null;
+        private int sendWindow = initialSendWindow;
+        private int receivedUnacknowledged = 0;
+
+        /** Socket inactivity deadline of the stream in nanos, 0 if none. */
+        private long deadline = 0;
+
+        private Stream(final int id, final NioExchange exchange)
+        {
+            this.id = id;
+            this.exchange = exchange;
+            this.requestDeadline = exchange.getRequestDeadline();
+        }
+
+        private void touch()
+        {
+            deadline = deadlineFrom(exchange.getSocketTimeoutNanos());
+        }
+    }
+}
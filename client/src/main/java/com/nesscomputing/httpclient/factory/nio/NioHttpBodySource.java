@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.nesscomputing.httpclient.internal.HttpClientBodySource;
+
+/**
+ * NIO implementation of {@link HttpClientBodySource}. The event loop can not block on
+ * a stream, so the body is turned into a byte array before the request is sent.
+ */
+final class NioHttpBodySource implements HttpClientBodySource
+{
+    private final Object content;
+
+    private volatile String contentType;
+    private volatile String contentEncoding;
+
+    NioHttpBodySource(final Object content)
+    {
+        this.content = content;
+
+        if (content instanceof String) {
+            this.contentType = "text/plain; charset=UTF-8";
+        }
+    }
+
+    @Override
+    public void setContentType(final String contentType)
+    {
+        this.contentType = contentType;
+    }
+
+    @Override
+    public void setContentEncoding(final String contentEncoding)
+    {
+        this.contentEncoding = contentEncoding;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        if (content instanceof InputStream) {
+            return (InputStream) content;
+        }
+        return new ByteArrayInputStream(toByteArray());
+    }
+
+    String getContentType()
+    {
+        return contentType;
+    }
+
+    String getContentEncoding()
+    {
+        return contentEncoding;
+    }
+
+    byte [] toByteArray() throws IOException
+    {
+        if (content instanceof String) {
+            return ((String) content).getBytes(Charsets.UTF_8);
+        }
+        else if (content instanceof byte[]) {
+            return (byte []) content;
+        }
+        else if (content instanceof InputStream) {
+            return ByteStreams.toByteArray((InputStream) content);
+        }
+        throw new IllegalStateException("Unsupported content: " + content.getClass());
+    }
+}
@@ -0,0 +1,695 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.nesscomputing.httpclient.HttpClientAuthProvider;
+import com.nesscomputing.httpclient.HttpClientConnectionContext;
+import com.nesscomputing.httpclient.HttpClientDefaultRetryPolicy;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.HttpClientRetryPolicy;
+import com.nesscomputing.httpclient.RequestTimeoutException;
+import com.nesscomputing.httpclient.internal.HttpClientBodySource;
+import com.nesscomputing.httpclient.internal.HttpClientFactory;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+import com.nesscomputing.httpclient.internal.HttpClientRetryBudget;
+import com.nesscomputing.httpclient.internal.HttpClientTrustManagerFactory;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Non-blocking implementation of {@link HttpClientFactory}. A small number of selector threads
+ * drive all connections, so waiting requests do not tie up a thread each. Speaks HTTP/1.1 with
+ * keep-alive, TLS through {@link javax.net.ssl.SSLEngine}, basic authentication and redirects.
+ *
+ * Optionally speaks HTTP/2 to plain HTTP servers ("h2c" with prior knowledge), which multiplexes
+ * all requests to a server over one connection. The server must support HTTP/2 in that case.
+ * HTTPS servers are always spoken to with HTTP/1.1, the JDK offers no ALPN to negotiate HTTP/2.
+ *
+ * Request and response bodies are buffered in memory. Request parameters are specific to the
+ * Apache HttpClient and ignored by this engine.
+ */
+public class NioHttpClientFactory implements HttpClientFactory
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final int DEFAULT_ASYNC_THREADS = 20;
+
+    private static final Pattern REALM_PATTERN = Pattern.compile("realm=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+
+    private final NioSettings settings = new NioSettings();
+    private final InternalConnectionContext connectionContext = new InternalConnectionContext();
+
+    private final NioEventLoop [] eventLoops;
+    private final NioConnectionPool connectionPool;
+
+    private boolean started = false;
+    private boolean stopped = false;
+
+    private volatile int asyncThreads = DEFAULT_ASYNC_THREADS;
+    private volatile ListeningExecutorService handlerExecutor = null;
+    private volatile ScheduledExecutorService retryTimer = null;
+
+    private final HttpClientRetryBudget retryBudget;
+
+    private final Set<? extends HttpClientObserver> httpClientObservers;
+
+    public NioHttpClientFactory(final HttpClientDefaults clientDefaults,
+                                @Nullable final Set<? extends HttpClientObserver> httpClientObservers)
+    {
+        this(clientDefaults, httpClientObservers, false);
+    }
+
+    /**
+     * @param http2 if true, use HTTP/2 with prior knowledge for plain HTTP servers.
+     */
+    public NioHttpClientFactory(final HttpClientDefaults clientDefaults,
+                                @Nullable final Set<? extends HttpClientObserver> httpClientObservers,
+                                final boolean http2)
+    {
+        Preconditions.checkArgument(clientDefaults != null, "clientDefaults can not be null!");
+
+        this.httpClientObservers = httpClientObservers;
+
+        settings.setRetries(clientDefaults.getRetries());
+        settings.setRetryPolicy(HttpClientDefaultRetryPolicy.forDefaults(clientDefaults));
+        settings.setMaxResponseBodySize(clientDefaults.getNioMaxResponseBodySize());
+        retryBudget = new HttpClientRetryBudget(clientDefaults.getRetryBudget());
+
+        try {
+            final SSLContext sslContext = HttpClientTrustManagerFactory.getSSLContext(clientDefaults);
+
+            eventLoops = new NioEventLoop[Math.max(1, clientDefaults.getNioThreads())];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NioEventLoop("NioHttpClientFactory EventLoop-" + i);
+            }
+            connectionPool = new NioConnectionPool(eventLoops, sslContext, settings, http2);
+        } catch (GeneralSecurityException ce) {
+            throw new IllegalStateException(ce);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        if (!started && !stopped) {
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.start();
+            }
+
+            handlerExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(asyncThreads,
+                new ThreadFactoryBuilder().setNameFormat("NioHttpClientFactory Handler-%d").setDaemon(true).build()));
+            retryTimer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("NioHttpClientFactory Retry").setDaemon(true).build());
+
+            started = true;
+            LOG.debug("NIO based factory running.");
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        if (started && !stopped) {
+            stopped = true;
+
+            connectionPool.shutdown();
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+            handlerExecutor.shutdownNow();
+            retryTimer.shutdownNow();
+
+            LOG.debug("Factory stopped.");
+        }
+    }
+
+    @Override
+    public boolean isStarted()
+    {
+        return started;
+    }
+
+    @Override
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    @Override
+    public HttpClientConnectionContext getConnectionContext()
+    {
+        // Can be called even if the factory is not yet running.
+        return connectionContext;
+    }
+
+    @Override
+    public HttpClientBodySource getHttpBodySourceFor(final Object content)
+    {
+        checkRunning();
+
+        if (content == null) {
+            LOG.debug("No content given, returning null");
+            return null;
+        }
+
+        if (content instanceof String || content instanceof byte[] || content instanceof InputStream) {
+            return new NioHttpBodySource(content);
+        }
+
+        return null;
+    }
+
+    @Override
+    public <T> T performRequest(final HttpClientRequest<T> incomingRequest) throws IOException
+    {
+        checkRunning();
+
+        final HttpClientRequest<T> request = observeRequest(incomingRequest);
+        final NioResponse response = await(new RequestExecution(request).start());
+        return handleResponse(request, response);
+    }
+
+    @Override
+    public <T> ListenableFuture<T> performRequestAsync(final HttpClientRequest<T> incomingRequest)
+    {
+        checkRunning();
+
+        final HttpClientRequest<T> request;
+        try {
+            request = observeRequest(incomingRequest);
+        }
+        catch (IOException ioe) {
+            return Futures.immediateFailedFuture(ioe);
+        }
+
+        return Futures.transform(new RequestExecution(request).start(), new AsyncFunction<NioResponse, T>() {
+            @Override
+            public ListenableFuture<T> apply(final NioResponse response) throws IOException
+            {
+                return Futures.immediateFuture(handleResponse(request, response));
+            }
+        }, handlerExecutor);
+    }
+
+    private void checkRunning()
+    {
+        if (!started || stopped) {
+            throw new IllegalStateException("Factory was not started!");
+        }
+    }
+
+    private <T> HttpClientRequest<T> observeRequest(final HttpClientRequest<T> incomingRequest) throws IOException
+    {
+        HttpClientRequest<T> request = incomingRequest;
+
+        if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+            LOG.trace("Executing Observers");
+            for (HttpClientObserver observer : httpClientObservers) {
+                request = observer.<T>onRequestSubmitted(request);
+            }
+
+            if (request != incomingRequest) {
+                LOG.trace("Request was modified by Observers!");
+            }
+        }
+
+        LOG.trace("Got a '%s' request", request.getHttpMethod());
+        return request;
+    }
+
+    private <T> T handleResponse(final HttpClientRequest<T> request, final NioResponse nioResponse) throws IOException
+    {
+        HttpClientResponse response = nioResponse;
+
+        if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+            LOG.trace("Executing Observers");
+            for (HttpClientObserver observer : httpClientObservers) {
+                response = observer.onResponseReceived(response);
+            }
+
+            if (response != nioResponse) {
+                LOG.trace("Response was modified by Observers!");
+            }
+        }
+
+        final HttpClientResponseHandler<T> responseHandler = request.getHttpHandler();
+        if (responseHandler != null) {
+            LOG.trace("Executing Response Handler");
+            return responseHandler.handle(response);
+        }
+        else {
+            LOG.debug("No response handler found, discarding response.");
+            return null;
+        }
+    }
+
+    private static NioResponse await(final ListenableFuture<NioResponse> future) throws IOException
+    {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        }
+        catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * State of one request across authentication and redirects.
+     */
+    private final class RequestExecution
+    {
+        private final HttpClientRequest<?> request;
+        private final boolean followRedirects;
+
+        /** Authentication and redirects run within the deadline of the original request. */
+        private final long requestDeadline;
+
+        private int redirectsLeft = settings.getMaxRedirects();
+        private int retries = 0;
+        private String authorization = null;
+        private boolean authenticated = false;
+
+        /** Streams can only be read once, so the body is kept for authentication retries. */
+        private byte [] body = null;
+
+        private RequestExecution(final HttpClientRequest<?> request)
+        {
+            this.request = request;
+
+            final Boolean requestFollowRedirects = request.followRedirects();
+            this.followRedirects = (requestFollowRedirects != null) ? requestFollowRedirects : settings.isFollowRedirects();
+
+            final Long requestTimeout = request.getRequestTimeout();
+            final long requestTimeoutNanos = (requestTimeout != null) ? TimeUnit.MILLISECONDS.toNanos(requestTimeout) : settings.getRequestTimeoutNanos();
+            this.requestDeadline = (requestTimeoutNanos > 0) ? System.nanoTime() + requestTimeoutNanos : 0;
+        }
+
+        ListenableFuture<NioResponse> start()
+        {
+            retryBudget.deposit();
+            return submit(request.getHttpMethod(), request.getUri());
+        }
+
+        private ListenableFuture<NioResponse> submit(final HttpClientMethod method, final URI uri)
+        {
+            final NioExchange exchange;
+            try {
+                final NioRoute route = NioRoute.fromUri(uri);
+                final InetSocketAddress address = new InetSocketAddress(route.getHost(), route.getPort());
+                if (address.isUnresolved()) {
+                    throw new UnknownHostException(route.getHost());
+                }
+                if (requestDeadline != 0 && System.nanoTime() - requestDeadline >= 0) {
+                    throw new RequestTimeoutException("Request to '%s' timed out", uri);
+                }
+
+                final HttpClientBodySource bodySource = request.getHttpBodySource();
+                final NioHttpBodySource nioBodySource = (bodySource instanceof NioHttpBodySource) ? (NioHttpBodySource) bodySource : null;
+                if (body == null && nioBodySource != null) {
+                    body = nioBodySource.toByteArray();
+                }
+
+                // Redirects turn everything into a GET or HEAD without body.
+                final boolean withBody = method == request.getHttpMethod();
+                final byte [] requestBody = withBody ? body : null;
+                final List<HttpClientHeader> headers = NioRequestEncoder.headers(method, uri, request, settings.getUserAgent(),
+                                                                                 withBody ? nioBodySource : null, requestBody, authorization);
+                exchange = new NioExchange(route, address, method, uri, headers, requestBody, request, settings, requestDeadline);
+            }
+            catch (IOException ioe) {
+                return Futures.immediateFailedFuture(ioe);
+            }
+
+            connectionPool.submit(exchange);
+
+            final SettableFuture<NioResponse> result = SettableFuture.create();
+            Futures.addCallback(exchange.getFuture(), new FutureCallback<NioResponse>() {
+                @Override
+                public void onSuccess(final NioResponse response)
+                {
+                    final long retryDelay = checkRetry(settings.getRetryPolicy().retryResponse(request, retries, response));
+                    if (retryDelay >= 0) {
+                        LOG.debug("Retrying '%s' after status %d in %d ms", uri, response.getStatusCode(), retryDelay);
+                        notifyRetry(request, retries, response, null);
+                        forward(resubmit(method, uri, retryDelay), result);
+                        return;
+                    }
+
+                    try {
+                        forward(onResponse(exchange, response), result);
+                    }
+                    catch (IOException ioe) {
+                        result.setException(ioe);
+                    }
+                    catch (RuntimeException re) {
+                        result.setException(re);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable t)
+                {
+                    if (t instanceof IOException) {
+                        final IOException ioe = (IOException) t;
+                        final long retryDelay = checkRetry(settings.getRetryPolicy().retryFailure(request, retries, ioe));
+                        if (retryDelay >= 0) {
+                            LOG.debug(ioe, "Retrying '%s' in %d ms", uri, retryDelay);
+                            notifyRetry(request, retries, null, ioe);
+                            forward(resubmit(method, uri, retryDelay), result);
+                            return;
+                        }
+                    }
+                    result.setException(t);
+                }
+            });
+            return result;
+        }
+
+        /**
+         * The retry policy decides whether a retry makes sense. A retry must also fit into the
+         * retry limit, the deadline and the retry budget of the client.
+         *
+         * @return the delay before retrying or {@link HttpClientRetryPolicy#NO_RETRY}.
+         */
+        private long checkRetry(final long retryDelay)
+        {
+            if (retryDelay < 0 || retries >= settings.getRetries()) {
+                return HttpClientRetryPolicy.NO_RETRY;
+            }
+            if (requestDeadline != 0 && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelay) - requestDeadline >= 0) {
+                return HttpClientRetryPolicy.NO_RETRY;
+            }
+            if (!retryBudget.withdraw()) {
+                LOG.debug("Retry budget exhausted, not retrying '%s'", request.getUri());
+                return HttpClientRetryPolicy.NO_RETRY;
+            }
+
+            retries++;
+            return retryDelay;
+        }
+
+        private ListenableFuture<NioResponse> onResponse(final NioExchange exchange, final NioResponse response) throws IOException
+        {
+            final int statusCode = response.getStatusCode();
+
+            if (statusCode == 401 && !authenticated) {
+                final String credentials = findCredentials(exchange, response);
+                if (credentials != null) {
+                    LOG.trace("Authenticating %s", exchange.getUri());
+                    authenticated = true;
+                    authorization = credentials;
+                    return resubmit(exchange.getMethod(), exchange.getUri());
+                }
+            }
+
+            if (followRedirects && isRedirect(exchange.getMethod(), statusCode)) {
+                final String location = response.getHeader("Location");
+                if (location != null) {
+                    if (redirectsLeft-- <= 0) {
+                        throw new IOException(String.format("Maximum redirects (%d) exceeded", settings.getMaxRedirects()));
+                    }
+
+                    final URI target = exchange.getUri().resolve(location);
+                    LOG.trace("Redirecting to %s", target);
+
+                    // The new location challenges again if it wants credentials.
+                    authorization = null;
+                    authenticated = false;
+                    return resubmit(exchange.getMethod() == HttpClientMethod.HEAD ? HttpClientMethod.HEAD : HttpClientMethod.GET, target);
+                }
+            }
+
+            return Futures.immediateFuture(response);
+        }
+
+        private ListenableFuture<NioResponse> resubmit(final HttpClientMethod method, final URI uri)
+        {
+            return resubmit(method, uri, 0);
+        }
+
+        /**
+         * Follow-up requests resolve host names and read request bodies, which must not happen
+         * on an event loop thread.
+         */
+        private ListenableFuture<NioResponse> resubmit(final HttpClientMethod method, final URI uri, final long delay)
+        {
+            final SettableFuture<NioResponse> result = SettableFuture.create();
+            final Runnable task = new Runnable() {
+                @Override
+                public void run()
+                {
+                    forward(submit(method, uri), result);
+                }
+            };
+
+            try {
+                if (delay > 0) {
+                    retryTimer.schedule(new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                            handlerExecutor.execute(task);
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+                else {
+                    handlerExecutor.execute(task);
+                }
+            }
+            catch (RejectedExecutionException ree) {
+                result.setException(new IOException("HTTP client was shut down"));
+            }
+            return result;
+        }
+
+        @Nullable
+        private String findCredentials(final NioExchange exchange, final NioResponse response)
+        {
+            final List<HttpClientAuthProvider> authProviders = request.getAuthProviders();
+            if (CollectionUtils.isEmpty(authProviders)) {
+                return null;
+            }
+
+            for (final String challenge : response.getHeaders("WWW-Authenticate")) {
+                if (!StringUtils.startsWithIgnoreCase(challenge, "basic")) {
+                    continue;
+                }
+
+                final Matcher matcher = REALM_PATTERN.matcher(challenge);
+                final String realm = matcher.find() ? matcher.group(1).toLowerCase(Locale.ENGLISH) : null;
+                final NioRoute route = exchange.getRoute();
+
+                for (final HttpClientAuthProvider authProvider : authProviders) {
+                    if (authProvider.acceptRequest("BASIC", route.getHost(), route.getPort(), realm)) {
+                        return NioRequestEncoder.basicAuthorization(authProvider);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Tell the observers that a request is sent again after a failure or a retryable response.
+     */
+    private void notifyRetry(final HttpClientRequest<?> request, final int retries,
+                             @Nullable final HttpClientResponse response, @Nullable final IOException failure)
+    {
+        if (CollectionUtils.isNotEmpty(httpClientObservers)) {
+            for (HttpClientObserver observer : httpClientObservers) {
+                observer.onRetry(request, retries, response, failure);
+            }
+        }
+    }
+
+    private static void forward(final ListenableFuture<NioResponse> from, final SettableFuture<NioResponse> to)
+    {
+        Futures.addCallback(from, new FutureCallback<NioResponse>() {
+            @Override
+            public void onSuccess(final NioResponse response)
+            {
+                to.set(response);
+            }
+
+            @Override
+            public void onFailure(final Throwable t)
+            {
+                to.setException(t);
+            }
+        });
+    }
+
+    /**
+     * Same rules as the default redirect strategy of the Apache client.
+     */
+    private static boolean isRedirect(final HttpClientMethod method, final int statusCode)
+    {
+        switch (statusCode) {
+        case 301:
+        case 302:
+        case 307:
+            return method == HttpClientMethod.GET || method == HttpClientMethod.HEAD;
+        case 303:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private class InternalConnectionContext implements HttpClientConnectionContext
+    {
+        private InternalConnectionContext()
+        {
+        }
+
+        @Override
+        public void setSocketTimeout(final long socketTimeout)
+        {
+            settings.setSocketTimeout(socketTimeout);
+        }
+
+        @Override
+        public void setConnectionTimeout(final long connTimeout)
+        {
+            settings.setConnectTimeout(connTimeout);
+        }
+
+        @Override
+        public void setFollowRedirects(final boolean followRedirects)
+        {
+            settings.setFollowRedirects(followRedirects);
+        }
+
+        @Override
+        public void setIdleTimeout(final long idleTimeout)
+        {
+            settings.setIdleTimeout(idleTimeout);
+        }
+
+        @Override
+        public void setMaxRedirects(final int maxRedirects)
+        {
+            settings.setMaxRedirects(maxRedirects);
+        }
+
+        @Override
+        public void setPerHostConnectionsMax(final int perHostConnectionsMax)
+        {
+            connectionPool.setMaxConnectionsPerRoute(perHostConnectionsMax);
+        }
+
+        @Override
+        public void setRequestTimeout(final long reqTimeout)
+        {
+            settings.setRequestTimeout(reqTimeout);
+        }
+
+        @Override
+        public void setTotalConnectionsMax(final int totalConnectionsMax)
+        {
+            connectionPool.setMaxTotalConnections(totalConnectionsMax);
+        }
+
+        @Override
+        public void setUserAgent(final String userAgent)
+        {
+            settings.setUserAgent(userAgent);
+        }
+
+        @Override
+        public void setRetries(final int retries)
+        {
+            settings.setRetries(retries);
+        }
+
+        @Override
+        public void setRetryPolicy(final HttpClientRetryPolicy retryPolicy)
+        {
+            Preconditions.checkArgument(retryPolicy != null, "retryPolicy can not be null!");
+            settings.setRetryPolicy(retryPolicy);
+        }
+
+        @Override
+        public void setRetryBudget(final double retryBudget)
+        {
+            NioHttpClientFactory.this.retryBudget.setRatio(retryBudget);
+        }
+
+        @Override
+        public void setAsyncThreads(final int asyncThreads)
+        {
+            NioHttpClientFactory.this.asyncThreads = asyncThreads;
+        }
+
+        @Override
+        public HttpClientPoolStats getPoolStats()
+        {
+            // The NIO pool does not keep statistics.
+            return null;
+        }
+
+        @Override
+        public Map<String, HttpClientPoolStats> getRoutePoolStats()
+        {
+            return ImmutableMap.of();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.Cookie;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.HttpClientAuthProvider;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+
+/**
+ * Turns a request into the headers and bytes that go over the wire.
+ */
+final class NioRequestEncoder
+{
+    private static final String CRLF = "\r\n";
+
+    private NioRequestEncoder()
+    {
+    }
+
+    /**
+     * Collect all headers of a request, including Host and Content-Length.
+     *
+     * @param body the request body or null if the request does not carry one.
+     * @param authorization value of the Authorization header or null.
+     */
+    static List<HttpClientHeader> headers(final HttpClientMethod method,
+                                          final URI uri,
+                                          final HttpClientRequest<?> request,
+                                          @Nullable final String userAgent,
+                                          @Nullable final NioHttpBodySource bodySource,
+                                          @Nullable final byte [] body,
+                                          @Nullable final String authorization)
+    {
+        final List<HttpClientHeader> result = Lists.newArrayList();
+
+        final boolean virtualHost = StringUtils.isNotBlank(request.getVirtualHost());
+        final List<HttpClientHeader> headers = request.getHeaders();
+
+        if (virtualHost) {
+            result.add(new HttpClientHeader("Host", hostAndPort(request.getVirtualHost(), request.getVirtualPort())));
+        }
+        else if (!hasHeader(headers, "Host")) {
+            result.add(new HttpClientHeader("Host", hostAndPort(uri.getHost(), uri.getPort())));
+        }
+
+        if (userAgent != null && !hasHeader(headers, "User-Agent")) {
+            result.add(new HttpClientHeader("User-Agent", userAgent));
+        }
+
+        for (final HttpClientHeader header : headers) {
+            final String name = header.getName();
+            if ((virtualHost && "Host".equalsIgnoreCase(name)) || "Content-Length".equalsIgnoreCase(name)) {
+                continue;
+            }
+            result.add(header);
+        }
+
+        final String cookies = encodeCookies(uri, request.getCookies());
+        if (cookies != null) {
+            result.add(new HttpClientHeader("Cookie", cookies));
+        }
+
+        if (authorization != null) {
+            result.add(new HttpClientHeader("Authorization", authorization));
+        }
+
+        if (method == HttpClientMethod.POST || method == HttpClientMethod.PUT) {
+            if (bodySource != null) {
+                if (bodySource.getContentType() != null && !hasHeader(headers, "Content-Type")) {
+                    result.add(new HttpClientHeader("Content-Type", bodySource.getContentType()));
+                }
+                if (bodySource.getContentEncoding() != null && !hasHeader(headers, "Content-Encoding")) {
+                    result.add(new HttpClientHeader("Content-Encoding", bodySource.getContentEncoding()));
+                }
+            }
+            result.add(new HttpClientHeader("Content-Length", Integer.toString(body == null ? 0 : body.length)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Turn an exchange into a HTTP/1.1 request.
+     */
+    static byte [] encode(final NioExchange exchange)
+    {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(exchange.getMethod().name()).append(' ').append(requestTarget(exchange.getUri())).append(" HTTP/1.1").append(CRLF);
+
+        for (final HttpClientHeader header : exchange.getHeaders()) {
+            sb.append(header.getName()).append(": ").append(header.getValue()).append(CRLF);
+        }
+        sb.append(CRLF);
+
+        final byte [] head = sb.toString().getBytes(Charsets.ISO_8859_1);
+        final byte [] body = exchange.getBody();
+        if (body == null || body.length == 0) {
+            return head;
+        }
+
+        final byte [] result = new byte [head.length + body.length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(body, 0, result, head.length, body.length);
+        return result;
+    }
+
+    /**
+     * @return path and query of the URI as sent in the request line.
+     */
+    static String requestTarget(final URI uri)
+    {
+        final String path = uri.getRawPath();
+        final String target = StringUtils.isEmpty(path) ? "/" : path;
+        return (uri.getRawQuery() == null) ? target : target + "?" + uri.getRawQuery();
+    }
+
+    static String basicAuthorization(final HttpClientAuthProvider authProvider)
+    {
+        final String credentials = StringUtils.defaultString(authProvider.getUser()) + ":" + StringUtils.defaultString(authProvider.getPassword());
+        return "Basic " + new String(Base64.encodeBase64(credentials.getBytes(Charsets.ISO_8859_1)), Charsets.US_ASCII);
+    }
+
+    @Nullable
+    private static String encodeCookies(final URI uri, final List<Cookie> cookies)
+    {
+        if (cookies.isEmpty()) {
+            return null;
+        }
+
+        final String host = StringUtils.lowerCase(uri.getHost(), Locale.ENGLISH);
+        final String path = StringUtils.defaultIfEmpty(uri.getPath(), "/");
+        final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+
+        final StringBuilder sb = new StringBuilder();
+        for (final Cookie cookie : cookies) {
+            if (cookie.getMaxAge() == 0 || (cookie.getSecure() && !secure)) {
+                continue;
+            }
+
+            final String domain = StringUtils.lowerCase(StringUtils.removeStart(cookie.getDomain(), "."), Locale.ENGLISH);
+            if (domain != null && !(domain.equals(host) || StringUtils.endsWith(host, "." + domain))) {
+                continue;
+            }
+            if (cookie.getPath() != null && !path.startsWith(cookie.getPath())) {
+                continue;
+            }
+
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(cookie.getName()).append('=').append(StringUtils.defaultString(cookie.getValue()));
+        }
+        return (sb.length() == 0) ? null : sb.toString();
+    }
+
+    private static String hostAndPort(final String host, final int port)
+    {
+        return (port < 0) ? host : host + ":" + port;
+    }
+
+    private static boolean hasHeader(final List<HttpClientHeader> headers, final String name)
+    {
+        for (final HttpClientHeader header : headers) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
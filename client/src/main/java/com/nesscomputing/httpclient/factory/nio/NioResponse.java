@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.logging.Log;
+
+/**
+ * NIO implementation of {@link HttpClientResponse}. The body has been read completely
+ * by the event loop before the response is handed out.
+ */
+final class NioResponse implements HttpClientResponse
+{
+    private static final Log LOG = Log.findLog();
+
+    private final URI uri;
+    private final int statusCode;
+    private final String statusText;
+    private final List<HttpClientHeader> headers;
+    private final byte [] body;
+
+    NioResponse(final URI uri, final int statusCode, final String statusText, final List<HttpClientHeader> headers, final byte [] body)
+    {
+        this.uri = uri;
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    @Override
+    public String getStatusText()
+    {
+        return statusText;
+    }
+
+    @Override
+    public InputStream getResponseBodyAsStream()
+    {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public URI getUri()
+    {
+        return uri;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return getHeader("Content-Type");
+    }
+
+    @Override
+    public Long getContentLength()
+    {
+        final String contentLen = StringUtils.trimToNull(getHeader("Content-Length"));
+        if (contentLen != null) {
+            try {
+                return Long.parseLong(contentLen);
+            }
+            catch (NumberFormatException nfe) {
+                LOG.warnDebug(nfe, "Could not parse '%s'", contentLen);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getCharset()
+    {
+        final String contentType = getContentType();
+        if (contentType != null) {
+            for (String param : StringUtils.split(contentType, ';')) {
+                final String [] pair = StringUtils.split(param, "=", 2);
+                if (pair.length == 2 && "charset".equalsIgnoreCase(pair[0].trim())) {
+                    return StringUtils.strip(pair[1].trim(), "\"");
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getHeader(final String name)
+    {
+        for (HttpClientHeader header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getHeaders(final String name)
+    {
+        final List<String> values = Lists.newArrayList();
+        for (HttpClientHeader header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                values.add(header.getValue());
+            }
+        }
+        return values;
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, List<String>> getAllHeaders()
+    {
+        final Map<String, List<String>> headerMap = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (HttpClientHeader header : headers) {
+            List<String> values = headerMap.get(header.getName());
+            if (values == null) {
+                values = Lists.newLinkedList();
+                headerMap.put(header.getName(), values);
+            }
+            values.add(header.getValue());
+        }
+        return headerMap;
+    }
+
+    @Override
+    public boolean isRedirected()
+    {
+        return (statusCode >= 300) && (statusCode <= 399);
+    }
+
+    @Override
+    public HttpClientTimings getTimings()
+    {
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("NioResponse [getContentType()=%s, getContentLength()=%s, getStatusCode()=%s, getStatusText()=%s, getUri()=%s]",
+                             getContentType(), getContentLength(), getStatusCode(), getStatusText(), getUri());
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.io.SizeExceededException;
+
+/**
+ * Incremental HTTP/1.x response parser. Fed with whatever the event loop read from the
+ * socket, it keeps its state between calls. Expects heap buffers.
+ */
+final class NioResponseParser
+{
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    private enum State
+    {
+        STATUS_LINE, HEADERS, BODY_FIXED, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_UNTIL_CLOSE, DONE;
+    }
+
+    private final boolean headRequest;
+    private final long maxBodySize;
+
+    private State state = State.STATUS_LINE;
+    private final StringBuilder line = new StringBuilder();
+
+    private boolean http10 = false;
+    private int statusCode = 0;
+    private String statusText = "";
+    private final List<HttpClientHeader> headers = Lists.newArrayList();
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private long remaining = 0;
+
+    private boolean receivedData = false;
+
+    /**
+     * @param maxBodySize maximum number of bytes of the response body, -1 if unlimited.
+     */
+    NioResponseParser(final boolean headRequest, final long maxBodySize)
+    {
+        this.headRequest = headRequest;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Consume bytes from the buffer.
+     *
+     * @return true if the response is complete.
+     */
+    boolean parse(final ByteBuffer buffer) throws IOException
+    {
+        if (buffer.hasRemaining()) {
+            receivedData = true;
+        }
+
+        while (state != State.DONE && buffer.hasRemaining()) {
+            switch (state) {
+            case STATUS_LINE:
+                final String statusLine = readLine(buffer);
+                if (statusLine != null && statusLine.length() > 0) {
+                    parseStatusLine(statusLine);
+                    state = State.HEADERS;
+                }
+                break;
+
+            case HEADERS:
+                final String headerLine = readLine(buffer);
+                if (headerLine != null) {
+                    if (headerLine.length() == 0) {
+                        headersComplete();
+                    }
+                    else {
+                        parseHeader(headerLine);
+                    }
+                }
+                break;
+
+            case BODY_FIXED:
+            case CHUNK_DATA:
+                remaining -= copyBody(buffer, remaining);
+                if (remaining == 0) {
+                    state = (state == State.BODY_FIXED) ? State.DONE : State.CHUNK_END;
+                }
+                break;
+
+            case CHUNK_SIZE:
+                final String sizeLine = readLine(buffer);
+                if (sizeLine != null) {
+                    remaining = parseChunkSize(sizeLine);
+                    state = (remaining == 0) ? State.TRAILERS : State.CHUNK_DATA;
+                }
+                break;
+
+            case CHUNK_END:
+                final String endLine = readLine(buffer);
+                if (endLine != null) {
+                    if (endLine.length() > 0) {
+                        throw new IOException("Garbage after chunk: " + endLine);
+                    }
+                    state = State.CHUNK_SIZE;
+                }
+                break;
+
+            case TRAILERS:
+                final String trailer = readLine(buffer);
+                if (trailer != null && trailer.length() == 0) {
+                    state = State.DONE;
+                }
+                break;
+
+            case BODY_UNTIL_CLOSE:
+                copyBody(buffer, Long.MAX_VALUE);
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown state " + state);
+            }
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * Called when the server closed the connection.
+     *
+     * @return true if the response is complete.
+     * @throws IOException if the connection was closed in the middle of a response.
+     */
+    boolean endOfStream() throws IOException
+    {
+        if (state == State.BODY_UNTIL_CLOSE) {
+            state = State.DONE;
+        }
+        if (state != State.DONE) {
+            throw new EOFException(receivedData ? "Connection closed before the response was complete" : "The server failed to respond");
+        }
+        return true;
+    }
+
+    boolean hasReceivedData()
+    {
+        return receivedData;
+    }
+
+    boolean isDone()
+    {
+        return state == State.DONE;
+    }
+
+    /**
+     * @return true if the connection can be used for another request after this response.
+     */
+    boolean isKeepAlive()
+    {
+        if (state != State.DONE || remaining != 0) {
+            return false;
+        }
+        final String connection = StringUtils.lowerCase(getHeader("Connection"), Locale.ENGLISH);
+        if (http10) {
+            return connection != null && connection.contains("keep-alive");
+        }
+        return connection == null || !connection.contains("close");
+    }
+
+    NioResponse buildResponse(final URI uri)
+    {
+        return new NioResponse(uri, statusCode, statusText, headers, body.toByteArray());
+    }
+
+    private String readLine(final ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            final char c = (char) (buffer.get() & 0xff);
+            if (c == '\n') {
+                final int length = line.length();
+                final String result = (length > 0 && line.charAt(length - 1) == '\r') ? line.substring(0, length - 1) : line.toString();
+                line.setLength(0);
+                return result;
+            }
+            line.append(c);
+            if (line.length() > MAX_LINE_LENGTH) {
+                throw new IOException("Line too long in response");
+            }
+        }
+        return null;
+    }
+
+    private void parseStatusLine(final String statusLine) throws IOException
+    {
+        final String [] parts = StringUtils.split(statusLine, " ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        http10 = "HTTP/1.0".equals(parts[0]);
+        try {
+            statusCode = Integer.parseInt(parts[1]);
+        }
+        catch (NumberFormatException nfe) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        statusText = (parts.length == 3) ? parts[2] : "";
+    }
+
+    private void parseHeader(final String headerLine) throws IOException
+    {
+        final char first = headerLine.charAt(0);
+        if ((first == ' ' || first == '\t') && !headers.isEmpty()) {
+            // Folded header, continues the previous one.
+            final HttpClientHeader previous = headers.remove(headers.size() - 1);
+            headers.add(new HttpClientHeader(previous.getName(), previous.getValue() + " " + headerLine.trim()));
+            return;
+        }
+
+        final int colon = headerLine.indexOf(':');
+        if (colon <= 0) {
+            throw new IOException("Invalid header: " + headerLine);
+        }
+        headers.add(new HttpClientHeader(headerLine.substring(0, colon).trim(), headerLine.substring(colon + 1).trim()));
+    }
+
+    private void headersComplete() throws IOException
+    {
+        if (statusCode >= 100 && statusCode < 200) {
+            // Interim response (e.g. 100 Continue), the real one follows.
+            headers.clear();
+            state = State.STATUS_LINE;
+            return;
+        }
+
+        if (headRequest || statusCode == 204 || statusCode == 304) {
+            state = State.DONE;
+            return;
+        }
+
+        final String transferEncoding = getHeader("Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+            state = State.CHUNK_SIZE;
+            return;
+        }
+
+        final String contentLength = getHeader("Content-Length");
+        if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            }
+            catch (NumberFormatException nfe) {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+            if (maxBodySize >= 0 && remaining > maxBodySize) {
+                throw new SizeExceededException("Content-Length %d exceeds maximum body size %d", remaining, maxBodySize);
+            }
+            state = (remaining == 0) ? State.DONE : State.BODY_FIXED;
+            return;
+        }
+
+        state = State.BODY_UNTIL_CLOSE;
+    }
+
+    private long parseChunkSize(final String sizeLine) throws IOException
+    {
+        final int semicolon = sizeLine.indexOf(';');
+        final String size = ((semicolon >= 0) ? sizeLine.substring(0, semicolon) : sizeLine).trim();
+        try {
+            return Long.parseLong(size, 16);
+        }
+        catch (NumberFormatException nfe) {
+            throw new IOException("Invalid chunk size: " + sizeLine);
+        }
+    }
+
+    private int copyBody(final ByteBuffer buffer, final long max) throws SizeExceededException
+    {
+        final int count = (int) Math.min(max, buffer.remaining());
+        if (maxBodySize >= 0 && body.size() + (long) count > maxBodySize) {
+            throw new SizeExceededException("Response body exceeds maximum body size %d", maxBodySize);
+        }
+        body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    private String getHeader(final String name)
+    {
+        for (HttpClientHeader header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Locale;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Objects;
+
+/**
+ * Scheme, host and port of a remote server. Connections are pooled per route.
+ */
+@Immutable
+final class NioRoute
+{
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+
+    private final boolean secure;
+    private final String host;
+    private final int port;
+
+    static NioRoute fromUri(final URI uri) throws IOException
+    {
+        final String scheme = uri.getScheme();
+        final boolean secure;
+        if ("http".equalsIgnoreCase(scheme)) {
+            secure = false;
+        }
+        else if ("https".equalsIgnoreCase(scheme)) {
+            secure = true;
+        }
+        else {
+            throw new IOException("Unsupported scheme: " + uri);
+        }
+
+        final String host = uri.getHost();
+        if (host == null) {
+            throw new IOException("No host in " + uri);
+        }
+
+        final int port = (uri.getPort() == -1) ? (secure ? HTTPS_PORT : HTTP_PORT) : uri.getPort();
+        return new NioRoute(secure, host.toLowerCase(Locale.ENGLISH), port);
+    }
+
+    private NioRoute(final boolean secure, final String host, final int port)
+    {
+        this.secure = secure;
+        this.host = host;
+        this.port = port;
+    }
+
+    boolean isSecure()
+    {
+        return secure;
+    }
+
+    String getHost()
+    {
+        return host;
+    }
+
+    int getPort()
+    {
+        return port;
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (!(other instanceof NioRoute)) {
+            return false;
+        }
+        final NioRoute that = (NioRoute) other;
+        return secure == that.secure && port == that.port && host.equals(that.host);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(secure, host, port);
+    }
+
+    @Override
+    public String toString()
+    {
+        return (secure ? "https://" : "http://") + host + ":" + port;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.util.concurrent.TimeUnit;
+
+import com.nesscomputing.httpclient.HttpClientConnectionContext;
+import com.nesscomputing.httpclient.HttpClientRetryPolicy;
+
+/**
+ * Tunable settings of the NIO factory. Written through the {@link HttpClientConnectionContext},
+ * read by whatever thread creates an exchange or runs an event loop.
+ */
+final class NioSettings
+{
+    private volatile long connectTimeoutNanos = 0;
+    private volatile long socketTimeoutNanos = 0;
+    private volatile long requestTimeoutNanos = 0;
+    private volatile long idleTimeoutNanos = 0;
+    private volatile boolean followRedirects = true;
+    private volatile int maxRedirects = 5;
+    private volatile String userAgent = null;
+    private volatile int retries = 3;
+    private volatile HttpClientRetryPolicy retryPolicy = null;
+    private volatile long maxResponseBodySize = -1;
+
+    long getConnectTimeoutNanos()
+    {
+        return connectTimeoutNanos;
+    }
+
+    void setConnectTimeout(final long connectTimeoutMillis)
+    {
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+    }
+
+    long getSocketTimeoutNanos()
+    {
+        return socketTimeoutNanos;
+    }
+
+    void setSocketTimeout(final long socketTimeoutMillis)
+    {
+        this.socketTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(socketTimeoutMillis);
+    }
+
+    long getRequestTimeoutNanos()
+    {
+        return requestTimeoutNanos;
+    }
+
+    void setRequestTimeout(final long requestTimeoutMillis)
+    {
+        this.requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+    }
+
+    long getIdleTimeoutNanos()
+    {
+        return idleTimeoutNanos;
+    }
+
+    void setIdleTimeout(final long idleTimeoutMillis)
+    {
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    boolean isFollowRedirects()
+    {
+        return followRedirects;
+    }
+
+    void setFollowRedirects(final boolean followRedirects)
+    {
+        this.followRedirects = followRedirects;
+    }
+
+    int getMaxRedirects()
+    {
+        return maxRedirects;
+    }
+
+    void setMaxRedirects(final int maxRedirects)
+    {
+        this.maxRedirects = maxRedirects;
+    }
+
+    String getUserAgent()
+    {
+        return userAgent;
+    }
+
+    void setUserAgent(final String userAgent)
+    {
+        this.userAgent = userAgent;
+    }
+
+    int getRetries()
+    {
+        return retries;
+    }
+
+    void setRetries(final int retries)
+    {
+        this.retries = retries;
+    }
+
+    HttpClientRetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    void setRetryPolicy(final HttpClientRetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return maximum number of bytes of a response body, -1 if unlimited.
+     */
+    long getMaxResponseBodySize()
+    {
+        return maxResponseBodySize;
+    }
+
+    void setMaxResponseBodySize(final long maxResponseBodySize)
+    {
+        this.maxResponseBodySize = maxResponseBodySize;
+    }
+}
@@ -17,13 +17,19 @@ package com.nesscomputing.httpclient.guice;
 
 
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
@@ -39,13 +45,18 @@ import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 import com.nesscomputing.config.ConfigProvider;
 import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientConnectionContext;
 import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
 import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
 import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.factory.nio.NioHttpClientFactory;
 import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.lifecycle.guice.AbstractLifecycleProvider;
 import com.nesscomputing.lifecycle.guice.LifecycleAction;
+import com.nesscomputing.logging.Log;
 
 /**
  * Guice module to bind an instance of a HttpClient. Each HttpClient should be annotated or named so that
@@ -56,6 +67,11 @@ public class HttpClientModule extends AbstractModule
     public static final String DEFAULT_NAME = "default";
     public static final Named DEFAULT_NAMED = Names.named(DEFAULT_NAME);
 
+    /** JMX domain of the connection pool beans. */
+    public static final String JMX_DOMAIN = "com.nesscomputing.httpclient";
+
+    private static final Log LOG = Log.findLog();
+
     private final String clientName;
 
     /**
@@ -86,11 +102,12 @@ public class HttpClientModule extends AbstractModule
         final Annotation annotation = Names.named(clientName);
 
         bind(HttpClientDefaults.class).annotatedWith(annotation).toProvider(ConfigProvider.of(null, HttpClientDefaults.class, optionMap)).in(Scopes.SINGLETON);
-        bind(HttpClientFactory.class).annotatedWith(annotation).toProvider(new ApacheHttpClient4FactoryProvider(annotation)).in(Scopes.SINGLETON);
-        bind(HttpClient.class).annotatedWith(annotation).toProvider(new HttpClientProvider(annotation)).asEagerSingleton();
+        bind(HttpClientFactory.class).annotatedWith(annotation).toProvider(new HttpClientFactoryProvider(annotation)).in(Scopes.SINGLETON);
+        bind(HttpClient.class).annotatedWith(annotation).toProvider(new HttpClientProvider(annotation, clientName)).asEagerSingleton();
 
         if (clientName.equals(DEFAULT_NAME)) {
-            bind(HttpClient.class).toProvider(new HttpClientProvider(annotation)).asEagerSingleton();
+            // The pool of the unannotated client is registered under the default name by the annotated client.
+            bind(HttpClient.class).toProvider(new HttpClientProvider(annotation, null)).asEagerSingleton();
         }
     }
 
@@ -112,6 +129,16 @@ public class HttpClientModule extends AbstractModule
         return Multibinder.newSetBinder(binder, HttpClientObserver.class, annotation).addBinding();
     }
 
+    /**
+     * Register a resolver for host names which is used by the HttpClient with the given Guice binding annotation.
+     * Only used by the 'httpclient4' engine.
+     * @return the binding builder you should register with
+     */
+    public static LinkedBindingBuilder<HttpClientDnsResolver> bindDnsResolver(final Binder binder, final Annotation annotation)
+    {
+        return binder.bind(HttpClientDnsResolver.class).annotatedWith(annotation);
+    }
+
     /**
      * Provides an instance of a HttpClient. Retrieves all its dependencies based off an annotation.
      */
@@ -121,26 +148,68 @@ public class HttpClientModule extends AbstractModule
         private HttpClientFactory httpClientFactory = null;
 
         private final Annotation annotation;
+        private final String jmxName;
 
-        private HttpClientProvider(@Nonnull final Annotation annotation)
+        private ObjectName poolObjectName = null;
+
+        private HttpClientProvider(@Nonnull final Annotation annotation, @Nullable final String jmxName)
         {
             this.annotation = annotation;
+            this.jmxName = jmxName;
 
             addAction(LifecycleStage.START_STAGE, new LifecycleAction<HttpClient>() {
                 @Override
                 public void performAction(final HttpClient httpClient) {
                     httpClient.start();
+                    registerPool(httpClient);
                 }
             });
 
             addAction(LifecycleStage.STOP_STAGE, new LifecycleAction<HttpClient>() {
                 @Override
                 public void performAction(final HttpClient httpClient) {
+                    unregisterPool();
                     httpClient.stop();
                 }
             });
         }
 
+        private synchronized void registerPool(final HttpClient httpClient)
+        {
+            if (jmxName == null || poolObjectName != null) {
+                return;
+            }
+
+            try {
+                final ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=ConnectionPool,name=" + ObjectName.quote(jmxName));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new HttpClientPool(httpClient.getConnectionContext()), objectName);
+                poolObjectName = objectName;
+            }
+            catch (JMException e) {
+                LOG.warn(e, "Could not register connection pool of HttpClient '%s'", jmxName);
+            }
+        }
+
+        private synchronized void unregisterPool()
+        {
+            if (poolObjectName == null) {
+                return;
+            }
+
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(poolObjectName)) {
+                    server.unregisterMBean(poolObjectName);
+                }
+            }
+            catch (JMException e) {
+                LOG.warn(e, "Could not unregister connection pool of HttpClient '%s'", jmxName);
+            }
+            finally {
+                poolObjectName = null;
+            }
+        }
+
         @Inject
         public void setInjector(final Injector injector)
         {
@@ -155,14 +224,90 @@ public class HttpClientModule extends AbstractModule
         }
     }
 
-    static final class ApacheHttpClient4FactoryProvider implements Provider<HttpClientFactory>
+    /**
+     * Exposes the pool state of a HttpClient through JMX.
+     */
+    static final class HttpClientPool implements HttpClientPoolMXBean
+    {
+        private final HttpClientConnectionContext connectionContext;
+
+        HttpClientPool(final HttpClientConnectionContext connectionContext)
+        {
+            this.connectionContext = connectionContext;
+        }
+
+        @Override
+        public int getLeased()
+        {
+            final HttpClientPoolStats poolStats = getPoolStats();
+            return (poolStats == null) ? 0 : poolStats.getLeased();
+        }
+
+        @Override
+        public int getIdle()
+        {
+            final HttpClientPoolStats poolStats = getPoolStats();
+            return (poolStats == null) ? 0 : poolStats.getIdle();
+        }
+
+        @Override
+        public int getPending()
+        {
+            final HttpClientPoolStats poolStats = getPoolStats();
+            return (poolStats == null) ? 0 : poolStats.getPending();
+        }
+
+        @Override
+        public long getConnectionsCreated()
+        {
+            final HttpClientPoolStats poolStats = getPoolStats();
+            return (poolStats == null) ? 0 : poolStats.getConnectionsCreated();
+        }
+
+        @Override
+        public long getConnectionsClosed()
+        {
+            final HttpClientPoolStats poolStats = getPoolStats();
+            return (poolStats == null) ? 0 : poolStats.getConnectionsClosed();
+        }
+
+        @Override
+        public long[] getLeaseWaitBoundsMillis()
+        {
+            return HttpClientPoolStats.leaseWaitBoundsMillis();
+        }
+
+        @Override
+        public long[] getLeaseWaitHistogram()
+        {
+            final HttpClientPoolStats poolStats = getPoolStats();
+            return (poolStats == null) ? new long[HttpClientPoolStats.LEASE_WAIT_BUCKETS] : poolStats.getLeaseWaitHistogram();
+        }
+
+        @Override
+        public Map<String, HttpClientPoolStats> getRoutes()
+        {
+            return (connectionContext == null) ? ImmutableMap.<String, HttpClientPoolStats>of() : connectionContext.getRoutePoolStats();
+        }
+
+        private HttpClientPoolStats getPoolStats()
+        {
+            return (connectionContext == null) ? null : connectionContext.getPoolStats();
+        }
+    }
+
+    static final class HttpClientFactoryProvider implements Provider<HttpClientFactory>
     {
         private static final TypeLiteral<Set<HttpClientObserver>> OBSERVER_TYPE_LITERAL = new TypeLiteral<Set<HttpClientObserver>>() {};
+        private static final String ENGINE_HTTPCLIENT4 = "httpclient4";
+        private static final String ENGINE_NIO = "nio";
+        private static final String ENGINE_HTTP2 = "http2";
+
         private final Annotation annotation;
 
         private Injector injector;
 
-        private ApacheHttpClient4FactoryProvider(@Nonnull final Annotation annotation)
+        private HttpClientFactoryProvider(@Nonnull final Annotation annotation)
         {
             this.annotation = annotation;
         }
@@ -191,7 +336,20 @@ public class HttpClientModule extends AbstractModule
                     findObservers(injector, Key.get(OBSERVER_TYPE_LITERAL, annotation)));
 
             final HttpClientDefaults httpClientDefaults = injector.getInstance(Key.get(HttpClientDefaults.class, annotation));
-            return new ApacheHttpClient4Factory(httpClientDefaults, httpClientObservers);
+            final String engine = httpClientDefaults.getEngine();
+
+            if (ENGINE_NIO.equalsIgnoreCase(engine)) {
+                return new NioHttpClientFactory(httpClientDefaults, httpClientObservers);
+            }
+            else if (ENGINE_HTTP2.equalsIgnoreCase(engine)) {
+                return new NioHttpClientFactory(httpClientDefaults, httpClientObservers, true);
+            }
+            else if (ENGINE_HTTPCLIENT4.equalsIgnoreCase(engine)) {
+                final Key<HttpClientDnsResolver> dnsResolverKey = Key.get(HttpClientDnsResolver.class, annotation);
+                final HttpClientDnsResolver dnsResolver = (injector.getExistingBinding(dnsResolverKey) != null) ? injector.getInstance(dnsResolverKey) : null;
+                return new ApacheHttpClient4Factory(httpClientDefaults, httpClientObservers, dnsResolver);
+            }
+            throw new IllegalArgumentException(String.format("Unknown HTTP client engine '%s'!", engine));
         }
     }
 }
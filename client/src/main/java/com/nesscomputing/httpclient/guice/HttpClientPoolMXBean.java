@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.guice;
+
+import java.util.Map;
+
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+
+/**
+ * Connection pool state of a HttpClient bound by the {@link HttpClientModule}. Registered as
+ * <tt>com.nesscomputing.httpclient:type=ConnectionPool,name=&lt;client name&gt;</tt>.
+ */
+public interface HttpClientPoolMXBean
+{
+    /** @return connections that are currently used by a request. */
+    int getLeased();
+
+    /** @return open connections that wait for the next request. */
+    int getIdle();
+
+    /** @return requests that wait for a connection. */
+    int getPending();
+
+    /** @return connections opened since the client started. */
+    long getConnectionsCreated();
+
+    /** @return connections closed since the client started. */
+    long getConnectionsClosed();
+
+    /** @return upper bounds of the lease wait histogram buckets in milliseconds. */
+    long[] getLeaseWaitBoundsMillis();
+
+    /** @return number of leases by how long they waited for a connection. */
+    long[] getLeaseWaitHistogram();
+
+    /** @return the state of the pool per route, keyed by scheme, host and port. */
+    Map<String, HttpClientPoolStats> getRoutes();
+}
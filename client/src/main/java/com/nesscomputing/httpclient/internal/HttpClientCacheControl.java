@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Directives of one or more Cache-Control headers. Directive names are case insensitive, quoted values
+ * lose their quotes. If a directive appears more than once, the first one counts.
+ */
+public class HttpClientCacheControl
+{
+    /** Returned by {@link #getSeconds(String)} if the directive is missing or has no valid value. */
+    public static final long NONE = -1L;
+
+    private static final HttpClientCacheControl EMPTY = new HttpClientCacheControl(Collections.<String, String>emptyMap());
+
+    private final Map<String, String> directives;
+
+    public static HttpClientCacheControl parse(@Nullable final Collection<String> headerValues)
+    {
+        if (headerValues == null || headerValues.isEmpty()) {
+            return EMPTY;
+        }
+
+        final Map<String, String> directives = Maps.newHashMap();
+        for (final String headerValue : headerValues) {
+            parseHeader(headerValue, directives);
+        }
+        return new HttpClientCacheControl(directives);
+    }
+
+    private HttpClientCacheControl(final Map<String, String> directives)
+    {
+        this.directives = directives;
+    }
+
+    public boolean has(final String directive)
+    {
+        return directives.containsKey(directive);
+    }
+
+    /**
+     * @return the value of the directive or null if it is missing or has no value.
+     */
+    @CheckForNull
+    public String getValue(final String directive)
+    {
+        return directives.get(directive);
+    }
+
+    /**
+     * @return the number of seconds of a directive like max-age or {@link #NONE}.
+     */
+    public long getSeconds(final String directive)
+    {
+        final String value = directives.get(directive);
+        if (value == null || !StringUtils.isNumeric(value) || value.isEmpty()) {
+            return NONE;
+        }
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException nfe) {
+            // Too large to be a number of seconds, so as good as forever.
+            return Long.MAX_VALUE / 1000L;
+        }
+    }
+
+    private static void parseHeader(@Nullable final String headerValue, final Map<String, String> directives)
+    {
+        if (headerValue == null) {
+            return;
+        }
+
+        final int length = headerValue.length();
+        int pos = 0;
+        while (pos < length) {
+            int end = pos;
+            while (end < length && headerValue.charAt(end) != ',' && headerValue.charAt(end) != '=') {
+                end++;
+            }
+            final String name = headerValue.substring(pos, end).trim().toLowerCase(Locale.ENGLISH);
+
+            String value = null;
+            if (end < length && headerValue.charAt(end) == '=') {
+                pos = end + 1;
+                while (pos < length && headerValue.charAt(pos) == ' ') {
+                    pos++;
+                }
+                if (pos < length && headerValue.charAt(pos) == '"') {
+                    end = headerValue.indexOf('"', pos + 1);
+                    if (end < 0) {
+                        end = length;
+                    }
+                    value = headerValue.substring(pos + 1, end);
+                    end = headerValue.indexOf(',', end);
+                    if (end < 0) {
+                        end = length;
+                    }
+                }
+                else {
+                    end = headerValue.indexOf(',', pos);
+                    if (end < 0) {
+                        end = length;
+                    }
+                    value = headerValue.substring(pos, end).trim();
+                }
+            }
+
+            if (!name.isEmpty() && !directives.containsKey(name)) {
+                directives.put(name, value);
+            }
+            pos = end + 1;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HttpClientCacheControl " + directives;
+    }
+}
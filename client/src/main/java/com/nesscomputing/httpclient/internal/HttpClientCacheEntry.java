@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableList;
+
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
+import com.nesscomputing.httpclient.io.ByteBufferInputStream;
+
+/**
+ * A response kept by the {@link HttpClientResponseCache}. It can be handed to any number of response
+ * handlers; every call to {@link #getResponseBodyAsStream()} reads the body from the start.
+ */
+public final class HttpClientCacheEntry implements HttpClientResponse
+{
+    private static final int HEADER_OVERHEAD = 32;
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final int statusCode;
+    private final String statusText;
+    private final URI uri;
+    private final String contentType;
+    private final String charset;
+    private final Map<String, List<String>> headers;
+    private final ByteBuffer body;
+
+    private final long storedNanos;
+    private final long initialAgeMillis;
+    private final long lifetimeMillis;
+    private final int weight;
+
+    HttpClientCacheEntry(final HttpClientResponse response,
+                         final byte [] body,
+                         final long storedNanos,
+                         final long initialAgeMillis,
+                         final long lifetimeMillis)
+    {
+        this(response.getStatusCode(), response.getStatusText(), response.getUri(), response.getContentType(), response.getCharset(),
+             response.getAllHeaders(), ByteBuffer.wrap(body), storedNanos, initialAgeMillis, lifetimeMillis);
+    }
+
+    /**
+     * @param body the body, which may be memory mapped. It is not counted in the weight unless it is on the heap.
+     */
+    HttpClientCacheEntry(final int statusCode,
+                         final String statusText,
+                         final URI uri,
+                         final String contentType,
+                         final String charset,
+                         final Map<String, List<String>> headers,
+                         final ByteBuffer body,
+                         final long storedNanos,
+                         final long initialAgeMillis,
+                         final long lifetimeMillis)
+    {
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.uri = uri;
+        this.contentType = contentType;
+        this.charset = charset;
+        this.body = body.asReadOnlyBuffer();
+        this.storedNanos = storedNanos;
+        this.initialAgeMillis = initialAgeMillis;
+        this.lifetimeMillis = lifetimeMillis;
+
+        final Map<String, List<String>> headerMap = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        int weight = ENTRY_OVERHEAD + (body.isDirect() ? 0 : body.remaining());
+        for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+            headerMap.put(header.getKey(), ImmutableList.copyOf(header.getValue()));
+            for (final String value : header.getValue()) {
+                weight += HEADER_OVERHEAD + header.getKey().length() + value.length();
+            }
+        }
+        this.headers = Collections.unmodifiableMap(headerMap);
+        this.weight = weight;
+    }
+
+    /**
+     * @return the approximate number of bytes of heap memory that the entry uses.
+     */
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * @return the age of the response in milliseconds, counting the age it already had when it was received.
+     */
+    public long getAgeMillis(final long nowNanos)
+    {
+        return initialAgeMillis + (nowNanos - storedNanos) / 1000000L;
+    }
+
+    /**
+     * @return how long the response is fresh in milliseconds, measured from when the origin server created it.
+     */
+    public long getLifetimeMillis()
+    {
+        return lifetimeMillis;
+    }
+
+    public boolean isFresh(final long nowNanos)
+    {
+        return getAgeMillis(nowNanos) < lifetimeMillis;
+    }
+
+    /**
+     * @return the time in milliseconds since the response expired, negative if it is fresh.
+     */
+    public long getStalenessMillis(final long nowNanos)
+    {
+        return getAgeMillis(nowNanos) - Math.max(lifetimeMillis, 0L);
+    }
+
+    /**
+     * @return true if the response has an ETag or Last-Modified header to revalidate it with.
+     */
+    public boolean hasValidators()
+    {
+        return getHeader("ETag") != null || getHeader("Last-Modified") != null;
+    }
+
+    /**
+     * @return the body, which may be memory mapped.
+     */
+    ByteBuffer getBody()
+    {
+        return body.duplicate();
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    @Override
+    public String getStatusText()
+    {
+        return statusText;
+    }
+
+    @Override
+    public InputStream getResponseBodyAsStream()
+    {
+        return new ByteBufferInputStream(body.duplicate());
+    }
+
+    @Override
+    public URI getUri()
+    {
+        return uri;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    @Override
+    public Long getContentLength()
+    {
+        return Long.valueOf(body.remaining());
+    }
+
+    @Override
+    public String getCharset()
+    {
+        return charset;
+    }
+
+    @Override
+    public String getHeader(final String name)
+    {
+        final List<String> values = headers.get(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    @Override
+    public List<String> getHeaders(final String name)
+    {
+        final List<String> values = headers.get(name);
+        return (values == null) ? Collections.<String>emptyList() : values;
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, List<String>> getAllHeaders()
+    {
+        return headers;
+    }
+
+    @Override
+    public boolean isRedirected()
+    {
+        return (statusCode >= 300) && (statusCode <= 399);
+    }
+
+    /**
+     * @return null, a cached response did not make a call.
+     */
+    @Override
+    public HttpClientTimings getTimings()
+    {
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpClientCacheEntry [statusCode=%d, uri=%s, bytes=%d, initialAgeMillis=%d, lifetimeMillis=%d]",
+                             statusCode, uri, body.remaining(), initialAgeMillis, lifetimeMillis);
+    }
+}
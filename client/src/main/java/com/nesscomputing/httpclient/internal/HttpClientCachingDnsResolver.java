@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Caches the addresses of host names for a fixed time. Names that are used shortly before they
+ * expire are resolved again in the background, so that busy names never have to wait for a lookup.
+ * If a name can not be resolved anymore, its last known addresses are used for a while.
+ */
+public class HttpClientCachingDnsResolver implements HttpClientDnsResolver
+{
+    private static final Log LOG = Log.findLog();
+
+    private final HttpClientDnsResolver delegate;
+    private final Executor refreshExecutor;
+    private final Ticker ticker;
+
+    private final long ttlNanos;
+    private final long refreshAheadNanos;
+    private final long maxStaleNanos;
+
+    private final ConcurrentMap<String, Entry> entries = Maps.newConcurrentMap();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    public static HttpClientCachingDnsResolver forDefaults(final HttpClientDnsResolver delegate, final HttpClientDefaults defaults, final Executor refreshExecutor)
+    {
+        return new HttpClientCachingDnsResolver(delegate,
+                                                defaults.getDnsCacheTtl().getMillis(),
+                                                defaults.getDnsCacheRefreshAhead().getMillis(),
+                                                defaults.getDnsCacheMaxStale().getMillis(),
+                                                refreshExecutor,
+                                                Ticker.systemTicker());
+    }
+
+    HttpClientCachingDnsResolver(final HttpClientDnsResolver delegate,
+                                 final long ttlMillis,
+                                 final long refreshAheadMillis,
+                                 final long maxStaleMillis,
+                                 final Executor refreshExecutor,
+                                 final Ticker ticker)
+    {
+        Preconditions.checkArgument(delegate != null, "delegate can not be null!");
+        Preconditions.checkArgument(ttlMillis > 0, "ttl must be greater than 0!");
+        Preconditions.checkArgument(refreshAheadMillis >= 0 && refreshAheadMillis < ttlMillis, "refresh ahead must be between 0 and the ttl!");
+        Preconditions.checkArgument(maxStaleMillis >= 0, "max stale must not be negative!");
+
+        this.delegate = delegate;
+        this.refreshExecutor = refreshExecutor;
+        this.ticker = ticker;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.refreshAheadNanos = TimeUnit.MILLISECONDS.toNanos(refreshAheadMillis);
+        this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMillis);
+    }
+
+    @Override
+    public InetAddress[] resolve(final String host) throws UnknownHostException
+    {
+        final long now = ticker.read();
+        final Entry entry = entries.get(host);
+
+        if (entry != null && now - entry.expiresAt < 0) {
+            hits.incrementAndGet();
+            if (refreshAheadNanos > 0 && now - (entry.expiresAt - refreshAheadNanos) >= 0) {
+                refresh(host, entry);
+            }
+            return copy(entry.addresses);
+        }
+
+        misses.incrementAndGet();
+        try {
+            return copy(lookup(host));
+        }
+        catch (UnknownHostException uhe) {
+            if (entry != null && now - (entry.expiresAt + maxStaleNanos) < 0) {
+                LOG.debug(uhe, "Could not resolve '%s', using its last known addresses", host);
+                staleHits.incrementAndGet();
+                return copy(entry.addresses);
+            }
+            entries.remove(host, entry);
+            throw uhe;
+        }
+    }
+
+    /**
+     * @return the number of lookups that were answered from the cache.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to ask the resolver.
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of failed lookups that were answered with expired addresses.
+     */
+    public long getStaleHits()
+    {
+        return staleHits.get();
+    }
+
+    private InetAddress[] lookup(final String host) throws UnknownHostException
+    {
+        final InetAddress[] addresses = delegate.resolve(host);
+        if (addresses == null || addresses.length == 0) {
+            throw new UnknownHostException(host);
+        }
+        entries.put(host, new Entry(copy(addresses), ticker.read() + ttlNanos));
+        return addresses;
+    }
+
+    private void refresh(final String host, final Entry entry)
+    {
+        if (refreshExecutor == null || !entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        lookup(host);
+                    }
+                    catch (UnknownHostException uhe) {
+                        // The entry expires as usual, the next lookup tries again.
+                        LOG.debug(uhe, "Could not refresh '%s'", host);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ree) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private static InetAddress[] copy(final InetAddress[] addresses)
+    {
+        return Arrays.copyOf(addresses, addresses.length);
+    }
+
+    private static final class Entry
+    {
+        private final InetAddress[] addresses;
+        private final long expiresAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(final InetAddress[] addresses, final long expiresAt)
+        {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
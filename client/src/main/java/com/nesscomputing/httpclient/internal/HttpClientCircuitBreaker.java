@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import com.nesscomputing.httpclient.CircuitBreakerState;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+
+/**
+ * Circuit breaker for a single route. Records failed and slow calls over a window of the most
+ * recent calls. When too many of them failed or were slow, the circuit opens and rejects all
+ * calls for a while. Afterwards a few trial calls decide whether it closes again.
+ *
+ * <p>Every call must first {@link #acquire()} a permit and hand it back to {@link #record(long, boolean, boolean)}
+ * or {@link #release(long)} when it is done.</p>
+ */
+public class HttpClientCircuitBreaker
+{
+    /** Returned by {@link #acquire()} when the call must not be made. */
+    public static final long REJECTED = -1L;
+
+    /** Notified about state changes, outside of any lock. */
+    public interface Listener
+    {
+        void onStateChange(HttpClientCircuitBreaker circuitBreaker, CircuitBreakerState oldState, CircuitBreakerState newState);
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String route;
+    private final Listener listener;
+    private final Ticker ticker;
+
+    private final int minimumCalls;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final double slowCallRate;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    // Ring buffer of the outcomes of the most recent calls in the closed state.
+    private final byte[] window;
+    private int windowPos = 0;
+    private int calls = 0;
+    private int failedCalls = 0;
+    private int slowCalls = 0;
+
+    private CircuitBreakerState state = CircuitBreakerState.CLOSED;
+    // Permits of calls from an earlier state are ignored.
+    private long generation = 0;
+    private long openedAt = 0;
+    private int trialPermits = 0;
+    private int trialSuccesses = 0;
+
+    public static HttpClientCircuitBreaker forDefaults(final String route, final HttpClientDefaults defaults, final Listener listener)
+    {
+        return new HttpClientCircuitBreaker(route,
+                                           defaults.getCircuitBreakerWindowSize(),
+                                           defaults.getCircuitBreakerMinimumCalls(),
+                                           defaults.getCircuitBreakerFailureRate(),
+                                           defaults.getCircuitBreakerSlowCallDuration().getMillis(),
+                                           defaults.getCircuitBreakerSlowCallRate(),
+                                           defaults.getCircuitBreakerOpenDuration().getMillis(),
+                                           defaults.getCircuitBreakerHalfOpenCalls(),
+                                           listener,
+                                           Ticker.systemTicker());
+    }
+
+    HttpClientCircuitBreaker(final String route,
+                             final int windowSize,
+                             final int minimumCalls,
+                             final double failureRate,
+                             final long slowCallDuration,
+                             final double slowCallRate,
+                             final long openDuration,
+                             final int halfOpenCalls,
+                             final Listener listener,
+                             final Ticker ticker)
+    {
+        Preconditions.checkArgument(windowSize > 0, "windowSize must be positive!");
+        Preconditions.checkArgument(minimumCalls > 0 && minimumCalls <= windowSize, "minimumCalls must be between 1 and windowSize!");
+        Preconditions.checkArgument(failureRate > 0.0 && failureRate <= 1.0, "failureRate must be between 0 and 1!");
+        Preconditions.checkArgument(slowCallRate > 0.0 && slowCallRate <= 1.0, "slowCallRate must be between 0 and 1!");
+        Preconditions.checkArgument(halfOpenCalls > 0, "halfOpenCalls must be positive!");
+
+        this.route = route;
+        this.window = new byte[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRate = failureRate;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+        this.slowCallRate = slowCallRate;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openDuration);
+        this.halfOpenCalls = halfOpenCalls;
+        this.listener = listener;
+        this.ticker = ticker;
+    }
+
+    public String getRoute()
+    {
+        return route;
+    }
+
+    public synchronized CircuitBreakerState getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return true if a call that took this long counts as slow.
+     */
+    public boolean isSlow(final long nanos)
+    {
+        return nanos >= slowCallNanos;
+    }
+
+    /**
+     * @return a permit for a call or {@link #REJECTED}.
+     */
+    public long acquire()
+    {
+        final CircuitBreakerState oldState;
+        final CircuitBreakerState newState;
+        final long permit;
+
+        synchronized (this) {
+            oldState = state;
+
+            if (state == CircuitBreakerState.OPEN && ticker.read() - openedAt >= openNanos) {
+                transition(CircuitBreakerState.HALF_OPEN);
+            }
+
+            switch (state) {
+            case CLOSED:
+                permit = generation;
+                break;
+            case HALF_OPEN:
+                if (trialPermits < halfOpenCalls) {
+                    trialPermits++;
+                    permit = generation;
+                } else {
+                    permit = REJECTED;
+                }
+                break;
+            default:
+                permit = REJECTED;
+                break;
+            }
+            newState = state;
+        }
+
+        notifyListener(oldState, newState);
+        return permit;
+    }
+
+    /**
+     * Record the outcome of a call.
+     *
+     * @param permit the permit from {@link #acquire()}.
+     * @param failed true if the call failed.
+     * @param slow true if the call was slow.
+     */
+    public void record(final long permit, final boolean failed, final boolean slow)
+    {
+        final CircuitBreakerState oldState;
+        final CircuitBreakerState newState;
+
+        synchronized (this) {
+            oldState = state;
+
+            if (permit == generation) {
+                if (state == CircuitBreakerState.CLOSED) {
+                    recordClosed(failed, slow);
+                } else if (state == CircuitBreakerState.HALF_OPEN) {
+                    if (failed || slow) {
+                        transition(CircuitBreakerState.OPEN);
+                    } else if (++trialSuccesses >= halfOpenCalls) {
+                        transition(CircuitBreakerState.CLOSED);
+                    }
+                }
+            }
+            newState = state;
+        }
+
+        notifyListener(oldState, newState);
+    }
+
+    /**
+     * Hand back a permit without recording an outcome, e.g. when the call was never made.
+     */
+    public synchronized void release(final long permit)
+    {
+        if (permit == generation && state == CircuitBreakerState.HALF_OPEN && trialPermits > trialSuccesses) {
+            trialPermits--;
+        }
+    }
+
+    private void recordClosed(final boolean failed, final boolean slow)
+    {
+        if (calls == window.length) {
+            final byte evicted = window[windowPos];
+            failedCalls -= evicted & FAILED;
+            slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            calls++;
+        }
+
+        window[windowPos] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+        windowPos = (windowPos + 1) % window.length;
+
+        if (failed) {
+            failedCalls++;
+        }
+        if (slow) {
+            slowCalls++;
+        }
+
+        if (calls >= minimumCalls
+            && (failedCalls >= failureRate * calls || slowCalls >= slowCallRate * calls)) {
+            transition(CircuitBreakerState.OPEN);
+        }
+    }
+
+    private void transition(final CircuitBreakerState newState)
+    {
+        state = newState;
+        generation++;
+
+        switch (newState) {
+        case OPEN:
+            openedAt = ticker.read();
+            break;
+        case HALF_OPEN:
+            trialPermits = 0;
+            trialSuccesses = 0;
+            break;
+        default:
+            calls = 0;
+            failedCalls = 0;
+            slowCalls = 0;
+            windowPos = 0;
+            break;
+        }
+    }
+
+    private void notifyListener(final CircuitBreakerState oldState, final CircuitBreakerState newState)
+    {
+        if (oldState != newState && listener != null) {
+            listener.onStateChange(this, oldState, newState);
+        }
+    }
+}
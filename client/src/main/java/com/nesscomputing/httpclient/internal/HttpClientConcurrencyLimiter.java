@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.httpclient.HttpClientDefaults;
+
+/**
+ * Limits the number of requests in flight to a single route and adapts the limit to the
+ * round trip time (AIMD). While calls take about as long as the fastest recent calls, the limit
+ * grows by one for every limit calls. When a call takes much longer, fails or the server reports
+ * overload, the limit shrinks by a fixed ratio.
+ *
+ * <p>The baseline is the fastest call seen in the last {@link #EPOCH_SAMPLES} calls, so it can follow the
+ * server when it gets slower for good.</p>
+ */
+public class HttpClientConcurrencyLimiter
+{
+    static final int EPOCH_SAMPLES = 500;
+
+    private final String route;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight = 0;
+
+    private long baseRttNanos = Long.MAX_VALUE;
+    private long epochMinRttNanos = Long.MAX_VALUE;
+    private int epochSamples = 0;
+
+    public static HttpClientConcurrencyLimiter forDefaults(final String route, final HttpClientDefaults defaults)
+    {
+        return new HttpClientConcurrencyLimiter(route,
+                                                defaults.getConcurrencyLimitInitial(),
+                                                defaults.getConcurrencyLimitMin(),
+                                                defaults.getConcurrencyLimitMax(),
+                                                defaults.getConcurrencyLimitBackoffRatio(),
+                                                defaults.getConcurrencyLimitLatencyTolerance());
+    }
+
+    HttpClientConcurrencyLimiter(final String route,
+                                 final int initialLimit,
+                                 final int minLimit,
+                                 final int maxLimit,
+                                 final double backoffRatio,
+                                 final double latencyTolerance)
+    {
+        Preconditions.checkArgument(minLimit > 0, "minLimit must be positive!");
+        Preconditions.checkArgument(maxLimit >= minLimit, "maxLimit must not be smaller than minLimit!");
+        Preconditions.checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit, "initialLimit must be between minLimit and maxLimit!");
+        Preconditions.checkArgument(backoffRatio > 0.0 && backoffRatio < 1.0, "backoffRatio must be between 0 and 1!");
+        Preconditions.checkArgument(latencyTolerance >= 1.0, "latencyTolerance must be at least 1!");
+
+        this.route = route;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public String getRoute()
+    {
+        return route;
+    }
+
+    /**
+     * @return the current number of requests allowed in flight.
+     */
+    public synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * Wait for a free slot. Every successful call must be followed by {@link #release()}.
+     *
+     * @param timeout milliseconds to wait. If 0, do not wait at all.
+     * @return true if the request may go ahead, false if no slot became free in time.
+     */
+    public synchronized boolean acquire(final long timeout) throws InterruptedException
+    {
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        while (inFlight >= (int) limit) {
+            final long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void release()
+    {
+        inFlight--;
+        notify();
+    }
+
+    /**
+     * Adapt the limit to the outcome of a call.
+     *
+     * @param rttNanos time until the response headers arrived or the call failed.
+     * @param dropped true if the call failed or the server reported that it is overloaded.
+     */
+    public synchronized void onSample(final long rttNanos, final boolean dropped)
+    {
+        if (!dropped) {
+            epochMinRttNanos = Math.min(epochMinRttNanos, rttNanos);
+            baseRttNanos = Math.min(baseRttNanos, rttNanos);
+        }
+
+        if (++epochSamples >= EPOCH_SAMPLES) {
+            if (epochMinRttNanos != Long.MAX_VALUE) {
+                baseRttNanos = epochMinRttNanos;
+            }
+            epochMinRttNanos = Long.MAX_VALUE;
+            epochSamples = 0;
+        }
+
+        if (dropped || rttNanos > baseRttNanos * latencyTolerance) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight * 2 >= limit) {
+            // Only grow while the limit is actually used, otherwise it grows without bounds when traffic is low.
+            final int oldLimit = (int) limit;
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+            if ((int) limit > oldLimit) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,823 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.io.ByteBufferInputStream;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Keeps cached responses in append-only segment files of a directory, so that they survive restarts
+ * and do not use heap memory. Bodies are read through memory mappings of the segment files. Only the
+ * position of every response is kept in memory; its headers are read from the file when it is used.
+ *
+ * <p>A record is written completely and forced to disk before its header is marked as committed. On
+ * startup the segments are read in order, and a segment is cut off at the first record that was not
+ * committed or whose headers do not match their checksum. When the segments use more than the byte
+ * budget, the oldest segment is deleted with all responses in it.</p>
+ *
+ * <p>Only one cache can use a directory at a time.</p>
+ */
+public class HttpClientDiskCache implements Closeable
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final int MAGIC = 0x4e455353;
+    private static final int IN_PROGRESS = 0;
+    private static final int COMMITTED = 1;
+    private static final int ABORTED = 2;
+    private static final int REMOVED = 3;
+    private static final int HEADER_SIZE = 24;
+
+    private static final int COPY_BUFFER_SIZE = 65536;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LOCK_FILE = "lock";
+    private static final String SPOOL_PREFIX = "spool-";
+    private static final String SPOOL_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentSize;
+    private final long maxEntrySize;
+
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    // Serializes all writes to the segment files. Taken before the monitor of the cache, never after it.
+    private final Object writeLock = new Object();
+    private Segment active;
+    private volatile boolean failed = false;
+
+    // Guarded by this.
+    private final TreeMap<Integer, Segment> segments = Maps.newTreeMap();
+    private final Map<String, Map<String, Record>> index = Maps.newHashMap();
+    private final Map<String, List<String>> varyHeaders = Maps.newHashMap();
+    private int entries = 0;
+    private long evictions = 0;
+
+    /**
+     * Opens the cache in a directory and recovers the responses that were completely written to it.
+     *
+     * @throws IOException if the directory can not be used or is used by another cache.
+     */
+    public static HttpClientDiskCache open(final File directory, final long maxBytes, final long segmentSize, final long maxEntrySize)
+        throws IOException
+    {
+        Preconditions.checkArgument(directory != null, "directory must not be null!");
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive!");
+        Preconditions.checkArgument(segmentSize > 0, "segmentSize must be positive!");
+        Preconditions.checkArgument(maxEntrySize > 0 && maxEntrySize <= Integer.MAX_VALUE, "maxEntrySize must be between 1 and 2^31-1!");
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create cache directory '" + directory + "'");
+        }
+
+        final RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock lock;
+        try {
+            lock = lockFile.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException ofle) {
+            // Held by another cache in this process.
+            lock = null;
+        }
+        catch (IOException ioe) {
+            lockFile.close();
+            throw ioe;
+        }
+        if (lock == null) {
+            lockFile.close();
+            throw new IOException("Cache directory '" + directory + "' is used by another cache");
+        }
+
+        final HttpClientDiskCache diskCache = new HttpClientDiskCache(directory, maxBytes, segmentSize, maxEntrySize, lockFile, lock);
+        try {
+            diskCache.recover();
+        }
+        catch (IOException ioe) {
+            diskCache.close();
+            throw ioe;
+        }
+        return diskCache;
+    }
+
+    private HttpClientDiskCache(final File directory,
+                                final long maxBytes,
+                                final long segmentSize,
+                                final long maxEntrySize,
+                                final RandomAccessFile lockFile,
+                                final FileLock lock)
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+        this.maxEntrySize = maxEntrySize;
+        this.lockFile = lockFile;
+        this.lock = lock;
+    }
+
+    /**
+     * @return the largest body that is stored.
+     */
+    public long getMaxEntrySize()
+    {
+        return maxEntrySize;
+    }
+
+    /**
+     * @return names of the request headers that the stored responses for the primary key vary on, or null if there are none.
+     */
+    @CheckForNull
+    public synchronized List<String> getVaryHeaders(final String primaryKey)
+    {
+        return varyHeaders.get(primaryKey);
+    }
+
+    /**
+     * @return the stored response or null. Its body is memory mapped.
+     */
+    @CheckForNull
+    public HttpClientCacheEntry get(final String primaryKey, final String variantKey, final Ticker ticker)
+    {
+        final Record record;
+        final Segment segment;
+        synchronized (this) {
+            final Map<String, Record> variants = index.get(primaryKey);
+            record = (variants == null) ? null : variants.get(variantKey);
+            segment = (record == null) ? null : segments.get(record.segmentId);
+        }
+        if (segment == null) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer meta = ByteBuffer.allocate(record.metaLength);
+            readFully(segment.channel, meta, record.position + HEADER_SIZE);
+            final ByteBuffer body = segment.channel.map(FileChannel.MapMode.READ_ONLY, record.getBodyPosition(), record.bodyLength);
+            return readEntry(new DataInputStream(new ByteArrayInputStream(meta.array())), body, ticker);
+        }
+        catch (ClosedChannelException cce) {
+            // The segment was evicted in the meantime.
+            return null;
+        }
+        catch (IOException ioe) {
+            LOG.warnDebug(ioe, "Could not read cached response for '%s' from '%s'", primaryKey, segment.file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a response. The body is written to a spool file of its own while it arrives and then copied
+     * to the segment files, so that a slow server does not hold up the other writers.
+     *
+     * @return a stream of the whole body that was read from the given stream. The body is read from
+     *         disk if it could be stored, otherwise the part that was spooled is followed by the rest of the
+     *         given stream.
+     * @throws IOException if reading the body failed. Nothing is stored in this case.
+     */
+    public InputStream put(final String primaryKey,
+                           final String variantKey,
+                           final List<String> vary,
+                           final HttpClientResponse response,
+                           final long initialAgeMillis,
+                           final long lifetimeMillis,
+                           final InputStream body)
+        throws IOException
+    {
+        if (failed) {
+            return body;
+        }
+
+        final byte [] meta = writeMeta(primaryKey, variantKey, vary, response, initialAgeMillis, lifetimeMillis);
+
+        final File spoolFile;
+        final FileChannel spool;
+        try {
+            spoolFile = File.createTempFile(SPOOL_PREFIX, SPOOL_SUFFIX, directory);
+            spool = new RandomAccessFile(spoolFile, "rw").getChannel();
+        }
+        catch (IOException ioe) {
+            fail(ioe);
+            return body;
+        }
+
+        try {
+            final byte [] buffer = new byte [COPY_BUFFER_SIZE];
+            long written = 0;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                if (written + read > maxEntrySize) {
+                    LOG.debug("Response for '%s' is larger than %d bytes, not storing it", primaryKey, maxEntrySize);
+                    return new SequenceInputStream(new SequenceInputStream(spooled(spool, written), new ByteArrayInputStream(buffer, 0, read)), body);
+                }
+
+                try {
+                    writeFully(spool, ByteBuffer.wrap(buffer, 0, read), written);
+                }
+                catch (IOException ioe) {
+                    fail(ioe);
+                    return new SequenceInputStream(new SequenceInputStream(spooled(spool, written), new ByteArrayInputStream(buffer, 0, read)), body);
+                }
+                written += read;
+            }
+
+            return append(primaryKey, variantKey, vary, meta, spool, written);
+        }
+        finally {
+            // Bodies that were handed out stay readable through their memory mapping.
+            try {
+                spool.close();
+            }
+            catch (IOException ioe) {
+                LOG.warnDebug(ioe, "Could not close '%s'", spoolFile);
+            }
+            if (!spoolFile.delete()) {
+                LOG.warn("Could not delete '%s'", spoolFile);
+            }
+        }
+    }
+
+    /**
+     * Copies a spooled body into the active segment and adds its record.
+     *
+     * @return the stored body, or the spooled body if it could not be stored.
+     */
+    private InputStream append(final String primaryKey,
+                               final String variantKey,
+                               final List<String> vary,
+                               final byte [] meta,
+                               final FileChannel spool,
+                               final long bodyLength) throws IOException
+    {
+        synchronized (writeLock) {
+            if (failed) {
+                return spooled(spool, bodyLength);
+            }
+
+            final Segment segment;
+            final long position;
+            try {
+                segment = getActiveSegment();
+                position = segment.size;
+                writeFully(segment.channel, header(IN_PROGRESS, meta.length, 0L, 0), position);
+                writeFully(segment.channel, ByteBuffer.wrap(meta), position + HEADER_SIZE);
+            }
+            catch (IOException ioe) {
+                fail(ioe);
+                return spooled(spool, bodyLength);
+            }
+
+            final long bodyPosition = position + HEADER_SIZE + meta.length;
+            final CRC32 crc = new CRC32();
+            crc.update(meta);
+            try {
+                transferFully(spool, segment.channel, bodyPosition, bodyLength);
+                segment.channel.force(false);
+                writeFully(segment.channel, header(COMMITTED, meta.length, bodyLength, (int) crc.getValue()), position);
+            }
+            catch (IOException ioe) {
+                fail(ioe);
+                abort(segment, position, meta.length, bodyLength);
+                return spooled(spool, bodyLength);
+            }
+            segment.size = bodyPosition + bodyLength;
+
+            final Record record = new Record(segment.id, position, meta.length, bodyLength);
+            synchronized (this) {
+                add(primaryKey, variantKey, vary, record);
+                evict();
+            }
+            return new ByteBufferInputStream(segment.channel.map(FileChannel.MapMode.READ_ONLY, bodyPosition, bodyLength));
+        }
+    }
+
+    /**
+     * Removes all stored responses for the primary key.
+     */
+    public void invalidate(final String primaryKey)
+    {
+        // Most requests that invalidate have nothing stored, they do not need to wait for the writers.
+        synchronized (this) {
+            if (!index.containsKey(primaryKey)) {
+                return;
+            }
+        }
+
+        synchronized (writeLock) {
+            synchronized (this) {
+                varyHeaders.remove(primaryKey);
+                final Map<String, Record> variants = index.remove(primaryKey);
+                if (variants == null) {
+                    return;
+                }
+                entries -= variants.size();
+            }
+
+            if (failed) {
+                return;
+            }
+
+            // Without a record of the removal, the responses would come back after a restart.
+            try {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final DataOutputStream out = new DataOutputStream(bytes);
+                writeString(out, primaryKey);
+                out.flush();
+                final byte [] meta = bytes.toByteArray();
+
+                final CRC32 crc = new CRC32();
+                crc.update(meta);
+
+                final Segment segment = getActiveSegment();
+                final long position = segment.size;
+                writeFully(segment.channel, header(IN_PROGRESS, meta.length, 0L, 0), position);
+                writeFully(segment.channel, ByteBuffer.wrap(meta), position + HEADER_SIZE);
+                segment.channel.force(false);
+                writeFully(segment.channel, header(REMOVED, meta.length, 0L, (int) crc.getValue()), position);
+                segment.size = position + HEADER_SIZE + meta.length;
+            }
+            catch (IOException ioe) {
+                fail(ioe);
+            }
+        }
+    }
+
+    public synchronized int getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * @return bytes used by the segment files, including responses that were replaced or removed but not yet evicted.
+     */
+    public synchronized long getBytes()
+    {
+        long bytes = 0;
+        for (final Segment segment : segments.values()) {
+            bytes += segment.size;
+        }
+        return bytes;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (writeLock) {
+            synchronized (this) {
+                for (final Segment segment : segments.values()) {
+                    closeQuietly(segment);
+                }
+                segments.clear();
+                index.clear();
+                varyHeaders.clear();
+                entries = 0;
+            }
+            failed = true;
+
+            try {
+                lock.release();
+                lockFile.close();
+            }
+            catch (IOException ioe) {
+                LOG.warnDebug(ioe, "Could not release lock of '%s'", directory);
+            }
+        }
+    }
+
+    private void recover() throws IOException
+    {
+        final File [] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+                if (name.startsWith(SPOOL_PREFIX) && name.endsWith(SPOOL_SUFFIX)) {
+                    // Left over from a response that was not stored.
+                    if (!file.delete()) {
+                        LOG.warn("Could not delete '%s'", file);
+                    }
+                }
+                else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        final int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                        segments.put(id, null);
+                    }
+                    catch (NumberFormatException nfe) {
+                        LOG.warn("Ignoring '%s' in cache directory", file);
+                    }
+                }
+            }
+        }
+
+        for (final Integer id : Lists.newArrayList(segments.keySet())) {
+            final Segment segment = new Segment(id, new File(directory, SEGMENT_PREFIX + String.format("%08d", id) + SEGMENT_SUFFIX));
+            segments.put(id, segment);
+            recover(segment);
+        }
+
+        synchronized (writeLock) {
+            if (segments.isEmpty()) {
+                active = newSegment(1);
+            }
+            else {
+                active = segments.lastEntry().getValue();
+            }
+        }
+        synchronized (this) {
+            evict();
+        }
+        LOG.info("Recovered %d cached responses from '%s'", entries, directory);
+    }
+
+    private void recover(final Segment segment) throws IOException
+    {
+        final long size = segment.channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = 0;
+
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+
+            final int magic = header.getInt();
+            final int state = header.getInt();
+            final int metaLength = header.getInt();
+            final long bodyLength = header.getLong();
+            final int checksum = header.getInt();
+
+            if (magic != MAGIC || state == IN_PROGRESS || metaLength < 0 || bodyLength < 0
+                || position + HEADER_SIZE + metaLength + bodyLength > size) {
+                break;
+            }
+
+            if (state == COMMITTED || state == REMOVED) {
+                final ByteBuffer meta = ByteBuffer.allocate(metaLength);
+                readFully(segment.channel, meta, position + HEADER_SIZE);
+                final CRC32 crc = new CRC32();
+                crc.update(meta.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(meta.array()));
+                final String primaryKey = readString(in);
+                if (state == COMMITTED) {
+                    final String variantKey = readString(in);
+                    add(primaryKey, variantKey, readList(in), new Record(segment.id, position, metaLength, bodyLength));
+                }
+                else {
+                    varyHeaders.remove(primaryKey);
+                    final Map<String, Record> variants = index.remove(primaryKey);
+                    if (variants != null) {
+                        entries -= variants.size();
+                    }
+                }
+            }
+            position += HEADER_SIZE + metaLength + bodyLength;
+        }
+
+        if (position < size) {
+            LOG.warn("Cutting off %d bytes of incomplete responses from '%s'", size - position, segment.file);
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    private void add(final String primaryKey, final String variantKey, final List<String> vary, final Record record)
+    {
+        Map<String, Record> variants = index.get(primaryKey);
+        if (variants == null) {
+            variants = Maps.newHashMap();
+            index.put(primaryKey, variants);
+        }
+        if (variants.put(variantKey, record) == null) {
+            entries++;
+        }
+        varyHeaders.put(primaryKey, vary);
+    }
+
+    /**
+     * Deletes the oldest segments until the files fit into the budget again.
+     */
+    private void evict()
+    {
+        while (getBytes() > maxBytes && segments.size() > 1) {
+            final Segment oldest = segments.pollFirstEntry().getValue();
+            closeQuietly(oldest);
+            if (!oldest.file.delete()) {
+                LOG.warn("Could not delete '%s'", oldest.file);
+            }
+
+            for (final Iterator<Map.Entry<String, Map<String, Record>>> it = index.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, Map<String, Record>> variants = it.next();
+                for (final Iterator<Record> records = variants.getValue().values().iterator(); records.hasNext(); ) {
+                    if (records.next().segmentId == oldest.id) {
+                        records.remove();
+                        entries--;
+                        evictions++;
+                    }
+                }
+                if (variants.getValue().isEmpty()) {
+                    varyHeaders.remove(variants.getKey());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private Segment getActiveSegment() throws IOException
+    {
+        if (active.size >= segmentSize) {
+            active = newSegment(active.id + 1);
+        }
+        return active;
+    }
+
+    private Segment newSegment(final int id) throws IOException
+    {
+        final Segment segment = new Segment(id, new File(directory, SEGMENT_PREFIX + String.format("%08d", id) + SEGMENT_SUFFIX));
+        synchronized (this) {
+            segments.put(id, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Marks a record that will not be committed, so that later records can follow it.
+     */
+    private void abort(final Segment segment, final long position, final int metaLength, final long bodyLength)
+    {
+        try {
+            writeFully(segment.channel, header(ABORTED, metaLength, bodyLength, 0), position);
+            segment.size = position + HEADER_SIZE + metaLength + bodyLength;
+        }
+        catch (IOException ioe) {
+            LOG.warnDebug(ioe, "Could not mark aborted response in '%s'", segment.file);
+        }
+    }
+
+    private static InputStream spooled(final FileChannel spool, final long length) throws IOException
+    {
+        return new ByteBufferInputStream(spool.map(FileChannel.MapMode.READ_ONLY, 0, length));
+    }
+
+    /**
+     * Stops writing after a write failed. An incomplete record could otherwise hide the records after it on the next start.
+     */
+    private void fail(final IOException ioe)
+    {
+        LOG.error(ioe, "Could not write to cache directory '%s', not storing any more responses", directory);
+        failed = true;
+    }
+
+    private static ByteBuffer header(final int state, final int metaLength, final long bodyLength, final int checksum)
+    {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(state).putInt(metaLength).putLong(bodyLength).putInt(checksum);
+        header.flip();
+        return header;
+    }
+
+    private static byte [] writeMeta(final String primaryKey,
+                                     final String variantKey,
+                                     final List<String> vary,
+                                     final HttpClientResponse response,
+                                     final long initialAgeMillis,
+                                     final long lifetimeMillis) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, primaryKey);
+        writeString(out, variantKey);
+        writeList(out, vary);
+
+        out.writeInt(response.getStatusCode());
+        writeString(out, response.getStatusText());
+        writeString(out, (response.getUri() == null) ? null : response.getUri().toString());
+        writeString(out, response.getContentType());
+        writeString(out, response.getCharset());
+
+        final Map<String, List<String>> headers = response.getAllHeaders();
+        out.writeInt(headers.size());
+        for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+            writeString(out, header.getKey());
+            writeList(out, header.getValue());
+        }
+
+        out.writeLong(initialAgeMillis);
+        out.writeLong(lifetimeMillis);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static HttpClientCacheEntry readEntry(final DataInputStream in, final ByteBuffer body, final Ticker ticker) throws IOException
+    {
+        readString(in);
+        readString(in);
+        readList(in);
+
+        final int statusCode = in.readInt();
+        final String statusText = readString(in);
+        final String uri = readString(in);
+        final String contentType = readString(in);
+        final String charset = readString(in);
+
+        final int headerCount = in.readInt();
+        final Map<String, List<String>> headers = Maps.newLinkedHashMap();
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(readString(in), readList(in));
+        }
+
+        final long initialAgeMillis = in.readLong();
+        final long lifetimeMillis = in.readLong();
+        final long storedMillis = in.readLong();
+
+        // The entry measures its age with the ticker, which does not survive restarts.
+        final long storedNanos = ticker.read() - TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - storedMillis));
+        return new HttpClientCacheEntry(statusCode, statusText, (uri == null) ? null : URI.create(uri), contentType, charset,
+                                        headers, body, storedNanos, initialAgeMillis, lifetimeMillis);
+    }
+
+    private static void writeString(final DataOutputStream out, @Nullable final String value) throws IOException
+    {
+        if (value == null) {
+            out.writeInt(-1);
+        }
+        else {
+            final byte [] bytes = value.getBytes(Charsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @CheckForNull
+    private static String readString(final DataInputStream in) throws IOException
+    {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte [] bytes = new byte [length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static void writeList(final DataOutputStream out, final List<String> values) throws IOException
+    {
+        out.writeInt(values.size());
+        for (final String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readList(final DataInputStream in) throws IOException
+    {
+        final int size = in.readInt();
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        final List<String> values = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return ImmutableList.copyOf(values);
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            pos += read;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    private static void transferFully(final FileChannel from, final FileChannel to, final long position, final long count) throws IOException
+    {
+        from.position(0);
+        long transferred = 0;
+        while (transferred < count) {
+            final long n = to.transferFrom(from, position + transferred, count - transferred);
+            if (n <= 0) {
+                throw new EOFException();
+            }
+            transferred += n;
+        }
+    }
+
+    private static void closeQuietly(final Segment segment)
+    {
+        try {
+            segment.channel.close();
+        }
+        catch (IOException ioe) {
+            LOG.warnDebug(ioe, "Could not close '%s'", segment.file);
+        }
+    }
+
+    private static final class Segment
+    {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private volatile long size;
+
+        private Segment(final int id, final File file) throws IOException
+        {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size = channel.size();
+        }
+    }
+
+    private static final class Record
+    {
+        private final int segmentId;
+        private final long position;
+        private final int metaLength;
+        private final long bodyLength;
+
+        private Record(final int segmentId, final long position, final int metaLength, final long bodyLength)
+        {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.metaLength = metaLength;
+            this.bodyLength = bodyLength;
+        }
+
+        private long getBodyPosition()
+        {
+            return position + HEADER_SIZE + metaLength;
+        }
+    }
+}
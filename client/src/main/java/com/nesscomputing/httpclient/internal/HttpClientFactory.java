@@ -20,6 +20,7 @@ import java.io.IOException;
 
 import javax.annotation.CheckForNull;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.nesscomputing.httpclient.HttpClientConnectionContext;
 import com.nesscomputing.httpclient.HttpClientRequest;
 
@@ -66,5 +67,12 @@ public interface HttpClientFactory
      * Execute a request to a remote server.
      */
     <T> T performRequest(HttpClientRequest<T> request) throws IOException;
+
+    /**
+     * Execute a request to a remote server without blocking the caller. Observers and the response handler
+     * are invoked just like for {@link #performRequest(HttpClientRequest)}, but on a thread owned by the factory.
+     * An IOException thrown while executing the request fails the returned future.
+     */
+    <T> ListenableFuture<T> performRequestAsync(HttpClientRequest<T> request);
 }
 
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Estimates how often keys were seen recently, in a fixed amount of memory. It is a count-min sketch of
+ * small counters that are all halved after a number of increments, so that old popularity fades.
+ */
+public class HttpClientFrequencySketch
+{
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int [] SEEDS = { 0x97cb3127, 0x2f3e5b41, 0x71c5a7c3, 0xc2b2ae35 };
+
+    private final byte [][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    /**
+     * @param width number of counters per row, rounded up to a power of two.
+     */
+    public HttpClientFrequencySketch(final int width)
+    {
+        Preconditions.checkArgument(width > 0 && width <= (1 << 30), "width must be between 1 and 2^30!");
+
+        final int size = Integer.highestOneBit(width - 1) << 1;
+        this.table = new byte [ROWS][Math.max(size, 1)];
+        this.mask = table[0].length - 1;
+        this.sampleSize = table[0].length * 10;
+    }
+
+    public synchronized void increment(final int hash)
+    {
+        boolean added = false;
+        for (int row = 0; row < ROWS; row++) {
+            final int index = indexOf(hash, row);
+            if (table[row][index] < MAX_COUNT) {
+                table[row][index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    public synchronized int frequency(final int hash)
+    {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, table[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(final int hash, final int row)
+    {
+        int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    private void reset()
+    {
+        for (final byte [] counters : table) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the most recent response times of a route and answers percentiles over them. The percentile
+ * is only computed again after an eighth of the window has been replaced, so asking for it is cheap.
+ */
+public class HttpClientLatencyTracker
+{
+    /** Returned by {@link #getPercentile()} while there are too few samples. */
+    public static final long UNKNOWN = -1L;
+
+    private final double percentile;
+    private final int minSamples;
+    private final long[] window;
+    private int windowPos = 0;
+    private int samples = 0;
+
+    private long cached = UNKNOWN;
+    private int samplesSinceCached = 0;
+
+    public HttpClientLatencyTracker(final double percentile, final int windowSize, final int minSamples)
+    {
+        Preconditions.checkArgument(percentile > 0.0 && percentile < 1.0, "percentile must be between 0 and 1!");
+        Preconditions.checkArgument(minSamples > 0 && minSamples <= windowSize, "minSamples must be between 1 and windowSize!");
+
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.window = new long[windowSize];
+    }
+
+    public synchronized void record(final long nanos)
+    {
+        window[windowPos] = nanos;
+        windowPos = (windowPos + 1) % window.length;
+        samples = Math.min(samples + 1, window.length);
+        samplesSinceCached++;
+    }
+
+    /**
+     * @return the percentile of the recent response times in nanoseconds or {@link #UNKNOWN}.
+     */
+    public synchronized long getPercentile()
+    {
+        if (samples < minSamples) {
+            return UNKNOWN;
+        }
+
+        if (cached == UNKNOWN || samplesSinceCached >= Math.max(window.length / 8, 1)) {
+            final long[] sorted = Arrays.copyOf(window, samples);
+            Arrays.sort(sorted);
+            cached = sorted[Math.min((int) Math.ceil(percentile * samples) - 1, samples - 1)];
+            samplesSinceCached = 0;
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,663 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import com.nesscomputing.httpclient.HttpClientBackendStats;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+
+/**
+ * Spreads the requests to a logical service over its backends. A request to a service uses the
+ * {@link #SCHEME} scheme with the name of the service as host, e.g. <tt>svc://users/user/123</tt>.
+ *
+ * <p>Each request picks two backends at random and goes to the one with the lower cost, which is the
+ * moving average of its latency times the number of its outstanding requests. Slow or busy backends
+ * get fewer requests without all clients rushing to the same fastest backend. The average reacts to a
+ * slower response right away and decays towards 0 while a backend is not used, so a backend that was
+ * slow once is tried again later.</p>
+ *
+ * <p>Backends that fail too many requests in a row or that are much slower than the other backends of
+ * a service are ejected for a while. Afterwards a backend gets a single probe request at a time until one
+ * succeeds. Every failed probe doubles the time until the next one. A backend is a route, so it is shared
+ * by all services that list it, and plain requests to the same route count as well. Routes that no service
+ * lists get a backend of their own from {@link #getRouteBackend(String)}, so failures of plain requests
+ * eject and readmit them as well. There is nothing to steer plain requests to, so they keep going to an
+ * ejected route, and only the outcome of a request after the ejection time counts as a probe. Routes that
+ * no service lists are forgotten once they had no request for {@link #ROUTE_IDLE_NANOS} and are not ejected,
+ * so a client that talks to many hosts does not keep a backend for each of them.</p>
+ *
+ * <p>Every request must {@link Backend#start()} and {@link Backend#complete(long, boolean)} on the backend
+ * that {@link #choose(String)}, {@link #getBackend(String)} or {@link #getRouteBackend(String)} returned.</p>
+ */
+public class HttpClientLoadBalancer
+{
+    /** Scheme of requests to a logical service. */
+    public static final String SCHEME = "svc";
+
+    /** Notified about ejections, outside of any lock. */
+    public interface Listener
+    {
+        void onEjected(Backend backend, long ejectionMillis, String reason);
+
+        void onReadmitted(Backend backend);
+    }
+
+    /** How often the latencies of the backends of a service are compared. */
+    private static final long LATENCY_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** How long a route that no service lists is kept without requests. */
+    static final long ROUTE_IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final ConcurrentMap<String, Service> services = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Backend> backends = Maps.newConcurrentMap();
+    private final AtomicLong nextRouteCheck;
+
+    private final long decayNanos;
+    private final int consecutiveFailures;
+    private final double latencyFactor;
+    private final int minRequests;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final Listener listener;
+    private final Ticker ticker;
+
+    public static HttpClientLoadBalancer forDefaults(final HttpClientDefaults defaults, final Listener listener)
+    {
+        final boolean outlierDetection = defaults.isOutlierDetectionEnabled();
+        final HttpClientLoadBalancer loadBalancer = new HttpClientLoadBalancer(defaults.getLoadBalancerDecay().getMillis(),
+                                                                               outlierDetection ? defaults.getOutlierDetectionConsecutiveFailures() : 0,
+                                                                               outlierDetection ? defaults.getOutlierDetectionLatencyFactor() : 0.0,
+                                                                               defaults.getOutlierDetectionMinRequests(),
+                                                                               defaults.getOutlierDetectionBaseEjectionTime().getMillis(),
+                                                                               defaults.getOutlierDetectionMaxEjectionTime().getMillis(),
+                                                                               listener,
+                                                                               Ticker.systemTicker());
+        for (Map.Entry<String, List<URI>> service : parseServices(defaults.getServices()).entrySet()) {
+            loadBalancer.setBackends(service.getKey(), service.getValue());
+        }
+        return loadBalancer;
+    }
+
+    HttpClientLoadBalancer(final long decay,
+                           final int consecutiveFailures,
+                           final double latencyFactor,
+                           final int minRequests,
+                           final long baseEjectionTime,
+                           final long maxEjectionTime,
+                           final Listener listener,
+                           final Ticker ticker)
+    {
+        Preconditions.checkArgument(decay > 0, "decay must be positive!");
+        Preconditions.checkArgument(consecutiveFailures >= 0, "consecutiveFailures must not be negative!");
+        Preconditions.checkArgument(latencyFactor == 0.0 || latencyFactor > 1.0, "latencyFactor must be 0 or greater than 1!");
+        Preconditions.checkArgument(baseEjectionTime > 0 && baseEjectionTime <= maxEjectionTime, "baseEjectionTime must be positive and not greater than maxEjectionTime!");
+
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decay);
+        this.consecutiveFailures = consecutiveFailures;
+        this.latencyFactor = latencyFactor;
+        this.minRequests = minRequests;
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionTime);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionTime);
+        this.listener = listener;
+        this.ticker = ticker;
+        this.nextRouteCheck = new AtomicLong(ticker.read() + ROUTE_IDLE_NANOS);
+    }
+
+    /**
+     * Parses a semicolon separated list of services as name=backend,backend,... where a backend
+     * is [scheme://]host[:port] and the scheme defaults to 'http'.
+     */
+    static Map<String, List<URI>> parseServices(final String services)
+    {
+        if (StringUtils.isBlank(services)) {
+            return ImmutableMap.of();
+        }
+
+        final Map<String, List<URI>> result = Maps.newLinkedHashMap();
+        for (String service : Splitter.on(';').trimResults().omitEmptyStrings().split(services)) {
+            final int separator = service.indexOf('=');
+            Preconditions.checkArgument(separator > 0, "Service '%s' must be name=backend,backend,...!", service);
+
+            final List<URI> backendUris = Lists.newArrayList();
+            for (String backend : Splitter.on(',').trimResults().omitEmptyStrings().split(service.substring(separator + 1))) {
+                backendUris.add(URI.create(backend.contains("://") ? backend : "http://" + backend));
+            }
+            result.put(service.substring(0, separator).trim(), backendUris);
+        }
+        return result;
+    }
+
+    /**
+     * @return the name of the service that the uri refers to or null if it does not refer to a service.
+     */
+    @CheckForNull
+    public static String getService(final URI uri)
+    {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            return null;
+        }
+        return (uri.getHost() != null) ? uri.getHost() : uri.getRawAuthority();
+    }
+
+    /**
+     * Replaces the backends of a service. Backends that stay keep their state. An empty list removes the service.
+     */
+    public synchronized void setBackends(final String service, final Collection<URI> backendUris)
+    {
+        Preconditions.checkArgument(service != null, "service can not be null!");
+        Preconditions.checkArgument(backendUris != null, "backendUris can not be null!");
+
+        final Map<String, Backend> serviceBackends = Maps.newLinkedHashMap();
+        for (URI backendUri : backendUris) {
+            Preconditions.checkArgument(backendUri.getHost() != null, "Backend '%s' of service '%s' has no host!", backendUri, service);
+            final String name = backendUri.getScheme() + "://" + backendUri.getRawAuthority();
+            serviceBackends.put(name, getOrCreate(name, false));
+        }
+
+        if (serviceBackends.isEmpty()) {
+            services.remove(service);
+        }
+        else {
+            services.put(service, new Service(ImmutableList.copyOf(serviceBackends.values())));
+        }
+
+        // Forget backends that no service lists anymore, unless plain requests use them.
+        final Set<String> names = Sets.newHashSet();
+        for (Service s : services.values()) {
+            for (Backend backend : s.backends) {
+                names.add(backend.getName());
+            }
+        }
+        for (Backend backend : backends.values()) {
+            if (backend.plain) {
+                names.add(backend.getName());
+            }
+        }
+        backends.keySet().retainAll(names);
+    }
+
+    private Backend getOrCreate(final String name, final boolean plain)
+    {
+        Backend backend = backends.get(name);
+        if (backend == null) {
+            final Backend created = new Backend(name);
+            backend = backends.putIfAbsent(name, created);
+            if (backend == null) {
+                backend = created;
+            }
+        }
+        if (plain) {
+            backend.plain = true;
+        }
+        return backend;
+    }
+
+    /**
+     * @return the backend for the next request to the service or null if the service has no backends.
+     */
+    @CheckForNull
+    public Backend choose(final String service)
+    {
+        final Service s = services.get(service);
+        if (s == null) {
+            return null;
+        }
+
+        final long now = ticker.read();
+        if (latencyFactor > 0.0 && now - s.nextLatencyCheck >= 0) {
+            checkLatency(s, now);
+        }
+
+        List<Backend> candidates = s.backends;
+        for (Backend backend : s.backends) {
+            if (!backend.isAvailable(now)) {
+                candidates = getAvailable(s.backends, now);
+                break;
+            }
+        }
+
+        // Better to try an ejected backend than to fail without trying.
+        if (candidates.isEmpty()) {
+            candidates = s.backends;
+        }
+
+        final int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+
+        // Two different backends, picked at random.
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        final Backend a = candidates.get(first);
+        final Backend b = candidates.get(second);
+        return (a.getCost(now) <= b.getCost(now)) ? a : b;
+    }
+
+    /**
+     * @return the backend for a route, e.g. "http://localhost:8080", or null if no service lists the route.
+     */
+    @CheckForNull
+    public Backend getBackend(final String route)
+    {
+        return backends.get(route);
+    }
+
+    /**
+     * @return the backend for the route of a plain request, e.g. "http://localhost:8080". Creates one for routes that
+     * no service lists, as long as failures eject backends. Otherwise null if no service lists the route.
+     */
+    @CheckForNull
+    public Backend getRouteBackend(final String route)
+    {
+        if (consecutiveFailures == 0) {
+            return backends.get(route);
+        }
+
+        final long now = ticker.read();
+        final long nextCheck = nextRouteCheck.get();
+        if (now - nextCheck >= 0 && nextRouteCheck.compareAndSet(nextCheck, now + ROUTE_IDLE_NANOS)) {
+            forgetIdleRoutes(now);
+        }
+        return getOrCreate(route, true);
+    }
+
+    /**
+     * Removes the backends of plain requests that no service lists, had no request for a while and are not ejected.
+     */
+    private synchronized void forgetIdleRoutes(final long now)
+    {
+        final Set<String> listed = Sets.newHashSet();
+        for (Service s : services.values()) {
+            for (Backend backend : s.backends) {
+                listed.add(backend.getName());
+            }
+        }
+        for (Backend backend : backends.values()) {
+            if (backend.plain && !listed.contains(backend.getName()) && backend.isIdle(now)) {
+                backends.remove(backend.getName(), backend);
+            }
+        }
+    }
+
+    /**
+     * @return the state of all backends, keyed by service and backend.
+     */
+    public Map<String, Map<String, HttpClientBackendStats>> getBackendStats()
+    {
+        final long now = ticker.read();
+        final ImmutableMap.Builder<String, Map<String, HttpClientBackendStats>> builder = ImmutableMap.builder();
+        for (Map.Entry<String, Service> service : services.entrySet()) {
+            final ImmutableMap.Builder<String, HttpClientBackendStats> backendStats = ImmutableMap.builder();
+            for (Backend backend : service.getValue().backends) {
+                backendStats.put(backend.getName(), backend.getStats(now));
+            }
+            builder.put(service.getKey(), backendStats.build());
+        }
+        return builder.build();
+    }
+
+    private static List<Backend> getAvailable(final List<Backend> backends, final long now)
+    {
+        final List<Backend> available = Lists.newArrayListWithCapacity(backends.size());
+        for (Backend backend : backends) {
+            if (backend.isAvailable(now)) {
+                available.add(backend);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Ejects backends whose average latency is more than latencyFactor times the median of the backends
+     * of the service that are not ejected. Never ejects more than half of the backends of a service.
+     */
+    private void checkLatency(final Service service, final long now)
+    {
+        final List<Backend> ejected = Lists.newArrayList();
+        final List<String> reasons = Lists.newArrayList();
+
+        synchronized (service) {
+            if (now - service.nextLatencyCheck < 0) {
+                return;
+            }
+            service.nextLatencyCheck = now + LATENCY_CHECK_NANOS;
+
+            final List<Backend> measured = Lists.newArrayList();
+            int ejectable = service.backends.size() / 2;
+            for (Backend backend : service.backends) {
+                if (backend.isEjected()) {
+                    ejectable--;
+                }
+                else if (backend.requests.get() >= minRequests) {
+                    measured.add(backend);
+                }
+            }
+            if (measured.size() < 2 || ejectable <= 0) {
+                return;
+            }
+
+            final double[] latencies = new double[measured.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = measured.get(i).getAverageNanos();
+            }
+            Arrays.sort(latencies);
+            final double median = latencies[(latencies.length - 1) / 2];
+
+            for (Backend backend : measured) {
+                final double latency = backend.getAverageNanos();
+                if (ejectable > 0 && latency > latencyFactor * median) {
+                    final String reason = String.format("average latency of %.1f ms is more than %.1f times the median of %.1f ms",
+                                                        latency / 1000000.0, latencyFactor, median / 1000000.0);
+                    if (backend.eject(now, reason) > 0) {
+                        ejected.add(backend);
+                        reasons.add(reason);
+                        ejectable--;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < ejected.size(); i++) {
+            listener.onEjected(ejected.get(i), ejected.get(i).getEjectionMillis(), reasons.get(i));
+        }
+    }
+
+    private class Service
+    {
+        private final List<Backend> backends;
+        private volatile long nextLatencyCheck = ticker.read();
+
+        private Service(final List<Backend> backends)
+        {
+            this.backends = backends;
+        }
+    }
+
+    /**
+     * A single backend of one or more services.
+     */
+    public class Backend
+    {
+        private final String name;
+        /** True once plain requests used the backend, which then stays when services drop it, until it is idle. */
+        private volatile boolean plain = false;
+        private volatile long startedAt = ticker.read();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        private double latencyNanos = 0.0;
+        private double averageNanos = -1.0;
+        private long updatedAt = ticker.read();
+        private long sampledAt = updatedAt;
+
+        private volatile boolean ejected = false;
+        private long ejectedUntil = 0L;
+        private long ejectionNanos = 0L;
+        private int ejections = 0;
+        private int failuresInRow = 0;
+
+        private Backend(final String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * @return scheme, host and port of the backend.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the uri of a request to the service, pointed at this backend.
+         */
+        public URI rewrite(final URI uri)
+        {
+            final StringBuilder sb = new StringBuilder(name);
+            if (uri.getRawPath() != null) {
+                sb.append(uri.getRawPath());
+            }
+            if (uri.getRawQuery() != null) {
+                sb.append('?').append(uri.getRawQuery());
+            }
+            if (uri.getRawFragment() != null) {
+                sb.append('#').append(uri.getRawFragment());
+            }
+            return URI.create(sb.toString());
+        }
+
+        /**
+         * Call right before the request is sent.
+         *
+         * @return the start of the request, which must be passed to {@link #complete(long, boolean)}.
+         */
+        public long start()
+        {
+            outstanding.incrementAndGet();
+            requests.incrementAndGet();
+            final long now = ticker.read();
+            startedAt = now;
+            return now;
+        }
+
+        /**
+         * Call when the response headers arrived or the request failed.
+         */
+        public void complete(final long startNanos, final boolean failed)
+        {
+            final long now = ticker.read();
+            outstanding.decrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            update(now, now - startNanos, true);
+
+            if (consecutiveFailures > 0 || ejected) {
+                checkFailures(now, failed);
+            }
+        }
+
+        /**
+         * Call instead of {@link #complete(long, boolean)} when the request was aborted for a reason that says nothing about the backend.
+         */
+        public void cancel()
+        {
+            outstanding.decrementAndGet();
+        }
+
+        public boolean isEjected()
+        {
+            return ejected;
+        }
+
+        private void checkFailures(final long now, final boolean failed)
+        {
+            String reason = null;
+            boolean readmitted = false;
+
+            synchronized (this) {
+                if (ejected) {
+                    // Only the outcome of a probe counts. Requests that were sent before the ejection do not.
+                    if (now - ejectedUntil < 0) {
+                        return;
+                    }
+                    else if (failed) {
+                        reason = "probe request failed";
+                    }
+                    else {
+                        ejected = false;
+                        ejections = 0;
+                        failuresInRow = 0;
+                        readmitted = true;
+                    }
+                }
+                else if (!failed) {
+                    failuresInRow = 0;
+                }
+                else if (++failuresInRow >= consecutiveFailures && consecutiveFailures > 0) {
+                    reason = String.format("%d requests in a row failed", failuresInRow);
+                }
+
+                if (reason != null) {
+                    eject(now, reason);
+                }
+            }
+
+            if (reason != null) {
+                listener.onEjected(this, getEjectionMillis(), reason);
+            }
+            else if (readmitted) {
+                listener.onReadmitted(this);
+            }
+        }
+
+        /**
+         * Ejects the backend for the base ejection time, doubled for every ejection since it was last readmitted.
+         *
+         * @return the ejection time in nanoseconds.
+         */
+        private synchronized long eject(final long now, final String reason)
+        {
+            ejectionNanos = Math.min(baseEjectionNanos << Math.min(ejections, 30), maxEjectionNanos);
+            ejections++;
+            ejectedUntil = now + ejectionNanos;
+            failuresInRow = 0;
+            ejected = true;
+            return ejectionNanos;
+        }
+
+        private synchronized long getEjectionMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(ejectionNanos);
+        }
+
+        /**
+         * @return true if the backend is not ejected, or its ejection is over and it has no outstanding request,
+         * so the next request is a probe.
+         */
+        private boolean isAvailable(final long now)
+        {
+            if (!ejected) {
+                return true;
+            }
+            synchronized (this) {
+                return !ejected || (now - ejectedUntil >= 0 && outstanding.get() == 0);
+            }
+        }
+
+        /**
+         * @return true if the backend had no request for {@link #ROUTE_IDLE_NANOS} and is not ejected, or its ejection is over.
+         */
+        private boolean isIdle(final long now)
+        {
+            if (outstanding.get() > 0 || now - startedAt < ROUTE_IDLE_NANOS) {
+                return false;
+            }
+            synchronized (this) {
+                return !ejected || now - ejectedUntil >= 0;
+            }
+        }
+
+        private double getCost(final long now)
+        {
+            // Backends without recent requests all cost the same, so their outstanding requests decide.
+            return Math.max(update(now, 0L, false), 1.0) * (outstanding.get() + 1);
+        }
+
+        private synchronized double getAverageNanos()
+        {
+            return Math.max(averageNanos, 0.0);
+        }
+
+        private HttpClientBackendStats getStats(final long now)
+        {
+            return new HttpClientBackendStats(outstanding.get(), update(now, 0L, false) / 1000000.0, requests.get(), failures.get(), ejected);
+        }
+
+        /**
+         * Decays the average by the time since the last update and adds a sample. A sample above the
+         * average replaces it, so the backend gets fewer requests as soon as it slows down.
+         *
+         * Real samples also go into a plain average, which outlier detection compares, so that a single
+         * slow response does not eject a backend.
+         *
+         * @return the new average.
+         */
+        private synchronized double update(final long now, final long sampleNanos, final boolean sample)
+        {
+            final long elapsed = Math.max(now - updatedAt, 0L);
+            final double weight = Math.exp(-(double) elapsed / decayNanos);
+
+            if (sampleNanos > latencyNanos) {
+                latencyNanos = sampleNanos;
+            }
+            else {
+                latencyNanos = latencyNanos * weight + sampleNanos * (1.0 - weight);
+            }
+            updatedAt = Math.max(now, updatedAt);
+
+            if (sample) {
+                if (averageNanos < 0.0) {
+                    averageNanos = sampleNanos;
+                }
+                else {
+                    final double sampleWeight = Math.exp(-(double) Math.max(now - sampledAt, 0L) / decayNanos);
+                    averageNanos = averageNanos * sampleWeight + sampleNanos * (1.0 - sampleWeight);
+                }
+                sampledAt = Math.max(now, sampledAt);
+            }
+            return latencyNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+}
@@ -20,5 +20,20 @@ package com.nesscomputing.httpclient.internal;
  */
 public enum HttpClientMethod
 {
-    GET, POST, PUT, DELETE, HEAD, OPTIONS;
+    GET(true), POST(false), PUT(true), DELETE(true), HEAD(true), OPTIONS(true);
+
+    private final boolean idempotent;
+
+    private HttpClientMethod(final boolean idempotent)
+    {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * @return true if sending the request more than once has the same effect as sending it once (RFC 2616, section 9.1.2).
+     */
+    public boolean isIdempotent()
+    {
+        return idempotent;
+    }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientNegativeCacheStats;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+
+/**
+ * Keeps 404 Not Found (and optionally 410 Gone) responses to GET requests for a short time, so that
+ * repeated checks whether a resource exists do not reach the server. Unlike the response cache, it
+ * ignores the freshness headers of the response and keeps every response for the same time. The
+ * least recently used responses are dropped when the cache is full.
+ */
+public class HttpClientNegativeCache
+{
+    private static final int NOT_FOUND = 404;
+    private static final int GONE = 410;
+
+    private final Ticker ticker;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final boolean cacheGone;
+
+    private final LinkedHashMap<String, HttpClientCacheEntry> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public static HttpClientNegativeCache forDefaults(final HttpClientDefaults defaults)
+    {
+        return new HttpClientNegativeCache(defaults.getNegativeCacheTtl().getMillis(),
+                                           defaults.getNegativeCacheMaxEntries(),
+                                           defaults.isNegativeCacheGoneEnabled(),
+                                           Ticker.systemTicker());
+    }
+
+    HttpClientNegativeCache(final long ttlMillis, final int maxEntries, final boolean cacheGone, final Ticker ticker)
+    {
+        Preconditions.checkArgument(ttlMillis > 0, "ttlMillis must be positive!");
+        Preconditions.checkArgument(maxEntries > 0, "maxEntries must be positive!");
+        Preconditions.checkArgument(ticker != null, "ticker must not be null!");
+
+        this.ticker = ticker;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.cacheGone = cacheGone;
+        this.entries = new LinkedHashMap<String, HttpClientCacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, HttpClientCacheEntry> eldest)
+            {
+                if (size() > HttpClientNegativeCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return true if the response to the request may come from the negative cache or be stored in it.
+     */
+    public static boolean isCacheable(final HttpClientRequest<?> request)
+    {
+        return HttpClientResponseCache.isCacheable(request)
+            && !HttpClientResponseCache.isAuthorized(request)
+            && !HttpClientResponseCache.getRequestCacheControl(request).has("no-store");
+    }
+
+    /**
+     * @return the stored response to the request or null if there is none.
+     */
+    @CheckForNull
+    public synchronized HttpClientCacheEntry get(final HttpClientRequest<?> request)
+    {
+        if (HttpClientResponseCache.getRequestCacheControl(request).has("no-cache")) {
+            misses++;
+            return null;
+        }
+
+        final String key = HttpClientResponseCache.getPrimaryKey(request);
+        final HttpClientCacheEntry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.isFresh(ticker.read())) {
+                hits++;
+                return entry;
+            }
+            entries.remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @return true if the response may be stored. Checked before the body is read.
+     */
+    public boolean isStorable(final HttpClientRequest<?> request, final HttpClientResponse response)
+    {
+        final int statusCode = response.getStatusCode();
+        if (statusCode != NOT_FOUND && !(statusCode == GONE && cacheGone)) {
+            return false;
+        }
+        if (!isCacheable(request) || response.getHeader("Vary") != null) {
+            return false;
+        }
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(response.getHeaders("Cache-Control"));
+        return !(cacheControl.has("no-store") || cacheControl.has("private"));
+    }
+
+    /**
+     * Stores a response for the time to live of the cache.
+     */
+    public void put(final HttpClientRequest<?> request, final HttpClientResponse response, final byte [] body)
+    {
+        if (!isStorable(request, response)) {
+            return;
+        }
+
+        final HttpClientCacheEntry entry = new HttpClientCacheEntry(response, body, ticker.read(), 0L, ttlMillis);
+        final String key = HttpClientResponseCache.getPrimaryKey(request);
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes the response to the URI of the request. Called for requests that may create the resource.
+     */
+    public synchronized void invalidate(final HttpClientRequest<?> request)
+    {
+        entries.remove(HttpClientResponseCache.getPrimaryKey(request));
+    }
+
+    public synchronized HttpClientNegativeCacheStats getStats()
+    {
+        // Expired responses are only dropped when they are asked for, so they are not counted here.
+        final long nowNanos = ticker.read();
+        int fresh = 0;
+        for (final HttpClientCacheEntry entry : entries.values()) {
+            if (entry.isFresh(nowNanos)) {
+                fresh++;
+            }
+        }
+        return new HttpClientNegativeCacheStats(hits, misses, evictions, fresh);
+    }
+}
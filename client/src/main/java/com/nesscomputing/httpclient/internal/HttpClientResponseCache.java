@@ -0,0 +1,807 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import com.nesscomputing.httpclient.HttpClientCacheStats;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Shared HTTP cache (RFC 7234) for the GET responses of a client, bounded by the memory its entries use.
+ * Only responses with an explicit freshness lifetime (s-maxage, max-age or Expires) are kept, and only
+ * while they are fresh they are handed out. Responses that vary on request headers are kept once for
+ * every combination of these headers.
+ *
+ * <p>If revalidation is enabled, responses with an ETag or Last-Modified header are kept as well, even
+ * when they are not fresh. The client asks the server whether they changed, and uses them again if the
+ * server answers with 304 Not Modified.</p>
+ *
+ * <p>Expired responses stay in the cache until they are evicted, so they can be used while they are
+ * refreshed (stale-while-revalidate) or when the server fails (stale-if-error).</p>
+ *
+ * <p>Eviction is W-TinyLFU: new entries go to a small LRU window. Entries that fall out of the window only
+ * get into the main area, a segmented LRU, if they were asked for more often recently than the entry they
+ * would replace. This keeps popular entries in the cache when many entries are only used once.</p>
+ *
+ * <p>Responses that are too large to be kept in memory can be stored in a {@link HttpClientDiskCache}.</p>
+ */
+public class HttpClientResponseCache implements Closeable
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Status codes that are cacheable by default. Others are not cached at all. */
+    private static final ImmutableSet<Integer> CACHEABLE_STATUS_CODES = ImmutableSet.of(200, 203, 204, 300, 301, 404, 405, 410, 414, 501);
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+    private static final int AVERAGE_ENTRY_SIZE = 4096;
+    private static final long MIN_SKETCH_WIDTH = 1024L;
+
+    /** Headers of a 304 response that describe the 304 itself, not the stored response. */
+    private static final ImmutableSet<String> NOT_REVALIDATED_HEADERS = ImmutableSet.of("content-length", "content-encoding", "transfer-encoding");
+
+    private static final Splitter HEADER_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Joiner HEADER_JOINER = Joiner.on(',');
+
+    private final Ticker ticker;
+    private final long maxBytes;
+    private final long windowBytes;
+    private final long protectedBytes;
+
+    private final HttpClientFrequencySketch sketch;
+    private final HttpClientDiskCache diskCache;
+    private final boolean revalidate;
+
+    // Entries by the primary key of their request, then by the values of the request headers they vary on.
+    private final Map<String, Map<String, Node>> nodes = Maps.newHashMap();
+    // Names of the headers that the latest response for a primary key varies on.
+    private final Map<String, List<String>> varyHeaders = Maps.newHashMap();
+
+    // Keys of the responses that are refreshed in the background.
+    private final Set<String> refreshing = Sets.newHashSet();
+
+    private final Queue window = new Queue();
+    private final Queue probation = new Queue();
+    private final Queue protectedQueue = new Queue();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private int entries = 0;
+    private long revalidations = 0;
+    private long bytesSaved = 0;
+
+    public static HttpClientResponseCache forDefaults(final HttpClientDefaults defaults)
+    {
+        HttpClientDiskCache diskCache = null;
+        final String directory = defaults.getCacheDiskDirectory();
+        if (directory != null) {
+            try {
+                diskCache = HttpClientDiskCache.open(new File(directory),
+                                                     defaults.getCacheDiskMaxSize(),
+                                                     defaults.getCacheDiskSegmentSize(),
+                                                     defaults.getCacheDiskMaxEntrySize());
+            }
+            catch (IOException ioe) {
+                LOG.warn(ioe, "Could not open cache directory '%s', caching in memory only", directory);
+            }
+        }
+        return new HttpClientResponseCache(defaults.getCacheMaxSize(), diskCache, defaults.isCacheRevalidationEnabled(), Ticker.systemTicker());
+    }
+
+    HttpClientResponseCache(final long maxBytes, final Ticker ticker)
+    {
+        this(maxBytes, null, true, ticker);
+    }
+
+    HttpClientResponseCache(final long maxBytes, @Nullable final HttpClientDiskCache diskCache, final boolean revalidate, final Ticker ticker)
+    {
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive!");
+        Preconditions.checkArgument(ticker != null, "ticker must not be null!");
+
+        this.ticker = ticker;
+        this.maxBytes = maxBytes;
+        this.diskCache = diskCache;
+        this.revalidate = revalidate;
+        this.windowBytes = Math.max((long) (maxBytes * WINDOW_SHARE), 1L);
+        this.protectedBytes = (long) ((maxBytes - windowBytes) * PROTECTED_SHARE);
+        this.sketch = new HttpClientFrequencySketch((int) Math.min(Math.max(maxBytes / AVERAGE_ENTRY_SIZE, MIN_SKETCH_WIDTH), 1L << 20));
+    }
+
+    /**
+     * @return true if the response to the request may come from the cache or be stored in it.
+     */
+    public static boolean isCacheable(final HttpClientRequest<?> request)
+    {
+        return request.getHttpMethod() == HttpClientMethod.GET && request.getHttpBodySource() == null;
+    }
+
+    /**
+     * @return a fresh response to the request or null if there is none.
+     */
+    @CheckForNull
+    public HttpClientCacheEntry get(final HttpClientRequest<?> request)
+    {
+        final HttpClientCacheControl requestCacheControl = getRequestCacheControl(request);
+        final long maxAge = requestCacheControl.getSeconds("max-age");
+
+        synchronized (this) {
+            if (requestCacheControl.has("no-cache") || requestCacheControl.has("no-store")) {
+                misses++;
+                return null;
+            }
+
+            final Node node = find(request);
+            if (node != null && isUsable(node.entry, maxAge)) {
+                touch(node);
+                hits++;
+                return node.entry;
+            }
+        }
+
+        // Reading from disk may block, so it is done without holding the lock.
+        final HttpClientCacheEntry entry = getFromDisk(request);
+        synchronized (this) {
+            if (entry != null && isUsable(entry, maxAge)) {
+                hits++;
+                return entry;
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * @return a stored response to the request that can be revalidated with the server, fresh or not, or null if there is none.
+     */
+    @CheckForNull
+    public HttpClientCacheEntry getForRevalidation(final HttpClientRequest<?> request)
+    {
+        if (!revalidate || getRequestCacheControl(request).has("no-store")) {
+            return null;
+        }
+
+        final HttpClientCacheEntry entry = getStored(request);
+        return (entry != null && entry.hasValidators()) ? entry : null;
+    }
+
+    /**
+     * @return a stored response to the request that expired at most maxStaleMillis ago, or null if there is none, or
+     *         the request or the response do not allow to use it once it expired.
+     */
+    @CheckForNull
+    public HttpClientCacheEntry getStale(final HttpClientRequest<?> request, final long maxStaleMillis)
+    {
+        final HttpClientCacheControl requestCacheControl = getRequestCacheControl(request);
+        if (maxStaleMillis <= 0 || requestCacheControl.has("no-cache") || requestCacheControl.has("no-store")) {
+            return null;
+        }
+
+        final HttpClientCacheEntry entry = getStored(request);
+        if (entry == null) {
+            return null;
+        }
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(entry.getHeaders("Cache-Control"));
+        if (cacheControl.has("no-cache") || cacheControl.has("must-revalidate") || cacheControl.has("proxy-revalidate") || cacheControl.has("s-maxage")) {
+            return null;
+        }
+        final long stalenessMillis = entry.getStalenessMillis(ticker.read());
+        return (stalenessMillis >= 0 && stalenessMillis <= maxStaleMillis) ? entry : null;
+    }
+
+    /**
+     * @return the time in milliseconds since the response expired, negative if it is fresh.
+     */
+    public long getStalenessMillis(final HttpClientCacheEntry entry)
+    {
+        return entry.getStalenessMillis(ticker.read());
+    }
+
+    /**
+     * Claims the refresh of the response to a request in the background.
+     *
+     * @return true if the caller must refresh the response and call {@link #finishRefresh(HttpClientRequest)}
+     *         afterwards, false if the response is already refreshed.
+     */
+    public synchronized boolean startRefresh(final HttpClientRequest<?> request)
+    {
+        return refreshing.add(getPrimaryKey(request));
+    }
+
+    public synchronized void finishRefresh(final HttpClientRequest<?> request)
+    {
+        refreshing.remove(getPrimaryKey(request));
+    }
+
+    /**
+     * Updates a stored response with the headers of the 304 Not Modified response that revalidated it,
+     * and stores it again with its new freshness lifetime. A response from the disk cache is kept in
+     * memory with its new headers, its body stays on disk.
+     *
+     * @return the updated response, which has the status code and the body of the stored response.
+     */
+    public HttpClientCacheEntry revalidated(final HttpClientRequest<?> request, final HttpClientCacheEntry stored, final HttpClientResponse notModified)
+    {
+        final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(stored.getAllHeaders());
+        for (final Map.Entry<String, List<String>> header : notModified.getAllHeaders().entrySet()) {
+            if (!NOT_REVALIDATED_HEADERS.contains(header.getKey().toLowerCase(Locale.ENGLISH))) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+
+        final long nowNanos = ticker.read();
+        final long ageMillis = getAgeMillis(notModified);
+        final HttpClientCacheEntry updated = new HttpClientCacheEntry(stored.getStatusCode(), stored.getStatusText(), stored.getUri(),
+                                                                      stored.getContentType(), stored.getCharset(), headers,
+                                                                      stored.getBody(), nowNanos, ageMillis, 0L);
+        final long lifetimeMillis = getLifetimeMillis(updated, HttpClientCacheControl.parse(updated.getHeaders("Cache-Control")));
+        final HttpClientCacheEntry entry = new HttpClientCacheEntry(stored.getStatusCode(), stored.getStatusText(), stored.getUri(),
+                                                                    stored.getContentType(), stored.getCharset(), headers,
+                                                                    stored.getBody(), nowNanos, ageMillis, lifetimeMillis);
+
+        synchronized (this) {
+            revalidations++;
+            bytesSaved += entry.getContentLength();
+        }
+
+        if (isStorable(request, entry)) {
+            if (!entry.getBody().isDirect()) {
+                store(request, entry);
+            }
+            else {
+                // The body is mapped from the disk cache and does not count against the memory. The older
+                // headers on disk are used again once this entry is evicted, which only costs another revalidation.
+                storeInMemory(request, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @return true if the disk cache is used for responses that are too large for memory.
+     */
+    public boolean isDiskEnabled()
+    {
+        return diskCache != null;
+    }
+
+    /**
+     * @return the largest response body that is stored on disk.
+     */
+    public long getDiskMaxEntrySize()
+    {
+        return (diskCache == null) ? 0 : diskCache.getMaxEntrySize();
+    }
+
+    /**
+     * @return true if the response may be stored. Checked before the body is read.
+     */
+    public boolean isStorable(final HttpClientRequest<?> request, final HttpClientResponse response)
+    {
+        if (!isCacheable(request) || getRequestCacheControl(request).has("no-store")) {
+            return false;
+        }
+        if (!CACHEABLE_STATUS_CODES.contains(response.getStatusCode())) {
+            return false;
+        }
+
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(response.getHeaders("Cache-Control"));
+        if (cacheControl.has("no-store") || cacheControl.has("private")) {
+            return false;
+        }
+        if (isAuthorized(request) && !(cacheControl.has("public") || cacheControl.has("s-maxage") || cacheControl.has("must-revalidate"))) {
+            return false;
+        }
+        if (getVaryHeaders(response).contains("*")) {
+            return false;
+        }
+        if (revalidate && (response.getHeader("ETag") != null || response.getHeader("Last-Modified") != null)) {
+            return true;
+        }
+        return getLifetimeMillis(response, cacheControl) > 0;
+    }
+
+    /**
+     * Stores a response, replacing an earlier response to the same request.
+     *
+     * @return the stored entry or null if the response was not stored.
+     */
+    @CheckForNull
+    public HttpClientCacheEntry put(final HttpClientRequest<?> request, final HttpClientResponse response, final byte [] body)
+    {
+        if (!isStorable(request, response)) {
+            return null;
+        }
+
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(response.getHeaders("Cache-Control"));
+        final HttpClientCacheEntry entry = new HttpClientCacheEntry(response, body, ticker.read(),
+                                                                    getAgeMillis(response), getLifetimeMillis(response, cacheControl));
+        return store(request, entry) ? entry : null;
+    }
+
+    private boolean store(final HttpClientRequest<?> request, final HttpClientCacheEntry entry)
+    {
+        if (!storeInMemory(request, entry)) {
+            return false;
+        }
+
+        // An older response on disk would otherwise come back once this one is evicted.
+        final String primaryKey = getPrimaryKey(request);
+        if (diskCache != null && diskCache.getVaryHeaders(primaryKey) != null) {
+            diskCache.invalidate(primaryKey);
+        }
+        return true;
+    }
+
+    private boolean storeInMemory(final HttpClientRequest<?> request, final HttpClientCacheEntry entry)
+    {
+        if (entry.getWeight() > maxBytes - windowBytes) {
+            return false;
+        }
+
+        final List<String> vary = getVaryHeaders(entry);
+        final String primaryKey = getPrimaryKey(request);
+        final String variantKey = getVariantKey(request, vary);
+
+        synchronized (this) {
+            varyHeaders.put(primaryKey, vary);
+
+            Map<String, Node> variants = nodes.get(primaryKey);
+            if (variants == null) {
+                variants = Maps.newHashMap();
+                nodes.put(primaryKey, variants);
+            }
+
+            final Node node = variants.get(variantKey);
+            if (node != null) {
+                node.queue.replace(node, entry);
+                touch(node);
+            }
+            else {
+                final Node newNode = new Node(primaryKey, variantKey, entry);
+                variants.put(variantKey, newNode);
+                entries++;
+                window.addLast(newNode);
+            }
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * Stores a response on disk while its body is read.
+     *
+     * @return a stream of the whole body, which must be used instead of the given stream.
+     * @throws IOException if reading the body failed.
+     */
+    public InputStream storeOnDisk(final HttpClientRequest<?> request, final HttpClientResponse response, final InputStream body)
+        throws IOException
+    {
+        if (diskCache == null || !isStorable(request, response)) {
+            return body;
+        }
+
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(response.getHeaders("Cache-Control"));
+        final List<String> vary = getVaryHeaders(response);
+        final String primaryKey = getPrimaryKey(request);
+        final String variantKey = getVariantKey(request, vary);
+
+        synchronized (this) {
+            final Map<String, Node> variants = nodes.get(primaryKey);
+            final Node node = (variants == null) ? null : variants.get(variantKey);
+            if (node != null) {
+                node.queue.remove(node);
+                variants.remove(variantKey);
+                entries--;
+                if (variants.isEmpty()) {
+                    nodes.remove(primaryKey);
+                    varyHeaders.remove(primaryKey);
+                }
+            }
+        }
+
+        return diskCache.put(primaryKey, variantKey, vary, response,
+                             getAgeMillis(response), getLifetimeMillis(response, cacheControl), body);
+    }
+
+    /**
+     * Removes all responses to the URI of the request. Called for requests that may change the resource.
+     */
+    public void invalidate(final HttpClientRequest<?> request)
+    {
+        final String primaryKey = getPrimaryKey(request);
+        synchronized (this) {
+            varyHeaders.remove(primaryKey);
+            final Map<String, Node> variants = nodes.remove(primaryKey);
+            if (variants != null) {
+                for (final Node node : variants.values()) {
+                    node.queue.remove(node);
+                    entries--;
+                }
+            }
+        }
+        if (diskCache != null) {
+            diskCache.invalidate(primaryKey);
+        }
+    }
+
+    public HttpClientCacheStats getStats()
+    {
+        final int diskEntries = (diskCache == null) ? 0 : diskCache.getEntries();
+        final long diskBytes = (diskCache == null) ? 0 : diskCache.getBytes();
+        final long diskEvictions = (diskCache == null) ? 0 : diskCache.getEvictions();
+        synchronized (this) {
+            return new HttpClientCacheStats(hits, misses, evictions + diskEvictions, entries, window.bytes + probation.bytes + protectedQueue.bytes,
+                                            diskEntries, diskBytes, revalidations, bytesSaved);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (diskCache != null) {
+            diskCache.close();
+        }
+    }
+
+    private boolean isUsable(final HttpClientCacheEntry entry, final long maxAge)
+    {
+        final long nowNanos = ticker.read();
+        return entry.isFresh(nowNanos) && (maxAge == HttpClientCacheControl.NONE || entry.getAgeMillis(nowNanos) <= maxAge * 1000L);
+    }
+
+    /**
+     * @return the stored response to the request, fresh or not.
+     */
+    @CheckForNull
+    private HttpClientCacheEntry getStored(final HttpClientRequest<?> request)
+    {
+        final String primaryKey = getPrimaryKey(request);
+        synchronized (this) {
+            final List<String> vary = varyHeaders.get(primaryKey);
+            final Map<String, Node> variants = nodes.get(primaryKey);
+            if (vary != null && variants != null) {
+                final Node node = variants.get(getVariantKey(request, vary));
+                if (node != null) {
+                    return node.entry;
+                }
+            }
+        }
+        return getFromDisk(request);
+    }
+
+    @CheckForNull
+    private HttpClientCacheEntry getFromDisk(final HttpClientRequest<?> request)
+    {
+        if (diskCache == null) {
+            return null;
+        }
+        final String primaryKey = getPrimaryKey(request);
+        final List<String> vary = diskCache.getVaryHeaders(primaryKey);
+        return (vary == null) ? null : diskCache.get(primaryKey, getVariantKey(request, vary), ticker);
+    }
+
+    private Node find(final HttpClientRequest<?> request)
+    {
+        final String primaryKey = getPrimaryKey(request);
+        final List<String> vary = varyHeaders.get(primaryKey);
+        if (vary == null) {
+            sketch.increment(primaryKey.hashCode());
+            return null;
+        }
+
+        final String variantKey = getVariantKey(request, vary);
+        sketch.increment(Node.hash(primaryKey, variantKey));
+        final Map<String, Node> variants = nodes.get(primaryKey);
+        return (variants == null) ? null : variants.get(variantKey);
+    }
+
+    private void touch(final Node node)
+    {
+        if (node.queue == protectedQueue || node.queue == window) {
+            node.queue.moveToLast(node);
+        }
+        else if (node.queue == probation) {
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            while (protectedQueue.bytes > protectedBytes) {
+                final Node demoted = protectedQueue.first();
+                protectedQueue.remove(demoted);
+                probation.addLast(demoted);
+            }
+        }
+    }
+
+    /**
+     * Moves entries that fell out of the window into the main area if they are more popular than the
+     * entries they replace, and drops the others.
+     */
+    private void evict()
+    {
+        while (window.bytes > windowBytes) {
+            final Node candidate = window.first();
+            window.remove(candidate);
+
+            final int candidateFrequency = sketch.frequency(candidate.hash);
+            boolean admitted = true;
+            while (probation.bytes + protectedQueue.bytes + candidate.entry.getWeight() > maxBytes - windowBytes) {
+                final Node victim = (probation.first() != null) ? probation.first() : protectedQueue.first();
+                if (victim == null || sketch.frequency(victim.hash) >= candidateFrequency) {
+                    admitted = false;
+                    break;
+                }
+                victim.queue.remove(victim);
+                drop(victim);
+            }
+
+            if (admitted) {
+                probation.addLast(candidate);
+            }
+            else {
+                drop(candidate);
+            }
+        }
+
+        // Replaced entries may have grown.
+        while (probation.bytes + protectedQueue.bytes > maxBytes - windowBytes) {
+            final Node victim = (probation.first() != null) ? probation.first() : protectedQueue.first();
+            victim.queue.remove(victim);
+            drop(victim);
+        }
+    }
+
+    private void drop(final Node node)
+    {
+        final Map<String, Node> variants = nodes.get(node.primaryKey);
+        if (variants != null && variants.get(node.variantKey) == node) {
+            variants.remove(node.variantKey);
+            if (variants.isEmpty()) {
+                nodes.remove(node.primaryKey);
+                varyHeaders.remove(node.primaryKey);
+            }
+        }
+        entries--;
+        evictions++;
+    }
+
+    static String getPrimaryKey(final HttpClientRequest<?> request)
+    {
+        final String virtualHost = request.getVirtualHost();
+        return (virtualHost == null) ? String.valueOf(request.getUri()) : request.getUri() + " " + virtualHost + ":" + request.getVirtualPort();
+    }
+
+    private static String getVariantKey(final HttpClientRequest<?> request, final List<String> vary)
+    {
+        if (vary.isEmpty()) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final String name : vary) {
+            sb.append(name).append(": ").append(HEADER_JOINER.join(getRequestHeaders(request, name))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static List<String> getVaryHeaders(final HttpClientResponse response)
+    {
+        final List<String> vary = Lists.newArrayList();
+        final List<String> values = response.getHeaders("Vary");
+        if (values != null) {
+            for (final String value : values) {
+                for (final String name : HEADER_SPLITTER.split(value)) {
+                    vary.add(name.toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        return ImmutableList.copyOf(vary);
+    }
+
+    private static List<String> getRequestHeaders(final HttpClientRequest<?> request, final String name)
+    {
+        final List<String> values = Lists.newArrayList();
+        for (final HttpClientHeader header : request.getHeaders()) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                values.add(header.getValue());
+            }
+        }
+        return values;
+    }
+
+    static HttpClientCacheControl getRequestCacheControl(final HttpClientRequest<?> request)
+    {
+        final List<String> cacheControl = getRequestHeaders(request, "Cache-Control");
+        if (cacheControl.isEmpty() && getRequestHeaders(request, "Pragma").contains("no-cache")) {
+            return HttpClientCacheControl.parse(ImmutableList.of("no-cache"));
+        }
+        return HttpClientCacheControl.parse(cacheControl);
+    }
+
+    static boolean isAuthorized(final HttpClientRequest<?> request)
+    {
+        return !request.getAuthProviders().isEmpty() || !getRequestHeaders(request, "Authorization").isEmpty();
+    }
+
+    /**
+     * @return the freshness lifetime in milliseconds, 0 if the response is stale right away or -1 if it has none.
+     */
+    private static long getLifetimeMillis(final HttpClientResponse response, final HttpClientCacheControl cacheControl)
+    {
+        if (cacheControl.has("no-cache")) {
+            return 0;
+        }
+
+        long seconds = cacheControl.getSeconds("s-maxage");
+        if (seconds == HttpClientCacheControl.NONE) {
+            seconds = cacheControl.getSeconds("max-age");
+        }
+        if (seconds != HttpClientCacheControl.NONE) {
+            return seconds * 1000L;
+        }
+
+        final String expires = response.getHeader("Expires");
+        if (expires != null) {
+            final long expiresMillis = parseDate(expires);
+            final long dateMillis = parseDate(response.getHeader("Date"));
+            if (expiresMillis < 0) {
+                return 0;
+            }
+            return Math.max(0, expiresMillis - ((dateMillis < 0) ? System.currentTimeMillis() : dateMillis));
+        }
+        return -1;
+    }
+
+    private static long getAgeMillis(final HttpClientResponse response)
+    {
+        final String age = StringUtils.trimToEmpty(response.getHeader("Age"));
+        if (!age.isEmpty() && StringUtils.isNumeric(age)) {
+            try {
+                return Long.parseLong(age) * 1000L;
+            }
+            catch (NumberFormatException nfe) {
+                return Long.MAX_VALUE / 2;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the milliseconds since the epoch of an HTTP date or -1.
+     */
+    private static long parseDate(final String value)
+    {
+        if (StringUtils.isBlank(value)) {
+            return -1;
+        }
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            final Date date = format.parse(value.trim());
+            return date.getTime();
+        }
+        catch (ParseException pe) {
+            return -1;
+        }
+    }
+
+    private static final class Node
+    {
+        private final String primaryKey;
+        private final String variantKey;
+        private final int hash;
+        private HttpClientCacheEntry entry;
+
+        private Queue queue;
+        private Node prev;
+        private Node next;
+
+        private Node(final String primaryKey, final String variantKey, final HttpClientCacheEntry entry)
+        {
+            this.primaryKey = primaryKey;
+            this.variantKey = variantKey;
+            this.hash = hash(primaryKey, variantKey);
+            this.entry = entry;
+        }
+
+        private static int hash(final String primaryKey, final String variantKey)
+        {
+            return variantKey.isEmpty() ? primaryKey.hashCode() : primaryKey.hashCode() * 31 + variantKey.hashCode();
+        }
+    }
+
+    /**
+     * LRU list of entries that knows the total weight of its entries.
+     */
+    private static final class Queue
+    {
+        private final Node head = new Node("", "", null);
+        private long bytes = 0;
+
+        private Queue()
+        {
+            head.prev = head;
+            head.next = head;
+        }
+
+        private Node first()
+        {
+            return (head.next == head) ? null : head.next;
+        }
+
+        private void addLast(final Node node)
+        {
+            node.queue = this;
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            bytes += node.entry.getWeight();
+        }
+
+        private void remove(final Node node)
+        {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.queue = null;
+            bytes -= node.entry.getWeight();
+        }
+
+        private void moveToLast(final Node node)
+        {
+            remove(node);
+            addLast(node);
+        }
+
+        private void replace(final Node node, final HttpClientCacheEntry entry)
+        {
+            bytes += entry.getWeight() - node.entry.getWeight();
+            node.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+/**
+ * Limits retries across all requests of a client to a share of the requests, so that retries
+ * can not turn an outage of a server into a retry storm. Every request adds a fraction of a
+ * retry to the budget, every retry takes a full one. A small reserve allows retries when there
+ * is little traffic.
+ */
+public class HttpClientRetryBudget
+{
+    private static final double RESERVE = 10.0;
+
+    private volatile double ratio;
+    private double balance = RESERVE;
+
+    public HttpClientRetryBudget(final double ratio)
+    {
+        this.ratio = ratio;
+    }
+
+    public void setRatio(final double ratio)
+    {
+        this.ratio = ratio;
+    }
+
+    /**
+     * Called once for every request that is not a retry.
+     */
+    public synchronized void deposit()
+    {
+        balance = Math.min(RESERVE, balance + ratio);
+    }
+
+    /**
+     * @return true if the budget allows one more retry.
+     */
+    public synchronized boolean withdraw()
+    {
+        if (balance < 1.0) {
+            return false;
+        }
+        balance -= 1.0;
+        return true;
+    }
+}
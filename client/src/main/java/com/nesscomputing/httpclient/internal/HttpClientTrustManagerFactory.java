@@ -24,9 +24,11 @@ import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509KeyManager;
@@ -43,6 +45,82 @@ public final class HttpClientTrustManagerFactory {
     private HttpClientTrustManagerFactory() {
     }
 
+    /**
+     * @param clientDefaults defaults to read from
+     * @return a TLS context that uses the trust and key managers configured in the client defaults.
+     * @throws GeneralSecurityException if the crypto goes wrong
+     * @throws IOException            if a keystore can't be loaded
+     */
+    @Nonnull
+    public static SSLContext getSSLContext(final HttpClientDefaults clientDefaults)
+        throws GeneralSecurityException, IOException
+    {
+        final TrustManager[] trustManagers = new TrustManager [] { getTrustManager(clientDefaults) };
+        final KeyManager[] keyManagers = getKeyManagers(clientDefaults);
+
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, trustManagers, null);
+        return sslContext;
+    }
+
+    /**
+     * @param clientDefaults defaults to read from
+     * @return a trust manager
+     * @throws GeneralSecurityException if the crypto goes wrong
+     * @throws IOException            if trust keystore can't be loaded
+     */
+    @Nonnull
+    private static TrustManager getTrustManager(HttpClientDefaults clientDefaults)
+        throws GeneralSecurityException, IOException
+    {
+        X509TrustManager trustManager;
+
+        if (clientDefaults.getSSLTruststore() == null || clientDefaults.getSSLTruststorePassword() == null) {
+            LOG.trace("Not using custom truststore");
+            trustManager = getDefaultTrustManager();
+        } else {
+            LOG.trace("Using custom truststore at %s", clientDefaults.getSSLTruststore());
+            final MultiTrustManager multiTrustManager = new MultiTrustManager();
+
+            if (clientDefaults.useSSLTruststoreFallback()) {
+                LOG.trace("Adding fallback to default trust manager");
+                multiTrustManager.addTrustManager(getDefaultTrustManager());
+            }
+            multiTrustManager.addTrustManager(getTrustManagerForHttpClientDefaults(clientDefaults));
+
+            trustManager = multiTrustManager;
+        }
+
+        if (!clientDefaults.useSSLServerCertVerification()) {
+            LOG.trace("Server cert checking disabled");
+            trustManager = new AlwaysTrustServerTrustManager(trustManager);
+        }
+        return trustManager;
+    }
+
+    /**
+     * @param clientDefaults defaults to read from
+     * @return key manager array to use in SSLContext, or null if no custom trust manager is needed. If
+     *         non-null, it will contain one X509KeyManager.
+     * @throws GeneralSecurityException if the crypto goes wrong
+     * @throws IOException            if client keystore can't be loaded
+     */
+    @CheckForNull
+    private static KeyManager[] getKeyManagers(HttpClientDefaults clientDefaults)
+        throws IOException, GeneralSecurityException {
+        if (clientDefaults.getSSLKeystore() == null ||
+            clientDefaults.getSSLKeystoreType() == null ||
+            clientDefaults.getSSLKeystorePassword() == null) {
+            return null;
+        }
+
+        final KeyManager manager = getKeyManager(clientDefaults.getSSLKeystore(),
+                                                 clientDefaults.getSSLKeystoreType(),
+                                                 clientDefaults.getSSLKeystorePassword());
+        return new KeyManager[] { manager };
+
+    }
+
     @Nonnull
     public static X509KeyManager getKeyManager(String keystorePath,
                                                String keystoreType,
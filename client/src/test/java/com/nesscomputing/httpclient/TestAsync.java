@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestAsync
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger received = new AtomicInteger();
+
+    private GenericTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new GenericTestHandler();
+        testHandler.setContent("Ich bin zwei Oeltanks");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        httpClient = new HttpClient(new HttpClientDefaults(), ImmutableSet.of(new CountingObserver())).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+
+        httpClient.close();
+        httpClient = null;
+    }
+
+    @Test
+    public void testPerformAsync() throws Exception
+    {
+        final ListenableFuture<String> future = httpClient.get(uri, responseHandler).performAsync();
+
+        Assert.assertThat(future.get(), is("Ich bin zwei Oeltanks"));
+        Assert.assertThat(submitted.get(), is(1));
+        Assert.assertThat(received.get(), is(1));
+    }
+
+    @Test
+    public void testManyAsync() throws Exception
+    {
+        final List<ListenableFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            futures.add(httpClient.get(uri, responseHandler).performAsync());
+        }
+
+        for (String response : Futures.allAsList(futures).get()) {
+            Assert.assertThat(response, is("Ich bin zwei Oeltanks"));
+        }
+        Assert.assertThat(submitted.get(), is(50));
+        Assert.assertThat(received.get(), is(50));
+    }
+
+    @Test
+    public void testAsyncFailure() throws Exception
+    {
+        final ListenableFuture<String> future = httpClient.get(uri, new HttpClientResponseHandler<String>() {
+            @Override
+            public String handle(final HttpClientResponse response) throws IOException
+            {
+                throw new IOException("boom");
+            }
+        }).performAsync();
+
+        try {
+            future.get();
+            Assert.fail();
+        }
+        catch (ExecutionException ee) {
+            Assert.assertTrue(ee.getCause() instanceof IOException);
+        }
+    }
+
+    private class CountingObserver extends HttpClientObserver
+    {
+        @Override
+        public <RequestType> HttpClientRequest<RequestType> onRequestSubmitted(final HttpClientRequest<RequestType> request)
+        {
+            submitted.incrementAndGet();
+            return request;
+        }
+
+        @Override
+        public HttpClientResponse onResponseReceived(final HttpClientResponse response)
+        {
+            received.incrementAndGet();
+            return response;
+        }
+    }
+}
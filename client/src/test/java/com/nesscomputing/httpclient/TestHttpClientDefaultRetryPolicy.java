@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.httpclient.io.SizeExceededException;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+
+public class TestHttpClientDefaultRetryPolicy
+{
+    private final HttpClientRetryPolicy policy = new HttpClientDefaultRetryPolicy(100L, 1000L);
+
+    private final HttpClient httpClient = new HttpClient();
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    @Test
+    public void testBackoff()
+    {
+        final HttpClientRequest<String> request = httpClient.get("http://localhost/", responseHandler).request();
+
+        for (int retries = 0; retries < 40; retries++) {
+            final long delay = policy.retryFailure(request, retries, new SocketException("reset"));
+            Assert.assertTrue(delay >= 0);
+            Assert.assertTrue(delay <= Math.min(1000L, 100L << Math.min(retries, 20)));
+        }
+    }
+
+    @Test
+    public void testIdempotency()
+    {
+        final HttpClientRequest<String> get = httpClient.get("http://localhost/", responseHandler).request();
+        final HttpClientRequest<String> post = httpClient.post("http://localhost/", responseHandler).request();
+
+        Assert.assertTrue(policy.retryFailure(get, 0, new SocketException("reset")) >= 0);
+        Assert.assertThat(policy.retryFailure(post, 0, new SocketException("reset")), is(HttpClientRetryPolicy.NO_RETRY));
+
+        // The server never saw a request that could not connect.
+        Assert.assertTrue(policy.retryFailure(post, 0, new ConnectException("refused")) >= 0);
+    }
+
+    @Test
+    public void testNoRetry()
+    {
+        final HttpClientRequest<String> get = httpClient.get("http://localhost/", responseHandler).request();
+
+        Assert.assertThat(policy.retryFailure(get, 0, new InterruptedIOException()), is(HttpClientRetryPolicy.NO_RETRY));
+        Assert.assertThat(policy.retryFailure(get, 0, new UnknownHostException()), is(HttpClientRetryPolicy.NO_RETRY));
+        Assert.assertThat(policy.retryFailure(get, 0, new RequestTimeoutException("timeout")), is(HttpClientRetryPolicy.NO_RETRY));
+        Assert.assertThat(policy.retryFailure(get, 0, new SizeExceededException("too large")), is(HttpClientRetryPolicy.NO_RETRY));
+    }
+
+    @Test
+    public void testRetryAfter()
+    {
+        Assert.assertThat(HttpClientDefaultRetryPolicy.parseRetryAfter(null), is(-1L));
+        Assert.assertThat(HttpClientDefaultRetryPolicy.parseRetryAfter("soon"), is(-1L));
+        Assert.assertThat(HttpClientDefaultRetryPolicy.parseRetryAfter("3"), is(3000L));
+        Assert.assertThat(HttpClientDefaultRetryPolicy.parseRetryAfter(" 0 "), is(0L));
+
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        final long inFuture = HttpClientDefaultRetryPolicy.parseRetryAfter(format.format(new Date(System.currentTimeMillis() + 60000L)));
+        Assert.assertTrue(inFuture > 55000L && inFuture <= 60000L);
+
+        Assert.assertThat(HttpClientDefaultRetryPolicy.parseRetryAfter(format.format(new Date(0))), is(0L));
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.factory.nio.NioHttpClientFactory;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRetries
+{
+    private final HttpClientResponseHandler<Integer> statusHandler = new HttpClientResponseHandler<Integer>() {
+        @Override
+        public Integer handle(final HttpClientResponse response) throws IOException
+        {
+            return response.getStatusCode();
+        }
+    };
+
+    private final HttpClientDefaults defaults = new HttpClientDefaults() {
+        @Override
+        public TimeSpan getRetryBackoff()
+        {
+            return new TimeSpan(10, TimeUnit.MILLISECONDS);
+        }
+    };
+
+    private final FlakyHandler flakyHandler = new FlakyHandler();
+    private final List<Integer> retryStatus = Lists.newArrayList();
+    private final List<Integer> retryCounts = Lists.newArrayList();
+
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        localHttpService = LocalHttpService.forHandler(flakyHandler);
+        localHttpService.start();
+
+        uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/flaky";
+
+        httpClient = new HttpClient(defaults, ImmutableSet.of(new RetryObserver())).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testRetryStatus() throws Exception
+    {
+        flakyHandler.fail(2, HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+        Assert.assertThat(flakyHandler.getRequests(), is(3));
+        Assert.assertThat(retryStatus, is((List<Integer>) Lists.newArrayList(503, 503)));
+        Assert.assertThat(retryCounts, is((List<Integer>) Lists.newArrayList(1, 2)));
+    }
+
+    @Test
+    public void testMaxRetries() throws Exception
+    {
+        flakyHandler.fail(100, 429, null);
+
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(429));
+        Assert.assertThat(flakyHandler.getRequests(), is(defaults.getRetries() + 1));
+    }
+
+    @Test
+    public void testNoRetryForPost() throws Exception
+    {
+        flakyHandler.fail(1, HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+
+        Assert.assertThat(httpClient.post(uri, statusHandler).setContent("data").perform(), is(503));
+        Assert.assertThat(flakyHandler.getRequests(), is(1));
+        Assert.assertTrue(retryStatus.isEmpty());
+    }
+
+    @Test
+    public void testNoRetryForOtherStatus() throws Exception
+    {
+        flakyHandler.fail(1, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, null);
+
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(500));
+        Assert.assertThat(flakyHandler.getRequests(), is(1));
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception
+    {
+        flakyHandler.fail(1, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "1");
+
+        final long start = System.nanoTime();
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(1000));
+        Assert.assertThat(flakyHandler.getRequests(), is(2));
+    }
+
+    @Test
+    public void testRetryAfterTooLong() throws Exception
+    {
+        flakyHandler.fail(1, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "3600");
+
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(503));
+        Assert.assertThat(flakyHandler.getRequests(), is(1));
+    }
+
+    @Test
+    public void testRetryBudget() throws Exception
+    {
+        // Without any budget, only the reserve of ten retries is left.
+        httpClient.getConnectionContext().setRetryBudget(0.0);
+        flakyHandler.fail(100, HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(503));
+        }
+        Assert.assertThat(flakyHandler.getRequests(), is(15));
+        Assert.assertThat(retryStatus.size(), is(10));
+    }
+
+    @Test
+    public void testNioRetryStatus() throws Exception
+    {
+        final HttpClient nioClient = new HttpClient(new NioHttpClientFactory(defaults, ImmutableSet.of(new RetryObserver())), defaults).start();
+        try {
+            flakyHandler.fail(2, HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+
+            Assert.assertThat(nioClient.get(uri, statusHandler).perform(), is(200));
+            Assert.assertThat(flakyHandler.getRequests(), is(3));
+            Assert.assertThat(retryStatus, is((List<Integer>) Lists.newArrayList(503, 503)));
+        }
+        finally {
+            nioClient.close();
+        }
+    }
+
+    private class RetryObserver extends HttpClientObserver
+    {
+        @Override
+        public void onRetry(final HttpClientRequest<?> request, final int retries, @Nullable final HttpClientResponse response, @Nullable final IOException failure)
+        {
+            retryCounts.add(retries);
+            retryStatus.add(response == null ? -1 : response.getStatusCode());
+        }
+    }
+
+    private static class FlakyHandler extends AbstractHandler
+    {
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private volatile int failures = 0;
+        private volatile int status = HttpServletResponse.SC_OK;
+        private volatile String retryAfter = null;
+
+        void fail(final int failures, final int status, @Nullable final String retryAfter)
+        {
+            this.failures = failures;
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        int getRequests()
+        {
+            return requests.get();
+        }
+
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException, ServletException
+        {
+            response.setContentType("text/plain");
+
+            if (requests.incrementAndGet() <= failures) {
+                response.setStatus(status);
+                if (retryAfter != null) {
+                    response.setHeader("Retry-After", retryAfter);
+                }
+                response.getWriter().print("fail");
+            }
+            else {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.getWriter().print("ok");
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.nesscomputing.httpclient;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 
 
 import java.io.IOException;
@@ -170,6 +171,23 @@ public class TestVariousThings
         Assert.assertThat(cookies[0].getValue(), equalTo(cookie.getValue()));
     }
 
+    @Test
+    public void testCookiesDoNotLeakBetweenRequests() throws IOException
+    {
+        final String testString = "Ich bin zwei Oeltanks";
+        testHandler.setContent(testString);
+        testHandler.setContentType("text/plain");
+        testHandler.addHeader("Set-Cookie", "leaked=crumbs; Path=/");
+
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is(testString));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is(testString));
+
+        // The handler collects request headers over all requests.
+        Assert.assertThat(testHandler.getHeaders("Cookie"), is(nullValue()));
+    }
+
     @Test
     public void testFollowRedirects() throws IOException
     {
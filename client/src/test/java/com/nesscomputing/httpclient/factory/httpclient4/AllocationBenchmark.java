@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+
+/**
+ * Measures the bytes allocated per request by the calling thread. Compares the old
+ * "new DefaultHttpClient per request" pattern with the shared client inside of
+ * {@link ApacheHttpClient4Factory}. The shared client numbers also include the response
+ * handler, so they are an upper bound. Not a unit test, run it with
+ *
+ * <pre>
+ * mvn -pl client test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.nesscomputing.httpclient.factory.httpclient4.AllocationBenchmark
+ * </pre>
+ */
+public final class AllocationBenchmark
+{
+    private static final int WARMUP = 5000;
+    private static final int ITERATIONS = 20000;
+
+    private AllocationBenchmark()
+    {
+    }
+
+    public static void main(final String [] args) throws Exception
+    {
+        final GenericTestHandler testHandler = new GenericTestHandler();
+        testHandler.setContent("Ich bin zwei Oeltanks");
+        testHandler.setContentType("text/plain");
+
+        final LocalHttpService localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        try {
+            final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+            final long perRequestClient = measurePerRequestClient(uri);
+            final long sharedClient = measureSharedClient(uri);
+
+            System.out.printf("new DefaultHttpClient per request: %8d bytes/request%n", perRequestClient);
+            System.out.printf("shared DefaultHttpClient:          %8d bytes/request%n", sharedClient);
+        }
+        finally {
+            localHttpService.stop();
+        }
+    }
+
+    /**
+     * The way the factory used to execute requests.
+     */
+    private static long measurePerRequestClient(final String uri) throws IOException
+    {
+        final SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+        final ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager(registry);
+
+        final HttpParams params = new BasicHttpParams();
+        params.setParameter(ClientPNames.COOKIE_POLICY, CookiePolicy.BROWSER_COMPATIBILITY);
+        params.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, true);
+
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                perRequestClient(connectionManager, params, uri);
+            }
+
+            final long start = allocatedBytes();
+            for (int i = 0; i < ITERATIONS; i++) {
+                perRequestClient(connectionManager, params, uri);
+            }
+            return (allocatedBytes() - start) / ITERATIONS;
+        }
+        finally {
+            connectionManager.shutdown();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void perRequestClient(final ThreadSafeClientConnManager connectionManager, final HttpParams params, final String uri)
+        throws IOException
+    {
+        // HttpParams.copy() is deprecated in 4.1, but it is what the old per-request client did.
+        final DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, params.copy().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, true));
+        httpClient.getCookieSpecs().register(NessCookieSpecFactory.NESS_COOKIE_POLICY, new NessCookieSpecFactory());
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(3, false));
+
+        final HttpResponse response = httpClient.execute(new HttpGet(uri), new BasicHttpContext());
+        EntityUtils.consume(response.getEntity());
+    }
+
+    private static long measureSharedClient(final String uri) throws IOException
+    {
+        final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+        final HttpClient httpClient = new HttpClient().start();
+
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                httpClient.get(uri, responseHandler).followRedirects(true).perform();
+            }
+
+            final long start = allocatedBytes();
+            for (int i = 0; i < ITERATIONS; i++) {
+                httpClient.get(uri, responseHandler).followRedirects(true).perform();
+            }
+            return (allocatedBytes() - start) / ITERATIONS;
+        }
+        finally {
+            httpClient.close();
+        }
+    }
+
+    private static long allocatedBytes()
+    {
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+
+/**
+ * Measures how many connections per second the connection managers lease and release when many
+ * threads share them. The connections are never opened, so the numbers only show the cost of the
+ * pools themselves. Not a unit test, run it with
+ *
+ * <pre>
+ * mvn -pl client test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.nesscomputing.httpclient.factory.httpclient4.ContentionBenchmark
+ * </pre>
+ */
+public final class ContentionBenchmark
+{
+    private static final int[] THREADS = new int[] { 8, 32, 128 };
+    private static final int ROUTES = 4;
+    private static final long WARMUP_MILLIS = 2000L;
+    private static final long MEASURE_MILLIS = 5000L;
+
+    private ContentionBenchmark()
+    {
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        final SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+
+        final HttpRoute[] routes = new HttpRoute[ROUTES];
+        for (int i = 0; i < ROUTES; i++) {
+            routes[i] = new HttpRoute(new HttpHost("host-" + i + ".example.com", 80));
+        }
+
+        for (final int threads : THREADS) {
+            final long threadSafe = measure(new InternalConnectionManager(registry), routes, threads);
+            final long striped = measure(new StripedConnectionManager(registry), routes, threads);
+
+            System.out.printf("%3d threads: threadsafe %10d leases/s, striped %10d leases/s%n", threads, threadSafe, striped);
+        }
+    }
+
+    private static long measure(final MeteredConnectionManager connectionManager, final HttpRoute[] routes, final int threads)
+        throws InterruptedException
+    {
+        // Every thread can hold a connection, so that the numbers show contention and not waiting.
+        connectionManager.setMaxTotal(threads);
+        connectionManager.setDefaultMaxPerRoute(threads);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean measuring = new AtomicBoolean(false);
+        final AtomicLong leases = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                final HttpRoute route = routes[i % routes.length];
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            long count = 0;
+                            while (running.get()) {
+                                final ManagedClientConnection connection = connectionManager.requestConnection(route, null).getConnection(0, TimeUnit.MILLISECONDS);
+                                connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+                                if (measuring.get()) {
+                                    count++;
+                                }
+                            }
+                            leases.addAndGet(count);
+                        }
+                        catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                        finally {
+                            done.countDown();
+                        }
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            Thread.sleep(WARMUP_MILLIS);
+            measuring.set(true);
+            Thread.sleep(MEASURE_MILLIS);
+            running.set(false);
+            done.await();
+
+            return leases.get() * 1000L / MEASURE_MILLIS;
+        }
+        finally {
+            connectionManager.shutdown();
+        }
+    }
+}
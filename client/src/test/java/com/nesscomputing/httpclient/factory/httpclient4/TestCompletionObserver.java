@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestCompletionObserver
+{
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private final CompletionObserver observer = new CompletionObserver();
+
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        final GenericTestHandler testHandler = new GenericTestHandler();
+        testHandler.setContent("Hello, World!");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        httpClient = new HttpClient(new HttpClientDefaults(), ImmutableSet.of(observer)).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testCompleted() throws Exception
+    {
+        Assert.assertThat(httpClient.post(uri, responseHandler).setContent("payload").perform(), is("Hello, World!"));
+
+        Assert.assertThat(observer.completed, is(1));
+        Assert.assertThat(observer.failed, is(0));
+        Assert.assertThat(observer.statusCode, is(200));
+        Assert.assertThat(observer.bytesSent, is(7L));
+        Assert.assertThat(observer.bytesReceived, is(13L));
+        Assert.assertTrue(observer.elapsedNanos > 0);
+    }
+
+    @Test
+    public void testUnreadBodyIsCounted() throws Exception
+    {
+        final HttpClientResponseHandler<Integer> statusHandler = new HttpClientResponseHandler<Integer>() {
+            @Override
+            public Integer handle(final HttpClientResponse response)
+            {
+                return response.getStatusCode();
+            }
+        };
+
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+
+        Assert.assertThat(observer.completed, is(1));
+        Assert.assertThat(observer.bytesSent, is(0L));
+        Assert.assertThat(observer.bytesReceived, is(13L));
+    }
+
+    @Test
+    public void testFailed() throws Exception
+    {
+        final IOException failure = new IOException("handler failed");
+        final HttpClientResponseHandler<String> failingHandler = new HttpClientResponseHandler<String>() {
+            @Override
+            public String handle(final HttpClientResponse response) throws IOException
+            {
+                throw failure;
+            }
+        };
+
+        try {
+            httpClient.get(uri, failingHandler).perform();
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            Assert.assertSame(failure, ioe);
+        }
+
+        Assert.assertThat(observer.completed, is(0));
+        Assert.assertThat(observer.failed, is(1));
+        Assert.assertThat(observer.statusCode, is(200));
+        Assert.assertSame(failure, observer.failure);
+    }
+
+    private static class CompletionObserver extends HttpClientObserver
+    {
+        private int completed = 0;
+        private int failed = 0;
+        private int statusCode = 0;
+        private long elapsedNanos = 0;
+        private long bytesSent = 0;
+        private long bytesReceived = 0;
+        private Throwable failure = null;
+
+        @Override
+        public void onRequestCompleted(final HttpClientRequest<?> request, final int statusCode, final long elapsedNanos, final long bytesSent, final long bytesReceived)
+        {
+            completed++;
+            record(statusCode, elapsedNanos, bytesSent, bytesReceived);
+        }
+
+        @Override
+        public void onRequestFailed(final HttpClientRequest<?> request, final int statusCode, final long elapsedNanos, final long bytesSent, final long bytesReceived, final Throwable failure)
+        {
+            failed++;
+            this.failure = failure;
+            record(statusCode, elapsedNanos, bytesSent, bytesReceived);
+        }
+
+        private void record(final int statusCode, final long elapsedNanos, final long bytesSent, final long bytesReceived)
+        {
+            this.statusCode = statusCode;
+            this.elapsedNanos = elapsedNanos;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+    }
+}
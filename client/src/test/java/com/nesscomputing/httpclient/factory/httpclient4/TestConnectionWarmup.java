@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestConnectionWarmup
+{
+    private final List<String> failedRoutes = new CopyOnWriteArrayList<String>();
+
+    private final HttpClientObserver observer = new HttpClientObserver() {
+        @Override
+        public void onConnectionWarmupFailed(final String route, final IOException failure)
+        {
+            failedRoutes.add(route);
+        }
+    };
+
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+
+    @Before
+    public void setup()
+    {
+        final GenericTestHandler testHandler = new GenericTestHandler();
+        testHandler.setContent("Hello, World!");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+    }
+
+    @After
+    public void teardown()
+    {
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testWarmup() throws Exception
+    {
+        final String route = localHttpService.getHost() + ":" + localHttpService.getPort();
+        httpClient = new HttpClient(warmDefaults(route, 2), ImmutableSet.of(observer)).start();
+
+        final HttpClientPoolStats warm = waitForConnections(2);
+        Assert.assertThat(warm.getIdle(), is(2));
+
+        final String content = httpClient.get("http://" + route + "/data", new ContentResponseHandler<String>(new StringResponseConverter())).perform();
+        Assert.assertThat(content, is("Hello, World!"));
+
+        // The request used one of the warm connections.
+        Assert.assertThat(httpClient.getConnectionContext().getPoolStats().getConnectionsCreated(), is(2L));
+        Assert.assertTrue(failedRoutes.isEmpty());
+    }
+
+    @Test
+    public void testWarmupFailure() throws Exception
+    {
+        final ServerSocket socket = new ServerSocket(0);
+        final int port = socket.getLocalPort();
+        socket.close();
+
+        httpClient = new HttpClient(warmDefaults("127.0.0.1:" + port, 1), ImmutableSet.of(observer)).start();
+
+        for (int i = 0; i < 100 && failedRoutes.isEmpty(); i++) {
+            Thread.sleep(50L);
+        }
+        Assert.assertThat(failedRoutes.size(), is(1));
+        Assert.assertThat(failedRoutes.get(0), is("http://127.0.0.1:" + port));
+        Assert.assertThat(httpClient.getConnectionContext().getPoolStats().getConnectionsCreated(), is(0L));
+    }
+
+    private HttpClientPoolStats waitForConnections(final long connections) throws InterruptedException
+    {
+        HttpClientPoolStats poolStats = httpClient.getConnectionContext().getPoolStats();
+        for (int i = 0; i < 100 && (poolStats.getConnectionsCreated() < connections || poolStats.getLeased() > 0); i++) {
+            Thread.sleep(50L);
+            poolStats = httpClient.getConnectionContext().getPoolStats();
+        }
+        Assert.assertThat(poolStats.getConnectionsCreated(), is(connections));
+        return poolStats;
+    }
+
+    private static HttpClientDefaults warmDefaults(final String warmRoutes, final int minIdle)
+    {
+        return new HttpClientDefaults() {
+            @Override
+            public String getWarmRoutes()
+            {
+                return warmRoutes;
+            }
+
+            @Override
+            public int getMinIdlePerRoute()
+            {
+                return minIdle;
+            }
+        };
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestHedgedRequests
+{
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch secondArrived = new CountDownLatch(1);
+
+    private LocalHttpService localHttpService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+    private String baseUri = null;
+
+    @Before
+    public void setup()
+    {
+        localHttpService = LocalHttpService.forHandler(new StallingHandler());
+        localHttpService.start();
+
+        baseUri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+
+        factory = new ApacheHttpClient4Factory(new HttpClientDefaults(), null);
+        httpClient = new HttpClient(factory).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        release.countDown();
+
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() throws Exception
+    {
+        final String result = httpClient.get(baseUri + "/fast", responseHandler).setHedgeAfter(1000L, 1).perform();
+        Assert.assertThat(result, is("fast"));
+        Assert.assertThat(factory.getHedgesSent(), is(0L));
+        Assert.assertThat(factory.getHedgesWon(), is(0L));
+    }
+
+    @Test
+    public void testHedgeWins() throws Exception
+    {
+        // The first request stalls until the test ends, the copy answers at once.
+        final long start = System.nanoTime();
+        final String result = httpClient.get(baseUri + "/first-stalls", responseHandler).setHedgeAfter(100L, 1).setRequestTimeout(5000L).perform();
+        Assert.assertThat(result, is("request 2"));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        Assert.assertThat(factory.getHedgesSent(), is(1L));
+        Assert.assertThat(factory.getHedgesWon(), is(1L));
+    }
+
+    @Test
+    public void testMaxHedges() throws Exception
+    {
+        // Only the third request answers, so both copies are needed.
+        final String result = httpClient.get(baseUri + "/third-answers", responseHandler).setHedgeAfter(100L, 2).setRequestTimeout(5000L).perform();
+        Assert.assertThat(result, is("request 3"));
+        Assert.assertThat(factory.getHedgesSent(), is(2L));
+        Assert.assertThat(factory.getHedgesWon(), is(1L));
+    }
+
+    @Test
+    public void testServerErrorWinsIfAllAttemptsFail() throws Exception
+    {
+        // Both attempts answer with a 500 at the same time, so neither has finished when the other gets its response.
+        final HttpClientResponseHandler<Integer> statusHandler = new HttpClientResponseHandler<Integer>() {
+            @Override
+            public Integer handle(final HttpClientResponse response) {
+                return response.getStatusCode();
+            }
+        };
+        final int status = httpClient.get(baseUri + "/both-fail", statusHandler).setHedgeAfter(100L, 1).setRequestTimeout(5000L).perform();
+        Assert.assertThat(status, is(500));
+        Assert.assertThat(factory.getHedgesSent(), is(1L));
+    }
+
+    @Test
+    public void testServerErrorDoesNotWaitForStalledCopy() throws Exception
+    {
+        // The first attempt gets a 500 once the copy arrived, the copy stalls until the test ends.
+        final HttpClientResponseHandler<Integer> statusHandler = new HttpClientResponseHandler<Integer>() {
+            @Override
+            public Integer handle(final HttpClientResponse response) {
+                return response.getStatusCode();
+            }
+        };
+        final long start = System.nanoTime();
+        final int status = httpClient.get(baseUri + "/copy-stalls", statusHandler).setHedgeAfter(100L, 1).perform();
+        Assert.assertThat(status, is(500));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        Assert.assertThat(factory.getHedgesSent(), is(1L));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testPostIsRejected()
+    {
+        httpClient.post(baseUri + "/fast", responseHandler).setHedgeAfter(100L, 1);
+    }
+
+    private class StallingHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException, ServletException
+        {
+            final int count = requestCount.incrementAndGet();
+
+            if ("/both-fail".equals(target)) {
+                try {
+                    if (count == 1) {
+                        secondArrived.await(5, TimeUnit.SECONDS);
+                    }
+                    else {
+                        secondArrived.countDown();
+                    }
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                baseRequest.setHandled(true);
+                return;
+            }
+
+            if ("/copy-stalls".equals(target)) {
+                try {
+                    if (count == 1) {
+                        secondArrived.await(5, TimeUnit.SECONDS);
+                    }
+                    else {
+                        secondArrived.countDown();
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                baseRequest.setHandled(true);
+                return;
+            }
+
+            if (("/first-stalls".equals(target) && count == 1) || ("/third-answers".equals(target) && count < 3)) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            response.setContentType("text/plain");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().print("/fast".equals(target) ? "fast" : "request " + count);
+            baseRequest.setHandled(true);
+        }
+    }
+}
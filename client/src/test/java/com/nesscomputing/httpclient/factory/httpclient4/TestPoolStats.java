@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestPoolStats
+{
+    private final HttpClientResponseHandler<HttpClientPoolStats> poolStatsHandler = new HttpClientResponseHandler<HttpClientPoolStats>() {
+        @Override
+        public HttpClientPoolStats handle(final HttpClientResponse response) throws IOException
+        {
+            return httpClient.getConnectionContext().getPoolStats();
+        }
+    };
+
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        final GenericTestHandler testHandler = new GenericTestHandler();
+        testHandler.setContent("Hello, World!");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        httpClient = new HttpClient(new HttpClientDefaults()).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testPoolStats() throws Exception
+    {
+        final HttpClientPoolStats during = httpClient.get(uri, poolStatsHandler).perform();
+        Assert.assertThat(during.getLeased(), is(1));
+        Assert.assertThat(during.getIdle(), is(0));
+        Assert.assertThat(during.getPending(), is(0));
+        Assert.assertThat(during.getConnectionsCreated(), is(1L));
+
+        httpClient.get(uri, poolStatsHandler).perform();
+
+        final HttpClientPoolStats after = httpClient.getConnectionContext().getPoolStats();
+        Assert.assertThat(after.getLeased(), is(0));
+        Assert.assertThat(after.getIdle(), is(1));
+        Assert.assertThat(after.getConnectionsCreated(), is(1L));
+        Assert.assertThat(after.getConnectionsClosed(), is(0L));
+
+        long leases = 0;
+        for (long count : after.getLeaseWaitHistogram()) {
+            leases += count;
+        }
+        Assert.assertThat(leases, is(2L));
+
+        final Map<String, HttpClientPoolStats> routes = httpClient.getConnectionContext().getRoutePoolStats();
+        Assert.assertThat(routes.size(), is(1));
+        final HttpClientPoolStats route = routes.get("http://" + localHttpService.getHost() + ":" + localHttpService.getPort());
+        Assert.assertNotNull(route);
+        Assert.assertThat(route.getIdle(), is(1));
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRequestCoalescing
+{
+    private static final int REQUESTS = 10;
+    private static final int MAX_BUFFER_SIZE = 1024;
+
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private final AtomicInteger callCount = new AtomicInteger();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final CountDownLatch callStarted = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private LocalHttpService localHttpService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+    private String baseUri = null;
+
+    @Before
+    public void setup()
+    {
+        localHttpService = LocalHttpService.forHandler(new SlowHandler());
+        localHttpService.start();
+
+        baseUri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+
+        factory = new ApacheHttpClient4Factory(new HttpClientDefaults() {
+            @Override
+            public boolean isCoalescingEnabled() {
+                return true;
+            }
+
+            @Override
+            public int getCoalescingMaxBufferSize() {
+                return MAX_BUFFER_SIZE;
+            }
+        }, ImmutableSet.of(new CompletionCounter()));
+        httpClient = new HttpClient(factory).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        release.countDown();
+
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneCall() throws Exception
+    {
+        final List<String> results = performConcurrently(baseUri + "/small", null);
+
+        for (final String result : results) {
+            Assert.assertThat(result, is("small"));
+        }
+        Assert.assertThat(callCount.get(), is(1));
+        Assert.assertThat(factory.getRequestsCoalesced(), is((long) REQUESTS - 1));
+    }
+
+    @Test
+    public void testCoalescedRequestsReportCompletion() throws Exception
+    {
+        performConcurrently(baseUri + "/small", null);
+
+        Assert.assertThat(completedCount.get(), is(REQUESTS));
+    }
+
+    @Test
+    public void testDifferentHeadersAreNotCoalesced() throws Exception
+    {
+        final ListenableFuture<String> first = httpClient.get(baseUri + "/small", responseHandler).addHeader("X-Test", "1").performAsync();
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+
+        final ListenableFuture<String> second = httpClient.get(baseUri + "/small", responseHandler).addHeader("X-Test", "2").performAsync();
+        Thread.sleep(200L);
+        release.countDown();
+
+        Assert.assertThat(first.get(), is("small"));
+        Assert.assertThat(second.get(), is("small"));
+        Assert.assertThat(callCount.get(), is(2));
+        Assert.assertThat(factory.getRequestsCoalesced(), is(0L));
+    }
+
+    @Test
+    public void testLargeResponsesAreNotShared() throws Exception
+    {
+        final List<String> results = performConcurrently(baseUri + "/large", null);
+
+        for (final String result : results) {
+            Assert.assertThat(result.length(), is(MAX_BUFFER_SIZE * 2));
+        }
+        Assert.assertThat(callCount.get(), is(REQUESTS));
+        Assert.assertThat(factory.getRequestsCoalesced(), is(0L));
+    }
+
+    @Test
+    public void testPostIsNotCoalesced() throws Exception
+    {
+        final List<String> results = performConcurrently(baseUri + "/small", "body");
+
+        for (final String result : results) {
+            Assert.assertThat(result, is("small"));
+        }
+        Assert.assertThat(callCount.get(), is(REQUESTS));
+        Assert.assertThat(factory.getRequestsCoalesced(), is(0L));
+    }
+
+    private List<String> performConcurrently(final String uri, final String content) throws Exception
+    {
+        final List<ListenableFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < REQUESTS; i++) {
+            if (content == null) {
+                futures.add(httpClient.get(uri, responseHandler).performAsync());
+            }
+            else {
+                futures.add(httpClient.post(uri, responseHandler).setContent(content).performAsync());
+            }
+        }
+
+        // Give all requests time to start before the server answers the first one.
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200L);
+        release.countDown();
+
+        return Futures.allAsList(futures).get(5, TimeUnit.SECONDS);
+    }
+
+    private class CompletionCounter extends HttpClientObserver
+    {
+        @Override
+        public void onRequestCompleted(final HttpClientRequest<?> request,
+                                       final int statusCode,
+                                       final long elapsedNanos,
+                                       final long bytesSent,
+                                       final long bytesReceived)
+        {
+            completedCount.incrementAndGet();
+        }
+    }
+
+    private class SlowHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException, ServletException
+        {
+            callCount.incrementAndGet();
+            callStarted.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            response.setContentType("text/plain");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().print("/large".equals(target) ? StringUtils.repeat('x', MAX_BUFFER_SIZE * 2) : "small");
+            baseRequest.setHandled(true);
+        }
+    }
+}
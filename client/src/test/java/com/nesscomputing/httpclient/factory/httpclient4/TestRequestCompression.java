@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.nesscomputing.httpclient.HttpClientCompression;
+import com.nesscomputing.httpclient.HttpClientCompressionStats;
+
+public class TestRequestCompression
+{
+    private static final byte [] BODY = Strings.repeat("{\"event\":\"click\"}\n", 10000).getBytes(Charsets.UTF_8);
+
+    private final InternalCompressingEntity.Metrics metrics = new InternalCompressingEntity.Metrics();
+
+    @Test
+    public void testGzip() throws Exception
+    {
+        final InternalCompressingEntity entity = new InternalCompressingEntity(new ByteArrayEntity(BODY), HttpClientCompression.GZIP, metrics);
+        Assert.assertThat(entity.getContentEncoding().getValue(), is("gzip"));
+        Assert.assertThat(entity.getContentLength(), is(-1L));
+        Assert.assertTrue(entity.isChunked());
+
+        final byte [] compressed = write(entity);
+        Assert.assertTrue(Arrays.equals(BODY, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)))));
+
+        final HttpClientCompressionStats stats = metrics.getStats();
+        Assert.assertThat(stats.getCompressedBodies(), is(1L));
+        Assert.assertThat(stats.getUncompressedBytes(), is((long) BODY.length));
+        Assert.assertThat(stats.getCompressedBytes(), is((long) compressed.length));
+        Assert.assertTrue(stats.getCompressionRatio() < 0.1);
+    }
+
+    @Test
+    public void testDeflate() throws Exception
+    {
+        final InputStream body = new ByteArrayInputStream(BODY);
+        final InternalCompressingEntity entity = new InternalCompressingEntity(new InputStreamEntity(body, -1), HttpClientCompression.DEFLATE, metrics);
+        Assert.assertThat(entity.getContentEncoding().getValue(), is("deflate"));
+
+        final byte [] compressed = write(entity);
+        Assert.assertTrue(Arrays.equals(BODY, IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(compressed)))));
+    }
+
+    @Test
+    public void testRepeatable() throws Exception
+    {
+        final InternalCompressingEntity entity = new InternalCompressingEntity(new ByteArrayEntity(BODY), HttpClientCompression.GZIP, metrics);
+        Assert.assertTrue(entity.isRepeatable());
+
+        Assert.assertTrue(Arrays.equals(write(entity), write(entity)));
+        Assert.assertThat(metrics.getStats().getCompressedBodies(), is(2L));
+    }
+
+    @Test
+    public void testNothingCompressed() throws Exception
+    {
+        metrics.skipped();
+
+        final HttpClientCompressionStats stats = metrics.getStats();
+        Assert.assertThat(stats.getSkippedBodies(), is(1L));
+        Assert.assertThat(stats.getCompressionRatio(), is(1.0));
+    }
+
+    @Test
+    public void testForName() throws Exception
+    {
+        Assert.assertThat(HttpClientCompression.forName(null), is(HttpClientCompression.NONE));
+        Assert.assertThat(HttpClientCompression.forName("none"), is(HttpClientCompression.NONE));
+        Assert.assertThat(HttpClientCompression.forName(" GZip "), is(HttpClientCompression.GZIP));
+        Assert.assertThat(HttpClientCompression.forName("deflate"), is(HttpClientCompression.DEFLATE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() throws Exception
+    {
+        HttpClientCompression.forName("brotli");
+    }
+
+    private static byte [] write(final InternalCompressingEntity entity) throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.RequestTimeoutException;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRequestDeadline
+{
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private final CountDownLatch requestStarted = new CountDownLatch(1);
+
+    private LocalHttpService localHttpService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+    private String baseUri = null;
+
+    @Before
+    public void setup()
+    {
+        localHttpService = LocalHttpService.forHandler(new DrippingHandler());
+        localHttpService.start();
+
+        baseUri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+
+        factory = new ApacheHttpClient4Factory(new HttpClientDefaults(), null);
+        httpClient = new HttpClient(factory).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testFastRequest() throws Exception
+    {
+        final String result = httpClient.get(baseUri + "/fast", responseHandler).setRequestTimeout(5000L).perform();
+        Assert.assertThat(result, is("fast"));
+        Assert.assertThat(factory.getDeadlinesExceeded(), is(0L));
+    }
+
+    @Test
+    public void testSlowBody() throws Exception
+    {
+        // Every read returns within the socket timeout, but the body never ends.
+        final long start = System.nanoTime();
+        try {
+            httpClient.get(baseUri + "/drip", responseHandler).setRequestTimeout(500L).perform();
+            Assert.fail();
+        }
+        catch (RequestTimeoutException rte) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+        Assert.assertThat(factory.getDeadlinesExceeded(), is(1L));
+    }
+
+    @Test
+    public void testDefaultDeadline() throws Exception
+    {
+        httpClient.getConnectionContext().setRequestTimeout(500L);
+
+        try {
+            httpClient.get(baseUri + "/drip", responseHandler).perform();
+            Assert.fail();
+        }
+        catch (RequestTimeoutException rte) {
+            // expected
+        }
+        Assert.assertThat(factory.getDeadlinesExceeded(), is(1L));
+    }
+
+    @Test
+    public void testLeaseCountsTowardsDeadline() throws Exception
+    {
+        httpClient.getConnectionContext().setPerHostConnectionsMax(1);
+
+        final ListenableFuture<String> blocker = httpClient.get(baseUri + "/drip", responseHandler).setRequestTimeout(3000L).performAsync();
+        Assert.assertTrue(requestStarted.await(5, TimeUnit.SECONDS));
+
+        try {
+            httpClient.get(baseUri + "/fast", responseHandler).setRequestTimeout(500L).perform();
+            Assert.fail();
+        }
+        catch (RequestTimeoutException rte) {
+            // expected
+        }
+
+        try {
+            blocker.get();
+            Assert.fail();
+        }
+        catch (Exception e) {
+            // expected
+        }
+        Assert.assertThat(factory.getDeadlinesExceeded(), is(2L));
+    }
+
+    private class DrippingHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException, ServletException
+        {
+            response.setContentType("text/plain");
+            response.setStatus(HttpServletResponse.SC_OK);
+
+            if ("/fast".equals(target)) {
+                response.getWriter().print("fast");
+            }
+            else {
+                requestStarted.countDown();
+                final OutputStream out = response.getOutputStream();
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        out.write('x');
+                        out.flush();
+                        Thread.sleep(100L);
+                    }
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (IOException ioe) {
+                    // Client went away.
+                }
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+}
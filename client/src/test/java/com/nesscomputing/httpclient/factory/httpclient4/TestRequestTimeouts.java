@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.RequestTimeoutException;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRequestTimeouts
+{
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private final CountDownLatch requestStarted = new CountDownLatch(1);
+
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String baseUri = null;
+
+    @Before
+    public void setup()
+    {
+        localHttpService = LocalHttpService.forHandler(new StallingHandler());
+        localHttpService.start();
+
+        baseUri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+
+        httpClient = new HttpClient().start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testSocketTimeout() throws Exception
+    {
+        try {
+            httpClient.get(baseUri + "/stall", responseHandler).setSocketTimeout(300L).perform();
+            Assert.fail();
+        }
+        catch (SocketTimeoutException ste) {
+            Assert.assertFalse(ste instanceof RequestTimeoutException);
+        }
+
+        // The override must not leak into the client settings.
+        Assert.assertThat(httpClient.get(baseUri + "/stall", responseHandler).perform(), is("stalled"));
+    }
+
+    @Test
+    public void testLeaseTimeout() throws Exception
+    {
+        httpClient.getConnectionContext().setPerHostConnectionsMax(1);
+
+        final ListenableFuture<String> blocker = httpClient.get(baseUri + "/stall", responseHandler).performAsync();
+        Assert.assertTrue(requestStarted.await(5, TimeUnit.SECONDS));
+
+        try {
+            httpClient.get(baseUri + "/fast", responseHandler).setLeaseTimeout(200L).perform();
+            Assert.fail();
+        }
+        catch (ConnectionPoolTimeoutException cpte) {
+            // expected
+        }
+
+        Assert.assertThat(blocker.get(), is("stalled"));
+        Assert.assertThat(httpClient.get(baseUri + "/fast", responseHandler).setLeaseTimeout(200L).perform(), is("fast"));
+    }
+
+    private class StallingHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException, ServletException
+        {
+            response.setContentType("text/plain");
+            response.setStatus(HttpServletResponse.SC_OK);
+
+            if ("/stall".equals(target)) {
+                requestStarted.countDown();
+                try {
+                    Thread.sleep(1000L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                response.getWriter().print("stalled");
+            }
+            else {
+                response.getWriter().print("fast");
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+}
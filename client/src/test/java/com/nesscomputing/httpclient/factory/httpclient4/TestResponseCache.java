@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientCacheStats;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestResponseCache
+{
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private final AtomicInteger callCount = new AtomicInteger();
+    private final AtomicInteger staleResponses = new AtomicInteger();
+    private final AtomicInteger completedRequests = new AtomicInteger();
+
+    private LocalHttpService localHttpService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+    private String baseUri = null;
+
+    @Before
+    public void setup()
+    {
+        localHttpService = LocalHttpService.forHandler(new CacheControlHandler());
+        localHttpService.start();
+
+        baseUri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+
+        factory = new ApacheHttpClient4Factory(new HttpClientDefaults() {
+            @Override
+            public boolean isCacheEnabled() {
+                return true;
+            }
+        }, ImmutableSet.of(new HttpClientObserver() {
+            @Override
+            public void onStaleResponseServed(final HttpClientRequest<?> request, final long stalenessMillis, final String reason) {
+                staleResponses.incrementAndGet();
+            }
+
+            @Override
+            public void onRequestCompleted(final HttpClientRequest<?> request, final int statusCode, final long elapsedNanos, final long bytesSent, final long bytesReceived) {
+                completedRequests.incrementAndGet();
+            }
+        }));
+        httpClient = new HttpClient(factory).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testCacheableResponse() throws Exception
+    {
+        Assert.assertThat(httpClient.get(baseUri + "/cacheable", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(httpClient.get(baseUri + "/cacheable", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(callCount.get(), is(1));
+
+        final HttpClientCacheStats stats = factory.getCacheStats();
+        Assert.assertThat(stats.getHits(), is(1L));
+        Assert.assertThat(stats.getMisses(), is(1L));
+        Assert.assertThat(stats.getEntries(), is(1));
+    }
+
+    @Test
+    public void testCacheHitReportsCompletion() throws Exception
+    {
+        Assert.assertThat(httpClient.get(baseUri + "/cacheable", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(httpClient.get(baseUri + "/cacheable", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(callCount.get(), is(1));
+        Assert.assertThat(completedRequests.get(), is(2));
+    }
+
+    @Test
+    public void testNoStore() throws Exception
+    {
+        Assert.assertThat(httpClient.get(baseUri + "/no-store", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(httpClient.get(baseUri + "/no-store", responseHandler).perform(), is("call 2"));
+        Assert.assertThat(factory.getCacheStats().getEntries(), is(0));
+    }
+
+    @Test
+    public void testPostInvalidates() throws Exception
+    {
+        Assert.assertThat(httpClient.get(baseUri + "/cacheable", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(httpClient.post(baseUri + "/cacheable", responseHandler).setContent("x").perform(), is("call 2"));
+        Assert.assertThat(httpClient.get(baseUri + "/cacheable", responseHandler).perform(), is("call 3"));
+    }
+
+    @Test
+    public void testNotModified() throws Exception
+    {
+        Assert.assertThat(httpClient.get(baseUri + "/etag", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(httpClient.get(baseUri + "/etag", responseHandler).perform(), is("call 1"));
+        Assert.assertThat(callCount.get(), is(2));
+
+        final HttpClientCacheStats stats = factory.getCacheStats();
+        Assert.assertThat(stats.getRevalidations(), is(1L));
+        Assert.assertThat(stats.getBytesSaved(), is(6L));
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception
+    {
+        Assert.assertThat(httpClient.get(baseUri + "/short", responseHandler).perform(), is("call 1"));
+        Thread.sleep(1100L);
+
+        Assert.assertThat(httpClient.get(baseUri + "/short", responseHandler).setStaleWhileRevalidate(60000L).perform(), is("call 1"));
+        for (int i = 0; i < 100 && callCount.get() < 2; i++) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(100L);
+        Assert.assertThat(callCount.get(), is(2));
+        Assert.assertThat(httpClient.get(baseUri + "/short", responseHandler).perform(), is("call 2"));
+        Assert.assertThat(staleResponses.get(), is(1));
+    }
+
+    @Test
+    public void testStaleIfError() throws Exception
+    {
+        Assert.assertThat(httpClient.get(baseUri + "/flaky", responseHandler).perform(), is("call 1"));
+        Thread.sleep(1100L);
+
+        Assert.assertThat(httpClient.get(baseUri + "/flaky", responseHandler).setStaleIfError(60000L).perform(), is("call 1"));
+        Assert.assertThat(callCount.get(), is(2));
+        Assert.assertThat(staleResponses.get(), is(1));
+
+        final HttpClientResponseHandler<Integer> statusHandler = new HttpClientResponseHandler<Integer>() {
+            @Override
+            public Integer handle(final HttpClientResponse response) {
+                return response.getStatusCode();
+            }
+        };
+        Assert.assertThat(httpClient.get(baseUri + "/flaky", statusHandler).perform(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+    }
+
+    @Test
+    public void testCacheIsOptional() throws Exception
+    {
+        final ApacheHttpClient4Factory uncachedFactory = new ApacheHttpClient4Factory(new HttpClientDefaults(), null);
+        Assert.assertNull(uncachedFactory.getCacheStats());
+    }
+
+    private class CacheControlHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException, ServletException
+        {
+            final int count = callCount.incrementAndGet();
+
+            if ("/flaky".equals(target) && count > 1) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                baseRequest.setHandled(true);
+                return;
+            }
+
+            if ("/etag".equals(target)) {
+                response.setHeader("ETag", "\"v1\"");
+                if ("\"v1\"".equals(request.getHeader("If-None-Match"))) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    baseRequest.setHandled(true);
+                    return;
+                }
+            }
+
+            response.setContentType("text/plain");
+            response.setStatus(HttpServletResponse.SC_OK);
+            if ("/short".equals(target) || "/flaky".equals(target)) {
+                response.setHeader("Cache-Control", "max-age=1");
+            }
+            else if (!"/etag".equals(target)) {
+                response.setHeader("Cache-Control", "/cacheable".equals(target) ? "max-age=60" : "no-store");
+            }
+            response.getWriter().print("call " + count);
+            baseRequest.setHandled(true);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStripedConnectionManager
+{
+    private static final HttpRoute ROUTE_A = new HttpRoute(new HttpHost("a.example.com", 80));
+    private static final HttpRoute ROUTE_B = new HttpRoute(new HttpHost("b.example.com", 80));
+
+    private StripedConnectionManager connectionManager = null;
+
+    @Before
+    public void setup()
+    {
+        final SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+
+        connectionManager = new StripedConnectionManager(registry);
+        connectionManager.setMaxTotal(2);
+        connectionManager.setDefaultMaxPerRoute(2);
+    }
+
+    @After
+    public void teardown()
+    {
+        connectionManager.shutdown();
+        connectionManager = null;
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        final ManagedClientConnection first = lease(ROUTE_A, 0L);
+        Assert.assertThat(connectionManager.getConnectionsInPool(ROUTE_A), is(1));
+        connectionManager.releaseConnection(first, -1, TimeUnit.MILLISECONDS);
+
+        final ManagedClientConnection second = lease(ROUTE_A, 0L);
+        Assert.assertThat(connectionManager.getConnectionsInPool(ROUTE_A), is(1));
+        Assert.assertThat(connectionManager.getConnectionsInPool(), is(1));
+        connectionManager.releaseConnection(second, -1, TimeUnit.MILLISECONDS);
+
+        Assert.assertThat(connectionManager.getPoolStats().getIdle(), is(1));
+    }
+
+    @Test
+    public void testNotReusable() throws Exception
+    {
+        final ManagedClientConnection connection = lease(ROUTE_A, 0L);
+        connection.unmarkReusable();
+        connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+
+        Assert.assertThat(connectionManager.getConnectionsInPool(), is(0));
+    }
+
+    @Test
+    public void testReleaseTwice() throws Exception
+    {
+        final ManagedClientConnection connection = lease(ROUTE_A, 0L);
+        connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+        connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+
+        Assert.assertThat(connectionManager.getConnectionsInPool(), is(1));
+        Assert.assertThat(connectionManager.getPoolStats().getLeased(), is(0));
+    }
+
+    @Test(expected=ConnectionPoolTimeoutException.class)
+    public void testRouteLimit() throws Exception
+    {
+        connectionManager.setMaxTotal(10);
+        connectionManager.setDefaultMaxPerRoute(1);
+
+        lease(ROUTE_A, 0L);
+        Assert.assertNotNull(lease(ROUTE_B, 0L));
+        lease(ROUTE_A, 50L);
+    }
+
+    @Test(expected=ConnectionPoolTimeoutException.class)
+    public void testTotalLimit() throws Exception
+    {
+        lease(ROUTE_A, 0L);
+        lease(ROUTE_A, 0L);
+        lease(ROUTE_B, 50L);
+    }
+
+    @Test
+    public void testEvictIdleOfOtherRoute() throws Exception
+    {
+        connectionManager.releaseConnection(lease(ROUTE_A, 0L), -1, TimeUnit.MILLISECONDS);
+        lease(ROUTE_A, 0L);
+        connectionManager.releaseConnection(lease(ROUTE_A, 0L), -1, TimeUnit.MILLISECONDS);
+
+        Assert.assertNotNull(lease(ROUTE_B, 50L));
+        Assert.assertThat(connectionManager.getConnectionsInPool(ROUTE_A), is(1));
+        Assert.assertThat(connectionManager.getConnectionsInPool(ROUTE_B), is(1));
+    }
+
+    @Test
+    public void testReleaseWakesWaiter() throws Exception
+    {
+        final ManagedClientConnection first = lease(ROUTE_A, 0L);
+        lease(ROUTE_A, 0L);
+
+        final Thread releaser = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(50L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                connectionManager.releaseConnection(first, -1, TimeUnit.MILLISECONDS);
+            }
+        };
+        releaser.start();
+
+        Assert.assertNotNull(lease(ROUTE_A, 5000L));
+        releaser.join();
+    }
+
+    @Test(expected=InterruptedException.class)
+    public void testAbort() throws Exception
+    {
+        lease(ROUTE_A, 0L);
+        lease(ROUTE_A, 0L);
+
+        final ClientConnectionRequest request = connectionManager.requestConnection(ROUTE_A, null);
+        final Thread aborter = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(50L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                request.abortRequest();
+            }
+        };
+        aborter.start();
+
+        request.getConnection(0L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testCloseIdle() throws Exception
+    {
+        connectionManager.releaseConnection(lease(ROUTE_A, 0L), -1, TimeUnit.MILLISECONDS);
+        connectionManager.releaseConnection(lease(ROUTE_B, 0L), 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(10L);
+
+        connectionManager.closeExpiredConnections();
+        Assert.assertThat(connectionManager.getConnectionsInPool(ROUTE_A), is(1));
+        Assert.assertThat(connectionManager.getConnectionsInPool(ROUTE_B), is(0));
+
+        connectionManager.closeIdleConnections(0L, TimeUnit.MILLISECONDS);
+        Assert.assertThat(connectionManager.getConnectionsInPool(), is(0));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testShutdown() throws Exception
+    {
+        connectionManager.shutdown();
+        lease(ROUTE_A, 0L);
+    }
+
+    private ManagedClientConnection lease(final HttpRoute route, final long timeout) throws Exception
+    {
+        return connectionManager.requestConnection(route, null).getConnection(timeout, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.HttpClientTimings;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestTimings
+{
+    private final List<HttpClientTimings> recorded = Lists.newArrayList();
+
+    private final HttpClientObserver observer = new HttpClientObserver() {
+        @Override
+        public void onRequestTimed(final HttpClientRequest<?> request, final HttpClientTimings timings)
+        {
+            recorded.add(timings);
+        }
+    };
+
+    private final HttpClientResponseHandler<HttpClientTimings> timingsHandler = new HttpClientResponseHandler<HttpClientTimings>() {
+        @Override
+        public HttpClientTimings handle(final HttpClientResponse response) throws IOException
+        {
+            return response.getTimings();
+        }
+    };
+
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        final GenericTestHandler testHandler = new GenericTestHandler();
+        testHandler.setContent("Hello, World!");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        httpClient = new HttpClient(new HttpClientDefaults(), ImmutableSet.of(observer)).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+    }
+
+    @Test
+    public void testTimings() throws Exception
+    {
+        final HttpClientTimings first = httpClient.get(uri, timingsHandler).perform();
+        Assert.assertNotNull(first);
+        Assert.assertThat(recorded.size(), is(1));
+        Assert.assertSame(first, recorded.get(0));
+
+        Assert.assertFalse(first.isConnectionReused());
+        Assert.assertTrue(first.getLeaseWaitNanos() >= 0);
+        Assert.assertTrue(first.getDnsNanos() >= 0);
+        Assert.assertTrue(first.getConnectNanos() >= 0);
+        Assert.assertThat(first.getTlsHandshakeNanos(), is(-1L));
+        Assert.assertTrue(first.getRequestWriteNanos() >= 0);
+        Assert.assertTrue(first.getTimeToFirstByteNanos() >= 0);
+        Assert.assertTrue(first.getBodyReadNanos() >= 0);
+
+        final HttpClientTimings second = httpClient.get(uri, timingsHandler).perform();
+        Assert.assertThat(recorded.size(), is(2));
+        Assert.assertTrue(second.isConnectionReused());
+        Assert.assertThat(second.getDnsNanos(), is(-1L));
+        Assert.assertThat(second.getConnectNanos(), is(-1L));
+        Assert.assertTrue(second.getTimeToFirstByteNanos() >= 0);
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.testing.lessio.AllowNetworkListen;
+
+/**
+ * Minimal in-process HTTP/2 server for h2c with prior knowledge. Answers every request with its
+ * method, path and body, "/redirect" with a redirect to "/target". Echoes the X-Ness-Test header.
+ */
+@AllowNetworkListen(ports={0})
+public class LocalHttp2Service
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final byte [] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Charsets.US_ASCII);
+
+    private static final int FRAME_SIZE = 16384;
+
+    private final int maxConcurrentStreams;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    public LocalHttp2Service(final int maxConcurrentStreams) throws IOException
+    {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public void start()
+    {
+        executor.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        connectionCount.incrementAndGet();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run()
+                            {
+                                serve(socket);
+                            }
+                        });
+                    }
+                }
+                catch (IOException ioe) {
+                    LOG.trace(ioe, "Server socket closed");
+                }
+            }
+        });
+    }
+
+    public void stop() throws IOException
+    {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    public String getUri(final String path)
+    {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    public int getConnectionCount()
+    {
+        return connectionCount.get();
+    }
+
+    private void serve(final Socket socket)
+    {
+        try {
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            final byte [] preface = new byte [PREFACE.length];
+            in.readFully(preface);
+            if (!Arrays.equals(preface, PREFACE)) {
+                throw new IOException("No HTTP/2 preface");
+            }
+
+            writeFrame(out, 0x4, 0, 0, ByteBuffer.allocate(6).putShort((short) 0x3).putInt(maxConcurrentStreams).array());
+
+            final NioHpackDecoder decoder = new NioHpackDecoder();
+            final Map<Integer, List<HttpClientHeader>> requests = Maps.newHashMap();
+            final Map<Integer, ByteArrayOutputStream> bodies = Maps.newHashMap();
+            final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+            boolean headerBlockEndStream = false;
+
+            while (true) {
+                final int length = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
+                final int type = in.readUnsignedByte();
+                final int flags = in.readUnsignedByte();
+                final int streamId = in.readInt() & 0x7fffffff;
+                final byte [] payload = new byte [length];
+                in.readFully(payload);
+
+                boolean endStream = false;
+                switch (type) {
+                case 0x0:
+                    bodies.get(streamId).write(payload);
+                    if (length > 0) {
+                        writeFrame(out, 0x8, 0, 0, ByteBuffer.allocate(4).putInt(length).array());
+                        writeFrame(out, 0x8, 0, streamId, ByteBuffer.allocate(4).putInt(length).array());
+                    }
+                    endStream = (flags & 0x1) != 0;
+                    break;
+                case 0x1:
+                case 0x9:
+                    if (type == 0x1) {
+                        headerBlock.reset();
+                        headerBlockEndStream = (flags & 0x1) != 0;
+                    }
+                    headerBlock.write(payload);
+                    if ((flags & 0x4) != 0) {
+                        requests.put(streamId, decoder.decode(ByteBuffer.wrap(headerBlock.toByteArray())));
+                        bodies.put(streamId, new ByteArrayOutputStream());
+                        endStream = headerBlockEndStream;
+                    }
+                    break;
+                case 0x4:
+                    if ((flags & 0x1) == 0) {
+                        writeFrame(out, 0x4, 0x1, 0, new byte [0]);
+                    }
+                    break;
+                case 0x7:
+                    return;
+                default:
+                    break;
+                }
+
+                if (endStream) {
+                    respond(out, streamId, requests.remove(streamId), bodies.remove(streamId).toByteArray());
+                }
+            }
+        }
+        catch (IOException ioe) {
+            LOG.trace(ioe, "Connection closed");
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (IOException ioe) {
+                LOG.trace(ioe, "While closing socket");
+            }
+        }
+    }
+
+    private void respond(final OutputStream out, final int streamId, final List<HttpClientHeader> request, final byte [] body) throws IOException
+    {
+        final String method = header(request, ":method");
+        final String path = header(request, ":path");
+
+        final ImmutableList.Builder<HttpClientHeader> headers = ImmutableList.builder();
+        if ("/redirect".equals(path)) {
+            headers.add(new HttpClientHeader(":status", "302"));
+            headers.add(new HttpClientHeader("location", "/target"));
+        }
+        else {
+            headers.add(new HttpClientHeader(":status", "200"));
+        }
+        headers.add(new HttpClientHeader("content-type", "text/plain; charset=ISO-8859-1"));
+        final String test = header(request, "x-ness-test");
+        if (test != null) {
+            headers.add(new HttpClientHeader("x-ness-test", test));
+        }
+        writeFrame(out, 0x1, 0x4, streamId, NioHpackEncoder.encode(headers.build()));
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write((method + " " + path).getBytes(Charsets.ISO_8859_1));
+        if (body.length > 0) {
+            content.write(' ');
+            content.write(body);
+        }
+
+        final byte [] bytes = content.toByteArray();
+        for (int offset = 0; offset < bytes.length; offset += FRAME_SIZE) {
+            final int length = Math.min(FRAME_SIZE, bytes.length - offset);
+            writeFrame(out, 0x0, (offset + length == bytes.length) ? 0x1 : 0x0, streamId, Arrays.copyOfRange(bytes, offset, offset + length));
+        }
+    }
+
+    private static String header(final List<HttpClientHeader> headers, final String name)
+    {
+        for (final HttpClientHeader header : headers) {
+            if (header.getName().equals(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void writeFrame(final OutputStream out, final int type, final int flags, final int streamId, final byte [] payload) throws IOException
+    {
+        final ByteBuffer frame = ByteBuffer.allocate(9 + payload.length);
+        frame.put((byte) (payload.length >>> 16)).put((byte) (payload.length >>> 8)).put((byte) payload.length);
+        frame.put((byte) type).put((byte) flags).putInt(streamId).put(payload);
+        out.write(frame.array());
+        out.flush();
+    }
+}
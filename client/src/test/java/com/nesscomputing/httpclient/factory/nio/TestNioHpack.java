@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+
+public class TestNioHpack
+{
+    @Test
+    public void testRequestExamplesWithHuffman() throws IOException
+    {
+        // RFC 7541, appendix C.4. The blocks share one dynamic table.
+        final NioHpackDecoder decoder = new NioHpackDecoder();
+
+        Assert.assertThat(format(decoder.decode(bytes("828684418cf1e3c2e5f23a6ba0ab90f4ff"))),
+                          is(":method=GET|:scheme=http|:path=/|:authority=www.example.com|"));
+        Assert.assertThat(format(decoder.decode(bytes("828684be5886a8eb10649cbf"))),
+                          is(":method=GET|:scheme=http|:path=/|:authority=www.example.com|cache-control=no-cache|"));
+        Assert.assertThat(format(decoder.decode(bytes("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"))),
+                          is(":method=GET|:scheme=https|:path=/index.html|:authority=www.example.com|custom-key=custom-value|"));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final List<HttpClientHeader> headers = ImmutableList.of(
+            new HttpClientHeader(":method", "GET"),
+            new HttpClientHeader(":path", "/foo?bar=baz"),
+            new HttpClientHeader("authorization", "Basic Zm9vOmJhcg=="),
+            new HttpClientHeader("x-ness-test", "a value that is longer than one hundred and twenty-seven bytes to need more than one byte for its length, "
+                                               + "which is encoded with a seven bit prefix"));
+
+        Assert.assertThat(format(new NioHpackDecoder().decode(ByteBuffer.wrap(NioHpackEncoder.encode(headers)))), is(format(headers)));
+    }
+
+    @Test(expected=IOException.class)
+    public void testInvalidIndex() throws IOException
+    {
+        new NioHpackDecoder().decode(bytes("be"));
+    }
+
+    @Test(expected=IOException.class)
+    public void testInvalidPadding() throws IOException
+    {
+        // "a" is 00011, padded with zeros instead of ones.
+        new NioHpackDecoder().decode(bytes("0081188100"));
+    }
+
+    private static String format(final List<HttpClientHeader> headers)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (final HttpClientHeader header : headers) {
+            sb.append(header.getName()).append('=').append(header.getValue()).append('|');
+        }
+        return sb.toString();
+    }
+
+    private static ByteBuffer bytes(final String hex)
+    {
+        final byte [] bytes = new byte [hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestNioHttp2Client
+{
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private LocalHttp2Service localHttp2Service = null;
+    private HttpClient httpClient = null;
+
+    @Before
+    public void setup() throws IOException
+    {
+        localHttp2Service = new LocalHttp2Service(10);
+        localHttp2Service.start();
+
+        final HttpClientDefaults defaults = new HttpClientDefaults();
+        httpClient = new HttpClient(new NioHttpClientFactory(defaults, null, true), defaults).start();
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        httpClient.close();
+        localHttp2Service.stop();
+    }
+
+    @Test
+    public void testGet() throws IOException
+    {
+        final String response = httpClient.get(localHttp2Service.getUri("/data?foo=bar"), responseHandler).perform();
+        Assert.assertThat(response, is("GET /data?foo=bar"));
+    }
+
+    @Test
+    public void testHeaders() throws IOException
+    {
+        final String echoed = httpClient.get(localHttp2Service.getUri("/data"), new HttpClientResponseHandler<String>() {
+            @Override
+            public String handle(final HttpClientResponse response)
+            {
+                Assert.assertThat(response.getStatusCode(), is(200));
+                Assert.assertThat(response.getStatusText(), is("OK"));
+                return response.getHeader("X-Ness-Test");
+            }
+        }).addHeader("X-Ness-Test", "foo").perform();
+
+        Assert.assertThat(echoed, is("foo"));
+    }
+
+    @Test
+    public void testPost() throws IOException
+    {
+        final String response = httpClient.post(localHttp2Service.getUri("/data"), responseHandler)
+            .setContent("Hallo Welt")
+            .perform();
+
+        Assert.assertThat(response, is("POST /data Hallo Welt"));
+    }
+
+    @Test
+    public void testLargeBodies() throws IOException
+    {
+        // Larger than the initial flow control window in both directions.
+        final String content = StringUtils.repeat("Ich bin zwei Oeltanks. ", 10000);
+
+        final String response = httpClient.put(localHttp2Service.getUri("/data"), responseHandler)
+            .setContent(content)
+            .perform();
+
+        Assert.assertThat(response, is("PUT /data " + content));
+    }
+
+    @Test
+    public void testManyRequestsShareOneConnection() throws Exception
+    {
+        final List<ListenableFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            futures.add(httpClient.get(localHttp2Service.getUri("/data/" + i), responseHandler).request().performAsync());
+        }
+
+        final List<String> responses = Futures.allAsList(futures).get();
+        for (int i = 0; i < responses.size(); i++) {
+            Assert.assertThat(responses.get(i), is("GET /data/" + i));
+        }
+        Assert.assertThat(localHttp2Service.getConnectionCount(), is(1));
+    }
+
+    @Test
+    public void testFollowRedirects() throws IOException
+    {
+        final String response = httpClient.get(localHttp2Service.getUri("/redirect"), responseHandler).perform();
+        Assert.assertThat(response, is("GET /target"));
+    }
+}
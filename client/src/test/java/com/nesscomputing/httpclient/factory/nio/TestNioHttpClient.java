@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nesscomputing.httpclient.AbstractTestHttpClient;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+
+public class TestNioHttpClient extends AbstractTestHttpClient
+{
+    @Before
+    public void setup()
+    {
+        Assert.assertNull(localHttpService);
+        Assert.assertNull(httpClient);
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        final HttpClientDefaults defaults = new HttpClientDefaults();
+        httpClient = new HttpClient(new NioHttpClientFactory(defaults, null), defaults).start();
+    }
+
+    @Override
+    protected HttpClientRequest<String> getRequest()
+    {
+        return httpClient.get(getUri(), responseHandler).request();
+    }
+
+    private String getUri()
+    {
+        return "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+    }
+
+    @Test
+    public void testPost() throws IOException
+    {
+        testHandler.setContent("Ich bin zwei Oeltanks");
+        testHandler.setContentType("text/plain");
+
+        final String response = httpClient.post(getUri(), responseHandler)
+            .setContent("Hallo Welt")
+            .addHeader("X-Ness-Test", "foo")
+            .perform();
+
+        Assert.assertThat(response, is("Ich bin zwei Oeltanks"));
+        Assert.assertThat(testHandler.getMethod(), is("POST"));
+        Assert.assertThat(testHandler.getHeaders("X-Ness-Test").get(0).getValue(), is("foo"));
+    }
+
+    @Test
+    public void testManyAsync() throws Exception
+    {
+        testHandler.setContent("Ich bin zwei Oeltanks");
+        testHandler.setContentType("text/plain");
+
+        final List<ListenableFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            futures.add(getRequest().performAsync());
+        }
+
+        for (String response : Futures.allAsList(futures).get()) {
+            Assert.assertThat(response, is("Ich bin zwei Oeltanks"));
+        }
+    }
+
+    @Test
+    public void testFollowRedirects() throws IOException
+    {
+        final String baseUri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+        testHandler.addHeader("Location", baseUri + "/foo");
+
+        testHandler.setNextStatus(302);
+        httpClient.get(baseUri, new ContentResponseHandler<String>(new StringResponseConverter(200))).perform();
+        Assert.assertThat(testHandler.getRequestURI(), is("/foo"));
+
+        testHandler.setNextStatus(302);
+        httpClient.get(baseUri, new ContentResponseHandler<String>(new StringResponseConverter(302))).followRedirects(false).perform();
+        Assert.assertThat(testHandler.getRequestURI(), is("/"));
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.nio;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.nesscomputing.httpclient.io.SizeExceededException;
+
+public class TestNioResponseParser
+{
+    private static final URI LOCALHOST = URI.create("http://localhost/");
+
+    @Test
+    public void testContentLengthInPieces() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(false, -1);
+        final String response = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nX-Foo: bar\r\n\r\nhello";
+
+        for (int i = 0; i < response.length() - 1; i++) {
+            Assert.assertFalse(parser.parse(bytes(response.substring(i, i + 1))));
+        }
+        Assert.assertTrue(parser.parse(bytes(response.substring(response.length() - 1))));
+        Assert.assertTrue(parser.isKeepAlive());
+
+        final NioResponse nioResponse = parser.buildResponse(LOCALHOST);
+        Assert.assertThat(nioResponse.getStatusCode(), is(200));
+        Assert.assertThat(nioResponse.getHeader("x-foo"), is("bar"));
+        Assert.assertThat(body(nioResponse), is("hello"));
+    }
+
+    @Test
+    public void testChunked() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(false, -1);
+        final ByteBuffer buffer = bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6;ext=1\r\n world\r\n0\r\n\r\nHTTP/1.1");
+
+        Assert.assertTrue(parser.parse(buffer));
+        Assert.assertThat(buffer.remaining(), is(8));
+        Assert.assertThat(body(parser.buildResponse(LOCALHOST)), is("hello world"));
+    }
+
+    @Test
+    public void testUntilClose() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(false, -1);
+
+        Assert.assertFalse(parser.parse(bytes("HTTP/1.0 200 OK\r\n\r\nhello")));
+        Assert.assertTrue(parser.endOfStream());
+        Assert.assertFalse(parser.isKeepAlive());
+        Assert.assertThat(body(parser.buildResponse(LOCALHOST)), is("hello"));
+    }
+
+    @Test
+    public void testHeadHasNoBody() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(true, -1);
+
+        Assert.assertTrue(parser.parse(bytes("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n")));
+        Assert.assertTrue(parser.isKeepAlive());
+    }
+
+    @Test
+    public void testSkipsContinue() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(false, -1);
+
+        Assert.assertTrue(parser.parse(bytes("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n")));
+        Assert.assertThat(parser.buildResponse(LOCALHOST).getStatusCode(), is(204));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncated() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(false, -1);
+
+        Assert.assertFalse(parser.parse(bytes("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nhello")));
+        parser.endOfStream();
+    }
+
+    @Test(expected = SizeExceededException.class)
+    public void testContentLengthTooLarge() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(false, 4);
+        parser.parse(bytes("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n"));
+    }
+
+    @Test(expected = SizeExceededException.class)
+    public void testChunkedTooLarge() throws IOException
+    {
+        final NioResponseParser parser = new NioResponseParser(false, 8);
+        Assert.assertFalse(parser.parse(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n")));
+        parser.parse(bytes("6\r\n world\r\n"));
+    }
+
+    private static ByteBuffer bytes(final String data)
+    {
+        return ByteBuffer.wrap(data.getBytes(Charsets.ISO_8859_1));
+    }
+
+    private static String body(final NioResponse response) throws IOException
+    {
+        return new String(ByteStreams.toByteArray(response.getResponseBodyAsStream()), Charsets.ISO_8859_1);
+    }
+}
@@ -30,6 +30,9 @@ import com.google.inject.name.Names;
 import com.nesscomputing.config.Config;
 import com.nesscomputing.config.ConfigModule;
 import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.factory.nio.NioHttpClientFactory;
+import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.lifecycle.Lifecycle;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.lifecycle.guice.LifecycleModule;
@@ -84,6 +87,36 @@ public class TestGuiceModule
         Assert.assertNotNull(httpClient);
     }
 
+    @Test
+    public void testNioEngine()
+    {
+        final Config config = Config.getFixedConfig("ness.httpclient.testing.engine", "nio");
+
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       new ConfigModule(config),
+                                                       ENFORCEMENT_MODULE,
+                                                       new LifecycleModule(),
+                                                       new HttpClientModule("testing"),
+                                                       new HttpClientModule("running"));
+
+        Assert.assertTrue(injector.getInstance(Key.get(HttpClientFactory.class, Names.named("testing"))) instanceof NioHttpClientFactory);
+        Assert.assertTrue(injector.getInstance(Key.get(HttpClientFactory.class, Names.named("running"))) instanceof ApacheHttpClient4Factory);
+    }
+
+    @Test
+    public void testHttp2Engine()
+    {
+        final Config config = Config.getFixedConfig("ness.httpclient.testing.engine", "http2");
+
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       new ConfigModule(config),
+                                                       ENFORCEMENT_MODULE,
+                                                       new LifecycleModule(),
+                                                       new HttpClientModule("testing"));
+
+        Assert.assertTrue(injector.getInstance(Key.get(HttpClientFactory.class, Names.named("testing"))) instanceof NioHttpClientFactory);
+    }
+
     @Test
     public void testMultiple()
     {
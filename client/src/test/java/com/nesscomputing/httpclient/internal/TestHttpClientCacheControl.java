@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestHttpClientCacheControl
+{
+    @Test
+    public void testDirectives()
+    {
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(ImmutableList.of("Public, MAX-AGE=60", "no-cache=\"Set-Cookie, Foo\", s-maxage = 10"));
+        Assert.assertTrue(cacheControl.has("public"));
+        Assert.assertThat(cacheControl.getValue("public"), is(nullValue()));
+        Assert.assertThat(cacheControl.getSeconds("max-age"), is(60L));
+        Assert.assertThat(cacheControl.getSeconds("s-maxage"), is(10L));
+        Assert.assertThat(cacheControl.getValue("no-cache"), is("Set-Cookie, Foo"));
+        Assert.assertFalse(cacheControl.has("no-store"));
+    }
+
+    @Test
+    public void testFirstDirectiveCounts()
+    {
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(ImmutableList.of("max-age=5, max-age=50"));
+        Assert.assertThat(cacheControl.getSeconds("max-age"), is(5L));
+    }
+
+    @Test
+    public void testInvalidSeconds()
+    {
+        final HttpClientCacheControl cacheControl = HttpClientCacheControl.parse(ImmutableList.of("max-age=soon, s-maxage"));
+        Assert.assertThat(cacheControl.getSeconds("max-age"), is(HttpClientCacheControl.NONE));
+        Assert.assertThat(cacheControl.getSeconds("s-maxage"), is(HttpClientCacheControl.NONE));
+        Assert.assertThat(cacheControl.getSeconds("min-fresh"), is(HttpClientCacheControl.NONE));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        Assert.assertFalse(HttpClientCacheControl.parse(null).has("max-age"));
+        Assert.assertFalse(HttpClientCacheControl.parse(ImmutableList.of(" , ")).has(""));
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+
+public class TestHttpClientCachingDnsResolver
+{
+    private final FakeTicker ticker = new FakeTicker();
+    private final FakeResolver resolver = new FakeResolver();
+    private final List<Runnable> refreshes = Lists.newArrayList();
+
+    private final Executor refreshExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command)
+        {
+            refreshes.add(command);
+        }
+    };
+
+    private final HttpClientCachingDnsResolver dnsCache =
+        new HttpClientCachingDnsResolver(resolver, 60000L, 10000L, 300000L, refreshExecutor, ticker);
+
+    @Test
+    public void testCaches() throws Exception
+    {
+        resolver.address = address(1);
+
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(1)));
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(1)));
+
+        Assert.assertThat(resolver.lookups, is(1));
+        Assert.assertThat(dnsCache.getMisses(), is(1L));
+        Assert.assertThat(dnsCache.getHits(), is(1L));
+    }
+
+    @Test
+    public void testExpires() throws Exception
+    {
+        resolver.address = address(1);
+        dnsCache.resolve("example.com");
+
+        resolver.address = address(2);
+        ticker.advance(60000L);
+
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(2)));
+        Assert.assertThat(resolver.lookups, is(2));
+        Assert.assertThat(dnsCache.getMisses(), is(2L));
+        Assert.assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void testRefreshesAhead() throws Exception
+    {
+        resolver.address = address(1);
+        dnsCache.resolve("example.com");
+
+        resolver.address = address(2);
+        ticker.advance(49999L);
+        dnsCache.resolve("example.com");
+        Assert.assertTrue(refreshes.isEmpty());
+
+        ticker.advance(1L);
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(1)));
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(1)));
+        Assert.assertThat(refreshes.size(), is(1));
+
+        refreshes.get(0).run();
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(2)));
+
+        // The refreshed entry lives for a full ttl.
+        ticker.advance(59999L);
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(2)));
+        Assert.assertThat(resolver.lookups, is(2));
+        Assert.assertThat(dnsCache.getMisses(), is(1L));
+    }
+
+    @Test
+    public void testStaleIfError() throws Exception
+    {
+        resolver.address = address(1);
+        dnsCache.resolve("example.com");
+
+        resolver.address = null;
+        ticker.advance(60000L + 299999L);
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(1)));
+        Assert.assertThat(dnsCache.getStaleHits(), is(1L));
+
+        ticker.advance(1L);
+        try {
+            dnsCache.resolve("example.com");
+            Assert.fail();
+        }
+        catch (UnknownHostException uhe) {
+            // expected
+        }
+    }
+
+    @Test(expected=UnknownHostException.class)
+    public void testUnknownHost() throws Exception
+    {
+        dnsCache.resolve("example.com");
+    }
+
+    @Test
+    public void testCopiesAddresses() throws Exception
+    {
+        resolver.address = address(1);
+        dnsCache.resolve("example.com")[0] = address(2);
+
+        Assert.assertThat(dnsCache.resolve("example.com")[0], is(address(1)));
+    }
+
+    private static InetAddress address(final int lastByte) throws UnknownHostException
+    {
+        return InetAddress.getByAddress("example.com", new byte[] { 10, 0, 0, (byte) lastByte });
+    }
+
+    private static class FakeResolver implements HttpClientDnsResolver
+    {
+        private InetAddress address = null;
+        private int lookups = 0;
+
+        @Override
+        public InetAddress[] resolve(final String host) throws UnknownHostException
+        {
+            lookups++;
+            if (address == null) {
+                throw new UnknownHostException(host);
+            }
+            return new InetAddress[] { address };
+        }
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long nanos = 0;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        private void advance(final long millis)
+        {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.CircuitBreakerState;
+
+public class TestHttpClientCircuitBreaker
+{
+    private final FakeTicker ticker = new FakeTicker();
+    private final List<CircuitBreakerState> transitions = Lists.newArrayList();
+
+    private final HttpClientCircuitBreaker circuitBreaker =
+        new HttpClientCircuitBreaker("http://localhost:8080", 10, 4, 0.5, 1000L, 0.8, 30000L, 2, new HttpClientCircuitBreaker.Listener() {
+            @Override
+            public void onStateChange(final HttpClientCircuitBreaker circuitBreaker, final CircuitBreakerState oldState, final CircuitBreakerState newState)
+            {
+                transitions.add(newState);
+            }
+        }, ticker);
+
+    @Test
+    public void testStaysClosedBelowMinimumCalls()
+    {
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.record(circuitBreaker.acquire(), true, false);
+        }
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.CLOSED));
+        Assert.assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    public void testOpensOnFailureRate()
+    {
+        circuitBreaker.record(circuitBreaker.acquire(), false, false);
+        circuitBreaker.record(circuitBreaker.acquire(), false, false);
+        circuitBreaker.record(circuitBreaker.acquire(), true, false);
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.CLOSED));
+
+        circuitBreaker.record(circuitBreaker.acquire(), true, false);
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.OPEN));
+        Assert.assertThat(circuitBreaker.acquire(), is(HttpClientCircuitBreaker.REJECTED));
+    }
+
+    @Test
+    public void testOpensOnSlowCallRate()
+    {
+        Assert.assertFalse(circuitBreaker.isSlow(TimeUnit.MILLISECONDS.toNanos(999L)));
+        Assert.assertTrue(circuitBreaker.isSlow(TimeUnit.MILLISECONDS.toNanos(1000L)));
+
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.record(circuitBreaker.acquire(), false, true);
+        }
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.OPEN));
+    }
+
+    @Test
+    public void testWindowSlides()
+    {
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.record(circuitBreaker.acquire(), false, false);
+            circuitBreaker.record(circuitBreaker.acquire(), false, false);
+            circuitBreaker.record(circuitBreaker.acquire(), true, false);
+        }
+        // Never more than 4 failures in the last 10 calls.
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.CLOSED));
+    }
+
+    @Test
+    public void testHalfOpenCloses()
+    {
+        open();
+
+        ticker.advance(29999L);
+        Assert.assertThat(circuitBreaker.acquire(), is(HttpClientCircuitBreaker.REJECTED));
+
+        ticker.advance(1L);
+        final long first = circuitBreaker.acquire();
+        final long second = circuitBreaker.acquire();
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.HALF_OPEN));
+        Assert.assertThat(circuitBreaker.acquire(), is(HttpClientCircuitBreaker.REJECTED));
+
+        circuitBreaker.record(first, false, false);
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.HALF_OPEN));
+        circuitBreaker.record(second, false, false);
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.CLOSED));
+
+        Assert.assertThat(transitions, is((List<CircuitBreakerState>) Lists.newArrayList(CircuitBreakerState.OPEN, CircuitBreakerState.HALF_OPEN, CircuitBreakerState.CLOSED)));
+    }
+
+    @Test
+    public void testHalfOpenReopens()
+    {
+        open();
+        ticker.advance(30000L);
+
+        final long first = circuitBreaker.acquire();
+        circuitBreaker.record(first, false, true);
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.OPEN));
+        Assert.assertThat(circuitBreaker.acquire(), is(HttpClientCircuitBreaker.REJECTED));
+    }
+
+    @Test
+    public void testReleaseReturnsTrialPermit()
+    {
+        open();
+        ticker.advance(30000L);
+
+        circuitBreaker.acquire();
+        final long second = circuitBreaker.acquire();
+        Assert.assertThat(circuitBreaker.acquire(), is(HttpClientCircuitBreaker.REJECTED));
+
+        circuitBreaker.release(second);
+        Assert.assertTrue(circuitBreaker.acquire() != HttpClientCircuitBreaker.REJECTED);
+    }
+
+    @Test
+    public void testIgnoresCallsFromEarlierState()
+    {
+        final long stale = circuitBreaker.acquire();
+        open();
+        ticker.advance(30000L);
+
+        circuitBreaker.acquire();
+        circuitBreaker.record(stale, true, false);
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.HALF_OPEN));
+    }
+
+    private void open()
+    {
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.record(circuitBreaker.acquire(), true, false);
+        }
+        Assert.assertThat(circuitBreaker.getState(), is(CircuitBreakerState.OPEN));
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long nanos = 0;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        private void advance(final long millis)
+        {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHttpClientConcurrencyLimiter
+{
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10L);
+
+    private final HttpClientConcurrencyLimiter concurrencyLimiter = new HttpClientConcurrencyLimiter("http://localhost:8080", 4, 2, 8, 0.5, 2.0);
+
+    @Test
+    public void testRejectsOverLimit() throws Exception
+    {
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(concurrencyLimiter.acquire(0L));
+        }
+        Assert.assertFalse(concurrencyLimiter.acquire(0L));
+        Assert.assertFalse(concurrencyLimiter.acquire(10L));
+
+        concurrencyLimiter.release();
+        Assert.assertTrue(concurrencyLimiter.acquire(0L));
+        Assert.assertThat(concurrencyLimiter.getInFlight(), is(4));
+    }
+
+    @Test
+    public void testQueuedRequestGetsReleasedSlot() throws Exception
+    {
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(concurrencyLimiter.acquire(0L));
+        }
+
+        final Thread releaser = new Thread() {
+            @Override
+            public void run()
+            {
+                concurrencyLimiter.release();
+            }
+        };
+        releaser.start();
+
+        Assert.assertTrue(concurrencyLimiter.acquire(5000L));
+        releaser.join();
+    }
+
+    @Test
+    public void testAdditiveIncrease() throws Exception
+    {
+        fill(4);
+
+        // One more slot after about limit fast calls at full load.
+        for (int i = 0; i < 4; i++) {
+            concurrencyLimiter.onSample(RTT, false);
+        }
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(4));
+        concurrencyLimiter.onSample(RTT, false);
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(5));
+    }
+
+    @Test
+    public void testNoIncreaseWhenIdle()
+    {
+        for (int i = 0; i < 100; i++) {
+            concurrencyLimiter.onSample(RTT, false);
+        }
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(4));
+    }
+
+    @Test
+    public void testMaxLimit() throws Exception
+    {
+        fill(4);
+        for (int i = 0; i < 100; i++) {
+            concurrencyLimiter.onSample(RTT, false);
+        }
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(8));
+    }
+
+    @Test
+    public void testMultiplicativeDecrease()
+    {
+        concurrencyLimiter.onSample(RTT, false);
+
+        concurrencyLimiter.onSample(RTT, true);
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(2));
+
+        concurrencyLimiter.onSample(RTT, true);
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(2));
+    }
+
+    @Test
+    public void testSlowCallDecreases()
+    {
+        concurrencyLimiter.onSample(RTT, false);
+        concurrencyLimiter.onSample(2 * RTT, false);
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(4));
+
+        concurrencyLimiter.onSample(3 * RTT, false);
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(2));
+    }
+
+    @Test
+    public void testBaselineFollowsServer()
+    {
+        concurrencyLimiter.onSample(RTT, false);
+        for (int i = 0; i < HttpClientConcurrencyLimiter.EPOCH_SAMPLES; i++) {
+            concurrencyLimiter.onSample(3 * RTT, true);
+        }
+        for (int i = 0; i < HttpClientConcurrencyLimiter.EPOCH_SAMPLES; i++) {
+            concurrencyLimiter.onSample(3 * RTT, false);
+        }
+
+        // The server got slower for good, so 3 * RTT is normal now.
+        fill(2);
+        for (int i = 0; i < 3; i++) {
+            concurrencyLimiter.onSample(3 * RTT, false);
+        }
+        Assert.assertThat(concurrencyLimiter.getLimit(), is(3));
+    }
+
+    private void fill(final int requests)
+    {
+        for (int i = 0; i < requests; i++) {
+            try {
+                Assert.assertTrue(concurrencyLimiter.acquire(0L));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                Assert.fail();
+            }
+        }
+    }
+}
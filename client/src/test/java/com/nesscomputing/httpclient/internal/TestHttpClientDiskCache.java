@@ -0,0 +1,421 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
+
+public class TestHttpClientDiskCache
+{
+    private static final String KEY_A = "http://localhost/a";
+    private static final String KEY_B = "http://localhost/b";
+    private static final List<String> NO_VARY = Collections.emptyList();
+
+    private final FakeTicker ticker = new FakeTicker();
+    private File directory;
+    private HttpClientDiskCache cache;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDir();
+        cache = HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        cache.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        final InputStream stored = put(cache, KEY_A, "", "hello");
+        Assert.assertThat(IOUtils.toString(stored, "UTF-8"), is("hello"));
+
+        final HttpClientCacheEntry entry = cache.get(KEY_A, "", ticker);
+        Assert.assertNotNull(entry);
+        Assert.assertThat(entry.getStatusCode(), is(200));
+        Assert.assertThat(entry.getHeader("Cache-Control"), is("max-age=10"));
+        Assert.assertThat(entry.getContentLength(), is(5L));
+        Assert.assertThat(IOUtils.toString(entry.getResponseBodyAsStream(), "UTF-8"), is("hello"));
+        Assert.assertThat(IOUtils.toString(entry.getResponseBodyAsStream(), "UTF-8"), is("hello"));
+        Assert.assertTrue(entry.isFresh(ticker.read()));
+
+        Assert.assertThat(cache.get(KEY_B, "", ticker), is(nullValue()));
+        Assert.assertThat(cache.get(KEY_A, "accept: text/html\n", ticker), is(nullValue()));
+        Assert.assertThat(cache.getEntries(), is(1));
+    }
+
+    @Test
+    public void testVariants() throws Exception
+    {
+        final List<String> vary = ImmutableList.of("accept");
+        cache.put(KEY_A, "accept: text/html\n", vary, response(200), 0, 10000L, stream("html"));
+        cache.put(KEY_A, "accept: text/plain\n", vary, response(200), 0, 10000L, stream("plain"));
+
+        Assert.assertThat(cache.getVaryHeaders(KEY_A), is(vary));
+        Assert.assertThat(IOUtils.toString(cache.get(KEY_A, "accept: text/html\n", ticker).getResponseBodyAsStream(), "UTF-8"), is("html"));
+        Assert.assertThat(IOUtils.toString(cache.get(KEY_A, "accept: text/plain\n", ticker).getResponseBodyAsStream(), "UTF-8"), is("plain"));
+        Assert.assertThat(cache.getEntries(), is(2));
+    }
+
+    @Test
+    public void testSurvivesRestart() throws Exception
+    {
+        put(cache, KEY_A, "", "hello");
+        put(cache, KEY_A, "", "hello again");
+        put(cache, KEY_B, "", "world");
+        cache.close();
+
+        cache = HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+        Assert.assertThat(cache.getEntries(), is(2));
+        Assert.assertThat(IOUtils.toString(cache.get(KEY_A, "", ticker).getResponseBodyAsStream(), "UTF-8"), is("hello again"));
+        Assert.assertThat(IOUtils.toString(cache.get(KEY_B, "", ticker).getResponseBodyAsStream(), "UTF-8"), is("world"));
+    }
+
+    @Test
+    public void testIncompleteRecordIsCutOff() throws Exception
+    {
+        put(cache, KEY_A, "", "hello");
+        put(cache, KEY_B, "", "world");
+        cache.close();
+
+        // Cut the last record in half, as if the process died while writing it.
+        final File segment = new File(directory, "segment-00000001.log");
+        final RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        }
+        finally {
+            file.close();
+        }
+
+        cache = HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+        Assert.assertThat(cache.getEntries(), is(1));
+        Assert.assertThat(IOUtils.toString(cache.get(KEY_A, "", ticker).getResponseBodyAsStream(), "UTF-8"), is("hello"));
+        Assert.assertThat(cache.get(KEY_B, "", ticker), is(nullValue()));
+
+        // Records written after the cut are found after the next restart.
+        put(cache, KEY_B, "", "world");
+        cache.close();
+        cache = HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+        Assert.assertThat(cache.getEntries(), is(2));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception
+    {
+        final String body = Strings.repeat("x", 20000);
+        final InputStream stored = put(cache, KEY_A, "", body);
+        Assert.assertThat(IOUtils.toString(stored, "UTF-8"), is(body));
+        Assert.assertThat(cache.get(KEY_A, "", ticker), is(nullValue()));
+
+        put(cache, KEY_B, "", "world");
+        cache.close();
+        cache = HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+        Assert.assertThat(cache.getEntries(), is(1));
+        Assert.assertNotNull(cache.get(KEY_B, "", ticker));
+    }
+
+    @Test
+    public void testOldestSegmentsAreEvicted() throws Exception
+    {
+        cache.close();
+        cache = HttpClientDiskCache.open(directory, 40 * 1024, 10 * 1024, 16 * 1024);
+
+        final String body = Strings.repeat("x", 8 * 1024);
+        for (int i = 0; i < 10; i++) {
+            put(cache, KEY_A + i, "", body);
+        }
+
+        Assert.assertTrue(cache.getBytes() <= 40 * 1024);
+        Assert.assertThat(cache.get(KEY_A + 0, "", ticker), is(nullValue()));
+        Assert.assertNotNull(cache.get(KEY_A + 9, "", ticker));
+        Assert.assertThat((long) cache.getEntries(), is(10L - cache.getEvictions()));
+    }
+
+    @Test
+    public void testInvalidateSurvivesRestart() throws Exception
+    {
+        put(cache, KEY_A, "", "hello");
+        put(cache, KEY_B, "", "world");
+        cache.invalidate(KEY_A);
+        Assert.assertThat(cache.get(KEY_A, "", ticker), is(nullValue()));
+        Assert.assertThat(cache.getVaryHeaders(KEY_A), is(nullValue()));
+        cache.close();
+
+        cache = HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+        Assert.assertThat(cache.get(KEY_A, "", ticker), is(nullValue()));
+        Assert.assertNotNull(cache.get(KEY_B, "", ticker));
+        Assert.assertThat(cache.getEntries(), is(1));
+    }
+
+    @Test
+    public void testAgeIsKept() throws Exception
+    {
+        cache.put(KEY_A, "", NO_VARY, response(200), 4000L, 10000L, stream("hello"));
+
+        final HttpClientCacheEntry entry = cache.get(KEY_A, "", ticker);
+        Assert.assertTrue(entry.getAgeMillis(ticker.read()) >= 4000L);
+        ticker.advance(6000L);
+        Assert.assertFalse(entry.isFresh(ticker.read()));
+    }
+
+    @Test
+    public void testReadErrorStoresNothing() throws Exception
+    {
+        final InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException
+            {
+                throw new IOException("connection reset");
+            }
+        };
+
+        try {
+            cache.put(KEY_A, "", NO_VARY, response(200), 0, 10000L, failing);
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            Assert.assertThat(ioe.getMessage(), is("connection reset"));
+        }
+        Assert.assertThat(cache.get(KEY_A, "", ticker), is(nullValue()));
+        Assert.assertThat(cache.getBytes(), is(0L));
+    }
+
+    @Test
+    public void testSlowBodyDoesNotBlockWriters() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final InputStream slow = new InputStream() {
+            private final InputStream body = stream("slow");
+
+            @Override
+            public int read() throws IOException
+            {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                return body.read();
+            }
+        };
+
+        put(cache, KEY_B, "", "world");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<InputStream> stored = executor.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() throws IOException
+                {
+                    return cache.put(KEY_A, "", NO_VARY, response(200), 0, 10000L, slow);
+                }
+            });
+
+            // Neither waits for the body of the other response.
+            final long start = System.nanoTime();
+            put(cache, KEY_B, "", "again");
+            cache.invalidate(KEY_B);
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            Assert.assertThat(cache.get(KEY_B, "", ticker), is(nullValue()));
+
+            release.countDown();
+            Assert.assertThat(IOUtils.toString(stored.get(5, TimeUnit.SECONDS), "UTF-8"), is("slow"));
+        }
+        finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        Assert.assertNotNull(cache.get(KEY_A, "", ticker));
+
+        // The spooled body is not left behind.
+        final String [] files = directory.list();
+        Assert.assertNotNull(files);
+        for (final String file : files) {
+            Assert.assertFalse(file.endsWith(".tmp"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDirectoryIsLocked() throws Exception
+    {
+        HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+    }
+
+    private InputStream put(final HttpClientDiskCache diskCache, final String primaryKey, final String variantKey, final String body)
+        throws IOException
+    {
+        return diskCache.put(primaryKey, variantKey, NO_VARY, response(200, "Cache-Control", "max-age=10"), 0, 10000L, stream(body));
+    }
+
+    private static InputStream stream(final String body)
+    {
+        return new ByteArrayInputStream(body.getBytes(Charsets.UTF_8));
+    }
+
+    private static HttpClientResponse response(final int statusCode, final String... headers)
+    {
+        final Map<String, List<String>> headerMap = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) {
+            List<String> values = headerMap.get(headers[i]);
+            if (values == null) {
+                values = Lists.newArrayList();
+                headerMap.put(headers[i], values);
+            }
+            values.add(headers[i + 1]);
+        }
+        return new FakeResponse(statusCode, headerMap);
+    }
+
+    private static class FakeResponse implements HttpClientResponse
+    {
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+
+        FakeResponse(final int statusCode, final Map<String, List<String>> headers)
+        {
+            this.statusCode = statusCode;
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        @Override
+        public String getStatusText()
+        {
+            return "OK";
+        }
+
+        @Override
+        public InputStream getResponseBodyAsStream() throws IOException
+        {
+            return new ByteArrayInputStream(new byte [0]);
+        }
+
+        @Override
+        public URI getUri()
+        {
+            return URI.create(KEY_A);
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return "text/plain";
+        }
+
+        @Override
+        public Long getContentLength()
+        {
+            return null;
+        }
+
+        @Override
+        public String getCharset()
+        {
+            return "UTF-8";
+        }
+
+        @Override
+        public String getHeader(final String name)
+        {
+            final List<String> values = headers.get(name);
+            return (values == null) ? null : values.get(0);
+        }
+
+        @Override
+        public List<String> getHeaders(final String name)
+        {
+            return headers.get(name);
+        }
+
+        @Override
+        public Map<String, List<String>> getAllHeaders()
+        {
+            return headers;
+        }
+
+        @Override
+        public boolean isRedirected()
+        {
+            return false;
+        }
+
+        @Override
+        public HttpClientTimings getTimings()
+        {
+            return null;
+        }
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long nanos = 0;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        void advance(final long millis)
+        {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
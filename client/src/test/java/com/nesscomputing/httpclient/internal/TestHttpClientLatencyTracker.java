@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHttpClientLatencyTracker
+{
+    @Test
+    public void testUnknownWithoutSamples()
+    {
+        final HttpClientLatencyTracker tracker = new HttpClientLatencyTracker(0.95, 100, 10);
+        for (int i = 0; i < 9; i++) {
+            tracker.record(1000L);
+        }
+        Assert.assertThat(tracker.getPercentile(), is(HttpClientLatencyTracker.UNKNOWN));
+
+        tracker.record(1000L);
+        Assert.assertThat(tracker.getPercentile(), is(1000L));
+    }
+
+    @Test
+    public void testPercentile()
+    {
+        final HttpClientLatencyTracker tracker = new HttpClientLatencyTracker(0.95, 100, 10);
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(i);
+        }
+        Assert.assertThat(tracker.getPercentile(), is(95L));
+    }
+
+    @Test
+    public void testOldSamplesAreReplaced()
+    {
+        final HttpClientLatencyTracker tracker = new HttpClientLatencyTracker(0.5, 16, 4);
+        for (int i = 0; i < 16; i++) {
+            tracker.record(1000L);
+        }
+        Assert.assertThat(tracker.getPercentile(), is(1000L));
+
+        // One sample is not enough to compute the percentile again.
+        tracker.record(10L);
+        Assert.assertThat(tracker.getPercentile(), is(1000L));
+
+        for (int i = 0; i < 16; i++) {
+            tracker.record(10L);
+        }
+        Assert.assertThat(tracker.getPercentile(), is(10L));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadPercentile()
+    {
+        new HttpClientLatencyTracker(1.0, 100, 10);
+    }
+}
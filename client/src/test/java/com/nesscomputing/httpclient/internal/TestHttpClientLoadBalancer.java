@@ -0,0 +1,432 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import com.nesscomputing.httpclient.HttpClientBackendStats;
+
+public class TestHttpClientLoadBalancer
+{
+    private final FakeTicker ticker = new FakeTicker();
+    private final RecordingListener listener = new RecordingListener();
+    private final HttpClientLoadBalancer loadBalancer = new HttpClientLoadBalancer(10000L, 3, 3.0, 5, 30000L, 100000L, listener, ticker);
+
+    @Test
+    public void testParseServices()
+    {
+        final Map<String, List<URI>> services = HttpClientLoadBalancer.parseServices(" users = host1:8080, https://host2 ; search=host3");
+
+        Assert.assertThat(services.size(), is(2));
+        Assert.assertThat(services.get("users"), is((List<URI>) ImmutableList.of(URI.create("http://host1:8080"), URI.create("https://host2"))));
+        Assert.assertThat(services.get("search"), is((List<URI>) ImmutableList.of(URI.create("http://host3"))));
+        Assert.assertTrue(HttpClientLoadBalancer.parseServices(null).isEmpty());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testParseServicesWithoutName()
+    {
+        HttpClientLoadBalancer.parseServices("host1:8080");
+    }
+
+    @Test
+    public void testGetService()
+    {
+        Assert.assertThat(HttpClientLoadBalancer.getService(URI.create("svc://users/user/1")), is("users"));
+        Assert.assertNull(HttpClientLoadBalancer.getService(URI.create("http://users/user/1")));
+    }
+
+    @Test
+    public void testRewrite()
+    {
+        loadBalancer.setBackends("users", ImmutableList.of(URI.create("http://host1:8080")));
+        final HttpClientLoadBalancer.Backend backend = loadBalancer.choose("users");
+
+        Assert.assertThat(backend.rewrite(URI.create("svc://users/user/a%20b?q=1%202#top")), is(URI.create("http://host1:8080/user/a%20b?q=1%202#top")));
+        Assert.assertThat(backend.rewrite(URI.create("svc://users")), is(URI.create("http://host1:8080")));
+    }
+
+    @Test
+    public void testUnknownService()
+    {
+        Assert.assertNull(loadBalancer.choose("users"));
+    }
+
+    @Test
+    public void testPrefersFasterBackend()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend fast = loadBalancer.choose("users");
+        request(fast, 100L);
+
+        // A backend without requests is tried next.
+        final HttpClientLoadBalancer.Backend slow = loadBalancer.choose("users");
+        Assert.assertThat(slow == fast, is(false));
+        request(slow, 500L);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertThat(loadBalancer.choose("users"), is(fast));
+        }
+    }
+
+    @Test
+    public void testPrefersLessBusyBackend()
+    {
+        setTwoBackends();
+
+        final HttpClientLoadBalancer.Backend first = loadBalancer.choose("users");
+        first.start();
+
+        final HttpClientLoadBalancer.Backend second = loadBalancer.choose("users");
+        Assert.assertThat(second == first, is(false));
+        second.start();
+        second.start();
+
+        Assert.assertThat(loadBalancer.choose("users"), is(first));
+    }
+
+    @Test
+    public void testSlowBackendDecays()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend fast = loadBalancer.choose("users");
+        request(fast, 100L);
+        final HttpClientLoadBalancer.Backend slow = loadBalancer.choose("users");
+        request(slow, 1000L);
+
+        fast.start();
+        fast.start();
+        Assert.assertThat(loadBalancer.choose("users"), is(fast));
+
+        // Once neither backend has been used for a while, only the outstanding requests count.
+        ticker.advance(600000L);
+
+        Assert.assertThat(loadBalancer.choose("users"), is(slow));
+    }
+
+    @Test
+    public void testStats()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend backend = loadBalancer.choose("users");
+        final long start = backend.start();
+        ticker.advance(200L);
+        backend.complete(start, true);
+        backend.start();
+
+        final HttpClientBackendStats stats = loadBalancer.getBackendStats().get("users").get(backend.getName());
+        Assert.assertThat(stats.getOutstanding(), is(1));
+        Assert.assertThat(stats.getRequests(), is(2L));
+        Assert.assertThat(stats.getFailures(), is(1L));
+        Assert.assertThat(stats.getLatencyMillis(), is(200.0));
+        Assert.assertThat(stats.isEjected(), is(false));
+    }
+
+    @Test
+    public void testReloadKeepsBackends()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend backend = loadBalancer.choose("users");
+        backend.start();
+
+        loadBalancer.setBackends("users", ImmutableList.of(URI.create(backend.getName()), URI.create("http://host3")));
+        Assert.assertThat(loadBalancer.getBackendStats().get("users").keySet(), is((Set<String>) ImmutableSet.of(backend.getName(), "http://host3")));
+        Assert.assertThat(loadBalancer.getBackendStats().get("users").get(backend.getName()).getOutstanding(), is(1));
+
+        loadBalancer.setBackends("users", Collections.<URI>emptyList());
+        Assert.assertNull(loadBalancer.choose("users"));
+        Assert.assertTrue(loadBalancer.getBackendStats().isEmpty());
+    }
+
+    @Test
+    public void testSharedBackends()
+    {
+        setTwoBackends();
+        loadBalancer.setBackends("search", ImmutableList.of(URI.create("http://host2")));
+
+        final HttpClientLoadBalancer.Backend backend = loadBalancer.choose("search");
+        Assert.assertThat(loadBalancer.getBackend("http://host2"), is(backend));
+        Assert.assertNull(loadBalancer.getBackend("http://host3"));
+
+        loadBalancer.setBackends("search", Collections.<URI>emptyList());
+        Assert.assertThat(loadBalancer.getBackend("http://host2"), is(backend));
+
+        loadBalancer.setBackends("users", ImmutableList.of(URI.create("http://host1")));
+        Assert.assertNull(loadBalancer.getBackend("http://host2"));
+    }
+
+    @Test
+    public void testEjectsFailingBackend()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend failing = loadBalancer.getBackend("http://host1");
+        final HttpClientLoadBalancer.Backend healthy = loadBalancer.getBackend("http://host2");
+
+        fail(failing);
+        fail(failing);
+        request(failing, 10L);
+        fail(failing);
+        fail(failing);
+        Assert.assertThat(failing.isEjected(), is(false));
+        fail(failing);
+        Assert.assertThat(failing.isEjected(), is(true));
+        Assert.assertThat(listener.events, is((List<String>) ImmutableList.of("ejected http://host1 for 30000 ms: 3 requests in a row failed")));
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertThat(loadBalancer.choose("users"), is(healthy));
+        }
+        Assert.assertThat(loadBalancer.getBackendStats().get("users").get("http://host1").isEjected(), is(true));
+    }
+
+    @Test
+    public void testProbesEjectedBackend()
+    {
+        loadBalancer.setBackends("users", ImmutableList.of(URI.create("http://host1"), URI.create("http://host2"), URI.create("http://host3")));
+        final HttpClientLoadBalancer.Backend failing = loadBalancer.getBackend("http://host1");
+        for (int i = 0; i < 3; i++) {
+            fail(failing);
+        }
+
+        // A failed probe doubles the ejection time, up to the maximum.
+        ticker.advance(30000L);
+        final HttpClientLoadBalancer.Backend probe = chooseUntil(failing);
+        final long start = probe.start();
+        Assert.assertThat(loadBalancer.choose("users") == failing, is(false));
+        probe.complete(start, true);
+
+        ticker.advance(30000L);
+        Assert.assertThat(failing.isEjected(), is(true));
+        ticker.advance(30000L);
+        fail(chooseUntil(failing));
+        ticker.advance(100000L);
+        fail(chooseUntil(failing));
+
+        ticker.advance(100000L);
+        request(chooseUntil(failing), 10L);
+        Assert.assertThat(failing.isEjected(), is(false));
+
+        Assert.assertThat(listener.events, is((List<String>) ImmutableList.of(
+            "ejected http://host1 for 30000 ms: 3 requests in a row failed",
+            "ejected http://host1 for 60000 ms: probe request failed",
+            "ejected http://host1 for 100000 ms: probe request failed",
+            "ejected http://host1 for 100000 ms: probe request failed",
+            "readmitted http://host1")));
+    }
+
+    @Test
+    public void testIgnoresRequestsSentBeforeEjection()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend failing = loadBalancer.getBackend("http://host1");
+        final long start = failing.start();
+        for (int i = 0; i < 3; i++) {
+            fail(failing);
+        }
+
+        failing.complete(start, false);
+        Assert.assertThat(failing.isEjected(), is(true));
+    }
+
+    @Test
+    public void testEjectsSlowBackend()
+    {
+        loadBalancer.setBackends("users", ImmutableList.of(URI.create("http://host1"), URI.create("http://host2"), URI.create("http://host3")));
+        final HttpClientLoadBalancer.Backend slow = loadBalancer.getBackend("http://host1");
+
+        for (int i = 0; i < 5; i++) {
+            request(slow, 400L);
+            request(loadBalancer.getBackend("http://host2"), 100L);
+            request(loadBalancer.getBackend("http://host3"), 120L);
+        }
+        ticker.advance(1000L);
+        loadBalancer.choose("users");
+        Assert.assertThat(slow.isEjected(), is(true));
+        Assert.assertThat(listener.events.size(), is(1));
+        Assert.assertTrue(listener.events.get(0).startsWith("ejected http://host1 for 30000 ms: average latency of"));
+    }
+
+    @Test
+    public void testEjectsAtMostHalfForLatency()
+    {
+        setTwoBackends();
+        for (int i = 0; i < 5; i++) {
+            request(loadBalancer.getBackend("http://host1"), 400L);
+            request(loadBalancer.getBackend("http://host2"), 100L);
+        }
+        ticker.advance(1000L);
+        loadBalancer.choose("users");
+        Assert.assertThat(loadBalancer.getBackend("http://host1").isEjected(), is(true));
+
+        // Once one of two backends is out, latency does not eject the other one.
+        for (int i = 0; i < 5; i++) {
+            request(loadBalancer.getBackend("http://host2"), 1000L);
+        }
+        ticker.advance(1000L);
+        loadBalancer.choose("users");
+        Assert.assertThat(loadBalancer.getBackend("http://host2").isEjected(), is(false));
+    }
+
+    @Test
+    public void testUsesEjectedBackendsIfAllAreEjected()
+    {
+        setTwoBackends();
+        for (int i = 0; i < 3; i++) {
+            fail(loadBalancer.getBackend("http://host1"));
+            fail(loadBalancer.getBackend("http://host2"));
+        }
+        Assert.assertNotNull(loadBalancer.choose("users"));
+    }
+
+    @Test
+    public void testEjectsPlainRoute()
+    {
+        final HttpClientLoadBalancer.Backend plain = loadBalancer.getRouteBackend("http://host3");
+        Assert.assertThat(loadBalancer.getRouteBackend("http://host3"), is(plain));
+
+        for (int i = 0; i < 3; i++) {
+            fail(plain);
+        }
+        Assert.assertThat(plain.isEjected(), is(true));
+
+        ticker.advance(30000L);
+        request(plain, 10L);
+        Assert.assertThat(plain.isEjected(), is(false));
+        Assert.assertThat(listener.events, is((List<String>) ImmutableList.of(
+            "ejected http://host3 for 30000 ms: 3 requests in a row failed",
+            "readmitted http://host3")));
+    }
+
+    @Test
+    public void testPlainRouteSurvivesServiceReload()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend backend = loadBalancer.getRouteBackend("http://host2");
+        Assert.assertThat(backend, is(loadBalancer.getBackend("http://host2")));
+
+        loadBalancer.setBackends("users", ImmutableList.of(URI.create("http://host1")));
+        Assert.assertThat(loadBalancer.getRouteBackend("http://host2"), is(backend));
+    }
+
+    @Test
+    public void testIdlePlainRoutesAreForgotten()
+    {
+        setTwoBackends();
+        final HttpClientLoadBalancer.Backend idle = loadBalancer.getRouteBackend("http://host3");
+        request(idle, 10L);
+        final HttpClientLoadBalancer.Backend ejected = loadBalancer.getRouteBackend("http://host4");
+        final HttpClientLoadBalancer.Backend listed = loadBalancer.getRouteBackend("http://host2");
+        request(listed, 10L);
+        for (int i = 0; i < 3; i++) {
+            fail(ejected);
+        }
+        // Failed probes make the ejection outlast the idle time.
+        ticker.advance(30000L);
+        fail(ejected);
+        ticker.advance(60000L);
+        fail(ejected);
+
+        ticker.advance(TimeUnit.NANOSECONDS.toMillis(HttpClientLoadBalancer.ROUTE_IDLE_NANOS));
+        loadBalancer.getRouteBackend("http://host5");
+
+        Assert.assertNull(loadBalancer.getBackend("http://host3"));
+        Assert.assertThat(loadBalancer.getBackend("http://host4"), is(ejected));
+        Assert.assertThat(loadBalancer.getBackend("http://host2"), is(listed));
+        Assert.assertNotNull(loadBalancer.getBackend("http://host5"));
+    }
+
+    @Test
+    public void testNoPlainRoutesWithoutDetection()
+    {
+        final HttpClientLoadBalancer withoutDetection = new HttpClientLoadBalancer(10000L, 0, 0.0, 5, 30000L, 100000L, listener, ticker);
+        Assert.assertNull(withoutDetection.getRouteBackend("http://host3"));
+    }
+
+    private HttpClientLoadBalancer.Backend chooseUntil(final HttpClientLoadBalancer.Backend backend)
+    {
+        for (int i = 0; i < 1000; i++) {
+            if (loadBalancer.choose("users") == backend) {
+                return backend;
+            }
+        }
+        Assert.fail("Backend " + backend + " was never chosen");
+        return null;
+    }
+
+    private void fail(final HttpClientLoadBalancer.Backend backend)
+    {
+        backend.complete(backend.start(), true);
+    }
+
+    private void setTwoBackends()
+    {
+        loadBalancer.setBackends("users", ImmutableList.of(URI.create("http://host1"), URI.create("http://host2")));
+    }
+
+    private void request(final HttpClientLoadBalancer.Backend backend, final long millis)
+    {
+        final long start = backend.start();
+        ticker.advance(millis);
+        backend.complete(start, false);
+    }
+
+    private static class RecordingListener implements HttpClientLoadBalancer.Listener
+    {
+        private final List<String> events = Lists.newArrayList();
+
+        @Override
+        public void onEjected(final HttpClientLoadBalancer.Backend backend, final long ejectionMillis, final String reason)
+        {
+            events.add(String.format("ejected %s for %d ms: %s", backend, ejectionMillis, reason));
+        }
+
+        @Override
+        public void onReadmitted(final HttpClientLoadBalancer.Backend backend)
+        {
+            events.add("readmitted " + backend);
+        }
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long nanos = 0;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        private void advance(final long millis)
+        {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+
+public class TestHttpClientNegativeCache
+{
+    private static final String URI_A = "http://localhost/a";
+    private static final String URI_B = "http://localhost/b";
+    private static final String URI_C = "http://localhost/c";
+
+    private final HttpClient httpClient = new HttpClient();
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+    private final FakeTicker ticker = new FakeTicker();
+    private final HttpClientNegativeCache cache = new HttpClientNegativeCache(10000L, 2, false, ticker);
+
+    @Test
+    public void testNotFoundIsKeptForTtl() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+
+        cache.put(request, response(404), new byte [0]);
+        final HttpClientCacheEntry entry = cache.get(request);
+        Assert.assertNotNull(entry);
+        Assert.assertThat(entry.getStatusCode(), is(404));
+
+        ticker.advance(10000L);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+
+        Assert.assertThat(cache.getStats().getHits(), is(1L));
+        Assert.assertThat(cache.getStats().getMisses(), is(2L));
+        Assert.assertThat(cache.getStats().getEntries(), is(0));
+    }
+
+    @Test
+    public void testOnlyNotFoundIsKept() throws Exception
+    {
+        Assert.assertFalse(cache.isStorable(get(URI_A), response(200)));
+        Assert.assertFalse(cache.isStorable(get(URI_A), response(410)));
+        Assert.assertFalse(cache.isStorable(get(URI_A), response(404, "Cache-Control", "no-store")));
+        Assert.assertFalse(cache.isStorable(get(URI_A), response(404, "Vary", "Accept")));
+        Assert.assertFalse(cache.isStorable(httpClient.get(URI_A, responseHandler).addBasicAuth("user", "pass").request(), response(404)));
+        Assert.assertFalse(cache.isStorable(httpClient.put(URI_A, responseHandler).request(), response(404)));
+        Assert.assertTrue(cache.isStorable(get(URI_A), response(404)));
+
+        final HttpClientNegativeCache goneCache = new HttpClientNegativeCache(10000L, 2, true, ticker);
+        Assert.assertTrue(goneCache.isStorable(get(URI_A), response(410)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception
+    {
+        cache.put(get(URI_A), response(404), new byte [0]);
+        cache.put(get(URI_B), response(404), new byte [0]);
+        Assert.assertNotNull(cache.get(get(URI_A)));
+
+        cache.put(get(URI_C), response(404), new byte [0]);
+        Assert.assertNotNull(cache.get(get(URI_A)));
+        Assert.assertThat(cache.get(get(URI_B)), is(nullValue()));
+        Assert.assertThat(cache.getStats().getEvictions(), is(1L));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        cache.put(get(URI_A), response(404), new byte [0]);
+        cache.invalidate(httpClient.put(URI_A, responseHandler).request());
+        Assert.assertThat(cache.get(get(URI_A)), is(nullValue()));
+    }
+
+    @Test
+    public void testRequestNoCache() throws Exception
+    {
+        cache.put(get(URI_A), response(404), new byte [0]);
+        Assert.assertThat(cache.get(httpClient.get(URI_A, responseHandler).addHeader("Cache-Control", "no-cache").request()), is(nullValue()));
+        Assert.assertThat(cache.getStats().getHitRate(), is(0.0));
+        Assert.assertNotNull(cache.get(get(URI_A)));
+        Assert.assertThat(cache.getStats().getHitRate(), is(0.5));
+    }
+
+    private HttpClientRequest<String> get(final String uri)
+    {
+        return httpClient.get(uri, responseHandler).request();
+    }
+
+    private static HttpClientResponse response(final int statusCode, final String... headers)
+    {
+        final Map<String, List<String>> headerMap = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) {
+            List<String> values = headerMap.get(headers[i]);
+            if (values == null) {
+                values = Lists.newArrayList();
+                headerMap.put(headers[i], values);
+            }
+            values.add(headers[i + 1]);
+        }
+        return new FakeResponse(statusCode, headerMap);
+    }
+
+    private static class FakeResponse implements HttpClientResponse
+    {
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+
+        FakeResponse(final int statusCode, final Map<String, List<String>> headers)
+        {
+            this.statusCode = statusCode;
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        @Override
+        public String getStatusText()
+        {
+            return "";
+        }
+
+        @Override
+        public InputStream getResponseBodyAsStream() throws IOException
+        {
+            return new ByteArrayInputStream(new byte [0]);
+        }
+
+        @Override
+        public URI getUri()
+        {
+            return URI.create(URI_A);
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return "text/plain";
+        }
+
+        @Override
+        public Long getContentLength()
+        {
+            return null;
+        }
+
+        @Override
+        public String getCharset()
+        {
+            return "UTF-8";
+        }
+
+        @Override
+        public String getHeader(final String name)
+        {
+            final List<String> values = headers.get(name);
+            return (values == null) ? null : values.get(0);
+        }
+
+        @Override
+        public List<String> getHeaders(final String name)
+        {
+            return headers.get(name);
+        }
+
+        @Override
+        public Map<String, List<String>> getAllHeaders()
+        {
+            return headers;
+        }
+
+        @Override
+        public boolean isRedirected()
+        {
+            return false;
+        }
+
+        @Override
+        public HttpClientTimings getTimings()
+        {
+            return null;
+        }
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long nanos = 0;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        void advance(final long millis)
+        {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+
+public class TestHttpClientResponseCache
+{
+    private static final String URI_A = "http://localhost/a";
+    private static final String URI_B = "http://localhost/b";
+
+    private final HttpClient httpClient = new HttpClient();
+    private final ContentResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+    private final FakeTicker ticker = new FakeTicker();
+    private final HttpClientResponseCache cache = new HttpClientResponseCache(1024 * 1024, ticker);
+
+    @Test
+    public void testFreshAndStale() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+
+        Assert.assertNotNull(cache.put(request, response(200, "Cache-Control", "max-age=10"), body("hello")));
+
+        final HttpClientCacheEntry entry = cache.get(request);
+        Assert.assertNotNull(entry);
+        Assert.assertThat(IOUtils.toString(entry.getResponseBodyAsStream(), "UTF-8"), is("hello"));
+        Assert.assertThat(responseHandler.handle(entry), is("hello"));
+
+        ticker.advance(10000L);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+
+        Assert.assertThat(cache.getStats().getHits(), is(1L));
+        Assert.assertThat(cache.getStats().getMisses(), is(2L));
+    }
+
+    @Test
+    public void testAgeCountsAgainstFreshness() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        cache.put(request, response(200, "Cache-Control", "max-age=10", "Age", "8"), body("hello"));
+
+        ticker.advance(1000L);
+        Assert.assertNotNull(cache.get(request));
+        ticker.advance(1000L);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+    }
+
+    @Test
+    public void testSharedMaxAgeWins() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        cache.put(request, response(200, "Cache-Control", "max-age=100, s-maxage=5"), body("hello"));
+
+        ticker.advance(6000L);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+    }
+
+    @Test
+    public void testNotStored() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        Assert.assertThat(cache.put(request, response(200, "Cache-Control", "no-store, max-age=10"), body("x")), is(nullValue()));
+        Assert.assertThat(cache.put(request, response(200, "Cache-Control", "private, max-age=10"), body("x")), is(nullValue()));
+        Assert.assertThat(cache.put(request, response(200), body("x")), is(nullValue()));
+        Assert.assertThat(cache.put(request, response(500, "Cache-Control", "max-age=10"), body("x")), is(nullValue()));
+        Assert.assertThat(cache.put(request, response(200, "Cache-Control", "max-age=10", "Vary", "*"), body("x")), is(nullValue()));
+        Assert.assertThat(cache.put(httpClient.get(URI_A, responseHandler).addHeader("Cache-Control", "no-store").request(),
+                                    response(200, "Cache-Control", "max-age=10"), body("x")), is(nullValue()));
+        Assert.assertThat(cache.getStats().getEntries(), is(0));
+    }
+
+    @Test
+    public void testAuthorizedRequests() throws Exception
+    {
+        final HttpClientRequest<String> request = httpClient.get(URI_A, responseHandler).addBasicAuth("user", "pass").request();
+        Assert.assertThat(cache.put(request, response(200, "Cache-Control", "max-age=10"), body("x")), is(nullValue()));
+        Assert.assertNotNull(cache.put(request, response(200, "Cache-Control", "public, max-age=10"), body("x")));
+    }
+
+    @Test
+    public void testRequestNoCache() throws Exception
+    {
+        cache.put(get(URI_A), response(200, "Cache-Control", "max-age=10"), body("hello"));
+
+        Assert.assertThat(cache.get(httpClient.get(URI_A, responseHandler).addHeader("Cache-Control", "no-cache").request()), is(nullValue()));
+        Assert.assertThat(cache.get(httpClient.get(URI_A, responseHandler).addHeader("Pragma", "no-cache").request()), is(nullValue()));
+        Assert.assertNotNull(cache.get(httpClient.get(URI_A, responseHandler).addHeader("Cache-Control", "max-age=20").request()));
+
+        ticker.advance(5000L);
+        Assert.assertThat(cache.get(httpClient.get(URI_A, responseHandler).addHeader("Cache-Control", "max-age=2").request()), is(nullValue()));
+    }
+
+    @Test
+    public void testVary() throws Exception
+    {
+        final HttpClientRequest<String> json = httpClient.get(URI_A, responseHandler).addHeader("Accept", "application/json").request();
+        final HttpClientRequest<String> xml = httpClient.get(URI_A, responseHandler).addHeader("Accept", "text/xml").request();
+
+        cache.put(json, response(200, "Cache-Control", "max-age=10", "Vary", "Accept"), body("{}"));
+        Assert.assertThat(cache.get(xml), is(nullValue()));
+
+        cache.put(xml, response(200, "Cache-Control", "max-age=10", "Vary", "Accept"), body("<x/>"));
+        Assert.assertThat(responseHandler.handle(cache.get(json)), is("{}"));
+        Assert.assertThat(responseHandler.handle(cache.get(xml)), is("<x/>"));
+        Assert.assertThat(cache.getStats().getEntries(), is(2));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        cache.put(get(URI_A), response(200, "Cache-Control", "max-age=10"), body("hello"));
+        cache.invalidate(httpClient.post(URI_A, responseHandler).request());
+
+        Assert.assertThat(cache.get(get(URI_A)), is(nullValue()));
+        Assert.assertThat(cache.getStats().getEntries(), is(0));
+        Assert.assertThat(cache.getStats().getBytes(), is(0L));
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception
+    {
+        final HttpClientResponseCache smallCache = new HttpClientResponseCache(64 * 1024, ticker);
+        for (int i = 0; i < 100; i++) {
+            smallCache.put(get(URI_A + i), response(200, "Cache-Control", "max-age=10"), new byte [4000]);
+        }
+        Assert.assertTrue(smallCache.getStats().getBytes() <= 64 * 1024);
+        Assert.assertThat(smallCache.getStats().getEntries() + smallCache.getStats().getEvictions(), is(100L));
+        Assert.assertTrue(smallCache.getStats().getEvictions() > 80);
+    }
+
+    @Test
+    public void testPopularEntriesSurviveScans() throws Exception
+    {
+        final HttpClientResponseCache smallCache = new HttpClientResponseCache(64 * 1024, ticker);
+        final HttpClientRequest<String> popular = get(URI_B);
+        for (int i = 0; i < 10; i++) {
+            smallCache.get(popular);
+        }
+        smallCache.put(popular, response(200, "Cache-Control", "max-age=100"), new byte [4000]);
+
+        // Many entries that are only asked for once do not push the popular entry out.
+        for (int i = 0; i < 200; i++) {
+            final HttpClientRequest<String> request = get(URI_A + i);
+            smallCache.get(request);
+            smallCache.put(request, response(200, "Cache-Control", "max-age=100"), new byte [4000]);
+        }
+        Assert.assertNotNull(smallCache.get(popular));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception
+    {
+        final HttpClientResponseCache smallCache = new HttpClientResponseCache(4096, ticker);
+        Assert.assertThat(smallCache.put(get(URI_A), response(200, "Cache-Control", "max-age=10"), new byte [8192]), is(nullValue()));
+    }
+
+    @Test
+    public void testResponsesWithValidatorsAreKept() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        Assert.assertNotNull(cache.put(request, response(200, "ETag", "\"v1\""), body("hello")));
+        Assert.assertThat(cache.get(request), is(nullValue()));
+
+        final HttpClientCacheEntry stale = cache.getForRevalidation(request);
+        Assert.assertNotNull(stale);
+        Assert.assertThat(stale.getHeader("ETag"), is("\"v1\""));
+        Assert.assertThat(cache.getForRevalidation(get(URI_B)), is(nullValue()));
+
+        final HttpClientResponseCache noRevalidation = new HttpClientResponseCache(1024 * 1024, null, false, ticker);
+        Assert.assertThat(noRevalidation.put(request, response(200, "ETag", "\"v1\""), body("hello")), is(nullValue()));
+    }
+
+    @Test
+    public void testRevalidated() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        cache.put(request, response(200, "Cache-Control", "max-age=10", "ETag", "\"v1\"", "X-Version", "1"), body("hello"));
+        ticker.advance(20000L);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+
+        final HttpClientCacheEntry stale = cache.getForRevalidation(request);
+        final HttpClientCacheEntry entry = cache.revalidated(request, stale,
+                                                             response(304, "Cache-Control", "max-age=30", "X-Version", "2", "Content-Length", "0"));
+        Assert.assertThat(entry.getStatusCode(), is(200));
+        Assert.assertThat(entry.getHeader("ETag"), is("\"v1\""));
+        Assert.assertThat(entry.getHeader("X-Version"), is("2"));
+        Assert.assertThat(entry.getContentLength(), is(5L));
+        Assert.assertThat(responseHandler.handle(entry), is("hello"));
+
+        ticker.advance(20000L);
+        Assert.assertThat(cache.get(request), is(entry));
+
+        Assert.assertThat(cache.getStats().getRevalidations(), is(1L));
+        Assert.assertThat(cache.getStats().getBytesSaved(), is(5L));
+    }
+
+    @Test
+    public void testRevalidatedOnDisk() throws Exception
+    {
+        final File directory = Files.createTempDir();
+        final HttpClientDiskCache diskCache = HttpClientDiskCache.open(directory, 1024 * 1024, 64 * 1024, 16 * 1024);
+        final HttpClientResponseCache diskBacked = new HttpClientResponseCache(1024 * 1024, diskCache, true, ticker);
+        try {
+            final HttpClientRequest<String> request = get(URI_A);
+            final InputStream stored = diskBacked.storeOnDisk(request, response(200, "Cache-Control", "max-age=10", "ETag", "\"v1\""),
+                                                              new ByteArrayInputStream(body("hello")));
+            Assert.assertThat(IOUtils.toString(stored, "UTF-8"), is("hello"));
+            final long diskBytes = diskCache.getBytes();
+            ticker.advance(20000L);
+
+            final HttpClientCacheEntry stale = diskBacked.getForRevalidation(request);
+            final HttpClientCacheEntry entry = diskBacked.revalidated(request, stale, response(304, "Cache-Control", "max-age=30"));
+            Assert.assertThat(responseHandler.handle(entry), is("hello"));
+
+            // The body is not written again, the new headers are kept in memory.
+            Assert.assertThat(diskCache.getBytes(), is(diskBytes));
+            Assert.assertThat(diskBacked.get(request), is(entry));
+            Assert.assertThat(diskBacked.getStats().getBytesSaved(), is(5L));
+        }
+        finally {
+            diskBacked.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testStale() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        cache.put(request, response(200, "Cache-Control", "max-age=10"), body("hello"));
+        Assert.assertThat(cache.getStale(request, 5000L), is(nullValue()));
+
+        ticker.advance(12000L);
+        Assert.assertThat(cache.get(request), is(nullValue()));
+        Assert.assertThat(cache.getStalenessMillis(cache.getStale(request, 5000L)), is(2000L));
+        Assert.assertThat(cache.getStale(request, 0L), is(nullValue()));
+        Assert.assertThat(cache.getStale(httpClient.get(URI_A, responseHandler).addHeader("Cache-Control", "no-cache").request(), 5000L), is(nullValue()));
+
+        ticker.advance(4000L);
+        Assert.assertThat(cache.getStale(request, 5000L), is(nullValue()));
+    }
+
+    @Test
+    public void testMustRevalidateIsNeverStale() throws Exception
+    {
+        final HttpClientRequest<String> request = get(URI_A);
+        cache.put(request, response(200, "Cache-Control", "max-age=10, must-revalidate"), body("hello"));
+        ticker.advance(12000L);
+        Assert.assertThat(cache.getStale(request, 5000L), is(nullValue()));
+    }
+
+    @Test
+    public void testOneRefreshPerUri() throws Exception
+    {
+        Assert.assertTrue(cache.startRefresh(get(URI_A)));
+        Assert.assertFalse(cache.startRefresh(get(URI_A)));
+        Assert.assertTrue(cache.startRefresh(get(URI_B)));
+
+        cache.finishRefresh(get(URI_A));
+        Assert.assertTrue(cache.startRefresh(get(URI_A)));
+    }
+
+    private HttpClientRequest<String> get(final String uri)
+    {
+        return httpClient.get(uri, responseHandler).request();
+    }
+
+    private static byte [] body(final String body)
+    {
+        return body.getBytes(Charsets.UTF_8);
+    }
+
+    private static HttpClientResponse response(final int statusCode, final String... headers)
+    {
+        final Map<String, List<String>> headerMap = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) {
+            List<String> values = headerMap.get(headers[i]);
+            if (values == null) {
+                values = Lists.newArrayList();
+                headerMap.put(headers[i], values);
+            }
+            values.add(headers[i + 1]);
+        }
+        return new FakeResponse(statusCode, headerMap);
+    }
+
+    private static class FakeResponse implements HttpClientResponse
+    {
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+
+        FakeResponse(final int statusCode, final Map<String, List<String>> headers)
+        {
+            this.statusCode = statusCode;
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        @Override
+        public String getStatusText()
+        {
+            return "";
+        }
+
+        @Override
+        public InputStream getResponseBodyAsStream() throws IOException
+        {
+            return new ByteArrayInputStream(new byte [0]);
+        }
+
+        @Override
+        public URI getUri()
+        {
+            return URI.create(URI_A);
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return "text/plain";
+        }
+
+        @Override
+        public Long getContentLength()
+        {
+            return null;
+        }
+
+        @Override
+        public String getCharset()
+        {
+            return "UTF-8";
+        }
+
+        @Override
+        public String getHeader(final String name)
+        {
+            final List<String> values = headers.get(name);
+            return (values == null) ? null : values.get(0);
+        }
+
+        @Override
+        public List<String> getHeaders(final String name)
+        {
+            return headers.get(name);
+        }
+
+        @Override
+        public Map<String, List<String>> getAllHeaders()
+        {
+            return headers;
+        }
+
+        @Override
+        public boolean isRedirected()
+        {
+            return false;
+        }
+
+        @Override
+        public HttpClientTimings getTimings()
+        {
+            return null;
+        }
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long nanos = 0;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        void advance(final long millis)
+        {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
 
 public class FixedResponseGenerator implements ResponseGenerator<String>
 {
@@ -180,6 +181,12 @@ public class FixedResponseGenerator implements ResponseGenerator<String>
             {
                 return redirected;
             }
+
+            @Override
+            public HttpClientTimings getTimings()
+            {
+                return null;
+            }
         };
     }
 }
@@ -42,6 +42,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientTimings;
 
 /**
  * An all-purpose {@link ResponseGenerator} which supports converting JAX-RS {@link Response}
@@ -179,6 +180,11 @@ public class JaxRsResponseHttpResponseGenerator implements ResponseGenerator<Obj
             public boolean isRedirected() {
                 return false;
             }
+
+            @Override
+            public HttpClientTimings getTimings() {
+                return null;
+            }
         };
     }
 
@@ -16,9 +16,15 @@
 package com.nesscomputing.httpclient.testing;
 
 
+import java.util.Map;
+
 import javax.annotation.concurrent.Immutable;
 
+import com.google.common.collect.ImmutableMap;
+
 import com.nesscomputing.httpclient.HttpClientConnectionContext;
+import com.nesscomputing.httpclient.HttpClientPoolStats;
+import com.nesscomputing.httpclient.HttpClientRetryPolicy;
 
 /**
  * Simple {@link HttpClientConnectionContext} which does nothing at all, since the tester
@@ -46,4 +52,14 @@ class TestingHttpClientConnectionContext implements HttpClientConnectionContext
     public void setUserAgent(String userAgent) { }
     @Override
     public void setRetries(int retries) { }
+    @Override
+    public void setRetryPolicy(HttpClientRetryPolicy retryPolicy) { }
+    @Override
+    public void setRetryBudget(double retryBudget) { }
+    @Override
+    public void setAsyncThreads(int asyncThreads) { }
+    @Override
+    public HttpClientPoolStats getPoolStats() { return null; }
+    @Override
+    public Map<String, HttpClientPoolStats> getRoutePoolStats() { return ImmutableMap.of(); }
 }
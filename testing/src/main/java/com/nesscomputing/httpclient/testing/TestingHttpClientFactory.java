@@ -30,6 +30,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.nesscomputing.httpclient.HttpClient;
 import com.nesscomputing.httpclient.HttpClientConnectionContext;
 import com.nesscomputing.httpclient.HttpClientRequest;
@@ -91,6 +93,21 @@ class TestingHttpClientFactory implements HttpClientFactory {
         return request.getHttpHandler().handle(responseGenerator.respondTo(request));
     }
 
+    /**
+     * Runs the request on the calling thread and returns an already completed future, so
+     * tests of asynchronous code do not have to deal with any threading.
+     */
+    @Override
+    public <T> ListenableFuture<T> performRequestAsync(HttpClientRequest<T> request) {
+        try {
+            return Futures.immediateFuture(performRequest(request));
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
     private String getHeader(HttpClientRequest<?> request, final String header) {
         Collection<HttpClientHeader> candidates = Collections2.filter(request.getHeaders(), new Predicate<HttpClientHeader>() {
             @Override
@@ -30,6 +30,7 @@ import java.net.URI;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -42,6 +43,7 @@ import org.codehaus.jackson.type.TypeReference;
 import org.junit.Test;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.nesscomputing.httpclient.HttpClient;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponse;
@@ -134,6 +136,28 @@ public class TestingHttpClientBuilderTest {
         assertTrue("should throw", thrown);
     }
 
+    @Test
+    public void testAsyncResponse() throws Exception {
+        TestingHttpClientBuilder builder = new TestingHttpClientBuilder();
+        builder.on(GET).of("/foo").respondWith(Response.ok("bar"));
+        builder.on(GET).of("/exception").respondWith(new IOException("danger"));
+        HttpClient httpClient = builder.build();
+
+        ListenableFuture<HttpClientResponse> future = httpClient.get("/foo", handler).performAsync();
+        assertTrue(future.isDone());
+        assertEquals("bar", IOUtils.toString(future.get().getResponseBodyAsStream(), "UTF-8"));
+
+        future = httpClient.get("/exception", handler).performAsync();
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("should throw");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("danger", e.getCause().getMessage());
+        }
+    }
+
     @Test
     public void testCustomMatcherAndGenerator() throws Exception {
         TestingHttpClientBuilder builder = new TestingHttpClientBuilder();